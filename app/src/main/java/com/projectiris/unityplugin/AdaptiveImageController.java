@@ -0,0 +1,231 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// Picks JPEG quality, image resolution and frame interval from what the uplink can carry.
+// Every frame handed to the WebSocket is reported with the bytes still queued on the socket;
+// from that the controller estimates drain throughput. Before each image it chooses the best
+// level whose expected size drains within maxImageAirtimeMillis, so an image can only hold the
+// audio queued behind it back for about that long. When the queue is already backed up the
+// image is skipped and the level drops. Levels are climbed one at a time after clean decisions,
+// which also probes for recovered bandwidth while the link is idle.
+// Every decision is reported to the MetricsListener.
+public class AdaptiveImageController {
+
+    // One rung of the quality ladder
+    public static final class Level {
+        public final int jpegQuality;
+        public final int maxDimension;
+        public final float intervalFactor;  // multiplier for the capture interval
+
+        public Level(int jpegQuality, int maxDimension, float intervalFactor) {
+            this.jpegQuality = jpegQuality;
+            this.maxDimension = maxDimension;
+            this.intervalFactor = intervalFactor;
+        }
+
+        // Rough size of a 4:3 JPEG at this level, until real frames have been measured
+        int estimatedBytes() {
+            double pixels = (double) maxDimension * maxDimension * 0.75;
+            double bitsPerPixel = 0.5 + 1.5 * jpegQuality / 100.0;
+            return (int) (pixels * bitsPerPixel / 8);
+        }
+    }
+
+    public static final Level[] DEFAULT_LEVELS = {
+            new Level(70, 1024, 1f),
+            new Level(60, 800, 1f),
+            new Level(50, 640, 1.5f),
+            new Level(40, 480, 2f),
+            new Level(30, 320, 3f),
+    };
+
+    public enum Action {
+        SEND,
+        SKIP
+    }
+
+    public static final class Decision {
+        public final long timeMillis;
+        public final Action action;
+        public final int levelIndex;
+        public final Level level;
+        public final long throughputBytesPerSecond;
+        public final long queuedBytes;
+        public final long queueDelayMillis;
+        public final String reason;
+
+        Decision(long timeMillis, Action action, int levelIndex, Level level, long throughputBytesPerSecond,
+                 long queuedBytes, long queueDelayMillis, String reason) {
+            this.timeMillis = timeMillis;
+            this.action = action;
+            this.levelIndex = levelIndex;
+            this.level = level;
+            this.throughputBytesPerSecond = throughputBytesPerSecond;
+            this.queuedBytes = queuedBytes;
+            this.queueDelayMillis = queueDelayMillis;
+            this.reason = reason;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"action\":\"%s\",\"level\":%d,\"jpegQuality\":%d,\"maxDimension\":%d,\"intervalFactor\":%.1f,"
+                            + "\"throughputBps\":%d,\"queuedBytes\":%d,\"queueDelayMs\":%d,\"reason\":\"%s\"}",
+                    action, levelIndex, level.jpegQuality, level.maxDimension, level.intervalFactor,
+                    throughputBytesPerSecond, queuedBytes, queueDelayMillis, reason);
+        }
+    }
+
+    public interface MetricsListener {
+        void onDecision(Decision decision);
+    }
+
+    private static final double INITIAL_THROUGHPUT = 1_000_000;  // bytes per second, optimistic start
+    private static final double MIN_THROUGHPUT = 8_000;
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+    private static final double SIZE_SMOOTHING = 0.3;
+    private static final long MIN_SAMPLE_MILLIS = 100;
+    private static final int CLEAN_DECISIONS_TO_CLIMB = 3;
+
+    private final Level[] levels;
+    private final long maxImageAirtimeMillis;
+    private final long maxQueueDelayMillis;
+    private final MetricsListener listener;
+
+    private final double[] imageBytes;
+    private double throughput = INITIAL_THROUGHPUT;
+    private boolean throughputMeasured = false;  // saturated sample since the last decision
+    private int levelIndex = 0;
+    private int cleanDecisions = 0;
+
+    private long bytesSent = 0;
+    private long sampleTimeMillis = -1;
+    private long sampleDrained = 0;
+    private long sampleQueued = 0;
+    private Decision lastDecision;
+
+    public AdaptiveImageController(Level[] levels, long maxImageAirtimeMillis, long maxQueueDelayMillis,
+                                   MetricsListener listener) {
+        this.levels = levels;
+        this.maxImageAirtimeMillis = maxImageAirtimeMillis;
+        this.maxQueueDelayMillis = maxQueueDelayMillis;
+        this.listener = listener;
+        this.imageBytes = new double[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            imageBytes[i] = levels[i].estimatedBytes();
+        }
+    }
+
+    // A frame of frameBytes was handed to the socket, queuedBytes are waiting on it now (including this frame)
+    public synchronized void onFrameSent(long nowMillis, int frameBytes, long queuedBytes) {
+        bytesSent += frameBytes;
+        // The frame itself does not show a backlog, only what was still waiting in front of it
+        sample(nowMillis, queuedBytes, queuedBytes - frameBytes);
+    }
+
+    // An image was sent at the given level, its size refines the estimate for that level
+    public synchronized void onImageSent(int level, int bytes) {
+        imageBytes[level] += (bytes - imageBytes[level]) * SIZE_SMOOTHING;
+    }
+
+    // Called before capturing or encoding an image
+    public Decision decide(long nowMillis, long queuedBytes) {
+        Decision decision;
+        synchronized (this) {
+            sample(nowMillis, queuedBytes, queuedBytes);
+            long queueDelay = (long) (queuedBytes * 1000 / throughput);
+
+            if (queueDelay > maxQueueDelayMillis) {
+                cleanDecisions = 0;
+                levelIndex = Math.min(levels.length - 1, levelIndex + 1);
+                decision = newDecision(nowMillis, Action.SKIP, queuedBytes, queueDelay, "queue backed up");
+            } else {
+                // Best level whose image fits the airtime budget at the current throughput
+                int target = levels.length - 1;
+                for (int i = 0; i < levels.length; i++) {
+                    if (imageBytes[i] * 1000 / throughput <= maxImageAirtimeMillis) {
+                        target = i;
+                        break;
+                    }
+                }
+
+                // Only a measurement taken while the link was saturated can push the level down,
+                // a stale estimate from before the link recovered must not undo a successful probe
+                String reason;
+                if (target > levelIndex && throughputMeasured) {
+                    levelIndex = target;
+                    cleanDecisions = 0;
+                    reason = "throughput dropped";
+                } else if (queueDelay * 4 <= maxQueueDelayMillis && ++cleanDecisions >= CLEAN_DECISIONS_TO_CLIMB
+                        && levelIndex > 0) {
+                    // One step at a time, even beyond the estimate, to find out whether the link recovered
+                    levelIndex--;
+                    cleanDecisions = 0;
+                    reason = target <= levelIndex ? "throughput recovered" : "probing";
+                } else {
+                    reason = "steady";
+                }
+                decision = newDecision(nowMillis, Action.SEND, queuedBytes, queueDelay, reason);
+            }
+            throughputMeasured = false;
+            lastDecision = decision;
+        }
+
+        if (listener != null) {
+            listener.onDecision(decision);
+        }
+        return decision;
+    }
+
+    public synchronized int getLevelIndex() {
+        return levelIndex;
+    }
+
+    public synchronized Level getLevel() {
+        return levels[levelIndex];
+    }
+
+    public synchronized long getThroughputBytesPerSecond() {
+        return (long) throughput;
+    }
+
+    // Last decision as JSON, "{}" before the first image
+    public synchronized String toJson() {
+        return lastDecision != null ? lastDecision.toJson() : "{}";
+    }
+
+    // Drained bytes over time. While the socket had a backlog the link was the bottleneck, so the
+    // rate is its capacity; otherwise it only shows our own demand, a lower bound.
+    private void sample(long nowMillis, long queuedBytes, long backlogBytes) {
+        long drained = bytesSent - queuedBytes;
+        if (sampleTimeMillis < 0) {
+            sampleTimeMillis = nowMillis;
+            sampleDrained = drained;
+            sampleQueued = queuedBytes;
+            return;
+        }
+
+        long elapsed = nowMillis - sampleTimeMillis;
+        if (elapsed < MIN_SAMPLE_MILLIS) {
+            return;
+        }
+
+        double rate = (drained - sampleDrained) * 1000.0 / elapsed;
+        if (sampleQueued > 0 && backlogBytes > 0) {
+            throughput += (rate - throughput) * THROUGHPUT_SMOOTHING;
+            throughputMeasured = true;
+        } else if (rate > throughput) {
+            throughput = rate;
+        }
+        throughput = Math.max(MIN_THROUGHPUT, throughput);
+
+        sampleTimeMillis = nowMillis;
+        sampleDrained = drained;
+        sampleQueued = queuedBytes;
+    }
+
+    private Decision newDecision(long nowMillis, Action action, long queuedBytes, long queueDelay, String reason) {
+        return new Decision(nowMillis, action, levelIndex, levels[levelIndex], (long) throughput,
+                queuedBytes, queueDelay, reason);
+    }
+}
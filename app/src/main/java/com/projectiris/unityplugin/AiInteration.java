@@ -11,44 +11,39 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
-import android.media.AudioTrack;
 import android.media.ImageReader;
 import android.media.MediaRecorder;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.util.Base64;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresPermission;
 
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.drafts.Draft_6455;
-import org.java_websocket.handshake.ServerHandshake;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
 
 public class AiInteration {
     // TAG "AiInteration" used to log messages of Gemini API connection and other information
@@ -61,6 +56,14 @@ public class AiInteration {
     public interface MessageCallback {
         void onMessageReceived(String message, String type);
     }
+
+    // Camera capture pipeline
+    // JPEG_STILL: the camera encodes every frame with the still capture pipeline
+    // YUV_PREVIEW: low resolution YUV preview frames, only the frames that are sent get encoded
+    public enum CaptureMode {
+        JPEG_STILL,
+        YUV_PREVIEW
+    }
     
     private MessageCallback messageCallback;
 
@@ -72,9 +75,8 @@ public class AiInteration {
     // If muted = false, Gemini Live API will switch to AUDIO model
     private boolean muted;
 
-    // Hardcode model name and Host name
-    private static final String MODEL = "models/gemini-2.0-flash-exp";
-    private static final String HOST = "generativelanguage.googleapis.com";
+    // Host, model and setup settings; the setup message is serialized once per variant and cached
+    private volatile SessionConfig sessionConfig;
     public String URL;
 
     // Constants
@@ -86,21 +88,86 @@ public class AiInteration {
     private static final int AUDIO_ENCODING = AudioFormat.ENCODING_PCM_16BIT;
     private static final int MAX_IMAGE_DIMENSION = 1024;
     private static final int JPEG_QUALITY = 70;
+    private static final int MAX_IMAGE_BYTES = 400 * 1024; // larger JPEGs are re-encoded before sending
+    private static final int YUV_MAX_DIMENSION = 800; // long side of the YUV preview stream
     private static final long IMAGE_SEND_INTERVAL = 3000; // 3 seconds
+    private static final long CAPTURE_MIN_SPACING_MS = 500; // speech / Unity captures are at most this frequent
+    private static final long SCENE_PROBE_INTERVAL_MS = 1000; // with scene detection, look this often
+    private static final long SCENE_KEEPALIVE_MS = 10000; // and send at least this often
+    private static final int SCENE_JPEG_SAMPLE_SIZE = 8; // JPEG frames are decoded at 1/8 scale for the check
+    private static final long IMAGE_MAX_AIRTIME_MS = 250; // an image may hold queued audio back at most this long
+    private static final long IMAGE_MAX_QUEUE_DELAY_MS = 300; // skip images while the socket is this far behind
+    private static final int OUTBOUND_CONTROL_FRAMES = 16;
+    private static final int OUTBOUND_AUDIO_FRAMES = 64; // about 6 s of 100 ms chunks, oldest dropped beyond
+    private static final int OUTBOUND_IMAGE_FRAMES = 1; // only the newest image waits
+    private static final long OUTBOUND_SOCKET_BACKLOG_BYTES = 16 * 1024; // frames wait in the scheduler beyond this
+    private static final long RECONNECT_BASE_DELAY_MS = 500;
+    private static final long RECONNECT_MAX_DELAY_MS = 30000;
+    private static final int RECONNECT_MAX_ATTEMPTS = 10; // then give up and tell Unity
+    private static final int PENDING_AUDIO_BUFFER_MS = 5000; // audio kept until the session is READY, oldest dropped beyond
+    private static final int PENDING_REPLAY_CHUNK_MS = 500; // buffered audio is replayed in larger frames
+    private static final int ENCODE_QUEUE_TASKS = 2; // camera JPEGs waiting for the encode thread, newer ones are rejected
+    private static final long THREAD_SHUTDOWN_TIMEOUT_MS = 1000;
+    private static final int PCM_POOL_SIZE = 32;
+    private static final int PCM_CHUNK_CAPACITY = 16 * 1024;
+    private static final int PLAYBACK_QUEUE_CHUNKS = 64;
+    private static final int PLAYBACK_MIN_JITTER_MS = 40;
+    private static final int PLAYBACK_MAX_JITTER_MS = 200;
+    private static final int UNITY_AUDIO_RING_SAMPLES = 8192; // about 340 ms at 24 kHz
+    private static final int BARGE_IN_MIN_SPEECH_MS = 120;
+    private static final int VAD_MIN_SPEECH_MS = 60;
+    private static final int VAD_HANGOVER_MS = 400;
+    private static final int VAD_PRE_ROLL_MS = 300;
 
     // Audio
     private AudioRecord audioRecord;
-    private AudioTrack audioTrack;
     private int audioBufferSize;
-    private List<Short> pcmData;
-    private List<byte[]> audioQueue;
+    private ByteBuffer micReadBuffer;
+    private final AudioChunkingPolicy chunkingPolicy;
+    private PcmChunkPool pcmChunkPool;
+    private AudioPlaybackEngine playbackEngine;
+    private final SessionConfig.AudioOutput audioOutput;
+    private SharedPcmRing unityAudioRing; // null unless audio goes to Unity
+    private OutboundScheduler outboundScheduler;
     private boolean isRecording = false;
-    private boolean isPlaying = false;
     private boolean isSpeaking = false;
 
+    // Voice activity detection
+    // While the VAD reports silence, captured audio is kept only as a short pre-roll and not sent.
+    // With activity signals the client marks speech with activity_start / activity_end instead of
+    // relying on the server's automatic activity detection. micUplink gates and chunks the mic reads.
+    private VoiceActivityDetector voiceActivityDetector;
+    private MicUplink micUplink;
+
+    // Barge-in
+    // After a local barge-in the rest of the interrupted response is dropped until the server
+    // acknowledges it with interrupted or turnComplete, or the acknowledgement does not come in time.
+    // responsePlayback feeds response audio to playbackEngine and detects barge-ins.
+    private final BargeInGuard bargeInGuard = new BargeInGuard(BargeInGuard.DEFAULT_CONFIRM_TIMEOUT_MS);
+    private ResponsePlayback responsePlayback;
+
     // WebSocket
-    private WebSocketClient webSocket;
-    private boolean isConnected = false;
+    // liveConnection owns the active connection, its setup and the warm standby. Media is only sent
+    // once it is READY, i.e. the server answered the setup message with setupComplete.
+    private LiveConnection liveConnection;
+
+    // Reconnect
+    // A dropped connection is reopened with backoff and resumes the same session with the last
+    // sessionResumption handle. Audio captured before the session is READY (connecting, setting up or
+    // reconnecting) waits in pendingAudioBuffer and is sent in one burst right after setupComplete;
+    // liveConnection's uplink lock keeps it ahead of newly captured chunks.
+    private ReconnectSupervisor reconnectSupervisor;
+    private HandlerThread networkThread;
+    private Handler networkHandler;
+    private PcmRingBuffer pendingAudioBuffer;
+    private byte[] replayChunk;
+
+    // realtime_input frame writers, one per media type so audio and images never share a buffer
+    private RealtimeInputWriter audioFrameWriter;
+    private RealtimeInputWriter imageFrameWriter;
+
+    // Parses server frames on the receive thread, response audio is decoded into pcmChunkPool
+    private ServerMessageParser serverMessageParser;
 
     // Camera
     private CameraDevice cameraDevice;
@@ -111,20 +178,75 @@ public class AiInteration {
     private Handler cameraHandler;
     private String cameraId;
     private boolean isCameraActive = false;
-    private long lastImageSendTime = 0;
+    private CaptureRequest singleCaptureRequest;
+    private CaptureScheduler captureScheduler;
+    private volatile long captureIssuedNanos = 0;
+    private volatile String captureIssuedReason = CaptureScheduler.REASON_INTERVAL;
+    private int captureRequestQuality = JPEG_QUALITY;
+
+    // Adaptive image quality
+    // JPEG quality, resolution and capture interval follow the measured uplink throughput so
+    // images never hold audio back for long on a slow link
+    private final AdaptiveImageController imageController = new AdaptiveImageController(
+            AdaptiveImageController.DEFAULT_LEVELS, IMAGE_MAX_AIRTIME_MS, IMAGE_MAX_QUEUE_DELAY_MS,
+            this::onImageDecision);
+    private volatile AdaptiveImageController.MetricsListener imageMetricsListener;
+    private volatile float captureIntervalFactor = 1f;
+    // Sliding-window compression settings and the context size reported by usageMetadata
+    private volatile ContextWindowBudget contextBudget;
+
+    // Scene change detection
+    // Interval frames are only sent when the scene changed since the last sent frame (or the
+    // keepalive passed); speech and Unity requested frames are always sent
+    private final SceneChangeDetector sceneChangeDetector =
+            new SceneChangeDetector(SceneChangeDetector.DEFAULT_SENSITIVITY, SCENE_KEEPALIVE_MS);
+    private volatile boolean sceneDetectionEnabled = true;
+    private final BitmapFactory.Options sceneDecodeOptions = new BitmapFactory.Options();
+    private int[] scenePixels = new int[0];
+    private final ImageSendStats imageSendStats = new ImageSendStats();
+    private volatile CaptureMode captureMode = CaptureMode.JPEG_STILL;
+    private CaptureMode activeCaptureMode = CaptureMode.JPEG_STILL;
+    private YuvFrameEncoder yuvFrameEncoder;
+    private RgbaFrameEncoder rgbaFrameEncoder;
+    private PowerProbe powerProbe;
 
     // Threading
-    private ExecutorService executorService;
+    // Every thread is created once in initializeVariables and named, with a priority for its job:
+    // IrisCapture (mic loop), IrisPlayback, IrisSend, IrisImageEncode, CameraThread and
+    // IrisNetwork (reconnect timer).
+    // Work queues are bounded, rejected work is counted in getThreadStats()
+    private BoundedExecutor captureExecutor;
+    private BoundedExecutor encodeExecutor;
     private SimpleDateFormat timeFormat;
 
+    // Gesture-to-response milestones of every turn, as percentiles
+    private final LatencyMetrics latencyMetrics = new LatencyMetrics();
+
+    // Session record / replay: uplink realtime_input and server frames with their timing, played back
+    // through the same pipeline to reproduce latency measurements
+    private static final long SESSION_LOG_MAX_BYTES = 1024L * 1024 * 1024;
+    private final SessionTap sessionTap;
+
     //Constructor
     public AiInteration(String API_KEY, boolean muted){
+        this(API_KEY, muted, SessionConfig.DEFAULT);
+    }
+
+    // Constructor with session settings: Live API setup (model, media resolution, voice, instruction,
+    // server VAD, context compression), uplink chunking policy and where response audio is played
+    public AiInteration(String API_KEY, boolean muted, SessionConfig sessionConfig){
         this.API_KEY = API_KEY;
         this.muted = muted;
-        URL = "wss://" + HOST +
+        this.chunkingPolicy = sessionConfig.getChunkingPolicy();
+        this.audioOutput = sessionConfig.getAudioOutput();
+        this.sessionConfig = sessionConfig;
+        this.contextBudget = new ContextWindowBudget(sessionConfig.getTriggerTokens(), sessionConfig.getTargetTokens());
+        URL = "wss://" + sessionConfig.getHost() +
                         "/ws/google.ai.generativelanguage.v1beta.GenerativeService.BidiGenerateContent?key=" +
                         API_KEY;
         initializeVariables();
+        this.sessionTap = new SessionTap(liveConnection.getListener(), replayPipeline, SESSION_LOG_MAX_BYTES);
+        liveConnection.setSessionTap(sessionTap);
     }
 
     // Setters and Getters
@@ -146,13 +268,39 @@ public class AiInteration {
 
 
     // Public methods used by outside code (Plugin/Main)
-    public void start(){ connect();}
-    public void stop(){ disconnect();}
+    public void start(){ liveConnection.start();}
+    public void stop(){ disconnect(true);}
+    // The user made the activation gesture, latency of the coming response is measured from here
+    public void markGestureStart(){ latencyMetrics.startTurn(System.nanoTime(), true);}
     @RequiresPermission(Manifest.permission.RECORD_AUDIO)
     public void startRecording(){ startAudioInput();}
     public void stopRecording(){ stopAudioInput();}
-    public void sendImage(byte[] imageBytes){ processAndSendImage(imageBytes);}
-    public boolean isConnected(){ return isConnected;}
+    // Images from Unity are never skipped and do not depend on the camera, but follow the current
+    // quality level. They take the camera JPEG path on the encode thread: sent as they are when small
+    // enough, re-encoded otherwise. Returns false when the encode queue is full and the image dropped.
+    public boolean sendImage(byte[] imageBytes){
+        AdaptiveImageController.Decision decision = imageController.decide(SystemClock.uptimeMillis(), bytesInFlight());
+        int levelIndex = decision.levelIndex;
+        boolean queued = encodeExecutor.submit(() -> processAndSendImage(imageBytes, levelIndex));
+        if (!queued) {
+            Log.d(TAG, "Encode thread busy, Unity image dropped");
+        }
+        return queued;
+    }
+    // Raw RGBA pixels in a direct buffer, copied once and compressed on the encode thread.
+    // Returns false when the frame was not taken (previous frame still encoding, skipped, not connected).
+    public boolean sendRawImage(ByteBuffer pixels, int width, int height, int rowStride, boolean flipVertically){
+        if (!liveConnection.isReady()) {
+            return false;
+        }
+        AdaptiveImageController.Decision decision = imageController.decide(SystemClock.uptimeMillis(), bytesInFlight());
+        if (decision.action == AdaptiveImageController.Action.SKIP) {
+            return false;
+        }
+        return rgbaFrameEncoder.offer(pixels, width, height, rowStride, flipVertically, System.nanoTime(),
+                decision.levelIndex, decision.level.jpegQuality, decision.level.maxDimension);
+    }
+    public boolean isConnected(){ return liveConnection.isReady();}
     public boolean isRecording(){ return isRecording;}
     public void setMessageCallback(MessageCallback callback){ this.messageCallback = callback;}
     
@@ -160,17 +308,44 @@ public class AiInteration {
     @RequiresPermission(Manifest.permission.CAMERA)
     public void startCamera(Context context){ openCameraForCapture(context);}
     public void stopCamera(){
-        if (cameraCaptureSession != null){
-            try {
-                cameraCaptureSession.stopRepeating();
-            } catch (Exception e){
-                Log.e(TAG, "Error stopping repeating capture", e);
-            }
-        }
+        captureScheduler.stop();
         isCameraActive = false;
         closeCamera();
     }
     public boolean isCameraActive(){ return isCameraActive;}
+    // Takes effect the next time the camera is started
+    public void setCaptureMode(CaptureMode mode){ this.captureMode = mode;}
+    public CaptureMode getCaptureMode(){ return captureMode;}
+    // Scene change detection settings
+    public void setSceneDetectionEnabled(boolean enabled){
+        this.sceneDetectionEnabled = enabled;
+        updateCaptureInterval();
+    }
+    public boolean isSceneDetectionEnabled(){ return sceneDetectionEnabled;}
+    public void setSceneChangeSensitivity(float sensitivity){ sceneChangeDetector.setSensitivity(sensitivity);}
+    public String getSceneStats(){
+        synchronized (sceneChangeDetector) {
+            return sceneChangeDetector.toJson();
+        }
+    }
+    // Adaptive image quality: receives every decision (send / skip, level, throughput, queue delay)
+    public void setImageMetricsListener(AdaptiveImageController.MetricsListener listener){ this.imageMetricsListener = listener;}
+    public String getImageQualityStats(){ return imageController.toJson();}
+    // Take a picture now instead of waiting for the interval
+    public void captureNow(){
+        if (isCameraActive) {
+            captureScheduler.requestCapture(CaptureScheduler.REASON_UNITY);
+        }
+    }
+
+    // Voice activity detection settings
+    // Activity signals change the setup message, so they apply from the next connection
+    public void setVadEnabled(boolean enabled){ micUplink.setVadEnabled(enabled);}
+    public boolean isVadEnabled(){ return micUplink.isVadEnabled();}
+    public void setVadThreshold(double thresholdRms){ voiceActivityDetector.setThresholdRms(thresholdRms);}
+    public double getVadThreshold(){ return voiceActivityDetector.getThresholdRms();}
+    public void setActivitySignalsEnabled(boolean enabled){ micUplink.setActivitySignalsEnabled(enabled);}
+    public AudioChunkingPolicy getChunkingPolicy(){ return chunkingPolicy;}
 
 
     private void initializeVariables() {
@@ -180,200 +355,395 @@ public class AiInteration {
                 AUDIO_ENCODING
         );
 
-        pcmData = Collections.synchronizedList(new ArrayList<>());
-        audioQueue = Collections.synchronizedList(new ArrayList<>());
-        executorService = Executors.newCachedThreadPool();
+        // Capture path buffers are allocated once and reused for every read/chunk.
+        // Reads stay at the AudioRecord minimum, frames are cut to the policy's chunk length.
+        int chunkBytes = chunkingPolicy.chunkBytes(AUDIO_SAMPLE_RATE);
+        micReadBuffer = ByteBuffer.allocateDirect(audioBufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        pendingAudioBuffer = new PcmRingBuffer(AUDIO_SAMPLE_RATE * 2 * PENDING_AUDIO_BUFFER_MS / 1000);
+        replayChunk = new byte[AUDIO_SAMPLE_RATE * 2 * PENDING_REPLAY_CHUNK_MS / 1000];
+        voiceActivityDetector = new VoiceActivityDetector(
+                AUDIO_SAMPLE_RATE,
+                VoiceActivityDetector.DEFAULT_THRESHOLD_RMS,
+                VAD_MIN_SPEECH_MS,
+                VAD_HANGOVER_MS
+        );
+        micUplink = new MicUplink(chunkingPolicy, AUDIO_SAMPLE_RATE, audioBufferSize, VAD_PRE_ROLL_MS,
+                voiceActivityDetector, micSink);
+        audioFrameWriter = new RealtimeInputWriter(RealtimeInputWriter.encodedLength(chunkBytes) + 128);
+        imageFrameWriter = new RealtimeInputWriter(64 * 1024);
+        pcmChunkPool = new PcmChunkPool(PCM_POOL_SIZE, PCM_CHUNK_CAPACITY);
+        serverMessageParser = new ServerMessageParser(pcmChunkPool);
+
+        // One long-lived playback thread owns the AudioTrack (or the Unity ring) for the whole session
+        AudioPlaybackEngine.PcmSink playbackSink;
+        if (audioOutput == SessionConfig.AudioOutput.UNITY_SHARED_BUFFER) {
+            unityAudioRing = new SharedPcmRing(RECEIVE_SAMPLE_RATE, UNITY_AUDIO_RING_SAMPLES);
+            playbackSink = unityAudioRing;
+        } else {
+            playbackSink = new AudioTrackSink(RECEIVE_SAMPLE_RATE);
+        }
+        playbackEngine = new AudioPlaybackEngine(
+                playbackSink,
+                RECEIVE_SAMPLE_RATE,
+                PLAYBACK_QUEUE_CHUNKS,
+                PLAYBACK_MIN_JITTER_MS,
+                PLAYBACK_MAX_JITTER_MS,
+                threadFactory("IrisPlayback", Process.THREAD_PRIORITY_URGENT_AUDIO)
+        );
+        playbackEngine.setFirstAudioListener(
+                nanoTime -> latencyMetrics.mark(LatencyMetrics.Milestone.FIRST_AUDIO_PLAYED, nanoTime));
+        playbackEngine.start();
+        responsePlayback = new ResponsePlayback(playbackEngine, bargeInGuard, voiceActivityDetector,
+                BARGE_IN_MIN_SPEECH_MS, responsePlaybackListener);
+
+        // The mic loop runs for a whole recording, a second start waits for the previous loop to end
+        captureExecutor = new BoundedExecutor("IrisCapture", 1,
+                threadFactory("IrisCapture", Process.THREAD_PRIORITY_URGENT_AUDIO));
+        // JPEG decode / re-encode and YUV compression, kept off the camera and Unity threads
+        encodeExecutor = new BoundedExecutor("IrisImageEncode", ENCODE_QUEUE_TASKS,
+                threadFactory("IrisImageEncode", Process.THREAD_PRIORITY_BACKGROUND));
+        yuvFrameEncoder = new YuvFrameEncoder(imageSendStats, encodeExecutor, this::sendEncodedFrame);
+        rgbaFrameEncoder = new RgbaFrameEncoder(imageSendStats, encodeExecutor, this::sendEncodedRawFrame);
+
+        networkThread = new HandlerThread("IrisNetwork");
+        networkThread.start();
+        networkHandler = new Handler(networkThread.getLooper());
+        ReconnectSupervisor.Timer networkTimer = new ReconnectSupervisor.Timer() {
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
+            }
+
+            @Override
+            public void postDelayed(Runnable runnable, long delayMillis) {
+                networkHandler.postDelayed(runnable, delayMillis);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable runnable) {
+                networkHandler.removeCallbacks(runnable);
+            }
+        };
+        reconnectSupervisor = new ReconnectSupervisor(networkTimer, RECONNECT_BASE_DELAY_MS, RECONNECT_MAX_DELAY_MS,
+                RECONNECT_MAX_ATTEMPTS, new Random(), this::connect, reconnectListener);
+        liveConnection = new LiveConnection(URI.create(URL), networkTimer, reconnectSupervisor,
+                serverMessageParser, serverMessageListener, connectionHost);
+
+        // Every outgoing frame goes through one sender thread, audio is never queued behind images
+        outboundScheduler = new OutboundScheduler(
+                liveConnection,
+                OUTBOUND_CONTROL_FRAMES,
+                OUTBOUND_AUDIO_FRAMES,
+                OUTBOUND_IMAGE_FRAMES,
+                OUTBOUND_SOCKET_BACKLOG_BYTES,
+                threadFactory("IrisSend", Process.THREAD_PRIORITY_AUDIO)
+        );
+        outboundScheduler.start();
         timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.getDefault());
 
         cameraThread = new HandlerThread("CameraThread");
         cameraThread.start();
         cameraHandler = new Handler(cameraThread.getLooper());
-    }
-
-    // Main method to connect to Gemini API using WebSocket
-    private void connect() {
-        Log.d(TAG, "Connecting to: " + URL);
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Content-Type", "application/json");
-
-        webSocket = new WebSocketClient(URI.create(URL), new Draft_6455(), headers) {
-            @Overrid
-            public void onOpen(ServerHandshake handshakedata) {
-                Log.d(TAG, "Connected. Server handshake: " + handshakedata.getHttpStatus());
-                isConnected = true;
-
-                // Inform Unity that connection has been made
-                if (messageCallback != null) {
-                    messageCallback.onMessageReceived("Websocket connected", "connection");
-                }
 
-                sendInitialSetupMessage();
+        // Captures are issued one at a time on the camera thread
+        captureScheduler = new CaptureScheduler(new CaptureScheduler.Timer() {
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
             }
 
             @Override
-            public void onMessage(String message) {
-                Log.d(TAG, "Message Received: " + message);
-                receiveMessage(message);
+            public void postDelayed(Runnable runnable, long delayMillis) {
+                cameraHandler.postDelayed(runnable, delayMillis);
             }
 
             @Override
-            public void onMessage(ByteBuffer bytes) {
-                String message = new String(bytes.array(), java.nio.charset.StandardCharsets.UTF_8);
-                receiveMessage(message);
+            public void removeCallbacks(Runnable runnable) {
+                cameraHandler.removeCallbacks(runnable);
             }
+        }, baseCaptureInterval(), CAPTURE_MIN_SPACING_MS, this::issueCapture);
 
-            @Override
-            public void onClose(int code, String reason, boolean remote) {
-                Log.d(TAG, "Connection Closed: " + reason);
-                isConnected = false;
+        sceneDecodeOptions.inSampleSize = SCENE_JPEG_SAMPLE_SIZE;
+        sceneDecodeOptions.inMutable = true;
+    }
 
-                // Inform Unity that connection has been closed
-                if (messageCallback != null) {
-                    messageCallback.onMessageReceived("Websocket disconnected: " + reason, "connection");
-                }
-            }
+    // Main method to connect to Gemini API using WebSocket
+    // Called by reconnectSupervisor, with the handle of the session to resume after a reconnect.
+    // The setup of the new connection carries the current compression setting.
+    private void connect(String resumptionHandle) {
+        applyContextWindowCompression();
+        liveConnection.connect(resumptionHandle);
+    }
 
-            @Override
-            public void onError(Exception ex) {
-                String errorMsg = ex != null ? ex.getMessage() : "Unknown error";
-                Log.e(TAG, "Error: " + errorMsg);
-                isConnected = false;
+    // close WebSocket connection, with drain the frames already queued are sent first.
+    // The warm standby stays open for the next start()
+    private void disconnect(boolean drain){
+        liveConnection.stop(drain);
+        pendingAudioBuffer.clear();
+    }
 
-                // Inform Unity that Error occurred
-                if (messageCallback != null) {
-                    messageCallback.onMessageReceived("Websocket error: " + errorMsg, "error");
-                }
+    // The session side of liveConnection
+    private final LiveConnection.Host connectionHost = new LiveConnection.Host() {
+        @Override
+        public String setupMessage(String resumptionHandle) {
+            return buildSetupMessage(resumptionHandle);
+        }
+
+        @Override
+        public void dropQueuedFrames() {
+            outboundScheduler.clear();
+        }
+
+        // Audio captured before READY goes out first, then Unity hears about the connection
+        @Override
+        public long onReady(boolean resumed) {
+            long replayedMillis = replayPendingAudio();
+            if (messageCallback != null) {
+                messageCallback.onMessageReceived(resumed
+                        ? "Websocket reconnected, session resumed" : "Websocket connected", "connection");
             }
-        };
-        webSocket.connect();
-    }
+            return replayedMillis;
+        }
 
-    // close WebSocket connection
-    private void disconnect(){
-        if (webSocket != null){
-            webSocket.close();
-            webSocket = null;
+        // Inform Unity that the connection has been closed or an error occurred
+        @Override
+        public void onLost(String reason, Exception error) {
+            if (messageCallback == null) {
+                return;
+            }
+            if (error == null) {
+                messageCallback.onMessageReceived("Websocket disconnected: " + reason, "connection");
+            } else {
+                messageCallback.onMessageReceived("Websocket error: " + reason, "error");
+            }
         }
-        isConnected = false;
-    }
 
-    // Main method to initially set up AI.
-    // In this method, the model of AI is set up.
-    // If muted = true, Gemini Live API will switch to TEXT model
-    // If muted = false, Gemini Live API will switch to AUDIO model
-    private void sendInitialSetupMessage(){
-        Log.d(TAG, "Sending initial setup message");
+        @Override
+        public void onServerFrame() {
+            latencyMetrics.mark(LatencyMetrics.Milestone.FIRST_SERVER_BYTE, System.nanoTime());
+        }
 
-        try{
-            JSONObject setupMessage = new JSONObject();
-            JSONObject setup = new JSONObject();
-            JSONObject generationConfig = new JSONObject();
-            JSONArray responseModalities = new JSONArray();
+        @Override
+        public long bytesInFlight() {
+            return AiInteration.this.bytesInFlight();
+        }
 
-            if (isMuted()){
-                responseModalities.put("TEXT");
+        @Override
+        public void log(String message, Exception error) {
+            if (error == null) {
+                Log.d(TAG, message);
+            } else {
+                Log.e(TAG, message, error);
             }
-            generationConfig.put("responseModalities", responseModalities);
-            setup.put("model", MODEL);
-            setup.put("generationConfig", generationConfig);
+        }
+    };
 
-            if (!isMuted()){
-                responseModalities.put("AUDIO");
-                setup.put("outputAudioTranscription", new JSONObject());
+    // Tells Unity about reconnect attempts
+    private final ReconnectSupervisor.Listener reconnectListener = new ReconnectSupervisor.Listener() {
+        @Override
+        public void onReconnectScheduled(int attempt, long delayMillis, String reason) {
+            Log.d(TAG, "Reconnect " + attempt + " in " + delayMillis + " ms after " + reason);
+            if (messageCallback != null) {
+                messageCallback.onMessageReceived("Websocket reconnecting in " + delayMillis + " ms", "connection");
             }
+        }
+
+        @Override
+        public void onGaveUp(int attempts) {
+            Log.e(TAG, "Giving up after " + attempts + " reconnect attempts");
+            pendingAudioBuffer.clear();
+            if (messageCallback != null) {
+                messageCallback.onMessageReceived("Websocket reconnect failed after " + attempts + " attempts", "error");
+            }
+        }
+    };
+
+    // Send the audio captured before READY, with the uplink lock held right after setupComplete.
+    // With activity signals the replay is marked as its own activity, ended here if the user
+    // already stopped talking (the end marker of the interrupted utterance was never sent).
+    // Returns the milliseconds of audio sent.
+    private long replayPendingAudio() {
+        int buffered = pendingAudioBuffer.available();
+        if (buffered == 0) {
+            return 0;
+        }
+        Log.d(TAG, "Replaying " + buffered + " bytes of audio captured before the session was ready");
+        if (micUplink.isVadEnabled() && micUplink.isActivitySignalsEnabled()) {
+            sendRealtimeControl(MicUplink.ACTIVITY_START_MESSAGE);
+        }
+        int length;
+        while ((length = pendingAudioBuffer.drain(replayChunk)) > 0) {
+            sendMediaChunk(OutboundScheduler.Lane.AUDIO, audioFrameWriter, replayChunk, 0, length, "audio/pcm");
+        }
+        if (micUplink.isVadEnabled() && !micUplink.isUplinkOpen()) {
+            sendRealtimeControl(micUplink.isActivitySignalsEnabled()
+                    ? MicUplink.ACTIVITY_END_MESSAGE : MicUplink.AUDIO_STREAM_END_MESSAGE);
+        }
+        return buffered * 1000L / (AUDIO_SAMPLE_RATE * 2);
+    }
 
-            setupMessage.put("setup", setup);
+    // The setup of the next connection carries the current compression setting, the budget follows it
+    // from there. Counts of the previous budget are kept while the setting is unchanged.
+    private void applyContextWindowCompression() {
+        SessionConfig config = sessionConfig;
+        ContextWindowBudget budget = contextBudget;
+        if (budget.getTriggerTokens() == config.getTriggerTokens()
+                && budget.getTargetTokens() == config.getTargetTokens()) {
+            return;
+        }
+        contextBudget = new ContextWindowBudget(config.getTriggerTokens(), config.getTargetTokens());
+        updateCaptureInterval();
+    }
 
-            // Send initial setup message
-            Log.d(TAG, "Sending config payload: " + setupMessage.toString());
-            webSocket.send(setupMessage.toString());
+    // Setup message for the current settings, resuming the given session when handle is not null.
+    // If muted = true, Gemini Live API will switch to TEXT model
+    // If muted = false, Gemini Live API will switch to AUDIO model
+    private String buildSetupMessage(String handle) {
+        try{
+            String setupMessage = sessionConfig.setupMessage(isMuted(),
+                    micUplink.isVadEnabled() && micUplink.isActivitySignalsEnabled(), handle);
+            Log.d(TAG, "Config payload: " + setupMessage);
+            return setupMessage;
 
         } catch (JSONException e){
             Log.e(TAG, "Error creating setup message", e);
+            return null;
         }
     }
 
     // Send media chunk to WebSocket
-    private void sendMediaChunk(String b64Data, String mimeType) {
-        if (!isConnected) {
+    // The raw bytes are Base64 encoded straight into the writer's reusable frame buffer.
+    // outboundScheduler copies the frame into its own pooled buffer before returning,
+    // so the writer buffer can be reused as soon as enqueue returns.
+    private void sendMediaChunk(OutboundScheduler.Lane lane, RealtimeInputWriter writer,
+                                byte[] data, int offset, int length, String mimeType) {
+        if (!liveConnection.isReady()) {
             Log.d(TAG, "WebSocket not connected");
             return;
         }
 
-        try {
-            JSONObject msg = new JSONObject();
-            JSONObject realtimeInput = new JSONObject();
-            JSONArray mediaChunks = new JSONArray();
-            JSONObject chunk = new JSONObject();
-
-            chunk.put("mime_type", mimeType);
-            chunk.put("data", b64Data);
-            mediaChunks.put(chunk);
-            realtimeInput.put("media_chunks", mediaChunks);
-            msg.put("realtime_input", realtimeInput);
-
-            webSocket.send(msg.toString());
-        } catch (JSONException e) {
-            Log.e(TAG, "Error creating media chunk message", e);
+        synchronized (writer) {
+            ByteBuffer frame = writer.write(mimeType, data, offset, length);
+            int frameBytes = frame.remaining();
+            sessionTap.recordUplink(lane, frame);
+            outboundScheduler.enqueue(lane, frame);
+            imageController.onFrameSent(SystemClock.uptimeMillis(), frameBytes, bytesInFlight());
+        }
+        if (lane == OutboundScheduler.Lane.AUDIO) {
+            latencyMetrics.mark(LatencyMetrics.Milestone.AUDIO_SENT, System.nanoTime());
         }
     }
 
-    // Receive message from WebSocket
-    private void receiveMessage(String message) {
-        if (message == null) {
+    // Send a small realtime_input control message (activity signals, audio stream end)
+    // These mark the boundaries of the audio stream, so they go through the audio lane in order
+    // with the chunks around them instead of jumping ahead in the control lane
+    private void sendRealtimeControl(String message) {
+        if (!liveConnection.isReady()) {
             return;
         }
+        sessionTap.recordUplink(OutboundScheduler.Lane.AUDIO, message);
+        outboundScheduler.enqueue(OutboundScheduler.Lane.AUDIO, message);
+    }
 
-        try {
-            JSONObject messageData = new JSONObject(message);
-
-            if (messageData.has("serverContent")) {
-                JSONObject serverContent = messageData.getJSONObject("serverContent");
-
-                // Model response transcription (Official entry: outputTranscription.text)
-                if (serverContent.has("outputTranscription")) {
-                    JSONObject outTx = serverContent.getJSONObject("outputTranscription");
-                    String t = outTx.optString("text", "");
-                    if (!t.isEmpty()) {
-                        Log.d(textTAG, t);
-                        if (messageCallback != null) {
-                            messageCallback.onMessageReceived(t, "transcript");
-                        }
-                    }
-                }
+    // Handles the parts of serverContent messages, liveConnection passes on the response of the active connection
+    private final ServerMessageParser.Listener serverMessageListener = new ServerMessageParser.Listener() {
+        // Model response transcription (Official entry: outputTranscription.text)
+        @Override
+        public void onTranscript(String text) {
+            latencyMetrics.mark(LatencyMetrics.Milestone.FIRST_TEXT, System.nanoTime());
+            Log.d(textTAG, text);
+            if (messageCallback != null) {
+                messageCallback.onMessageReceived(text, "transcript");
+            }
+        }
 
-                if (serverContent.has("modelTurn")) {
-                    JSONObject modelTurn = serverContent.getJSONObject("modelTurn");
-                    if (modelTurn.has("parts")) {
-                        JSONArray parts = modelTurn.getJSONArray("parts");
-                        for (int i = 0; i < parts.length(); i++) {
-                            JSONObject part = parts.getJSONObject(i);
-
-                            // Model directly return text message
-                            if (part.has("text")) {
-                                String text = part.getString("text");
-                                Log.d(textTAG, text); // Log the text message received
-                                if (messageCallback != null) {
-                                    messageCallback.onMessageReceived(text, "text");
-                                }
-                            }
-
-                            // Model return audio chunk
-                            if (part.has("inlineData")) {
-                                JSONObject inlineData = part.getJSONObject("inlineData");
-                                if ("audio/pcm;rate=24000".equals(inlineData.optString("mimeType"))) {
-                                    String audioData = inlineData.optString("data", null);
-                                    ingestAudioChunkToPlay(audioData);
-                                }
-                            }
-                        }
-                    }
-                }
+        // Model directly return text message
+        @Override
+        public void onText(String text) {
+            latencyMetrics.mark(LatencyMetrics.Milestone.FIRST_TEXT, System.nanoTime());
+            Log.d(textTAG, text); // Log the text message received
+            if (messageCallback != null) {
+                messageCallback.onMessageReceived(text, "text");
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error parsing message", e);
         }
-    }
+
+        // Model return audio chunk
+        @Override
+        public void onAudio(PcmChunkPool.Chunk chunk) {
+            responsePlayback.onAudio(chunk, SystemClock.uptimeMillis());
+        }
+
+        @Override
+        public void onTurnComplete() {
+            Log.d(TAG, "Turn complete");
+            latencyMetrics.mark(LatencyMetrics.Milestone.TURN_COMPLETE, System.nanoTime());
+            responsePlayback.onTurnComplete();
+        }
+
+        // Server detected the user talking over the response
+        @Override
+        public void onInterrupted() {
+            Log.d(TAG, "Turn interrupted");
+            responsePlayback.onInterrupted();
+        }
+
+        // Setup, resumption and goAway belong to the connection, liveConnection handles them
+        @Override
+        public void onSetupComplete() {
+        }
+
+        @Override
+        public void onSessionResumptionUpdate(String newHandle, boolean resumable) {
+        }
+
+        @Override
+        public void onGoAway(long timeLeftMillis) {
+        }
+
+        // Context size after the last response, images are thinned out as it nears the compression trigger
+        @Override
+        public void onUsageMetadata(long promptTokens, long responseTokens, long totalTokens, long imagePromptTokens) {
+            if (contextBudget.onUsage(promptTokens, responseTokens, imagePromptTokens)) {
+                Log.d(TAG, "Context " + promptTokens + " tokens, image interval x" + contextBudget.getImageIntervalFactor());
+                updateCaptureInterval();
+            }
+        }
+    };
+
+    // Replayed frames enter where the WebSocket and the capture path would hand them over
+    private final SessionTap.Pipeline replayPipeline = new SessionTap.Pipeline() {
+        @Override
+        public void receive(String message, ServerMessageParser.Listener listener) {
+            liveConnection.receive(message, listener);
+        }
+
+        @Override
+        public void receive(ByteBuffer message, ServerMessageParser.Listener listener) {
+            liveConnection.receive(message, listener);
+        }
+
+        // Uplink frames need an open connection, they are dropped while there is none
+        @Override
+        public boolean send(OutboundScheduler.Lane lane, String message) {
+            if (!liveConnection.isReady()) {
+                return false;
+            }
+            outboundScheduler.enqueue(lane, message);
+            return true;
+        }
+
+        @Override
+        public boolean send(OutboundScheduler.Lane lane, ByteBuffer frame) {
+            if (!liveConnection.isReady()) {
+                return false;
+            }
+            outboundScheduler.enqueue(lane, frame);
+            if (lane == OutboundScheduler.Lane.AUDIO) {
+                latencyMetrics.mark(LatencyMetrics.Milestone.AUDIO_SENT, System.nanoTime());
+            }
+            return true;
+        }
+    };
 
     // Camera methods
     // Open camera for capture
@@ -381,6 +751,9 @@ public class AiInteration {
     private void openCameraForCapture(Context context) {
         try {
             CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            if (powerProbe == null) {
+                powerProbe = new PowerProbe(context.getApplicationContext());
+            }
             // Get the correct camera using QuestCameraHelper.
             cameraId = QuestCameraHelper.getPassthroughCameraId(cameraManager);
 
@@ -404,28 +777,57 @@ public class AiInteration {
                 return;
             }
 
-            Size[] jpegSizes = map.getOutputSizes(ImageFormat.JPEG);
-            int width = Math.min(jpegSizes[0].getWidth(), MAX_IMAGE_DIMENSION);
-            int height = Math.min(jpegSizes[0].getHeight(), MAX_IMAGE_DIMENSION);
-
-            // Create ImageReader for capturing images
-            imageReader = ImageReader.newInstance(
-                    width,
-                    height,
-                    ImageFormat.JPEG,
-                    2
-            );
+            activeCaptureMode = captureMode;
+            if (activeCaptureMode == CaptureMode.YUV_PREVIEW) {
+                // Small preview stream, frames are encoded on yuvFrameEncoder only when sent
+                Size size = chooseYuvSize(map.getOutputSizes(ImageFormat.YUV_420_888));
+                imageReader = ImageReader.newInstance(
+                        size.getWidth(),
+                        size.getHeight(),
+                        ImageFormat.YUV_420_888,
+                        3
+                );
+            } else {
+                Size[] jpegSizes = map.getOutputSizes(ImageFormat.JPEG);
+                int width = Math.min(jpegSizes[0].getWidth(), MAX_IMAGE_DIMENSION);
+                int height = Math.min(jpegSizes[0].getHeight(), MAX_IMAGE_DIMENSION);
+
+                // Create ImageReader for capturing images
+                imageReader = ImageReader.newInstance(
+                        width,
+                        height,
+                        ImageFormat.JPEG,
+                        2
+                );
+            }
             imageReader.setOnImageAvailableListener(imageAvailableListener, cameraHandler);
 
             // Open camera for capture only (no preview)
             cameraManager.openCamera(cameraId, cameraStateCallback, cameraHandler);
             
-            Log.d(TAG, "Camera capture started (no preview)");
+            Log.d(TAG, "Camera capture started (no preview), mode: " + activeCaptureMode);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Error opening camera for capture", e);
         }
     }
 
+    // Largest YUV output whose long side fits YUV_MAX_DIMENSION, or the smallest one available
+    private Size chooseYuvSize(Size[] sizes) {
+        Size best = null;
+        Size smallest = sizes[0];
+        for (Size size : sizes) {
+            int area = size.getWidth() * size.getHeight();
+            if (area < smallest.getWidth() * smallest.getHeight()) {
+                smallest = size;
+            }
+            if (Math.max(size.getWidth(), size.getHeight()) <= YUV_MAX_DIMENSION
+                    && (best == null || area > best.getWidth() * best.getHeight())) {
+                best = size;
+            }
+        }
+        return best != null ? best : smallest;
+    }
+
     // Camera state callback
     // This callback is called when the camera is opened or closed
     private final CameraDevice.StateCallback cameraStateCallback = new CameraDevice.StateCallback() {
@@ -457,8 +859,11 @@ public class AiInteration {
     // This method is called when the camera is opened
     private void createCameraCaptureSession() {
         try {
-            // Create capture request for still pictures (no preview)
-            captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            // Still capture for camera encoded JPEGs, the lighter preview pipeline for YUV frames
+            int template = activeCaptureMode == CaptureMode.YUV_PREVIEW
+                    ? CameraDevice.TEMPLATE_PREVIEW
+                    : CameraDevice.TEMPLATE_STILL_CAPTURE;
+            captureRequestBuilder = cameraDevice.createCaptureRequest(template);
             captureRequestBuilder.addTarget(imageReader.getSurface());
 
             // Create capture session with only ImageReader surface (no preview)
@@ -495,24 +900,70 @@ public class AiInteration {
         if (cameraDevice == null) return;
 
         captureRequestBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+        if (activeCaptureMode == CaptureMode.JPEG_STILL) {
+            // The camera encodes at the quality we would re-encode with, so its JPEGs can be sent as-is
+            captureRequestQuality = imageController.getLevel().jpegQuality;
+            captureRequestBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) captureRequestQuality);
+        }
         isCameraActive = true;
+        if (powerProbe != null) {
+            powerProbe.begin(activeCaptureMode.name());
+        }
+
+        // The session stays configured, single captures are issued by captureScheduler when a frame is due
+        singleCaptureRequest = captureRequestBuilder.build();
+        synchronized (sceneChangeDetector) {
+            sceneChangeDetector.reset();
+        }
+        captureScheduler.start();
+        Log.d(TAG, "Camera capture session started successfully");
+    }
+
+    // Issue one capture, runs on the camera thread
+    private boolean issueCapture(String reason) {
+        CameraCaptureSession session = cameraCaptureSession;
+        if (session == null || singleCaptureRequest == null) {
+            return false;
+        }
+
+        // Camera encoded JPEGs follow the adaptive quality level
+        int quality = imageController.getLevel().jpegQuality;
+        if (activeCaptureMode == CaptureMode.JPEG_STILL && quality != captureRequestQuality) {
+            captureRequestBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) quality);
+            singleCaptureRequest = captureRequestBuilder.build();
+            captureRequestQuality = quality;
+        }
 
         try {
-            // Start repeating capture for continuous image capture (no preview)
-            cameraCaptureSession.setRepeatingRequest(
-                    captureRequestBuilder.build(),
-                    null,
-                    cameraHandler
-            );
-            Log.d(TAG, "Camera capture session started successfully");
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "Error starting capture repeat request", e);
+            captureIssuedNanos = System.nanoTime();
+            captureIssuedReason = reason;
+            session.capture(singleCaptureRequest, singleCaptureCallback, cameraHandler);
+            Log.d(TAG, "Capture requested: " + reason);
+            return true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Error issuing capture", e);
+            return false;
         }
     }
 
+    // A failed capture produces no image, so it has to release the scheduler here
+    private final CameraCaptureSession.CaptureCallback singleCaptureCallback =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                            @NonNull CaptureRequest request,
+                                            @NonNull CaptureFailure failure) {
+                    Log.e(TAG, "Capture failed: " + failure.getReason());
+                    captureScheduler.onCaptureFinished();
+                }
+            };
+
     // close Camera
     // This method is called when the camera is closed
     private void closeCamera() {
+        if (powerProbe != null) {
+            powerProbe.end();
+        }
         if (cameraCaptureSession != null) {
             cameraCaptureSession.close();
             cameraCaptureSession = null;
@@ -534,57 +985,228 @@ public class AiInteration {
             new ImageReader.OnImageAvailableListener() {
                 @Override
                 public void onImageAvailable(ImageReader reader) {
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - lastImageSendTime >= IMAGE_SEND_INTERVAL) {
-                        android.media.Image image = reader.acquireLatestImage();
-                        if (image == null) return;
-
-                        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                        byte[] bytes = new byte[buffer.remaining()];
-                        buffer.get(bytes);
+                    // Every image answers a scheduled capture, so all of them are sent
+                    android.media.Image image = reader.acquireLatestImage();
+                    captureScheduler.onCaptureFinished();
+                    if (image == null) return;
+                    long issuedNanos = captureIssuedNanos;
+                    boolean force = !CaptureScheduler.REASON_INTERVAL.equals(captureIssuedReason);
+
+                    // Nothing is encoded or sent while the socket is backed up
+                    AdaptiveImageController.Decision decision =
+                            imageController.decide(SystemClock.uptimeMillis(), bytesInFlight());
+                    if (decision.action == AdaptiveImageController.Action.SKIP) {
+                        image.close();
+                        return;
+                    }
+                    AdaptiveImageController.Level level = decision.level;
+
+                    if (activeCaptureMode == CaptureMode.YUV_PREVIEW) {
+                        // The encoder copies the planes here and compresses them off this thread
+                        if (yuvSceneChanged(image, force)) {
+                            yuvFrameEncoder.offer(image, issuedNanos, decision.levelIndex,
+                                    level.jpegQuality, level.maxDimension);
+                        }
                         image.close();
+                        return;
+                    }
+
+                    ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    image.close();
 
-                        executorService.execute(() -> processAndSendImage(bytes));
-                        lastImageSendTime = currentTime;
-                        Log.d(TAG, "Image processed and sent based on time interval");
-                    } else {
-                        android.media.Image image = reader.acquireLatestImage();
-                        if (image != null) image.close();
-                        Log.d(TAG, "Image capture skipped: Not enough time elapsed");
+                    int levelIndex = decision.levelIndex;
+                    boolean queued = encodeExecutor.submit(() -> {
+                        if (!isCameraActive) {
+                            Log.d(TAG, "Camera not active, discarding images.");
+                            return;
+                        }
+                        if (jpegSceneChanged(bytes, force) && processAndSendImage(bytes, levelIndex)) {
+                            reportCaptureLatency(issuedNanos);
+                        }
+                    });
+                    if (!queued) {
+                        Log.d(TAG, "Encode thread busy, camera frame dropped");
                     }
                 }
             };
 
-    // Process image and send to WebSocket
-    private void processAndSendImage(byte[] imageBytes) {
-        // Guard check for stopped camera
-        if (!isCameraActive){
-            Log.d(TAG, "Camera not active, discarding images.");
-            return;
+    // Scene check on the luma plane of a YUV frame, runs on the camera thread
+    private boolean yuvSceneChanged(android.media.Image image, boolean force) {
+        if (!sceneDetectionEnabled) {
+            return true;
         }
+        android.media.Image.Plane luma = image.getPlanes()[0];
+        boolean changed;
+        synchronized (sceneChangeDetector) {
+            changed = sceneChangeDetector.offerLuma(luma.getBuffer(), image.getWidth(), image.getHeight(),
+                    luma.getRowStride(), luma.getPixelStride(), SystemClock.uptimeMillis(), force);
+        }
+        if (!changed) {
+            Log.d(TAG, "Scene unchanged, frame skipped");
+        }
+        return changed;
+    }
+
+    // Scene check on a camera JPEG, decoded at 1/8 scale into a reused Bitmap
+    private boolean jpegSceneChanged(byte[] jpeg, boolean force) {
+        if (!sceneDetectionEnabled) {
+            return true;
+        }
+        boolean changed;
+        synchronized (sceneChangeDetector) {
+            Bitmap small;
+            try {
+                small = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, sceneDecodeOptions);
+            } catch (IllegalArgumentException e) {
+                // The reused Bitmap does not fit this frame, decode into a new one
+                sceneDecodeOptions.inBitmap = null;
+                small = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, sceneDecodeOptions);
+            }
+            if (small == null) {
+                return true;
+            }
+            sceneDecodeOptions.inBitmap = small;
 
+            int width = small.getWidth();
+            int height = small.getHeight();
+            if (scenePixels.length < width * height) {
+                scenePixels = new int[width * height];
+            }
+            small.getPixels(scenePixels, 0, width, 0, 0, width, height);
+            changed = sceneChangeDetector.offerArgb(scenePixels, width, height, SystemClock.uptimeMillis(), force);
+        }
+        if (!changed) {
+            Log.d(TAG, "Scene unchanged, frame skipped");
+        }
+        return changed;
+    }
+
+    // Process image and send to WebSocket at the given adaptive quality level, returns whether it was sent
+    // Runs on the encode thread, for camera JPEGs and images from Unity alike
+    private boolean processAndSendImage(byte[] imageBytes, int levelIndex) {
         String currentTime = timeFormat.format(new Date());
         Log.d(TAG, "Image processed and sending at: " + currentTime);
 
-        Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-        Bitmap scaledBitmap = scaleBitmap(bitmap, MAX_IMAGE_DIMENSION);
+        long cpuStart = Debug.threadCpuTimeNanos();
+        AdaptiveImageController.Level level = AdaptiveImageController.DEFAULT_LEVELS[levelIndex];
+        JpegDimensions dimensions = JpegDimensions.parse(imageBytes, 0, imageBytes.length);
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        scaledBitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, byteArrayOutputStream);
+        // Fast path: camera frames (and most app supplied images) are already small enough JPEGs
+        if (canPassThrough(imageBytes, dimensions, level.maxDimension)) {
+            sendMediaChunk(OutboundScheduler.Lane.IMAGE, imageFrameWriter, imageBytes, 0, imageBytes.length, "image/jpeg");
+            imageSendStats.recordPassthrough(Debug.threadCpuTimeNanos() - cpuStart, imageBytes.length);
+            imageController.onImageSent(levelIndex, imageBytes.length);
+            return true;
+        }
 
-        String b64Image = Base64.encodeToString(
-                byteArrayOutputStream.toByteArray(),
-                Base64.DEFAULT | Base64.NO_WRAP
-        );
+        // Let the JPEG decoder do most of the downscaling when the image is much larger than needed
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (dimensions != null) {
+            int longSide = Math.max(dimensions.width, dimensions.height);
+            while (longSide / (options.inSampleSize * 2) >= level.maxDimension) {
+                options.inSampleSize *= 2;
+            }
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+        if (bitmap == null) {
+            Log.e(TAG, "Could not decode image, not sent");
+            return false;
+        }
+        Bitmap scaledBitmap = scaleBitmap(bitmap, level.maxDimension);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        scaledBitmap.compress(Bitmap.CompressFormat.JPEG, level.jpegQuality, byteArrayOutputStream);
 
-        sendMediaChunk(b64Image, "image/jpeg");
+        byte[] jpegBytes = byteArrayOutputStream.toByteArray();
+        sendMediaChunk(OutboundScheduler.Lane.IMAGE, imageFrameWriter, jpegBytes, 0, jpegBytes.length, "image/jpeg");
 
+        if (scaledBitmap != bitmap) {
+            bitmap.recycle();
+        }
         scaledBitmap.recycle();
         try {
             byteArrayOutputStream.close();
         } catch (Exception e) {
             Log.e(TAG, "Error closing stream", e);
         }
+        imageSendStats.recordReencode(Debug.threadCpuTimeNanos() - cpuStart, jpegBytes.length);
+        imageController.onImageSent(levelIndex, jpegBytes.length);
+        return true;
+    }
+
+    // Send a JPEG produced by yuvFrameEncoder, called on the encoder worker thread
+    private void sendEncodedFrame(byte[] jpeg, int length, long captureNanos, int levelIndex) {
+        if (!isCameraActive) {
+            Log.d(TAG, "Camera not active, discarding encoded frame.");
+            return;
+        }
+        sendMediaChunk(OutboundScheduler.Lane.IMAGE, imageFrameWriter, jpeg, 0, length, "image/jpeg");
+        imageController.onImageSent(levelIndex, length);
+        reportCaptureLatency(captureNanos);
+    }
+
+    // Send a JPEG produced by rgbaFrameEncoder, called on the encoder worker thread
+    private void sendEncodedRawFrame(byte[] jpeg, int length, long offerNanos, int levelIndex) {
+        sendMediaChunk(OutboundScheduler.Lane.IMAGE, imageFrameWriter, jpeg, 0, length, "image/jpeg");
+        imageController.onImageSent(levelIndex, length);
+        Log.d(TAG, String.format(Locale.US, "Raw frame to socket: %.1f ms", (System.nanoTime() - offerNanos) / 1e6));
+    }
+
+    // Metrics callback of imageController, runs on the thread that asked for the decision
+    private void onImageDecision(AdaptiveImageController.Decision decision) {
+        if (!"steady".equals(decision.reason)) {
+            Log.d(TAG, "Image quality decision: " + decision.toJson());
+        }
+        if (decision.level.intervalFactor != captureIntervalFactor) {
+            captureIntervalFactor = decision.level.intervalFactor;
+            updateCaptureInterval();
+        }
+        AdaptiveImageController.MetricsListener listener = imageMetricsListener;
+        if (listener != null) {
+            listener.onDecision(decision);
+        }
+    }
+
+    // Capture interval: scene probe or fixed cadence, stretched by the adaptive quality level
+    private long baseCaptureInterval() {
+        return sceneDetectionEnabled ? SCENE_PROBE_INTERVAL_MS : IMAGE_SEND_INTERVAL;
+    }
+
+    private void updateCaptureInterval() {
+        captureScheduler.setIntervalMillis(
+                (long) (baseCaptureInterval() * captureIntervalFactor * contextBudget.getImageIntervalFactor()));
+    }
+
+    // Capture-to-socket latency of one camera frame
+    private void reportCaptureLatency(long captureNanos) {
+        long latencyNanos = System.nanoTime() - captureNanos;
+        captureScheduler.recordDelivered(latencyNanos);
+        Log.d(TAG, String.format(Locale.US, "Capture to socket: %.1f ms", latencyNanos / 1e6));
+    }
+
+    // A JPEG within the size limits is sent unchanged, only its header is read
+    private boolean canPassThrough(byte[] imageBytes, JpegDimensions dimensions, int maxDimension) {
+        return imageBytes.length <= MAX_IMAGE_BYTES
+                && dimensions != null
+                && dimensions.width <= maxDimension
+                && dimensions.height <= maxDimension;
+    }
+
+    // Per-frame CPU time and bytes of the passthrough and re-encode image paths as JSON
+    public String getImageStats() {
+        return imageSendStats.toJson();
+    }
+
+    // Captures per trigger and capture-to-socket latency as JSON
+    public String getCaptureStats() {
+        return captureScheduler.toJson();
+    }
+
+    // CPU, battery charge and thermal headroom per capture mode as JSON
+    public String getCapturePowerStats() {
+        return powerProbe != null ? powerProbe.toJson() : "{}";
     }
 
     // Scale bitmap to max dimension
@@ -631,27 +1253,34 @@ public class AiInteration {
             return;
         }
 
+        micUplink.start();
+        responsePlayback.onRecordingStart();
         audioRecord.startRecording();
+        latencyMetrics.startTurn(System.nanoTime(), false);
         Log.d(TAG, "Start Recording");
         isSpeaking = true;
 
-        executorService.execute(() -> {
+        boolean started = captureExecutor.submit(() -> {
             while (isRecording) {
-                short[] buffer = new short[audioBufferSize];
-                int readSize = audioRecord.read(buffer, 0, buffer.length);
+                AudioRecord record = audioRecord;
+                if (record == null) break;
+
+                // AudioRecord writes into the direct buffer from position 0 without moving it
+                micReadBuffer.clear();
+                int readSize = record.read(micReadBuffer, micReadBuffer.capacity());
 
                 if (readSize > 0) {
-                    synchronized (pcmData) {
-                        for (int i = 0; i < readSize; i++) {
-                            pcmData.add(buffer[i]);
-                        }
-                        if (pcmData.size() >= readSize) {
-                            recordChunk();
-                        }
-                    }
+                    micReadBuffer.limit(readSize);
+                    micUplink.onRead(micReadBuffer);
+                    responsePlayback.onMicRead(SystemClock.uptimeMillis());
                 }
             }
+            micUplink.finish();
         });
+        if (!started) {
+            Log.e(TAG, "Capture thread still busy with the previous recording, not recording");
+            stopAudioInput();
+        }
     }
 
     // This method stops audio input. Invoked when User trigger hand gesture again.
@@ -665,114 +1294,208 @@ public class AiInteration {
             }
             Log.d(TAG, "Stop Recording");
             isSpeaking = false;
+
+            // The user finished talking, time-to-first-audio is measured from here
+            playbackEngine.markTurnStart();
         }
     }
 
-    // Record audio chunk
-    private void recordChunk() {
-        List<Short> dataToSend;
-        synchronized (pcmData) {
-            if (pcmData.isEmpty()) return;
-            dataToSend = new ArrayList<>(pcmData);
-            pcmData.clear();
+    // Uplink side of micUplink, runs on the capture thread
+    private final MicUplink.Sink micSink = new MicUplink.Sink() {
+        // Encodes the chunk on the capture thread, its array is reused for the next chunk
+        @Override
+        public void sendChunk(ByteBuffer chunk) {
+            synchronized (liveConnection.getUplinkLock()) {
+                if (liveConnection.isWaitingForReady()) {
+                    // Not READY yet (connecting, waiting for setupComplete or reconnecting): kept for
+                    // the burst after setupComplete, the oldest audio is dropped after PENDING_AUDIO_BUFFER_MS
+                    pendingAudioBuffer.write(chunk);
+                    return;
+                }
+                Log.d(TAG, "Send Audio Chunk");
+                sendMediaChunk(OutboundScheduler.Lane.AUDIO, audioFrameWriter, chunk.array(), 0, chunk.remaining(),
+                        "audio/pcm");
+            }
         }
 
-        executorService.execute(() -> {
-            ByteBuffer buffer = ByteBuffer.allocate(dataToSend.size() * 2)
-                    .order(ByteOrder.LITTLE_ENDIAN);
+        @Override
+        public void sendControl(String message) {
+            sendRealtimeControl(message);
+        }
 
-            for (Short value : dataToSend) {
-                buffer.putShort(value);
+        @Override
+        public void onSpeechStart() {
+            latencyMetrics.startTurn(System.nanoTime(), false);
+            // Give the model a fresh view of what the user is talking about
+            if (isCameraActive) {
+                captureScheduler.requestCapture(CaptureScheduler.REASON_SPEECH);
             }
+        }
 
-            byte[] byteArray = buffer.array();
-            String base64 = Base64.encodeToString(byteArray, Base64.DEFAULT | Base64.NO_WRAP);
-            Log.d(TAG, "Send Audio Chunk");
-            sendMediaChunk(base64, "audio/pcm");
-        });
+        @Override
+        public int framesInFlight() {
+            return AiInteration.this.framesInFlight();
+        }
+    };
+
+    // Bytes waiting in outboundScheduler or on the WebSocket that have not been written to the network yet
+    private long bytesInFlight() {
+        return outboundScheduler.getQueuedBytes() + liveConnection.queuedBytes();
     }
 
-    // Ingest audio chunk to play
-    // This method is called when an audio chunk is received from WebSocket
-    private void ingestAudioChunkToPlay(String base64AudioChunk) {
-        if (base64AudioChunk == null) return;
+    // Frames waiting in the audio lane or on the WebSocket that have not been written to the network yet
+    private int framesInFlight() {
+        return outboundScheduler.getQueuedFrames(OutboundScheduler.Lane.AUDIO) + liveConnection.queuedFrames();
+    }
 
-        executorService.execute(() -> {
-            try {
-                byte[] arrayBuffer = base64ToArrayBuffer(base64AudioChunk);
-                synchronized (audioQueue) {
-                    audioQueue.add(arrayBuffer);
-                }
-                if (!isPlaying) {
-                    playNextAudioChunk();
-                }
-                Log.d(TAG, "Audio chunk added to the queue");
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing chunk", e);
+    // Barge-ins and playback queue overflows reported by responsePlayback
+    private final ResponsePlayback.Listener responsePlaybackListener = new ResponsePlayback.Listener() {
+        // Tell Unity the response was cut off
+        @Override
+        public void onBargeIn(String source, boolean wasActive) {
+            Log.d(TAG, "Barge-in from " + source + ", audio active: " + wasActive);
+
+            if (messageCallback != null) {
+                messageCallback.onMessageReceived("Interrupted by " + source, "interrupted");
             }
-        });
+        }
+
+        @Override
+        public void onPlaybackQueueFull() {
+            Log.w(TAG, "Playback queue full, audio chunk dropped");
+        }
+    };
+
+    // Playback counters (time-to-first-audio, underruns, jitter target) as JSON
+    public String getPlaybackStats() {
+        return playbackEngine.getStats().toJson();
     }
 
-    // Play next audio chunk
-    // This method is called when an audio chunk is ready to be played
-    private void playNextAudioChunk() {
-        executorService.execute(() -> {
-            while (true) {
-                byte[] chunk;
-                synchronized (audioQueue) {
-                    if (audioQueue.isEmpty()) break;
-                    chunk = audioQueue.remove(0);
-                }
+    // Local barge-ins, how many the server confirmed and how many were false positives, as JSON
+    public String getBargeInStats() {
+        return bargeInGuard.toJson();
+    }
 
-                isPlaying = true;
-                playAudio(chunk);
-            }
-            isPlaying = false;
+    public SessionConfig.AudioOutput getAudioOutput(){ return audioOutput;}
 
-            // Check for new chunks that might have arrived while we were exiting
-            synchronized (audioQueue) {
-                if (!audioQueue.isEmpty()) {
-                    playNextAudioChunk();
-                }
+    // Shared buffer Unity reads response audio from, null when the plugin plays it
+    public ByteBuffer getUnityAudioBuffer() {
+        return unityAudioRing != null ? unityAudioRing.getBuffer() : null;
+    }
+
+    // Ring cursors, buffered audio and Unity side underruns as JSON
+    public String getUnityAudioStats() {
+        return unityAudioRing != null ? unityAudioRing.toJson() : "{}";
+    }
+
+    // Reconnect attempts, resumed sessions, goAway notices and the last outage as JSON
+    public String getConnectionStats() {
+        return reconnectSupervisor.toJson();
+    }
+
+    // Percentiles of the time from turn start to each response milestone as JSON
+    public String getLatencyStats() {
+        return latencyMetrics.toJson();
+    }
+
+    public void resetLatencyStats() {
+        latencyMetrics.reset();
+    }
+
+    // Sliding-window compression: at triggerTokens the server shrinks the context to targetTokens.
+    // Takes effect with the next connection, until then the budget of the running one stays.
+    // Throws IllegalArgumentException unless 0 < target < trigger.
+    public void setContextWindowCompression(long triggerTokens, long targetTokens) {
+        sessionConfig = sessionConfig.toBuilder().contextWindowCompression(triggerTokens, targetTokens).build();
+    }
+
+    // The session settings in use as JSON, the profile name included
+    public String getSessionConfig() {
+        return sessionConfig.toJson();
+    }
+
+    // Context size, image share, compressions and tokens used in this session as JSON
+    public String getContextStats() {
+        return contextBudget.toJson();
+    }
+
+    // Record uplink realtime_input frames and server frames to file (overwritten) until
+    // stopSessionRecording. Returns false when the file cannot be created.
+    public boolean startSessionRecording(File file) {
+        try {
+            sessionTap.startRecording(file);
+            Log.d(TAG, "Recording session to " + file);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating session log", e);
+            return false;
+        }
+    }
+
+    public void stopSessionRecording() {
+        try {
+            SessionLog recorded = sessionTap.stopRecording();
+            if (recorded != null) {
+                Log.d(TAG, "Session recorded: " + recorded.toJson());
             }
-        });
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing session log", e);
+        }
     }
 
-    // Play audio
-    private void playAudio(byte[] byteArray) {
-        if (audioTrack == null) {
-            audioTrack = new AudioTrack(
-                    android.media.AudioManager.STREAM_MUSIC,
-                    RECEIVE_SAMPLE_RATE,
-                    AudioFormat.CHANNEL_OUT_MONO,
-                    AudioFormat.ENCODING_PCM_16BIT,
-                    AudioTrack.getMinBufferSize(
-                            RECEIVE_SAMPLE_RATE,
-                            AudioFormat.CHANNEL_OUT_MONO,
-                            AudioFormat.ENCODING_PCM_16BIT
-                    ),
-                    AudioTrack.MODE_STREAM
-            );
+    // Play a recorded session back on the IrisReplay thread. serverFrames: the recorded responses go
+    // through the parser, playback and Unity callbacks. uplinkFrames: the recorded audio, images and
+    // activity signals are sent on the current connection. speed: 1 real time, 0 as fast as possible.
+    // Returns false when a replay is running or the file is not a session log.
+    // Throws IllegalArgumentException for a negative speed.
+    public boolean startSessionReplay(File file, float speed, boolean serverFrames, boolean uplinkFrames) {
+        try {
+            return sessionTap.startReplay(file, speed, serverFrames, uplinkFrames,
+                    threadFactory("IrisReplay", Process.THREAD_PRIORITY_DEFAULT));
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening session log", e);
+            return false;
         }
+    }
 
-        audioTrack.write(byteArray, 0, byteArray.length);
-        audioTrack.play();
+    public void stopSessionReplay() {
+        sessionTap.stopReplay();
+    }
 
-        executorService.execute(() -> {
-            while (audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-            audioTrack.stop();
-        });
+    // Recording and replay counters as JSON
+    public String getSessionLogStats() {
+        return sessionTap.toJson();
+    }
+
+    // Keep a set up connection ready so start() does not wait for DNS, TCP, TLS and setup
+    public void setWarmStandbyEnabled(boolean enabled) {
+        liveConnection.setWarmStandbyEnabled(enabled);
     }
 
-    // Convert base64 to byte array
-    private byte[] base64ToArrayBuffer(String base64) {
-        return Base64.decode(base64, Base64.DEFAULT);
+    // DNS / TCP / TLS / upgrade / setup-ack breakdown of the active and the standby connection as JSON,
+    // with the time from start() to READY, how often the standby was used and the time spent in each
+    // connection state
+    public String getConnectionTimings() {
+        return liveConnection.toJson();
+    }
+
+    // Outbound lane depths, drops, queue wait and socket backpressure as JSON
+    public String getOutboundStats() {
+        return outboundScheduler.toJson();
+    }
+
+    // Queue depth, rejected and failed tasks of the bounded worker threads as JSON
+    public String getThreadStats() {
+        return "{\"capture\":" + captureExecutor.toJson()
+                + ",\"encode\":" + encodeExecutor.toJson() + "}";
+    }
+
+    // Named thread with an Android scheduling priority, set from the thread itself
+    private static ThreadFactory threadFactory(String name, int priority) {
+        return runnable -> new Thread(() -> {
+            Process.setThreadPriority(priority);
+            runnable.run();
+        }, name);
     }
 
     // Clean up resources
@@ -780,30 +1503,29 @@ public class AiInteration {
         // First stop camera capture
         // And then disconnect from Gemini Live API
         stopRecording();
-        disconnect();
-
-        if (executorService != null){
-            executorService.shutdown();
-        }
-
-        // Clear audio queue
-        synchronized (audioQueue) {
-            audioQueue.clear();
-        }
+        stopSessionReplay();
+        stopSessionRecording();
+        liveConnection.setWarmStandbyEnabled(false);
+        disconnect(false);
+
+        // The capture loop ends once isRecording is false, queued image work is allowed to finish
+        captureExecutor.shutdown(THREAD_SHUTDOWN_TIMEOUT_MS);
+        encodeExecutor.shutdown(THREAD_SHUTDOWN_TIMEOUT_MS);
+        rgbaFrameEncoder.release();
+
+        // Stop playback thread, queued chunks are dropped and the AudioTrack is released
+        playbackEngine.shutdown();
+        outboundScheduler.shutdown();
         
         // Clear PCM data
-        synchronized (pcmData) {
-            pcmData.clear();
-        }
-
-        if (audioTrack != null) {
-            audioTrack.release();
-            audioTrack = null;
-        }
+        micUplink.clear();
 
         if (cameraThread != null){
             cameraThread.quitSafely();
         }
+        if (networkThread != null){
+            networkThread.quitSafely();
+        }
 
         closeCamera();
     }
@@ -0,0 +1,64 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// How captured microphone audio is cut into realtime_input frames.
+// Every frame carries the full JSON envelope plus WebSocket framing, so larger chunks mean
+// fewer frames and less overhead per second of audio, at the cost of added uplink latency.
+//  - targetChunkMillis: audio per frame while the user is speaking
+//  - maxFramesInFlight: frames queued on the socket but not yet written before capture stops
+//    sending and lets audio accumulate in the ring buffer (0 = no limit)
+//  - flushOnSilence: send the partial chunk as soon as the VAD hears a pause instead of
+//    waiting for a full chunk, so the end of a phrase is not delayed by the chunk size
+public final class AudioChunkingPolicy {
+    public static final int MIN_CHUNK_MILLIS = 10;
+    public static final int MAX_CHUNK_MILLIS = 1000;
+
+    public static final AudioChunkingPolicy DEFAULT = new AudioChunkingPolicy(100, 4, true);
+
+    private final int targetChunkMillis;
+    private final int maxFramesInFlight;
+    private final boolean flushOnSilence;
+
+    public AudioChunkingPolicy(int targetChunkMillis, int maxFramesInFlight, boolean flushOnSilence) {
+        if (targetChunkMillis < MIN_CHUNK_MILLIS || targetChunkMillis > MAX_CHUNK_MILLIS) {
+            throw new IllegalArgumentException("targetChunkMillis must be between " + MIN_CHUNK_MILLIS
+                    + " and " + MAX_CHUNK_MILLIS + ": " + targetChunkMillis);
+        }
+        if (maxFramesInFlight < 0) {
+            throw new IllegalArgumentException("maxFramesInFlight must not be negative: " + maxFramesInFlight);
+        }
+        this.targetChunkMillis = targetChunkMillis;
+        this.maxFramesInFlight = maxFramesInFlight;
+        this.flushOnSilence = flushOnSilence;
+    }
+
+    public int getTargetChunkMillis() {
+        return targetChunkMillis;
+    }
+
+    public int getMaxFramesInFlight() {
+        return maxFramesInFlight;
+    }
+
+    public boolean isFlushOnSilence() {
+        return flushOnSilence;
+    }
+
+    // Chunk size in bytes of 16-bit mono PCM, always a whole number of samples
+    public int chunkBytes(int sampleRate) {
+        return (int) ((long) sampleRate * 2 * targetChunkMillis / 1000) & ~1;
+    }
+
+    // Whether another frame may be handed to the socket with framesInFlight still queued
+    public boolean canSend(int framesInFlight) {
+        return maxFramesInFlight == 0 || framesInFlight < maxFramesInFlight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "chunk=%dms inFlight=%s flushOnSilence=%b",
+                targetChunkMillis, maxFramesInFlight == 0 ? "unlimited" : String.valueOf(maxFramesInFlight),
+                flushOnSilence);
+    }
+}
@@ -0,0 +1,338 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Single long-lived playback thread for response audio.
+// The WebSocket receive thread enqueues decoded PCM chunks into a bounded SPSC queue and the
+// playback thread owns the sink (the AudioTrack on device): it primes an adaptive jitter buffer
+// at the start of a response, then writes chunks in blocking mode.
+// The jitter target grows after an underrun and shrinks again after clean turns.
+// Chunks are written in short slices so a barge-in (interrupt) is handled within about one slice.
+public class AudioPlaybackEngine {
+
+    // Destination of decoded 16-bit mono PCM
+    public interface PcmSink {
+        // Blocks until the bytes were accepted, returns the byte count or a negative error code
+        int write(byte[] data, int offset, int length);
+
+        void play();
+
+        void pause();
+
+        void flush();
+
+        void release();
+
+        // The response has played out, silence from here on is not an underrun
+        default void endOfStream() {
+        }
+    }
+
+    // Told on the playback thread when the first sample of a response was written to the sink
+    public interface FirstAudioListener {
+        void onFirstAudioWritten(long nanoTime);
+    }
+
+    // Snapshot of the playback counters
+    public static final class Stats {
+        public final long chunksPlayed;
+        public final long bytesPlayed;
+        public final long underruns;
+        public final long droppedChunks;
+        public final long timeToFirstAudioMillis;
+        public final int jitterTargetMillis;
+        public final int queuedChunks;
+        public final long interruptions;
+        public final long lastFlushLatencyMicros;
+
+        Stats(long chunksPlayed, long bytesPlayed, long underruns, long droppedChunks,
+              long timeToFirstAudioMillis, int jitterTargetMillis, int queuedChunks,
+              long interruptions, long lastFlushLatencyMicros) {
+            this.chunksPlayed = chunksPlayed;
+            this.bytesPlayed = bytesPlayed;
+            this.underruns = underruns;
+            this.droppedChunks = droppedChunks;
+            this.timeToFirstAudioMillis = timeToFirstAudioMillis;
+            this.jitterTargetMillis = jitterTargetMillis;
+            this.queuedChunks = queuedChunks;
+            this.interruptions = interruptions;
+            this.lastFlushLatencyMicros = lastFlushLatencyMicros;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"chunksPlayed\":%d,\"bytesPlayed\":%d,\"underruns\":%d,\"droppedChunks\":%d,"
+                            + "\"timeToFirstAudioMs\":%d,\"jitterTargetMs\":%d,\"queuedChunks\":%d,"
+                            + "\"interruptions\":%d,\"lastFlushLatencyUs\":%d}",
+                    chunksPlayed, bytesPlayed, underruns, droppedChunks,
+                    timeToFirstAudioMillis, jitterTargetMillis, queuedChunks,
+                    interruptions, lastFlushLatencyMicros);
+        }
+    }
+
+    private static final long PARK_NANOS = 2_000_000L;          // idle poll interval of the playback thread
+    private static final long IDLE_PAUSE_NANOS = 400_000_000L;  // pause the sink after this much silence
+    private static final int JITTER_STEP_MILLIS = 20;
+    private static final int WRITE_SLICE_MILLIS = 10;           // bounds how long an interrupt can wait
+
+    private final PcmSink sink;
+    private final SpscQueue<PcmChunkPool.Chunk> queue;
+    private final int bytesPerSecond;
+    private final int writeSliceBytes;
+    private final int minJitterMillis;
+    private final int maxJitterMillis;
+    private final Thread thread;
+
+    private volatile boolean running = false;
+    private volatile boolean turnOpen = false;
+    private volatile boolean playing = false;
+    private volatile int jitterTargetMillis;
+    private volatile long turnStartNanos = 0;
+    private volatile boolean interruptRequested = false;
+    private volatile long interruptRequestNanos = 0;
+
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+    private final AtomicLong chunksPlayed = new AtomicLong();
+    private final AtomicLong bytesPlayed = new AtomicLong();
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong droppedChunks = new AtomicLong();
+    private volatile long timeToFirstAudioNanos = -1;
+    private final AtomicLong interruptions = new AtomicLong();
+    private volatile long lastFlushLatencyNanos = -1;
+    private volatile FirstAudioListener firstAudioListener;
+
+    // Playback thread state
+    private boolean sinkPlaying = false;
+    private boolean turnHadUnderrun = false;
+    private boolean awaitingFirstAudio = true;
+    private boolean firstWritePending = false;
+    private long playheadEndNanos = 0;
+
+    public AudioPlaybackEngine(PcmSink sink, int sampleRate, int queueCapacity,
+                               int minJitterMillis, int maxJitterMillis, ThreadFactory threadFactory) {
+        this.sink = sink;
+        this.queue = new SpscQueue<>(queueCapacity);
+        this.bytesPerSecond = sampleRate * 2;
+        this.writeSliceBytes = (bytesPerSecond * WRITE_SLICE_MILLIS / 1000) & ~1;
+        this.minJitterMillis = minJitterMillis;
+        this.maxJitterMillis = Math.max(minJitterMillis, maxJitterMillis);
+        this.jitterTargetMillis = minJitterMillis;
+        this.thread = threadFactory.newThread(this::runLoop);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void setFirstAudioListener(FirstAudioListener listener) {
+        this.firstAudioListener = listener;
+    }
+
+    // Called by the single producer (WebSocket receive thread).
+    // Returns false and releases the chunk when the queue is full.
+    public boolean enqueue(PcmChunkPool.Chunk chunk) {
+        turnOpen = true;
+        if (!queue.offer(chunk)) {
+            droppedChunks.incrementAndGet();
+            chunk.release();
+            return false;
+        }
+        queuedBytes.addAndGet(chunk.length);
+        LockSupport.unpark(thread);
+        return true;
+    }
+
+    // The server finished the response, the queue drains without counting underruns
+    public void endOfTurn() {
+        turnOpen = false;
+        LockSupport.unpark(thread);
+    }
+
+    // Reference point for time-to-first-audio, e.g. when the user stops talking.
+    // Without a mark the time is measured from the arrival of the first response chunk.
+    public void markTurnStart() {
+        turnStartNanos = System.nanoTime();
+    }
+
+    // Barge-in: drop all queued audio and pause + flush the sink. Safe to call from any thread.
+    // Returns true when there was audio playing or waiting to be played.
+    public boolean interrupt() {
+        boolean active = playing || !queue.isEmpty();
+        turnOpen = false;
+        interruptRequestNanos = System.nanoTime();
+        interruptRequested = true;
+        LockSupport.unpark(thread);
+        return active;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public Stats getStats() {
+        long ttfa = timeToFirstAudioNanos;
+        long flushLatency = lastFlushLatencyNanos;
+        return new Stats(chunksPlayed.get(), bytesPlayed.get(), underruns.get(), droppedChunks.get(),
+                ttfa < 0 ? -1 : ttfa / 1_000_000L, jitterTargetMillis, queue.size(),
+                interruptions.get(), flushLatency < 0 ? -1 : flushLatency / 1000L);
+    }
+
+    // Stop the playback thread and release the sink
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        try {
+            while (running) {
+                if (interruptRequested) {
+                    flushForInterrupt();
+                    continue;
+                }
+
+                PcmChunkPool.Chunk chunk = queue.poll();
+                if (chunk == null) {
+                    onQueueEmpty();
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                    continue;
+                }
+                queuedBytes.addAndGet(-chunk.length);
+
+                if (!playing) {
+                    primeJitterBuffer(chunk.length);
+                }
+                if (interruptRequested) {
+                    chunk.release();
+                    continue;
+                }
+                writeChunk(chunk);
+            }
+        } finally {
+            PcmChunkPool.Chunk chunk;
+            while ((chunk = queue.poll()) != null) {
+                chunk.release();
+            }
+            sink.release();
+        }
+    }
+
+    // Hold the first chunk of a response until the jitter target is buffered,
+    // the target time has passed, or the server says the turn is complete
+    private void primeJitterBuffer(int firstChunkBytes) {
+        long arrival = System.nanoTime();
+        long deadline = arrival + jitterTargetMillis * 1_000_000L;
+        int targetBytes = (int) ((long) bytesPerSecond * jitterTargetMillis / 1000);
+
+        while (running && turnOpen && !interruptRequested && firstChunkBytes + queuedBytes.get() < targetBytes) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+            LockSupport.parkNanos(this, Math.min(remaining, PARK_NANOS));
+        }
+
+        if (!sinkPlaying) {
+            sink.play();
+            sinkPlaying = true;
+        }
+        playing = true;
+
+        // Re-priming after an underrun is not the start of a new response
+        if (awaitingFirstAudio) {
+            long start = turnStartNanos != 0 ? turnStartNanos : arrival;
+            timeToFirstAudioNanos = System.nanoTime() - start;
+            turnStartNanos = 0;
+            awaitingFirstAudio = false;
+            firstWritePending = true;
+        }
+    }
+
+    private void writeChunk(PcmChunkPool.Chunk chunk) {
+        int offset = 0;
+        while (offset < chunk.length && !interruptRequested) {
+            int written = sink.write(chunk.data, offset, Math.min(writeSliceBytes, chunk.length - offset));
+            if (written <= 0) break;
+            offset += written;
+        }
+
+        FirstAudioListener listener = firstAudioListener;
+        if (firstWritePending && offset > 0) {
+            firstWritePending = false;
+            if (listener != null) {
+                listener.onFirstAudioWritten(System.nanoTime());
+            }
+        }
+
+        // Track when the written audio runs out to detect audible underruns
+        long now = System.nanoTime();
+        long duration = (long) offset * 1_000_000_000L / bytesPerSecond;
+        playheadEndNanos = Math.max(playheadEndNanos, now) + duration;
+
+        // A chunk cut short by an interrupt was not played, only its written bytes were
+        if (offset == chunk.length) {
+            chunksPlayed.incrementAndGet();
+        }
+        bytesPlayed.addAndGet(offset);
+        chunk.release();
+    }
+
+    // Runs on the playback thread after interrupt()
+    private void flushForInterrupt() {
+        interruptRequested = false;
+
+        PcmChunkPool.Chunk chunk;
+        while ((chunk = queue.poll()) != null) {
+            queuedBytes.addAndGet(-chunk.length);
+            chunk.release();
+        }
+
+        // AudioTrack only flushes while paused or stopped
+        sink.pause();
+        sink.flush();
+        sinkPlaying = false;
+        playing = false;
+        playheadEndNanos = 0;
+        turnHadUnderrun = false;
+        awaitingFirstAudio = true;
+        firstWritePending = false;
+
+        interruptions.incrementAndGet();
+        lastFlushLatencyNanos = System.nanoTime() - interruptRequestNanos;
+    }
+
+    private void onQueueEmpty() {
+        if (!sinkPlaying) return;
+
+        long now = System.nanoTime();
+        if (playing && now > playheadEndNanos) {
+            playing = false;
+            if (turnOpen) {
+                // Sink ran dry in the middle of a response: re-prime with a deeper jitter buffer
+                underruns.incrementAndGet();
+                turnHadUnderrun = true;
+                jitterTargetMillis = Math.min(maxJitterMillis, jitterTargetMillis + JITTER_STEP_MILLIS);
+            } else {
+                if (!turnHadUnderrun) {
+                    jitterTargetMillis = Math.max(minJitterMillis, jitterTargetMillis - JITTER_STEP_MILLIS / 2);
+                }
+                turnHadUnderrun = false;
+                awaitingFirstAudio = true;
+                sink.endOfStream();
+            }
+        }
+
+        if (!playing && now > playheadEndNanos + IDLE_PAUSE_NANOS) {
+            sink.pause();
+            sinkPlaying = false;
+        }
+    }
+}
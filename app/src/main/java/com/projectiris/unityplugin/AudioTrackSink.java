@@ -0,0 +1,66 @@
+package com.projectiris.unityplugin;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.util.Log;
+
+// AudioTrack backed sink for AudioPlaybackEngine.
+// Only the playback thread touches the track, so no locking is needed here.
+public class AudioTrackSink implements AudioPlaybackEngine.PcmSink {
+    private static final String TAG = "AudioTrackSink";
+
+    private final AudioTrack audioTrack;
+
+    public AudioTrackSink(int sampleRate) {
+        int minBufferSize = AudioTrack.getMinBufferSize(
+                sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT
+        );
+
+        audioTrack = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .build())
+                .setBufferSizeInBytes(minBufferSize)
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                .build();
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        int written = audioTrack.write(data, offset, length, AudioTrack.WRITE_BLOCKING);
+        if (written < 0) {
+            Log.e(TAG, "AudioTrack write error: " + written);
+        }
+        return written;
+    }
+
+    @Override
+    public void play() {
+        audioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        audioTrack.pause();
+    }
+
+    @Override
+    public void flush() {
+        audioTrack.flush();
+    }
+
+    @Override
+    public void release() {
+        audioTrack.release();
+    }
+}
@@ -0,0 +1,75 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// Decides whether response audio is dropped after a local barge-in.
+// The local VAD flushes playback as soon as the user seems to talk over the response, but a cough
+// or the speaker bleeding into the mic trigger it as well. Only the server knows whether the user
+// took the turn: it answers a real barge-in with interrupted. Audio that arrives after a local
+// trigger is dropped until interrupted or turnComplete, or until confirmTimeoutMillis pass without
+// either; then the trigger counts as a false positive and the rest of the answer plays again.
+// Called from the capture thread (onLocalBargeIn) and the WebSocket thread (everything else).
+public class BargeInGuard {
+    public static final long DEFAULT_CONFIRM_TIMEOUT_MS = 1000;
+
+    private final long confirmTimeoutMillis;
+
+    private boolean discarding = false;
+    private long deadlineMillis = 0;
+    private long localTriggers = 0;
+    private long confirmed = 0;
+    private long falsePositives = 0;
+    private long discardedChunks = 0;
+
+    public BargeInGuard(long confirmTimeoutMillis) {
+        if (confirmTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("confirmTimeoutMillis must be positive: " + confirmTimeoutMillis);
+        }
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+    }
+
+    // The local VAD interrupted playback
+    public synchronized void onLocalBargeIn(long nowMillis) {
+        localTriggers++;
+        discarding = true;
+        deadlineMillis = nowMillis + confirmTimeoutMillis;
+    }
+
+    // For every response audio chunk: true when it is dropped
+    public synchronized boolean discardAudio(long nowMillis) {
+        if (!discarding) {
+            return false;
+        }
+        if (nowMillis >= deadlineMillis) {
+            // The server kept talking without interrupting: nobody took the turn
+            discarding = false;
+            falsePositives++;
+            return false;
+        }
+        discardedChunks++;
+        return true;
+    }
+
+    // The server confirmed the user took the turn
+    public synchronized void onInterrupted() {
+        if (discarding) {
+            confirmed++;
+        }
+        discarding = false;
+    }
+
+    // The interrupted response ended, the next one plays
+    public synchronized void onTurnComplete() {
+        discarding = false;
+    }
+
+    public synchronized boolean isDiscarding() {
+        return discarding;
+    }
+
+    public synchronized String toJson() {
+        return String.format(Locale.US,
+                "{\"localTriggers\":%d,\"confirmed\":%d,\"falsePositives\":%d,\"discardedChunks\":%d}",
+                localTriggers, confirmed, falsePositives, discardedChunks);
+    }
+}
@@ -0,0 +1,89 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One named worker thread with a bounded work queue.
+// The thread is started up front and lives for the whole session. Work submitted while the queue is
+// full is rejected and counted instead of growing the queue or spawning another thread, and a task
+// that throws is counted without killing the thread, so the thread count never changes.
+public class BoundedExecutor {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile int maxQueued = 0;
+
+    public BoundedExecutor(String name, int queueCapacity, ThreadFactory threadFactory) {
+        this.name = name;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory);
+        executor.prestartAllCoreThreads();
+    }
+
+    // Queue a task, returns false (and counts it) when the queue is full or the executor is shut down
+    public boolean submit(Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                }
+                completed.incrementAndGet();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        submitted.incrementAndGet();
+        int queued = executor.getQueue().size();
+        if (queued > maxQueued) {
+            maxQueued = queued;
+        }
+        return true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    // Stop accepting work and wait up to timeoutMillis for queued work to finish.
+    // Long running tasks (e.g. a capture loop) must be told to stop by their owner first.
+    public boolean shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        return false;
+    }
+
+    public String toJson() {
+        return String.format(Locale.US,
+                "{\"name\":\"%s\",\"queued\":%d,\"maxQueued\":%d,\"submitted\":%d,\"completed\":%d,"
+                        + "\"rejected\":%d,\"failed\":%d}",
+                name, executor.getQueue().size(), maxQueued, submitted.get(), completed.get(),
+                rejected.get(), failed.get());
+    }
+}
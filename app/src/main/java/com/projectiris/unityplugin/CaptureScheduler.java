@@ -0,0 +1,186 @@
+package com.projectiris.unityplugin;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Decides when the camera takes a picture.
+// The capture session stays open, but a single capture is only issued when a frame is due:
+// on the interval, when the user starts speaking, or when Unity asks for one.
+// At most one capture is in flight; requests arriving meanwhile (or within minSpacingMillis of
+// the previous capture) are coalesced into one follow-up capture.
+// All scheduling runs on the timer's thread (the camera handler thread on device).
+public class CaptureScheduler {
+    public static final String REASON_INTERVAL = "interval";
+    public static final String REASON_SPEECH = "speech";
+    public static final String REASON_UNITY = "unity";
+
+    // A capture that never produced an image stops blocking new ones after this long
+    private static final long IN_FLIGHT_TIMEOUT_MILLIS = 2000;
+
+    // Handler-like timer, the device implementation wraps android.os.Handler
+    public interface Timer {
+        long uptimeMillis();
+
+        void postDelayed(Runnable runnable, long delayMillis);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    // Issues one capture request, returns false when the camera could not take it
+    public interface CaptureIssuer {
+        boolean issueCapture(String reason);
+    }
+
+    private final Timer timer;
+    private final CaptureIssuer issuer;
+    private volatile long intervalMillis;
+    private final long minSpacingMillis;
+
+    // Timer thread state
+    private boolean running = false;
+    private boolean inFlight = false;
+    private long inFlightSinceMillis = 0;
+    private long lastIssueMillis = Long.MIN_VALUE / 2;
+    private String pendingReason = null;
+
+    // Counters, read from any thread
+    private final Map<String, Long> capturesByReason = new LinkedHashMap<>();
+    private long failedCaptures = 0;
+    private long framesDelivered = 0;
+    private long lastLatencyNanos = -1;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+
+    private final Runnable intervalTick = () -> schedule(REASON_INTERVAL);
+    private final Runnable deferredTick = () -> {
+        String reason = pendingReason;
+        pendingReason = null;
+        if (reason != null) schedule(reason);
+    };
+
+    public CaptureScheduler(Timer timer, long intervalMillis, long minSpacingMillis, CaptureIssuer issuer) {
+        this.timer = timer;
+        this.intervalMillis = intervalMillis;
+        this.minSpacingMillis = minSpacingMillis;
+        this.issuer = issuer;
+    }
+
+    // Start with an immediate capture, then one per interval
+    public void start() {
+        timer.postDelayed(() -> {
+            running = true;
+            inFlight = false;
+            pendingReason = null;
+            schedule(REASON_INTERVAL);
+        }, 0);
+    }
+
+    public void stop() {
+        timer.postDelayed(() -> {
+            running = false;
+            pendingReason = null;
+            timer.removeCallbacks(intervalTick);
+            timer.removeCallbacks(deferredTick);
+        }, 0);
+    }
+
+    // Applies from the next interval tick
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    // Safe to call from any thread
+    public void requestCapture(String reason) {
+        timer.postDelayed(() -> schedule(reason), 0);
+    }
+
+    // The image of the in-flight capture arrived (or the capture failed), call on the timer thread
+    public void onCaptureFinished() {
+        inFlight = false;
+        if (running && pendingReason != null) {
+            String reason = pendingReason;
+            pendingReason = null;
+            schedule(reason);
+        }
+    }
+
+    // Time from issuing the capture until the frame was handed to the socket
+    public synchronized void recordDelivered(long latencyNanos) {
+        framesDelivered++;
+        lastLatencyNanos = latencyNanos;
+        totalLatencyNanos += latencyNanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+    }
+
+    public synchronized String toJson() {
+        StringBuilder reasons = new StringBuilder("{");
+        for (Map.Entry<String, Long> entry : capturesByReason.entrySet()) {
+            if (reasons.length() > 1) reasons.append(',');
+            reasons.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+        reasons.append('}');
+        return String.format(Locale.US,
+                "{\"captures\":%s,\"failed\":%d,\"delivered\":%d,\"lastLatencyMs\":%.1f,"
+                        + "\"avgLatencyMs\":%.1f,\"maxLatencyMs\":%.1f}",
+                reasons, failedCaptures, framesDelivered,
+                lastLatencyNanos < 0 ? -1.0 : lastLatencyNanos / 1e6,
+                framesDelivered == 0 ? 0.0 : totalLatencyNanos / 1e6 / framesDelivered,
+                maxLatencyNanos / 1e6);
+    }
+
+    private void schedule(String reason) {
+        if (!running) {
+            return;
+        }
+
+        long now = timer.uptimeMillis();
+        if (inFlight && now - inFlightSinceMillis < IN_FLIGHT_TIMEOUT_MILLIS) {
+            pendingReason = merge(pendingReason, reason);
+            return;
+        }
+
+        long wait = lastIssueMillis + minSpacingMillis - now;
+        if (wait > 0) {
+            pendingReason = merge(pendingReason, reason);
+            timer.removeCallbacks(deferredTick);
+            timer.postDelayed(deferredTick, wait);
+            return;
+        }
+
+        String merged = merge(pendingReason, reason);
+        pendingReason = null;
+        issue(merged, now);
+    }
+
+    private void issue(String reason, long now) {
+        lastIssueMillis = now;
+        inFlight = true;
+        inFlightSinceMillis = now;
+
+        // Any capture restarts the interval, so a speech or Unity capture is not followed by a redundant one
+        timer.removeCallbacks(intervalTick);
+        timer.postDelayed(intervalTick, intervalMillis);
+
+        boolean issued = issuer.issueCapture(reason);
+        synchronized (this) {
+            if (issued) {
+                Long count = capturesByReason.get(reason);
+                capturesByReason.put(reason, count == null ? 1 : count + 1);
+            } else {
+                failedCaptures++;
+            }
+        }
+        if (!issued) {
+            inFlight = false;
+        }
+    }
+
+    // Explicit requests win over the interval when several are coalesced
+    private static String merge(String pending, String reason) {
+        if (pending == null || REASON_INTERVAL.equals(pending)) {
+            return reason;
+        }
+        return pending;
+    }
+}
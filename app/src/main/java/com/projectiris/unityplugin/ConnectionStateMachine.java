@@ -0,0 +1,108 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// State of the Live API connection media is sent on, and how long it spends in each state.
+// CONNECTING: socket, TLS and WebSocket upgrade in progress
+// SETTING_UP: setup message sent, waiting for setupComplete (the server ignores realtime input until then)
+// READY: setupComplete received, media flows
+// DRAINING: the connection is going away (stop() flushing the send queue, or goAway), no new media
+// CLOSED: no connection
+// Transitions that do not fit the current state are ignored (e.g. a late setupComplete after a close).
+// Times are passed in by the caller (uptime milliseconds), callers may be on any thread.
+public class ConnectionStateMachine {
+
+    public enum State {
+        CONNECTING, SETTING_UP, READY, DRAINING, CLOSED
+    }
+
+    private static final State[] STATES = State.values();
+
+    private State state = State.CLOSED;
+    private long enteredMillis;
+    private long connectingMillis = -1;
+    private long lastConnectToReadyMillis = -1;
+
+    // Per state: completed visits, time in the last visit, longest visit, total time
+    private final long[] visits = new long[STATES.length];
+    private final long[] lastMillis = new long[STATES.length];
+    private final long[] maxMillis = new long[STATES.length];
+    private final long[] totalMillis = new long[STATES.length];
+
+    public ConnectionStateMachine(long nowMillis) {
+        this.enteredMillis = nowMillis;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean is(State expected) {
+        return state == expected;
+    }
+
+    // Returns false (and changes nothing) when next is not reachable from the current state
+    public synchronized boolean moveTo(State next, long nowMillis) {
+        if (!canMove(state, next)) {
+            return false;
+        }
+        int index = state.ordinal();
+        long spent = Math.max(0, nowMillis - enteredMillis);
+        visits[index]++;
+        lastMillis[index] = spent;
+        maxMillis[index] = Math.max(maxMillis[index], spent);
+        totalMillis[index] += spent;
+
+        if (next == State.CONNECTING) {
+            connectingMillis = nowMillis;
+        } else if (next == State.READY && connectingMillis >= 0) {
+            lastConnectToReadyMillis = nowMillis - connectingMillis;
+        }
+        state = next;
+        enteredMillis = nowMillis;
+        return true;
+    }
+
+    // Time from the last CONNECTING to READY, -1 before the first READY
+    public synchronized long getLastConnectToReadyMillis() {
+        return lastConnectToReadyMillis;
+    }
+
+    // Time spent in the last completed visit of a state
+    public synchronized long getLastMillis(State of) {
+        return lastMillis[of.ordinal()];
+    }
+
+    private static boolean canMove(State from, State to) {
+        if (from == to) {
+            return false;
+        }
+        switch (to) {
+            case CONNECTING:
+            case CLOSED:
+                // A new connection can replace any state, any connection can fail
+                return true;
+            case SETTING_UP:
+                return from == State.CONNECTING;
+            case READY:
+                return from == State.SETTING_UP;
+            case DRAINING:
+                return from == State.SETTING_UP || from == State.READY;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized String toJson(long nowMillis) {
+        StringBuilder json = new StringBuilder(320);
+        json.append(String.format(Locale.US, "{\"state\":\"%s\",\"inStateMs\":%d,\"lastConnectToReadyMs\":%d",
+                state, Math.max(0, nowMillis - enteredMillis), lastConnectToReadyMillis));
+        for (State s : STATES) {
+            int i = s.ordinal();
+            json.append(String.format(Locale.US,
+                    ",\"%s\":{\"visits\":%d,\"lastMs\":%d,\"maxMs\":%d,\"totalMs\":%d}",
+                    s, visits[i], lastMillis[i], maxMillis[i], totalMillis[i]));
+        }
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// Where the time to a usable Live API connection goes, for one connection.
+// Phases are stamped as they complete: DNS lookup, TCP connect, TLS handshake, the WebSocket upgrade
+// and the round trip from the setup message to setupComplete. A phase that was not reached
+// (or, like TLS on ws://, does not apply) reports -1.
+// Stamps come from the connecting thread and the WebSocket thread, readers may see a phase a bit late.
+public class ConnectionTimings {
+
+    private final boolean standby;
+    private final long startNanos;
+    private volatile long dnsNanos = -1;
+    private volatile long tcpNanos = -1;
+    private volatile long tlsNanos = -1;
+    private volatile long openNanos = -1;
+    private volatile long setupSentNanos = -1;
+    private volatile long setupCompleteNanos = -1;
+
+    // standby: opened speculatively, before anybody asked for a session
+    public ConnectionTimings(boolean standby) {
+        this.standby = standby;
+        this.startNanos = System.nanoTime();
+    }
+
+    public boolean isStandby() {
+        return standby;
+    }
+
+    public void onDnsResolved() {
+        dnsNanos = System.nanoTime();
+    }
+
+    public void onTcpConnected() {
+        tcpNanos = System.nanoTime();
+    }
+
+    public void onTlsHandshake() {
+        tlsNanos = System.nanoTime();
+    }
+
+    // The server accepted the WebSocket upgrade
+    public void onOpen() {
+        openNanos = System.nanoTime();
+    }
+
+    public void onSetupSent() {
+        setupSentNanos = System.nanoTime();
+    }
+
+    public void onSetupComplete() {
+        if (setupCompleteNanos < 0) {
+            setupCompleteNanos = System.nanoTime();
+        }
+    }
+
+    public boolean isSetupComplete() {
+        return setupCompleteNanos >= 0;
+    }
+
+    public long dnsMillis() {
+        return between(startNanos, dnsNanos);
+    }
+
+    public long tcpMillis() {
+        return between(dnsNanos, tcpNanos);
+    }
+
+    public long tlsMillis() {
+        return between(tcpNanos, tlsNanos);
+    }
+
+    // HTTP upgrade request and response, after TLS (or TCP on ws://)
+    public long upgradeMillis() {
+        return between(tlsNanos >= 0 ? tlsNanos : tcpNanos, openNanos);
+    }
+
+    public long setupAckMillis() {
+        return between(setupSentNanos, setupCompleteNanos);
+    }
+
+    // From the start of the connection to setupComplete
+    public long totalMillis() {
+        return between(startNanos, setupCompleteNanos);
+    }
+
+    public String toJson() {
+        return String.format(Locale.US,
+                "{\"standby\":%b,\"dnsMs\":%d,\"tcpMs\":%d,\"tlsMs\":%d,\"upgradeMs\":%d,\"setupAckMs\":%d,"
+                        + "\"totalMs\":%d}",
+                standby, dnsMillis(), tcpMillis(), tlsMillis(), upgradeMillis(), setupAckMillis(), totalMillis());
+    }
+
+    private static long between(long fromNanos, long toNanos) {
+        if (fromNanos < 0 || toNanos < 0) {
+            return -1;
+        }
+        return (toNanos - fromNanos) / 1_000_000L;
+    }
+}
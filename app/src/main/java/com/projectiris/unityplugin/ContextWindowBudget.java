@@ -0,0 +1,111 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+// Keeps the context of a long session bounded, so a response after hours takes as long as after minutes.
+// The setup asks the server for sliding-window compression: once the context reaches triggerTokens the
+// oldest turns are dropped until targetTokens remain. usageMetadata after each response reports the
+// context size (promptTokenCount) and its image share; the budget tracks both, counts compressions
+// (the context shrinking between two reports) and adds up the tokens used over the session.
+// Nothing can be removed from the server side context, so images are pruned before they are sent:
+// once the context passes the midpoint between target and trigger the capture interval is stretched,
+// up to MAX_IMAGE_INTERVAL_FACTOR at the trigger, and the window fills with conversation more slowly.
+public class ContextWindowBudget {
+    public static final long DEFAULT_TRIGGER_TOKENS = 32768;
+    public static final long DEFAULT_TARGET_TOKENS = 16384;
+    public static final float MAX_IMAGE_INTERVAL_FACTOR = 4f;
+
+    private final long triggerTokens;
+    private final long targetTokens;
+    private final long pruneTokens;
+
+    private long reports = 0;
+    private long contextTokens = 0;
+    private long imageTokens = 0;
+    private long peakContextTokens = 0;
+    private long compressions = 0;
+    private long inputTokens = 0;
+    private long outputTokens = 0;
+    private float imageIntervalFactor = 1f;
+
+    // Throws IllegalArgumentException unless 0 < targetTokens < triggerTokens
+    public ContextWindowBudget(long triggerTokens, long targetTokens) {
+        if (targetTokens <= 0 || targetTokens >= triggerTokens) {
+            throw new IllegalArgumentException("Need 0 < targetTokens < triggerTokens: "
+                    + targetTokens + ", " + triggerTokens);
+        }
+        this.triggerTokens = triggerTokens;
+        this.targetTokens = targetTokens;
+        this.pruneTokens = targetTokens + (triggerTokens - targetTokens) / 2;
+    }
+
+    public long getTriggerTokens() {
+        return triggerTokens;
+    }
+
+    public long getTargetTokens() {
+        return targetTokens;
+    }
+
+    // setup.contextWindowCompression
+    public JSONObject toSetupJson() throws JSONException {
+        return setupJson(triggerTokens, targetTokens);
+    }
+
+    static JSONObject setupJson(long triggerTokens, long targetTokens) throws JSONException {
+        JSONObject slidingWindow = new JSONObject();
+        slidingWindow.put("targetTokens", targetTokens);
+        JSONObject compression = new JSONObject();
+        compression.put("triggerTokens", triggerTokens);
+        compression.put("slidingWindow", slidingWindow);
+        return compression;
+    }
+
+    // One usageMetadata report. Returns true when the image interval factor changed.
+    public synchronized boolean onUsage(long promptTokens, long responseTokens, long imagePromptTokens) {
+        // A smaller context than last time: the server compressed it (or a new session started)
+        if (reports > 0 && promptTokens < contextTokens) {
+            compressions++;
+        }
+        reports++;
+        contextTokens = promptTokens;
+        imageTokens = imagePromptTokens;
+        peakContextTokens = Math.max(peakContextTokens, promptTokens);
+        inputTokens += promptTokens;
+        outputTokens += responseTokens;
+
+        float factor = 1f;
+        if (promptTokens > pruneTokens) {
+            float fill = Math.min(1f, (float) (promptTokens - pruneTokens) / (triggerTokens - pruneTokens));
+            factor = 1f + fill * (MAX_IMAGE_INTERVAL_FACTOR - 1f);
+        }
+        boolean changed = factor != imageIntervalFactor;
+        imageIntervalFactor = factor;
+        return changed;
+    }
+
+    // Multiplier for the camera capture interval, 1 while the context is small
+    public synchronized float getImageIntervalFactor() {
+        return imageIntervalFactor;
+    }
+
+    public synchronized long getContextTokens() {
+        return contextTokens;
+    }
+
+    public synchronized long getCompressions() {
+        return compressions;
+    }
+
+    public synchronized String toJson() {
+        return String.format(Locale.US,
+                "{\"triggerTokens\":%d,\"targetTokens\":%d,\"reports\":%d,\"contextTokens\":%d,\"imageTokens\":%d,"
+                        + "\"peakContextTokens\":%d,\"compressions\":%d,\"inputTokens\":%d,\"outputTokens\":%d,"
+                        + "\"imageIntervalFactor\":%.2f}",
+                triggerTokens, targetTokens, reports, contextTokens, imageTokens, peakContextTokens,
+                compressions, inputTokens, outputTokens, imageIntervalFactor);
+    }
+}
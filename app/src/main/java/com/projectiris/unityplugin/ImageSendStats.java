@@ -0,0 +1,56 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// Per-path counters for outgoing images: camera JPEGs forwarded as-is (passthrough), frames
+// that were decoded, scaled and compressed again (re-encode), and YUV camera frames compressed
+// by YuvFrameEncoder (yuvEncode), and raw RGBA frames from Unity compressed by RgbaFrameEncoder (rawEncode).
+// CPU time is the thread CPU time spent preparing and sending one frame.
+public class ImageSendStats {
+    private final Path passthrough = new Path();
+    private final Path reencode = new Path();
+    private final Path yuvEncode = new Path();
+    private final Path rawEncode = new Path();
+
+    public synchronized void recordPassthrough(long cpuNanos, int bytes) {
+        passthrough.record(cpuNanos, bytes);
+    }
+
+    public synchronized void recordReencode(long cpuNanos, int bytes) {
+        reencode.record(cpuNanos, bytes);
+    }
+
+    public synchronized void recordYuvEncode(long cpuNanos, int bytes) {
+        yuvEncode.record(cpuNanos, bytes);
+    }
+
+    public synchronized void recordRawEncode(long cpuNanos, int bytes) {
+        rawEncode.record(cpuNanos, bytes);
+    }
+
+    public synchronized String toJson() {
+        return "{\"passthrough\":" + passthrough.toJson() + ",\"reencode\":" + reencode.toJson()
+                + ",\"yuvEncode\":" + yuvEncode.toJson() + ",\"rawEncode\":" + rawEncode.toJson() + "}";
+    }
+
+    private static class Path {
+        long frames;
+        long bytes;
+        long totalCpuNanos;
+        long maxCpuNanos;
+
+        void record(long cpuNanos, int frameBytes) {
+            frames++;
+            bytes += frameBytes;
+            totalCpuNanos += cpuNanos;
+            maxCpuNanos = Math.max(maxCpuNanos, cpuNanos);
+        }
+
+        String toJson() {
+            double averageMillis = frames == 0 ? 0 : totalCpuNanos / 1e6 / frames;
+            return String.format(Locale.US,
+                    "{\"frames\":%d,\"bytes\":%d,\"avgCpuMs\":%.2f,\"maxCpuMs\":%.2f}",
+                    frames, bytes, averageMillis, maxCpuNanos / 1e6);
+        }
+    }
+}
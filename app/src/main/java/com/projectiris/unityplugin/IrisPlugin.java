@@ -2,12 +2,17 @@ package com.projectiris.unityplugin;
 
 import android.Manifest;
 import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.RequiresPermission;
 
 import com.unity3d.player.UnityPlayer;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+
 // This class is a JNI used as a bridge to communicate with Unity.
 public class IrisPlugin {
     // Hard Code API_KEY
@@ -17,13 +22,48 @@ public class IrisPlugin {
     private static final String UNITY_CALLBACK_OBJECT = "AndroidPluginManager";
     private static final String UNITY_CALLBACK_METHOD = "OnApiResultReceived";
     private static final String UNITY_MESSAGE_CALLBACK_METHOD = "OnMessageReceived";
+    // Batched mode: receives a JSON array of {"type","message"} objects
+    private static final String UNITY_BATCH_CALLBACK_METHOD = "OnMessagesReceived";
+    private static final int MESSAGE_BATCH_MAX_CHARS = 16 * 1024;
 
     private static Activity unityActivity;
     private static IrisPlugin instance;
     private static AiInteration aiInteraction;
+    private static UnityMessageDispatcher messageDispatcher; // null unless messages are batched
 
     // Initialize the plugin with Unity activity and API key
     public static void initialize(Activity activity, boolean isMuted, String API_KEY) {
+        initialize(activity, isMuted, API_KEY, SessionConfig.DEFAULT);
+    }
+
+    // Initialize with settings from Unity as JSON, every key optional, e.g.
+    // {"profile":"low-cost","mediaResolution":"LOW","speechConfig":{"voiceName":"Puck"},
+    //  "systemInstruction":"...","realtimeInputConfig":{"silenceDurationMs":300},
+    //  "audioChunking":{"chunkMillis":60,"maxFramesInFlight":4,"flushOnSilence":true},
+    //  "messageBatchMillis":33,"audioOutput":"UNITY_SHARED_BUFFER"}
+    // audioChunking: audio per uplink frame (10-1000 ms), frames waiting on the socket before audio is
+    // held back (0 = no limit), send the partial chunk when the user pauses.
+    // messageBatchMillis > 0: messages are collected for this long and delivered together to
+    // OnMessagesReceived as a JSON array, consecutive transcript / text fragments merged into one entry.
+    // 0 keeps one OnMessageReceived call per message.
+    // audioOutput UNITY_SHARED_BUFFER: decoded PCM (16-bit mono, 24 kHz) is written to the shared buffer
+    // returned by getAudioOutputBuffer instead of an AudioTrack, so Unity can play and spatialize it, e.g.
+    // from the PCMReaderCallback of a streamed AudioClip or OnAudioFilterRead. See SharedPcmRing for the layout.
+    // See SessionConfig for every key. A null or empty configJson selects the default config, an invalid
+    // one is logged and the default one is used;
+    // getSessionConfig() returns the settings in use, with their profile name.
+    public static void initialize(Activity activity, boolean isMuted, String API_KEY, String configJson) {
+        SessionConfig sessionConfig;
+        try {
+            sessionConfig = SessionConfig.fromJson(configJson);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid session config, using default", e);
+            sessionConfig = SessionConfig.DEFAULT;
+        }
+        initialize(activity, isMuted, API_KEY, sessionConfig);
+    }
+
+    private static void initialize(Activity activity, boolean isMuted, String API_KEY, SessionConfig sessionConfig) {
         unityActivity = activity;
         if (instance == null) {
             instance = new IrisPlugin();
@@ -31,10 +71,31 @@ public class IrisPlugin {
         Log.d(TAG, "IrisPlugin initialized"); // Log message to check if the plugin is initialized
         
         if (aiInteraction == null) {
-            aiInteraction = new AiInteration(API_KEY, isMuted);
-            aiInteraction.setMessageCallback((message, type) -> {
-                displayMessage(message, type);
-            });
+            Log.d(TAG, "Session: " + sessionConfig);
+            aiInteraction = new AiInteration(API_KEY, isMuted, sessionConfig);
+            int messageBatchMillis = sessionConfig.getMessageBatchMillis();
+            if (messageBatchMillis > 0) {
+                Log.d(TAG, "Batching Unity messages every " + messageBatchMillis + " ms");
+                Handler handler = new Handler(Looper.getMainLooper());
+                messageDispatcher = new UnityMessageDispatcher(IrisPlugin::sendBatchToUnity,
+                        new UnityMessageDispatcher.Timer() {
+                            @Override
+                            public void postDelayed(Runnable runnable, long delayMillis) {
+                                handler.postDelayed(runnable, delayMillis);
+                            }
+
+                            @Override
+                            public void removeCallbacks(Runnable runnable) {
+                                handler.removeCallbacks(runnable);
+                            }
+                        }, messageBatchMillis, MESSAGE_BATCH_MAX_CHARS);
+                UnityMessageDispatcher dispatcher = messageDispatcher;
+                aiInteraction.setMessageCallback((message, type) -> dispatcher.post(type, message));
+            } else {
+                aiInteraction.setMessageCallback((message, type) -> {
+                    displayMessage(message, type);
+                });
+            }
         }
     }
 
@@ -61,6 +122,14 @@ public class IrisPlugin {
         }
     }
 
+    // Mark the activation gesture (e.g. the snap)
+    // Response latency percentiles are measured from here, without it from the start of recording or speech
+    public static void markGestureStart() {
+        if (aiInteraction != null) {
+            aiInteraction.markGestureStart();
+        }
+    }
+
     // Start camera for capture
     // This method is used to start camera for capture
     @RequiresPermission(Manifest.permission.CAMERA)
@@ -124,13 +193,27 @@ public class IrisPlugin {
     // send image to AI
     public static void sendImage(byte[] imageBytes) {
         if (aiInteraction != null) {
-            aiInteraction.sendImage(imageBytes);
-            Log.d(TAG, "Image sent to AI");
+            if (aiInteraction.sendImage(imageBytes)) {
+                Log.d(TAG, "Image queued for AI");
+            }
         } else {
             Log.e(TAG, "AiInteraction not initialized");
         }
     }
 
+    // send raw pixels to AI without encoding them in C#
+    // pixels: direct ByteBuffer of RGBA32 pixels, e.g. AndroidJNI.NewDirectByteBuffer over the NativeArray
+    // of an AsyncGPUReadback request. rowStride in bytes, 0 for tightly packed rows.
+    // flipVertically: rows are bottom-up (OpenGL ES readback). The buffer is not used after the call.
+    // Returns false when the frame was dropped (previous frame still encoding, link busy, not connected).
+    public static boolean sendRawImage(ByteBuffer pixels, int width, int height, int rowStride, boolean flipVertically) {
+        if (aiInteraction != null) {
+            return aiInteraction.sendRawImage(pixels, width, height, rowStride, flipVertically);
+        }
+        Log.e(TAG, "AiInteraction not initialized");
+        return false;
+    }
+
     // Set muted mode
     // This method is used to switch AI output model
     public static void setMuted(boolean muted) {
@@ -140,11 +223,269 @@ public class IrisPlugin {
         }
     }
 
+    // Enable or disable voice activity detection
+    // When enabled, silence is not streamed to the AI
+    public static void setVadEnabled(boolean enabled) {
+        if (aiInteraction != null) {
+            aiInteraction.setVadEnabled(enabled);
+            Log.d(TAG, "VAD enabled: " + enabled);
+        }
+    }
+
+    // Set the VAD speech threshold
+    // RMS level of 16-bit samples (0-32768) a frame needs to count as speech, default 400
+    public static void setVadThreshold(float thresholdRms) {
+        if (aiInteraction != null) {
+            aiInteraction.setVadThreshold(thresholdRms);
+            Log.d(TAG, "VAD threshold set to: " + thresholdRms);
+        }
+    }
+
+    // Use client side activity_start / activity_end signals instead of server side detection
+    // Takes effect from the next connection
+    public static void setVadActivitySignals(boolean enabled) {
+        if (aiInteraction != null) {
+            aiInteraction.setActivitySignalsEnabled(enabled);
+            Log.d(TAG, "VAD activity signals: " + enabled);
+        }
+    }
+
     // Check whether AI is muted
     public static boolean isMuted() {
         return aiInteraction != null && aiInteraction.isMuted();
     }
 
+    // Get playback counters
+    // Returns JSON with time-to-first-audio, underruns and the current jitter buffer target
+    public static String getPlaybackStats() {
+        return aiInteraction != null ? aiInteraction.getPlaybackStats() : "{}";
+    }
+
+    // Get barge-in counters
+    // Returns JSON with local barge-ins, those the server confirmed with interrupted, false positives
+    // (no confirmation in time, the response played on) and response chunks dropped meanwhile
+    public static String getBargeInStats() {
+        return aiInteraction != null ? aiInteraction.getBargeInStats() : "{}";
+    }
+
+    // Get the shared response audio buffer (Unity audio output mode only, null otherwise)
+    // Map it once with AndroidJNI.GetDirectBufferAddress and read it on the audio thread
+    public static ByteBuffer getAudioOutputBuffer() {
+        return aiInteraction != null ? aiInteraction.getUnityAudioBuffer() : null;
+    }
+
+    // Get shared audio buffer counters
+    // Returns JSON with the write / read cursors, buffered milliseconds, underruns and dropped samples
+    public static String getAudioOutputStats() {
+        return aiInteraction != null ? aiInteraction.getUnityAudioStats() : "{}";
+    }
+
+    // Get image send counters
+    // Returns JSON with frame count, bytes and CPU time per frame for passthrough and re-encoded images
+    public static String getImageStats() {
+        return aiInteraction != null ? aiInteraction.getImageStats() : "{}";
+    }
+
+    // Set camera capture mode, "jpeg" (camera encoded still frames) or "yuv" (preview frames encoded on demand)
+    // Takes effect the next time the camera is started
+    public static void setCaptureMode(String mode) {
+        if (aiInteraction == null) {
+            return;
+        }
+        AiInteration.CaptureMode captureMode = "yuv".equalsIgnoreCase(mode)
+                ? AiInteration.CaptureMode.YUV_PREVIEW
+                : AiInteration.CaptureMode.JPEG_STILL;
+        aiInteraction.setCaptureMode(captureMode);
+        Log.d(TAG, "Capture mode set to: " + captureMode);
+    }
+
+    // Take a camera picture now and send it to the AI
+    // Without this, frames are captured on an interval and when the user starts speaking
+    public static void captureNow() {
+        if (aiInteraction != null) {
+            aiInteraction.captureNow();
+            Log.d(TAG, "Capture requested");
+        } else {
+            Log.e(TAG, "AiInteraction not initialized");
+        }
+    }
+
+    // Get capture counters
+    // Returns JSON with captures per trigger and capture-to-socket latency
+    public static String getCaptureStats() {
+        return aiInteraction != null ? aiInteraction.getCaptureStats() : "{}";
+    }
+
+    // Only send camera frames when the scene changed (checked every second, sent at least every 10 s)
+    // When disabled, a frame is sent every 3 seconds
+    public static void setSceneDetectionEnabled(boolean enabled) {
+        if (aiInteraction != null) {
+            aiInteraction.setSceneDetectionEnabled(enabled);
+            Log.d(TAG, "Scene detection enabled: " + enabled);
+        }
+    }
+
+    // Set scene change sensitivity
+    // 0 = only drastic changes are sent, 1 = the smallest visible change is sent, default 0.5
+    public static void setSceneChangeSensitivity(float sensitivity) {
+        if (aiInteraction != null) {
+            aiInteraction.setSceneChangeSensitivity(sensitivity);
+            Log.d(TAG, "Scene change sensitivity set to: " + sensitivity);
+        }
+    }
+
+    // Get scene detection counters
+    // Returns JSON with frames seen, sent and skipped and the last measured difference
+    public static String getSceneStats() {
+        return aiInteraction != null ? aiInteraction.getSceneStats() : "{}";
+    }
+
+    // Get reconnect counters
+    // Returns JSON with connection state, reconnects, resumed sessions, goAway notices and the last outage
+    public static String getConnectionStats() {
+        return aiInteraction != null ? aiInteraction.getConnectionStats() : "{}";
+    }
+
+    // Get response latency percentiles
+    // Returns JSON with turn counts and n/p50/p95/p99/max in ms from turn start to audio sent, first server
+    // byte, first text, first audio played and turn complete
+    public static String getLatencyStats() {
+        return aiInteraction != null ? aiInteraction.getLatencyStats() : "{}";
+    }
+
+    // Start a new latency measurement window, e.g. after uploading a snapshot
+    public static void resetLatencyStats() {
+        if (aiInteraction != null) {
+            aiInteraction.resetLatencyStats();
+        }
+    }
+
+    // Set sliding-window context compression for long sessions
+    // Once the context reaches triggerTokens the server drops the oldest turns until targetTokens remain.
+    // Camera images are sent less often as the context nears the trigger. Applies to the next connection.
+    public static void setContextWindowCompression(long triggerTokens, long targetTokens) {
+        if (aiInteraction == null) {
+            return;
+        }
+        try {
+            aiInteraction.setContextWindowCompression(triggerTokens, targetTokens);
+            Log.d(TAG, "Context window compression: " + triggerTokens + " -> " + targetTokens + " tokens");
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid context window compression, unchanged", e);
+        }
+    }
+
+    // Get context window counters
+    // Returns JSON with the context size and image tokens after the last response, its peak,
+    // server side compressions, input / output tokens used and the current image interval factor
+    public static String getContextStats() {
+        return aiInteraction != null ? aiInteraction.getContextStats() : "{}";
+    }
+
+    // Get the session settings in use as JSON, in the form initialize accepts, defaults filled in.
+    // Report the "profile" with latency and cost stats to compare profiles.
+    public static String getSessionConfig() {
+        return aiInteraction != null ? aiInteraction.getSessionConfig() : "{}";
+    }
+
+    // Record the session to a binary log for offline replay: uplink audio, images and activity signals,
+    // and every server frame, with their timing. A relative path is taken inside the app's files
+    // directory, an existing file is overwritten. Returns false when the file cannot be created.
+    public static boolean startSessionRecording(String path) {
+        if (aiInteraction == null) {
+            return false;
+        }
+        return aiInteraction.startSessionRecording(resolveFile(path));
+    }
+
+    public static void stopSessionRecording() {
+        if (aiInteraction != null) {
+            aiInteraction.stopSessionRecording();
+        }
+    }
+
+    // Play a recorded session back with its recorded timing
+    // serverFrames: the recorded responses go through parsing, playback and OnMessageReceived again
+    // uplinkFrames: the recorded capture is sent on the current connection (call startConnection first)
+    // speed: 1 real time, 4 four times faster, 0 as fast as possible
+    // Returns false when a replay is running, the file is not a session log or speed is negative
+    public static boolean startSessionReplay(String path, float speed, boolean serverFrames, boolean uplinkFrames) {
+        if (aiInteraction == null) {
+            return false;
+        }
+        try {
+            return aiInteraction.startSessionReplay(resolveFile(path), speed, serverFrames, uplinkFrames);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid replay speed", e);
+            return false;
+        }
+    }
+
+    public static void stopSessionReplay() {
+        if (aiInteraction != null) {
+            aiInteraction.stopSessionReplay();
+        }
+    }
+
+    // Get recording and replay counters
+    // Returns JSON with the bytes and frames recorded, and the frames replayed with their lateness
+    // behind the recorded schedule
+    public static String getSessionLogStats() {
+        return aiInteraction != null ? aiInteraction.getSessionLogStats() : "{}";
+    }
+
+    private static File resolveFile(String path) {
+        File file = new File(path);
+        return file.isAbsolute() || unityActivity == null ? file : new File(unityActivity.getFilesDir(), path);
+    }
+
+    // Keep a connection open and set up ahead of time, so startConnection() can use it right away
+    // A replacement is warmed in the background each time the standby is used
+    public static void setWarmStandbyEnabled(boolean enabled) {
+        if (aiInteraction != null) {
+            aiInteraction.setWarmStandbyEnabled(enabled);
+            Log.d(TAG, "Warm standby enabled: " + enabled);
+        }
+    }
+
+    // Get connection latency breakdown
+    // Returns JSON with DNS, TCP, TLS, upgrade and setup-ack time of the active and standby connection,
+    // the time from startConnection() to READY and the time spent in each connection state
+    // (CONNECTING, SETTING_UP, READY, DRAINING, CLOSED)
+    public static String getConnectionTimings() {
+        return aiInteraction != null ? aiInteraction.getConnectionTimings() : "{}";
+    }
+
+    // Get worker thread counters
+    // Returns JSON with queue depth, rejected and failed tasks of the capture and image encode threads
+    public static String getThreadStats() {
+        return aiInteraction != null ? aiInteraction.getThreadStats() : "{}";
+    }
+
+    // Get outbound send scheduler counters
+    // Returns JSON with queue depth, drops and queue wait per lane (control, audio, image) and socket backpressure
+    public static String getOutboundStats() {
+        return aiInteraction != null ? aiInteraction.getOutboundStats() : "{}";
+    }
+
+    // Get the last adaptive image quality decision
+    // Returns JSON with the quality level, JPEG quality, max dimension, throughput estimate and queue delay
+    public static String getImageQualityStats() {
+        return aiInteraction != null ? aiInteraction.getImageQualityStats() : "{}";
+    }
+
+    // Get CPU, battery and thermal numbers per capture mode
+    // Run the same scenario once per mode to compare them
+    public static String getCapturePowerStats() {
+        return aiInteraction != null ? aiInteraction.getCapturePowerStats() : "{}";
+    }
+
+    // Get Unity message delivery counters (batched mode)
+    // Returns JSON with messages posted, fragments merged, UnitySendMessage calls and bytes sent
+    public static String getMessageStats() {
+        return messageDispatcher != null ? messageDispatcher.toJson() : "{}";
+    }
+
     // Clean up the plugin
     public static void cleanUp() {
         if (aiInteraction != null) {
@@ -152,6 +493,10 @@ public class IrisPlugin {
             aiInteraction = null;
             Log.d(TAG, "AiInteraction cleaned up");
         }
+        if (messageDispatcher != null) {
+            messageDispatcher.flush();
+            messageDispatcher = null;
+        }
     }
 
     // Escape JSON string to prevent injection
@@ -192,6 +537,15 @@ public class IrisPlugin {
         return sb.toString();
     }
 
+    // Send a batch of messages to Unity, one call per window
+    private static void sendBatchToUnity(String jsonArray) {
+        try {
+            UnityPlayer.UnitySendMessage(UNITY_CALLBACK_OBJECT, UNITY_BATCH_CALLBACK_METHOD, jsonArray);
+        } catch (Exception e) {
+            Log.e(TAG, "Error sending messages to Unity", e);
+        }
+    }
+
     // Send message to Unity
     private static void displayMessage(String message, String type) {
         String text = escapeJsonString(message);
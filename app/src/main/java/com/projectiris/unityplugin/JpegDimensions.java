@@ -0,0 +1,63 @@
+package com.projectiris.unityplugin;
+
+// Reads the pixel size of a baseline or progressive JPEG from its SOF segment header,
+// without decoding any image data.
+public final class JpegDimensions {
+    public final int width;
+    public final int height;
+
+    private JpegDimensions(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    // Returns null when the bytes are not a JPEG or no frame header is found
+    public static JpegDimensions parse(byte[] data, int offset, int length) {
+        int end = offset + length;
+        if (length < 4 || (data[offset] & 0xFF) != 0xFF || (data[offset + 1] & 0xFF) != 0xD8) {
+            return null;
+        }
+
+        int i = offset + 2;
+        while (i + 4 <= end) {
+            if ((data[i] & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = data[i + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte before a marker
+                i++;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // End of image or start of scan before any frame header
+                return null;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // Markers without a length field
+                i += 2;
+                continue;
+            }
+
+            int segmentLength = ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+            if (segmentLength < 2) {
+                return null;
+            }
+            if (isStartOfFrame(marker)) {
+                if (i + 9 > end) {
+                    return null;
+                }
+                int height = ((data[i + 5] & 0xFF) << 8) | (data[i + 6] & 0xFF);
+                int width = ((data[i + 7] & 0xFF) << 8) | (data[i + 8] & 0xFF);
+                return new JpegDimensions(width, height);
+            }
+            i += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    // SOF0-SOF15, except DHT (C4), JPG (C8) and DAC (CC) which share the range
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+}
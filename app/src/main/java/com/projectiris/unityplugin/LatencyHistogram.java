@@ -0,0 +1,93 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// Fixed size log-linear histogram of latencies in microseconds, in the style of HdrHistogram.
+// Values below 256 us get their own bucket, above that every power of two is split into 128
+// linear buckets, so a reported percentile is within 1/128 (0.8%) of the recorded value.
+// Values above MAX_MICROS are counted as MAX_MICROS. Recording does not allocate.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_BITS;      // 128
+    private static final int SUB_BUCKET_COUNT = SUB_BUCKET_HALF << 1;     // 256
+    public static final long MAX_MICROS = (1L << 27) - 1;                 // about 134 s
+
+    private final long[] counts = new long[indexOf(MAX_MICROS) + 1];
+    private long totalCount = 0;
+    private long totalMicros = 0;
+    private long maxMicros = 0;
+
+    public synchronized void recordMicros(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_MICROS));
+        counts[indexOf(value)]++;
+        totalCount++;
+        totalMicros += value;
+        maxMicros = Math.max(maxMicros, value);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000L);
+    }
+
+    public synchronized long getCount() {
+        return totalCount;
+    }
+
+    public synchronized long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public synchronized long getMeanMicros() {
+        return totalCount == 0 ? 0 : totalMicros / totalCount;
+    }
+
+    // Smallest recorded value (rounded up to its bucket) that percent of the values are at or below, 0 when empty
+    public synchronized long valueAtPercentile(double percent) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100.0, percent) / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    public synchronized void reset() {
+        java.util.Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalMicros = 0;
+        maxMicros = 0;
+    }
+
+    // {"n":..,"p50":..,"p95":..,"p99":..,"max":..} in milliseconds
+    public synchronized String toJson() {
+        return String.format(Locale.US, "{\"n\":%d,\"p50\":%.1f,\"p95\":%.1f,\"p99\":%.1f,\"max\":%.1f}",
+                totalCount, valueAtPercentile(50) / 1000.0, valueAtPercentile(95) / 1000.0,
+                valueAtPercentile(99) / 1000.0, maxMicros / 1000.0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Shift so that the top SUB_BUCKET_BITS + 1 bits remain, in [SUB_BUCKET_HALF, SUB_BUCKET_COUNT)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+        return shift * SUB_BUCKET_HALF + subBucket;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - shift * SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,103 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+
+// End-to-end latency of each user turn, measured from the turn start on the monotonic clock.
+// A turn starts with the gesture (or the start of recording / speech when Unity does not mark one)
+// and every milestone records its time since the start into its own histogram, once per turn.
+// Server milestones only count after the first audio of the turn was sent, so the tail of the
+// previous response is not taken for the answer. Callers pass System.nanoTime() values, from any thread.
+public class LatencyMetrics {
+
+    public enum Milestone {
+        AUDIO_SENT("audioSent"),
+        FIRST_SERVER_BYTE("firstServerByte"),
+        FIRST_TEXT("firstText"),
+        FIRST_AUDIO_PLAYED("firstAudioPlayed"),
+        TURN_COMPLETE("turnComplete");
+
+        final String jsonName;
+
+        Milestone(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    private static final Milestone[] MILESTONES = Milestone.values();
+    private static final int ALL_PENDING = (1 << MILESTONES.length) - 1;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[MILESTONES.length];
+    private long turnStartNanos;
+    private long turns = 0;
+    private long abandonedTurns = 0;
+    // Bit per milestone not reached yet in the open turn, 0 when no turn is open
+    private volatile int pending = 0;
+
+    public LatencyMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    // Start a turn at nowNanos. Unless force is set, a turn already open is kept,
+    // e.g. speech detected right after the gesture belongs to the gesture's turn.
+    public synchronized boolean startTurn(long nowNanos, boolean force) {
+        if (pending != 0) {
+            if (!force) {
+                return false;
+            }
+            abandonedTurns++;
+        }
+        turnStartNanos = nowNanos;
+        turns++;
+        pending = ALL_PENDING;
+        return true;
+    }
+
+    public boolean isTurnOpen() {
+        return pending != 0;
+    }
+
+    // Record a milestone of the open turn, the first occurrence counts. Cheap when already reached.
+    public void mark(Milestone milestone, long nowNanos) {
+        int bit = 1 << milestone.ordinal();
+        if ((pending & bit) == 0) {
+            return;
+        }
+        synchronized (this) {
+            int open = pending;
+            if ((open & bit) == 0) {
+                return;
+            }
+            if (milestone != Milestone.AUDIO_SENT && (open & 1 << Milestone.AUDIO_SENT.ordinal()) != 0) {
+                return;
+            }
+            histograms[milestone.ordinal()].recordNanos(nowNanos - turnStartNanos);
+            // The turn is over with turnComplete, milestones not reached by then are not recorded
+            pending = milestone == Milestone.TURN_COMPLETE ? 0 : open & ~bit;
+        }
+    }
+
+    public LatencyHistogram getHistogram(Milestone milestone) {
+        return histograms[milestone.ordinal()];
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        turns = 0;
+        abandonedTurns = 0;
+    }
+
+    // Compact snapshot: turn counts and n / p50 / p95 / p99 / max in milliseconds per milestone
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(512);
+        json.append(String.format(Locale.US, "{\"turns\":%d,\"abandoned\":%d", turns, abandonedTurns));
+        for (Milestone milestone : MILESTONES) {
+            json.append(",\"").append(milestone.jsonName).append("\":")
+                    .append(histograms[milestone.ordinal()].toJson());
+        }
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,751 @@
+package com.projectiris.unityplugin;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.handshake.ServerHandshake;
+import org.json.JSONException;
+
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+// The session's Live API WebSocket. connect() dials a new connection, or adopts the warm standby,
+// and the setup goes out as soon as it opens; media may flow once setupComplete made it READY.
+// The ConnectionStateMachine follows the active connection. A lost connection is reported to the
+// ReconnectSupervisor, which calls connect() again with the last resumption handle. After a goAway
+// the old connection keeps delivering the rest of the response until the new one is READY.
+// Server frames of the active connection go to the response listener, a standby's frames to its
+// own listener until it is adopted. Also the OutboundScheduler's transport: frames are sent on the
+// active connection.
+// Socket callbacks run on the WebSocket threads, connect() and the timer tasks on the timer's thread.
+public class LiveConnection implements OutboundScheduler.Transport {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int SOCKET_SEND_BUFFER_BYTES = 64 * 1024; // keeps the kernel from queueing seconds of images
+    private static final long SETUP_TIMEOUT_MS = 10000; // without setupComplete by then, reconnect
+    private static final long DRAIN_TIMEOUT_MS = 1000; // stop(true) waits this long for queued frames to go out
+    private static final long DRAIN_POLL_MS = 20;
+    private static final int STANDBY_PING_INTERVAL_S = 15; // keeps the idle standby connection alive
+    private static final long STANDBY_RETRY_DELAY_MS = 10000; // after a standby connection fails or is stale
+    private static final Map<String, String> HEADERS = Collections.singletonMap("Content-Type", "application/json");
+
+    // The session side of the connection
+    public interface Host {
+        // Setup message of a new connection, resuming the session of resumptionHandle when it is not
+        // null; null when it cannot be built
+        String setupMessage(String resumptionHandle);
+
+        // The active connection changed or closed, frames queued for the previous one are dropped.
+        // Called with the uplink lock held.
+        void dropQueuedFrames();
+
+        // setupComplete on the active connection, media can flow. Called with the uplink lock held,
+        // so audio held back until now goes out ahead of newer audio. Returns the milliseconds of
+        // held back audio it sent.
+        long onReady(boolean resumed);
+
+        // The active connection closed (error null) or failed, the supervisor reconnects unless the
+        // session was stopped
+        void onLost(String reason, Exception error);
+
+        // A server frame of the active connection or a replay arrived, before it is parsed
+        void onServerFrame();
+
+        // Bytes queued for the connection and not written to the network yet, stop(true) waits for 0
+        long bytesInFlight();
+
+        // For the device log, error is null for plain progress messages
+        void log(String message, Exception error);
+    }
+
+    private final URI endpoint;
+    private final ReconnectSupervisor.Timer timer;
+    private final ReconnectSupervisor reconnectSupervisor;
+    private final ServerMessageParser parser;
+    private final ServerMessageParser.Listener responseListener;
+    private final Host host;
+    private final ConnectionStateMachine connectionState;
+    private final ServerMessageParser.Listener activeListener = new ActiveListener();
+    private final Object uplinkLock = new Object();
+    private volatile SessionTap sessionTap;
+
+    // Active connection
+    // ready is true only while it is READY. retiringWebSocket: the old connection after a goAway,
+    // closed once the new one is READY.
+    private volatile LiveSocket webSocket;
+    private volatile boolean ready = false;
+    private volatile String resumptionHandle;
+    private volatile LiveSocket retiringWebSocket;
+    private volatile ConnectionTimings activeTimings;
+
+    // Warm standby
+    // When enabled, one more connection is opened and set up ahead of time and kept alive with pings.
+    // connect() adopts it instead of dialing when the setup still matches, and the next standby is
+    // warmed in the background. Until adopted, its messages go to its own StandbyListener.
+    private volatile boolean warmStandbyEnabled = false;
+    private final Object standbyLock = new Object();
+    private LiveSocket standbyWebSocket;
+    private String standbySetup; // setup message the standby was opened with
+    private boolean standbyOpen = false;
+    private String standbyResumptionHandle;
+
+    // Time from start() to READY
+    private volatile long startRequestedNanos = 0;
+    private volatile long lastStartMillis = -1;
+    private volatile boolean lastStartWarm = false;
+    private volatile long warmConnects = 0;
+    private volatile long coldConnects = 0;
+    private volatile long lastPendingAudioMillis = 0; // audio sent in the last burst after setupComplete
+
+    // endpoint: ws:// or wss:// URI. reconnectSupervisor's connector calls connect().
+    // responseListener: the response content of the active connection (and of a replay).
+    public LiveConnection(URI endpoint, ReconnectSupervisor.Timer timer, ReconnectSupervisor reconnectSupervisor,
+                          ServerMessageParser parser, ServerMessageParser.Listener responseListener, Host host) {
+        this.endpoint = endpoint;
+        this.timer = timer;
+        this.reconnectSupervisor = reconnectSupervisor;
+        this.parser = parser;
+        this.responseListener = responseListener;
+        this.host = host;
+        this.connectionState = new ConnectionStateMachine(timer.uptimeMillis());
+    }
+
+    // Records the active connection's server frames, a tap built with getListener()
+    public void setSessionTap(SessionTap sessionTap) {
+        this.sessionTap = sessionTap;
+    }
+
+    // Listener of the active connection's frames, the live listener of a SessionTap
+    public ServerMessageParser.Listener getListener() {
+        return activeListener;
+    }
+
+    // The app wants a session, connects on the calling thread
+    public void start() {
+        startRequestedNanos = System.nanoTime();
+        reconnectSupervisor.start();
+    }
+
+    // Open a connection, resuming the session when resumptionHandle is not null.
+    // Called by reconnectSupervisor.
+    public void connect(String resumptionHandle) {
+        this.resumptionHandle = resumptionHandle;
+
+        // After a goAway the old connection still delivers the rest of the response until the new one is open
+        LiveSocket previous = webSocket;
+        if (previous != null && previous.isOpen()) {
+            retiringWebSocket = previous;
+        }
+        ready = false;
+        timer.removeCallbacks(setupTimeoutTask);
+        connectionState.moveTo(ConnectionStateMachine.State.CONNECTING, timer.uptimeMillis());
+
+        // A new session can start on the warm standby, a resumed one needs its handle in the setup
+        if (resumptionHandle == null && adoptStandby()) {
+            return;
+        }
+
+        host.log((resumptionHandle != null ? "Resuming session at: " : "Connecting to: ") + endpoint.getHost(), null);
+        coldConnects++;
+        LiveSocket socket = new LiveSocket(new ConnectionTimings(false));
+        activeTimings = socket.timings;
+        webSocket = socket;
+        socket.connect();
+    }
+
+    // Close the connection on purpose, nothing is reconnected until start().
+    // With drain, a READY connection stays open (DRAINING) until the frames already queued are sent
+    // or DRAIN_TIMEOUT_MS passed, so the end of the last utterance reaches the server.
+    // The warm standby stays open for the next start().
+    public void stop(boolean drain) {
+        reconnectSupervisor.stop();
+        startRequestedNanos = 0;
+        timer.removeCallbacks(setupTimeoutTask);
+        closeRetiringWebSocket();
+        ready = false;
+
+        LiveSocket socket = webSocket;
+        long now = timer.uptimeMillis();
+        if (socket != null && drain && connectionState.moveTo(ConnectionStateMachine.State.DRAINING, now)) {
+            long deadline = now + DRAIN_TIMEOUT_MS;
+            timer.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    // A start() meanwhile made socket the retiring connection, which the new one closes
+                    if (webSocket == socket && host.bytesInFlight() > 0 && timer.uptimeMillis() < deadline) {
+                        timer.postDelayed(this, DRAIN_POLL_MS);
+                        return;
+                    }
+                    closeWebSocket(socket);
+                }
+            }, 0);
+            return;
+        }
+        closeWebSocket(socket);
+    }
+
+    // Keep a set up connection ready so start() does not wait for DNS, TCP, TLS and setup
+    public void setWarmStandbyEnabled(boolean enabled) {
+        warmStandbyEnabled = enabled;
+        if (enabled) {
+            scheduleStandbyWarm(0);
+        } else {
+            timer.removeCallbacks(warmStandbyTask);
+            closeStandby();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Media captured now has to wait for READY: the session is wanted but the connection is not set
+    // up yet (connecting, waiting for setupComplete or reconnecting). Check it with getUplinkLock() held.
+    public boolean isWaitingForReady() {
+        return !ready && reconnectSupervisor.isReconnecting();
+    }
+
+    // Held while the connection turns READY and Host.onReady sends the held back audio
+    public Object getUplinkLock() {
+        return uplinkLock;
+    }
+
+    public ConnectionStateMachine.State getState() {
+        return connectionState.getState();
+    }
+
+    // A server frame for listener, from the WebSocket or a replay
+    public void receive(String message, ServerMessageParser.Listener listener) {
+        if (message == null) {
+            return;
+        }
+        if (!(listener instanceof StandbyListener)) {
+            host.onServerFrame();
+        }
+        SessionTap tap = sessionTap;
+        if (tap != null) {
+            tap.recordServer(message, listener);
+        }
+
+        // Two connections can overlap briefly after a goAway, the parser takes one frame at a time
+        synchronized (parser) {
+            try {
+                parser.parse(message, listener);
+            } catch (JSONException e) {
+                host.log("Error parsing message", e);
+            }
+        }
+    }
+
+    // Binary frame, only the bytes between position and limit belong to it, the buffer may be direct
+    public void receive(ByteBuffer message, ServerMessageParser.Listener listener) {
+        if (message == null || !message.hasRemaining()) {
+            return;
+        }
+        if (!(listener instanceof StandbyListener)) {
+            host.onServerFrame();
+        }
+        SessionTap tap = sessionTap;
+        if (tap != null) {
+            tap.recordServer(message, listener);
+        }
+
+        synchronized (parser) {
+            try {
+                parser.parse(message, listener);
+            } catch (JSONException e) {
+                host.log("Error parsing binary message", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean send(ByteBuffer frame) {
+        WebSocketClient socket = webSocket;
+        if (socket == null) {
+            return false;
+        }
+        try {
+            socket.send(frame);
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            host.log("Error sending media chunk", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean send(String text) {
+        WebSocketClient socket = webSocket;
+        if (socket == null) {
+            return false;
+        }
+        try {
+            socket.send(text);
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            host.log("Error sending control message", e);
+            return false;
+        }
+    }
+
+    // Bytes queued on the WebSocket itself
+    @Override
+    public long queuedBytes() {
+        WebSocketImpl connection = activeConnection();
+        if (connection == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (ByteBuffer frame : connection.outQueue) {
+            bytes += frame.remaining();
+        }
+        return bytes;
+    }
+
+    // Frames queued on the WebSocket itself
+    public int queuedFrames() {
+        WebSocketImpl connection = activeConnection();
+        return connection != null ? connection.outQueue.size() : 0;
+    }
+
+    // DNS / TCP / TLS / upgrade / setup-ack breakdown of the active and the standby connection as JSON,
+    // with the time from start() to READY, how often the standby was used and the time spent in each
+    // connection state
+    public String toJson() {
+        ConnectionTimings active = activeTimings;
+        ConnectionTimings standby;
+        String standbyState;
+        synchronized (standbyLock) {
+            standby = standbyWebSocket != null ? standbyWebSocket.timings : null;
+            if (standby == null) {
+                standbyState = "none";
+            } else if (!standbyOpen) {
+                standbyState = "connecting";
+            } else {
+                standbyState = standby.isSetupComplete() ? "ready" : "settingUp";
+            }
+        }
+        return String.format(Locale.US,
+                "{\"warmStandby\":%b,\"standbyState\":\"%s\",\"warmConnects\":%d,\"coldConnects\":%d,"
+                        + "\"lastStartMs\":%d,\"lastStartWarm\":%b,\"lastPendingAudioMs\":%d,\"active\":%s,"
+                        + "\"standby\":%s,\"states\":%s}",
+                warmStandbyEnabled, standbyState, warmConnects, coldConnects, lastStartMillis, lastStartWarm,
+                lastPendingAudioMillis, active != null ? active.toJson() : "null",
+                standby != null ? standby.toJson() : "null", connectionState.toJson(timer.uptimeMillis()));
+    }
+
+    private WebSocketImpl activeConnection() {
+        WebSocketClient socket = webSocket;
+        if (socket == null) {
+            return null;
+        }
+        WebSocket connection = socket.getConnection();
+        return connection instanceof WebSocketImpl ? (WebSocketImpl) connection : null;
+    }
+
+    // Both the active and the standby connection are a LiveSocket, a standby becomes the active one
+    // when connect() adopts it (or before it opened, then it sets up like any other connection).
+    // The timings belong to the socket, so a message that raced with an adoption stamps the right one.
+    private final class LiveSocket extends WebSocketClient {
+        final ConnectionTimings timings;
+        final ServerMessageParser.Listener standbyListener;
+
+        LiveSocket(ConnectionTimings timings) {
+            super(endpoint, new Draft_6455(), HEADERS);
+            this.timings = timings;
+            this.standbyListener = timings.isStandby() ? new StandbyListener(this) : null;
+            boolean secure = "wss".equalsIgnoreCase(endpoint.getScheme());
+            int port = endpoint.getPort() != -1 ? endpoint.getPort() : (secure ? 443 : 80);
+            setSocketFactory(new TimedSocketFactory(endpoint.getHost(), port, secure, CONNECT_TIMEOUT_MS, timings));
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+            host.log("Connected. Server handshake: " + handshakedata.getHttpStatus(), null);
+            timings.onOpen();
+
+            // Frames written past the WebSocket queue are out of the scheduler's reach, keep that small
+            try {
+                Socket socket = getSocket();
+                if (socket != null) {
+                    socket.setSendBufferSize(SOCKET_SEND_BUFFER_BYTES);
+                }
+            } catch (SocketException e) {
+                host.log("Could not limit socket send buffer", e);
+            }
+
+            // A standby sends its setup right away and waits to be adopted
+            synchronized (standbyLock) {
+                if (this == standbyWebSocket) {
+                    standbyOpen = true;
+                    send(standbySetup);
+                    timings.onSetupSent();
+                    return;
+                }
+            }
+
+            // Media waits until the server answers with setupComplete
+            connectionState.moveTo(ConnectionStateMachine.State.SETTING_UP, timer.uptimeMillis());
+            String setup = host.setupMessage(resumptionHandle);
+            synchronized (uplinkLock) {
+                host.dropQueuedFrames();
+                if (setup != null) {
+                    send(setup);
+                    timings.onSetupSent();
+                }
+            }
+            timer.postDelayed(setupTimeoutTask, SETUP_TIMEOUT_MS);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            receive(message, listenerFor(this));
+        }
+
+        @Override
+        public void onMessage(ByteBuffer bytes) {
+            // Large audio responses arrive as binary frames, they are parsed in place
+            receive(bytes, listenerFor(this));
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            host.log("Connection Closed: " + reason, null);
+            if (dropStandby(this) || isReplaced(this)) {
+                return;
+            }
+            lost(reason, null);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            String errorMsg = ex != null ? ex.getMessage() : "Unknown error";
+            host.log("Error: " + errorMsg, ex);
+            if (dropStandby(this) || isReplaced(this)) {
+                return;
+            }
+            lost(errorMsg, ex);
+        }
+    }
+
+    private void lost(String reason, Exception error) {
+        ready = false;
+        timer.removeCallbacks(setupTimeoutTask);
+        connectionState.moveTo(ConnectionStateMachine.State.CLOSED, timer.uptimeMillis());
+        synchronized (uplinkLock) {
+            host.dropQueuedFrames();
+        }
+        host.onLost(reason, error);
+        reconnectSupervisor.onDisconnected();
+    }
+
+    // The active connection's frames: setup, resumption and goAway drive the connection, the response
+    // goes to responseListener
+    private final class ActiveListener implements ServerMessageParser.Listener {
+        @Override
+        public void onTranscript(String text) {
+            responseListener.onTranscript(text);
+        }
+
+        @Override
+        public void onText(String text) {
+            responseListener.onText(text);
+        }
+
+        @Override
+        public void onAudio(PcmChunkPool.Chunk chunk) {
+            responseListener.onAudio(chunk);
+        }
+
+        @Override
+        public void onTurnComplete() {
+            responseListener.onTurnComplete();
+        }
+
+        @Override
+        public void onInterrupted() {
+            responseListener.onInterrupted();
+        }
+
+        @Override
+        public void onSetupComplete() {
+            ConnectionTimings timings = activeTimings;
+            if (timings != null) {
+                timings.onSetupComplete();
+                host.log("Setup complete: " + timings.toJson(), null);
+            }
+            onSessionReady();
+        }
+
+        @Override
+        public void onSessionResumptionUpdate(String newHandle, boolean resumable) {
+            reconnectSupervisor.onResumptionUpdate(newHandle, resumable);
+        }
+
+        // The server closes this connection soon, switch to a resumed one before it does
+        @Override
+        public void onGoAway(long timeLeftMillis) {
+            host.log("goAway, connection closes in " + timeLeftMillis + " ms", null);
+            connectionState.moveTo(ConnectionStateMachine.State.DRAINING, timer.uptimeMillis());
+            reconnectSupervisor.onGoAway(timeLeftMillis);
+        }
+
+        @Override
+        public void onUsageMetadata(long promptTokens, long responseTokens, long totalTokens, long imagePromptTokens) {
+            responseListener.onUsageMetadata(promptTokens, responseTokens, totalTokens, imagePromptTokens);
+        }
+    }
+
+    // Handles a warm standby connection until it is adopted, there is no turn on it yet
+    private final class StandbyListener implements ServerMessageParser.Listener {
+        private final LiveSocket socket;
+
+        StandbyListener(LiveSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void onTranscript(String text) {
+        }
+
+        @Override
+        public void onText(String text) {
+        }
+
+        @Override
+        public void onAudio(PcmChunkPool.Chunk chunk) {
+            chunk.release();
+        }
+
+        @Override
+        public void onTurnComplete() {
+        }
+
+        @Override
+        public void onInterrupted() {
+        }
+
+        @Override
+        public void onSetupComplete() {
+            socket.timings.onSetupComplete();
+            host.log("Standby ready: " + socket.timings.toJson(), null);
+            // Adopted while this message was on its way
+            if (socket == webSocket) {
+                onSessionReady();
+            }
+        }
+
+        @Override
+        public void onSessionResumptionUpdate(String newHandle, boolean resumable) {
+            if (resumable && newHandle != null && !newHandle.isEmpty()) {
+                synchronized (standbyLock) {
+                    standbyResumptionHandle = newHandle;
+                }
+            }
+        }
+
+        // A standby about to be closed by the server is replaced right away
+        @Override
+        public void onGoAway(long timeLeftMillis) {
+            closeStandby();
+            scheduleStandbyWarm(0);
+        }
+
+        @Override
+        public void onUsageMetadata(long promptTokens, long responseTokens, long totalTokens, long imagePromptTokens) {
+        }
+    }
+
+    // Open and set up the next standby connection, runs on the timer's thread
+    private final Runnable warmStandbyTask = this::warmStandby;
+
+    private void warmStandby() {
+        if (!warmStandbyEnabled) {
+            return;
+        }
+        String setup = host.setupMessage(null);
+        if (setup == null) {
+            return;
+        }
+        synchronized (standbyLock) {
+            if (standbyWebSocket != null) {
+                return;
+            }
+            host.log("Warming standby connection", null);
+            standbySetup = setup;
+            standbyOpen = false;
+            standbyResumptionHandle = null;
+            standbyWebSocket = new LiveSocket(new ConnectionTimings(true));
+            standbyWebSocket.setConnectionLostTimeout(STANDBY_PING_INTERVAL_S);
+            standbyWebSocket.connect();
+        }
+    }
+
+    private void scheduleStandbyWarm(long delayMillis) {
+        timer.removeCallbacks(warmStandbyTask);
+        if (warmStandbyEnabled) {
+            timer.postDelayed(warmStandbyTask, delayMillis);
+        }
+    }
+
+    // Make the standby the active connection, returns false when there is none or its setup is stale.
+    // An open standby already sent its setup, so media can flow right away.
+    private boolean adoptStandby() {
+        String setup = host.setupMessage(null);
+        LiveSocket standby;
+        boolean open;
+        boolean usable;
+        String handle;
+        synchronized (standbyLock) {
+            standby = standbyWebSocket;
+            if (standby == null) {
+                return false;
+            }
+            standbyWebSocket = null;
+            open = standbyOpen;
+            handle = standbyResumptionHandle;
+            usable = !standby.isClosing() && !standby.isClosed()
+                    && (!open || standbySetup.equals(setup));
+            if (usable) {
+                webSocket = standby;
+                activeTimings = standby.timings;
+            }
+        }
+        if (!usable) {
+            // Closed, or set up with settings that changed since (muted, activity signals).
+            // It is no longer the standby, so its close does not count as a lost standby.
+            host.log("Standby connection not usable, connecting", null);
+            standby.close();
+            scheduleStandbyWarm(0);
+            return false;
+        }
+        host.log("Using standby connection", null);
+        warmConnects++;
+        scheduleStandbyWarm(0);
+        if (!open) {
+            // Still connecting, onOpen sets it up as the active connection
+            return true;
+        }
+
+        connectionState.moveTo(ConnectionStateMachine.State.SETTING_UP, timer.uptimeMillis());
+        synchronized (uplinkLock) {
+            host.dropQueuedFrames();
+        }
+        if (handle != null) {
+            reconnectSupervisor.onResumptionUpdate(handle, true);
+        }
+        // Usually the standby is set up already, otherwise its setupComplete makes it READY
+        if (standby.timings.isSetupComplete()) {
+            onSessionReady();
+        } else {
+            timer.postDelayed(setupTimeoutTask, SETUP_TIMEOUT_MS);
+        }
+        return true;
+    }
+
+    // setupComplete arrived for the active connection: media can flow, audio captured before
+    // READY goes out first in one burst
+    private void onSessionReady() {
+        if (!connectionState.moveTo(ConnectionStateMachine.State.READY, timer.uptimeMillis())) {
+            return;
+        }
+        timer.removeCallbacks(setupTimeoutTask);
+        synchronized (uplinkLock) {
+            ready = true;
+            lastPendingAudioMillis = host.onReady(resumptionHandle != null);
+        }
+        ConnectionTimings timings = activeTimings;
+        onStartCompleted(timings != null && timings.isStandby());
+        reconnectSupervisor.onConnected();
+        closeRetiringWebSocket();
+    }
+
+    // The server never answered the setup message, drop the connection and let the supervisor retry
+    private final Runnable setupTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            WebSocketClient socket = webSocket;
+            if (!connectionState.is(ConnectionStateMachine.State.SETTING_UP) || socket == null) {
+                return;
+            }
+            host.log("No setupComplete after " + SETUP_TIMEOUT_MS + " ms, reconnecting", null);
+            socket.close();
+        }
+    };
+
+    // Forget a standby connection that closed or failed, true if client was the standby
+    private boolean dropStandby(WebSocketClient client) {
+        synchronized (standbyLock) {
+            if (client != standbyWebSocket) {
+                return false;
+            }
+            standbyWebSocket = null;
+        }
+        host.log("Standby connection lost", null);
+        scheduleStandbyWarm(STANDBY_RETRY_DELAY_MS);
+        return true;
+    }
+
+    private void closeStandby() {
+        LiveSocket standby;
+        synchronized (standbyLock) {
+            standby = standbyWebSocket;
+            standbyWebSocket = null;
+        }
+        if (standby != null) {
+            standby.close();
+        }
+    }
+
+    // Time from start() to a READY connection
+    private void onStartCompleted(boolean warm) {
+        long requested = startRequestedNanos;
+        if (requested == 0) {
+            return;
+        }
+        startRequestedNanos = 0;
+        lastStartMillis = (System.nanoTime() - requested) / 1_000_000L;
+        lastStartWarm = warm;
+    }
+
+    private ServerMessageParser.Listener listenerFor(WebSocketClient client) {
+        synchronized (standbyLock) {
+            return client == standbyWebSocket ? standbyWebSocket.standbyListener : activeListener;
+        }
+    }
+
+    // Events of a connection that was replaced by a newer one (after goAway or a retry) are ignored
+    private boolean isReplaced(WebSocketClient client) {
+        WebSocketClient current = webSocket;
+        return current != null && current != client;
+    }
+
+    private void closeRetiringWebSocket() {
+        WebSocketClient retiring = retiringWebSocket;
+        retiringWebSocket = null;
+        if (retiring != null) {
+            retiring.close();
+        }
+    }
+
+    private void closeWebSocket(LiveSocket socket) {
+        if (webSocket == socket) {
+            webSocket = null;
+            connectionState.moveTo(ConnectionStateMachine.State.CLOSED, timer.uptimeMillis());
+            synchronized (uplinkLock) {
+                host.dropQueuedFrames();
+            }
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
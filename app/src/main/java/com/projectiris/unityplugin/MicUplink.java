@@ -0,0 +1,187 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+
+// The capture thread's path from a mic read to uplink chunks. Every read goes through the VAD into
+// a PcmRingBuffer, and chunks of the policy's length are cut from the ring into one reused array.
+// Silence suppression: while the VAD reports silence only the last preRollMillis of audio stay in
+// the ring, so the word onset is sent together with the speech that follows it. With activity
+// signals the utterance is framed by activity_start / activity_end, otherwise its end is marked
+// with audio_stream_end. Nothing is allocated per read or per chunk.
+// onRead, finish and clear run on the capture thread; the flags may be set from any thread.
+public class MicUplink {
+
+    public static final String ACTIVITY_START_MESSAGE = "{\"realtime_input\":{\"activity_start\":{}}}";
+    public static final String ACTIVITY_END_MESSAGE = "{\"realtime_input\":{\"activity_end\":{}}}";
+    public static final String AUDIO_STREAM_END_MESSAGE = "{\"realtime_input\":{\"audio_stream_end\":true}}";
+
+    private static final int RING_CHUNKS = 8; // ring holds this many chunks before dropping the oldest
+
+    // Where the chunks and control messages go, called on the capture thread
+    public interface Sink {
+        // chunk: a view of the reused chunk array from position 0, valid until the call returns
+        void sendChunk(ByteBuffer chunk);
+
+        void sendControl(String message);
+
+        // The VAD heard an utterance start
+        void onSpeechStart();
+
+        // Audio frames queued and not yet written to the network
+        int framesInFlight();
+    }
+
+    private final AudioChunkingPolicy chunkingPolicy;
+    private final VoiceActivityDetector voiceActivityDetector;
+    private final Sink sink;
+    private final PcmRingBuffer ring;
+    private final byte[] chunk;
+    private final ByteBuffer chunkView;
+    private final int preRollBytes;
+
+    private volatile boolean vadEnabled = true;
+    private volatile boolean activitySignalsEnabled = false;
+    private volatile boolean uplinkOpen = false;
+    private boolean wasVoiced = false;
+
+    // readBytes: the largest single read. Throws IllegalArgumentException for an empty read or a
+    // negative pre-roll.
+    public MicUplink(AudioChunkingPolicy chunkingPolicy, int sampleRate, int readBytes, int preRollMillis,
+                     VoiceActivityDetector voiceActivityDetector, Sink sink) {
+        if (readBytes <= 0 || preRollMillis < 0) {
+            throw new IllegalArgumentException("readBytes " + readBytes + ", preRollMillis " + preRollMillis);
+        }
+        this.chunkingPolicy = chunkingPolicy;
+        this.voiceActivityDetector = voiceActivityDetector;
+        this.sink = sink;
+        int chunkBytes = chunkingPolicy.chunkBytes(sampleRate);
+        this.chunk = new byte[chunkBytes];
+        this.chunkView = ByteBuffer.wrap(chunk);
+        this.preRollBytes = sampleRate * 2 * preRollMillis / 1000;
+        this.ring = new PcmRingBuffer(Math.max(chunkBytes, readBytes) * RING_CHUNKS + preRollBytes);
+    }
+
+    // A new recording: nothing buffered, the uplink closed until the VAD hears speech
+    public void start() {
+        ring.clear();
+        voiceActivityDetector.reset();
+        uplinkOpen = false;
+        wasVoiced = false;
+    }
+
+    // One mic read, the samples between position and limit (the buffer is not moved)
+    public void onRead(ByteBuffer read) {
+        VoiceActivityDetector.Event event = voiceActivityDetector.process(read);
+        int position = read.position();
+        ring.write(read);
+        read.position(position);
+        gate(event);
+    }
+
+    // The recording stopped: send the partial tail so the end of the utterance is not lost
+    public void finish() {
+        if (uplinkOpen || !vadEnabled) {
+            while (ring.readChunk(chunk)) {
+                sendChunk(chunk.length);
+            }
+            flushPartialChunk();
+        }
+        if (uplinkOpen) {
+            uplinkOpen = false;
+            sink.sendControl(activitySignalsEnabled ? ACTIVITY_END_MESSAGE : AUDIO_STREAM_END_MESSAGE);
+        }
+    }
+
+    public void clear() {
+        ring.clear();
+    }
+
+    private void gate(VoiceActivityDetector.Event event) {
+        boolean voiced = voiceActivityDetector.isVoiced();
+        boolean pauseStarted = wasVoiced && !voiced;
+        wasVoiced = voiced;
+
+        if (!vadEnabled) {
+            sendBufferedChunks();
+            return;
+        }
+
+        if (event == VoiceActivityDetector.Event.SPEECH_START) {
+            uplinkOpen = true;
+            sink.onSpeechStart();
+            if (activitySignalsEnabled) {
+                sink.sendControl(ACTIVITY_START_MESSAGE);
+            }
+        }
+
+        if (!uplinkOpen) {
+            ring.trimTo(preRollBytes);
+            return;
+        }
+
+        if (event == VoiceActivityDetector.Event.SPEECH_END) {
+            // The end of the utterance always goes out, even past the in-flight limit
+            while (ring.readChunk(chunk)) {
+                sendChunk(chunk.length);
+            }
+            flushPartialChunk();
+            uplinkOpen = false;
+            // Without client activity signals the server still needs to know the audio paused
+            sink.sendControl(activitySignalsEnabled ? ACTIVITY_END_MESSAGE : AUDIO_STREAM_END_MESSAGE);
+            return;
+        }
+
+        sendBufferedChunks();
+        if (pauseStarted && chunkingPolicy.isFlushOnSilence() && chunkingPolicy.canSend(sink.framesInFlight())) {
+            // The user paused mid-utterance: don't hold the last word back for a full chunk
+            flushPartialChunk();
+        }
+    }
+
+    // Send every full chunk buffered in the ring, as long as the socket is not backed up.
+    // Held back audio stays in the ring (oldest dropped on overflow) and goes out once the
+    // socket drains, so a slow link gets fewer, fuller frames instead of an ever growing queue.
+    private void sendBufferedChunks() {
+        while (chunkingPolicy.canSend(sink.framesInFlight()) && ring.readChunk(chunk)) {
+            sendChunk(chunk.length);
+        }
+    }
+
+    // Send whatever is buffered, even less than a full chunk
+    private void flushPartialChunk() {
+        int length = ring.drain(chunk);
+        if (length > 0) {
+            sendChunk(length);
+        }
+    }
+
+    private void sendChunk(int length) {
+        chunkView.clear();
+        chunkView.limit(length);
+        sink.sendChunk(chunkView);
+    }
+
+    public boolean isUplinkOpen() {
+        return uplinkOpen;
+    }
+
+    public void setVadEnabled(boolean enabled) {
+        this.vadEnabled = enabled;
+    }
+
+    public boolean isVadEnabled() {
+        return vadEnabled;
+    }
+
+    public void setActivitySignalsEnabled(boolean enabled) {
+        this.activitySignalsEnabled = enabled;
+    }
+
+    public boolean isActivitySignalsEnabled() {
+        return activitySignalsEnabled;
+    }
+
+    public long getDroppedBytes() {
+        return ring.getDroppedBytes();
+    }
+}
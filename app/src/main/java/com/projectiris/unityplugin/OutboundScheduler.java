@@ -0,0 +1,289 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+// Single sender thread for everything the client writes to the WebSocket.
+// Producers (capture thread, image encoder, Unity calls) put frames into one of three lanes and
+// return immediately. The sender hands frames to the socket in lane priority order (control, audio,
+// image), and only while the socket's own queue holds less than maxSocketBacklogBytes, so frames wait
+// here where priority still applies instead of in the socket where they are strictly FIFO.
+// Images are only handed over when the socket queue is empty, so at most the image currently being
+// written can be ahead of the next audio frame.
+// Frames keep their order within a lane. Each lane is bounded and drops its oldest binary frame when
+// full: a stale image is worthless once a newer one exists, and old audio only adds delay. Text frames
+// (setup, activity_start / activity_end, audio_stream_end) are never dropped, without them the server
+// would not open or close a turn; a lane holding nothing but text frames grows past its capacity.
+// Frame buffers are pooled per lane, steady streaming does not allocate.
+public class OutboundScheduler {
+
+    public enum Lane {
+        CONTROL,
+        AUDIO,
+        IMAGE
+    }
+
+    // The socket the scheduler feeds, the WebSocketClient on device
+    public interface Transport {
+        // Hand a binary frame to the socket, returns false when the connection is not open
+        boolean send(ByteBuffer frame);
+
+        // Hand a text frame to the socket, returns false when the connection is not open
+        boolean send(String text);
+
+        // Bytes handed to the socket that have not been written to the network yet
+        long queuedBytes();
+    }
+
+    private static final long BACKLOG_POLL_MILLIS = 2;
+
+    private static final class Frame {
+        byte[] data = new byte[0];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int length;
+        String text;
+        long enqueuedNanos;
+
+        void copyFrom(ByteBuffer src) {
+            length = src.remaining();
+            if (data.length < length) {
+                data = new byte[length];
+                buffer = ByteBuffer.wrap(data);
+            }
+            int position = src.position();
+            src.get(data, 0, length);
+            src.position(position);
+            text = null;
+        }
+    }
+
+    private static final class LaneQueue {
+        final Lane lane;
+        final int capacity;
+        final ArrayDeque<Frame> queued;
+        final ArrayDeque<Frame> free;
+        long queuedBytes;
+
+        long enqueued;
+        long sent;
+        long dropped;
+        long failed;
+        int maxDepth;
+        long totalWaitNanos;
+        long maxWaitNanos;
+
+        LaneQueue(Lane lane, int capacity) {
+            this.lane = lane;
+            this.capacity = capacity;
+            this.queued = new ArrayDeque<>(capacity);
+            this.free = new ArrayDeque<>(capacity + 1);
+        }
+
+        Frame obtain() {
+            Frame frame = free.poll();
+            return frame != null ? frame : new Frame();
+        }
+
+        String toJson() {
+            return String.format(Locale.US,
+                    "{\"queued\":%d,\"queuedBytes\":%d,\"maxDepth\":%d,\"enqueued\":%d,\"sent\":%d,"
+                            + "\"dropped\":%d,\"failed\":%d,\"avgWaitMs\":%.1f,\"maxWaitMs\":%.1f}",
+                    queued.size(), queuedBytes, maxDepth, enqueued, sent, dropped, failed,
+                    sent > 0 ? totalWaitNanos / 1e6 / sent : 0.0, maxWaitNanos / 1e6);
+        }
+    }
+
+    private final Transport transport;
+    private final long maxSocketBacklogBytes;
+    private final LaneQueue[] lanes;
+    private final Thread thread;
+
+    private volatile boolean running = false;
+
+    // Backpressure: how often and how long the sender held frames because the socket was backed up
+    private long backlogStalls = 0;
+    private long backlogStallNanos = 0;
+
+    public OutboundScheduler(Transport transport, int controlCapacity, int audioCapacity, int imageCapacity,
+                             long maxSocketBacklogBytes, ThreadFactory threadFactory) {
+        this.transport = transport;
+        this.maxSocketBacklogBytes = maxSocketBacklogBytes;
+        this.lanes = new LaneQueue[]{
+                new LaneQueue(Lane.CONTROL, Math.max(1, controlCapacity)),
+                new LaneQueue(Lane.AUDIO, Math.max(1, audioCapacity)),
+                new LaneQueue(Lane.IMAGE, Math.max(1, imageCapacity))
+        };
+        this.thread = threadFactory.newThread(this::runLoop);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    // Copy the remaining bytes of frame (its position is not moved), the caller may reuse it right away
+    public void enqueue(Lane lane, ByteBuffer frame) {
+        synchronized (this) {
+            LaneQueue queue = lanes[lane.ordinal()];
+            Frame entry = admit(queue);
+            entry.copyFrom(frame);
+            add(queue, entry, entry.length);
+        }
+    }
+
+    public void enqueue(Lane lane, String text) {
+        synchronized (this) {
+            LaneQueue queue = lanes[lane.ordinal()];
+            Frame entry = admit(queue);
+            entry.text = text;
+            entry.length = 0;
+            add(queue, entry, text.length());
+        }
+    }
+
+    // Make room in a full lane by dropping its oldest binary frame, text frames stay queued
+    private Frame admit(LaneQueue queue) {
+        if (queue.queued.size() >= queue.capacity) {
+            Iterator<Frame> frames = queue.queued.iterator();
+            while (frames.hasNext()) {
+                Frame oldest = frames.next();
+                if (oldest.text == null) {
+                    frames.remove();
+                    queue.queuedBytes -= oldest.length;
+                    queue.dropped++;
+                    return oldest;
+                }
+            }
+        }
+        return queue.obtain();
+    }
+
+    private void add(LaneQueue queue, Frame entry, int bytes) {
+        entry.enqueuedNanos = System.nanoTime();
+        queue.queued.add(entry);
+        queue.queuedBytes += bytes;
+        queue.enqueued++;
+        queue.maxDepth = Math.max(queue.maxDepth, queue.queued.size());
+        notifyAll();
+    }
+
+    // Drop everything not yet handed to the socket, e.g. when the connection closed
+    public synchronized void clear() {
+        for (LaneQueue queue : lanes) {
+            Frame frame;
+            while ((frame = queue.queued.poll()) != null) {
+                queue.dropped++;
+                frame.text = null;
+                queue.free.add(frame);
+            }
+            queue.queuedBytes = 0;
+        }
+    }
+
+    public synchronized int getQueuedFrames(Lane lane) {
+        return lanes[lane.ordinal()].queued.size();
+    }
+
+    // Bytes waiting in all lanes
+    public synchronized long getQueuedBytes() {
+        long bytes = 0;
+        for (LaneQueue queue : lanes) {
+            bytes += queue.queuedBytes;
+        }
+        return bytes;
+    }
+
+    // Stop the sender thread, frames still queued are not sent
+    public void shutdown() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized String toJson() {
+        return String.format(Locale.US,
+                "{\"control\":%s,\"audio\":%s,\"image\":%s,\"socketBacklogBytes\":%d,"
+                        + "\"backlogStalls\":%d,\"backlogStallMs\":%d}",
+                lanes[0].toJson(), lanes[1].toJson(), lanes[2].toJson(), transport.queuedBytes(),
+                backlogStalls, backlogStallNanos / 1_000_000L);
+    }
+
+    private void runLoop() {
+        while (running) {
+            LaneQueue queue;
+            Frame frame;
+            synchronized (this) {
+                queue = nextLane();
+                if (queue == null) {
+                    waitQuietly(0);
+                    continue;
+                }
+                long backlogLimit = queue.lane == Lane.IMAGE ? 0 : maxSocketBacklogBytes;
+                if (transport.queuedBytes() > backlogLimit) {
+                    // The socket is still writing earlier frames, keep this one where priority applies
+                    long start = System.nanoTime();
+                    backlogStalls++;
+                    waitQuietly(BACKLOG_POLL_MILLIS);
+                    backlogStallNanos += System.nanoTime() - start;
+                    continue;
+                }
+                frame = queue.queued.poll();
+                queue.queuedBytes -= sizeOf(frame);
+            }
+
+            // Sent outside the lock, producers are never blocked by the socket
+            boolean sent;
+            if (frame.text != null) {
+                sent = transport.send(frame.text);
+            } else {
+                frame.buffer.clear();
+                frame.buffer.limit(frame.length);
+                sent = transport.send(frame.buffer);
+            }
+            long waitNanos = System.nanoTime() - frame.enqueuedNanos;
+
+            synchronized (this) {
+                if (sent) {
+                    queue.sent++;
+                    queue.totalWaitNanos += waitNanos;
+                    queue.maxWaitNanos = Math.max(queue.maxWaitNanos, waitNanos);
+                } else {
+                    queue.failed++;
+                }
+                frame.text = null;
+                queue.free.add(frame);
+            }
+        }
+    }
+
+    private LaneQueue nextLane() {
+        for (LaneQueue queue : lanes) {
+            if (!queue.queued.isEmpty()) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    private static int sizeOf(Frame frame) {
+        return frame.text != null ? frame.text.length() : frame.length;
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            running = false;
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.projectiris.unityplugin;
+
+import java.util.ArrayDeque;
+
+// Pool of reusable PCM byte buffers for decoded response audio.
+// The receive thread acquires a chunk, decodes into it and hands it to playback,
+// which releases it back to the pool once the samples have been written.
+public class PcmChunkPool {
+
+    // One pooled PCM buffer. Only the first length bytes of data are valid.
+    public static final class Chunk {
+        private final PcmChunkPool pool;
+        public byte[] data;
+        public int length;
+
+        private Chunk(PcmChunkPool pool, int capacity) {
+            this.pool = pool;
+            this.data = new byte[capacity];
+        }
+
+        public void release() {
+            pool.release(this);
+        }
+    }
+
+    private final ArrayDeque<Chunk> free;
+    private final int maxPooled;
+    private final int defaultCapacity;
+    private int created = 0;
+
+    public PcmChunkPool(int maxPooled, int defaultCapacity) {
+        this.maxPooled = maxPooled;
+        this.defaultCapacity = defaultCapacity;
+        this.free = new ArrayDeque<>(maxPooled);
+    }
+
+    // Get a chunk whose buffer can hold at least minCapacity bytes, length is reset to 0
+    public Chunk acquire(int minCapacity) {
+        Chunk chunk;
+        synchronized (free) {
+            chunk = free.pollLast();
+            if (chunk == null) {
+                created++;
+            }
+        }
+
+        if (chunk == null) {
+            chunk = new Chunk(this, Math.max(minCapacity, defaultCapacity));
+        } else if (chunk.data.length < minCapacity) {
+            chunk.data = new byte[minCapacity];
+        }
+        chunk.length = 0;
+        return chunk;
+    }
+
+    private void release(Chunk chunk) {
+        synchronized (free) {
+            if (free.size() < maxPooled) {
+                free.addLast(chunk);
+            }
+        }
+    }
+
+    // Number of chunks allocated so far, stays flat once the pool is warm
+    public int getCreatedCount() {
+        synchronized (free) {
+            return created;
+        }
+    }
+
+    public int getFreeCount() {
+        synchronized (free) {
+            return free.size();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Fixed size ring buffer for 16-bit PCM bytes.
+// The backing store is a single direct ByteBuffer allocated once, so writing captured audio
+// and draining it into chunks does not allocate anything per sample or per chunk.
+// When the buffer is full the oldest bytes are overwritten, keeping the uplink close to real time.
+public class PcmRingBuffer {
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    private int readPos = 0;
+    private int writePos = 0;
+    private int size = 0;
+    private long droppedBytes = 0;
+
+    public PcmRingBuffer(int capacityBytes) {
+        if (capacityBytes <= 0) {
+            throw new IllegalArgumentException("capacityBytes must be positive: " + capacityBytes);
+        }
+        this.capacity = capacityBytes;
+        this.buffer = ByteBuffer.allocateDirect(capacityBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Copy all remaining bytes of src into the ring (src position is advanced to its limit)
+    public synchronized int write(ByteBuffer src) {
+        int length = src.remaining();
+        if (length > capacity) {
+            // Only the newest part of an oversized write can be kept
+            int skip = length - capacity;
+            droppedBytes += skip;
+            src.position(src.position() + skip);
+            length = capacity;
+        }
+
+        int overflow = size + length - capacity;
+        if (overflow > 0) {
+            readPos = (readPos + overflow) % capacity;
+            size -= overflow;
+            droppedBytes += overflow;
+        }
+
+        int srcLimit = src.limit();
+        int first = Math.min(length, capacity - writePos);
+        src.limit(src.position() + first);
+        buffer.limit(capacity);
+        buffer.position(writePos);
+        buffer.put(src);
+
+        int second = length - first;
+        if (second > 0) {
+            src.limit(src.position() + second);
+            buffer.position(0);
+            buffer.put(src);
+        }
+        src.limit(srcLimit);
+
+        writePos = (writePos + length) % capacity;
+        size += length;
+        return length;
+    }
+
+    // Copy one full chunk of dst.length bytes into dst.
+    // Returns false (and copies nothing) when less than a full chunk is buffered.
+    public synchronized boolean readChunk(byte[] dst) {
+        if (size < dst.length) {
+            return false;
+        }
+        copyOut(dst, dst.length);
+        return true;
+    }
+
+    // Copy whatever is buffered (up to dst.length bytes) into dst and return the byte count
+    public synchronized int drain(byte[] dst) {
+        int length = Math.min(size, dst.length);
+        if (length > 0) {
+            copyOut(dst, length);
+        }
+        return length;
+    }
+
+    private void copyOut(byte[] dst, int length) {
+        int first = Math.min(length, capacity - readPos);
+        buffer.limit(capacity);
+        buffer.position(readPos);
+        buffer.get(dst, 0, first);
+
+        int second = length - first;
+        if (second > 0) {
+            buffer.position(0);
+            buffer.get(dst, first, second);
+        }
+
+        readPos = (readPos + length) % capacity;
+        size -= length;
+    }
+
+    // Drop the oldest bytes so that at most maxBytes stay buffered.
+    // Used to keep only a short pre-roll while the uplink is gated; not counted as dropped.
+    public synchronized void trimTo(int maxBytes) {
+        int excess = size - Math.max(0, maxBytes);
+        if (excess > 0) {
+            readPos = (readPos + excess) % capacity;
+            size -= excess;
+        }
+    }
+
+    public synchronized int available() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // Total bytes overwritten because the consumer fell behind
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public synchronized void clear() {
+        readPos = 0;
+        writePos = 0;
+        size = 0;
+    }
+}
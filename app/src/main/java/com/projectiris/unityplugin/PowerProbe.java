@@ -0,0 +1,114 @@
+package com.projectiris.unityplugin;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Power / CPU comparison harness for capture modes.
+// begin(label) and end() bracket a session (e.g. one camera run in a given capture mode); totals
+// are kept per label so running the same scenario in each mode gives a side by side comparison of
+// process CPU, battery charge drawn and thermal headroom.
+// Process CPU covers the whole app, so compare sessions recorded under the same conditions.
+public class PowerProbe {
+    private static final int THERMAL_FORECAST_SECONDS = 10;
+
+    private final PowerManager powerManager;
+    private final BatteryManager batteryManager;
+    private final Map<String, Totals> totals = new LinkedHashMap<>();
+
+    private String label;
+    private long startRealtimeMillis;
+    private long startCpuMillis;
+    private long startChargeMicroAmpHours;
+    private float startHeadroom;
+
+    public PowerProbe(Context context) {
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+    }
+
+    public synchronized void begin(String label) {
+        if (this.label != null) {
+            end();
+        }
+        this.label = label;
+        startRealtimeMillis = SystemClock.elapsedRealtime();
+        startCpuMillis = Process.getElapsedCpuTime();
+        startChargeMicroAmpHours = chargeCounter();
+        startHeadroom = thermalHeadroom();
+    }
+
+    public synchronized void end() {
+        if (label == null) {
+            return;
+        }
+        Totals session = totals.get(label);
+        if (session == null) {
+            session = new Totals();
+            totals.put(label, session);
+        }
+
+        session.sessions++;
+        session.wallMillis += SystemClock.elapsedRealtime() - startRealtimeMillis;
+        session.cpuMillis += Process.getElapsedCpuTime() - startCpuMillis;
+        long charge = chargeCounter();
+        if (charge != Long.MIN_VALUE && startChargeMicroAmpHours != Long.MIN_VALUE) {
+            session.chargeMicroAmpHours += startChargeMicroAmpHours - charge;
+        }
+        float headroom = thermalHeadroom();
+        if (!Float.isNaN(startHeadroom) && !Float.isNaN(headroom)) {
+            session.headroomChange += headroom - startHeadroom;
+        }
+        session.maxThermalStatus = Math.max(session.maxThermalStatus, thermalStatus());
+        label = null;
+    }
+
+    // {"<label>":{"sessions":..,"seconds":..,"cpuPercent":..,"chargeUah":..,"headroomChange":..,"maxThermalStatus":..}}
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+            Totals t = entry.getValue();
+            if (json.length() > 1) json.append(',');
+            json.append(String.format(Locale.US,
+                    "\"%s\":{\"sessions\":%d,\"seconds\":%.1f,\"cpuPercent\":%.1f,\"chargeUah\":%d,"
+                            + "\"headroomChange\":%.3f,\"maxThermalStatus\":%d}",
+                    entry.getKey(), t.sessions, t.wallMillis / 1000.0,
+                    t.wallMillis == 0 ? 0 : 100.0 * t.cpuMillis / t.wallMillis,
+                    t.chargeMicroAmpHours, t.headroomChange, t.maxThermalStatus));
+        }
+        return json.append('}').toString();
+    }
+
+    // Remaining battery charge in microampere-hours, Long.MIN_VALUE when not supported
+    private long chargeCounter() {
+        if (batteryManager == null) return Long.MIN_VALUE;
+        int value = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+        return value == Integer.MIN_VALUE || value <= 0 ? Long.MIN_VALUE : value;
+    }
+
+    // Forecast thermal headroom, higher is hotter and 1.0 is where severe throttling starts; NaN when not available
+    private float thermalHeadroom() {
+        if (powerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return Float.NaN;
+        return powerManager.getThermalHeadroom(THERMAL_FORECAST_SECONDS);
+    }
+
+    private int thermalStatus() {
+        return powerManager != null ? powerManager.getCurrentThermalStatus() : 0;
+    }
+
+    private static class Totals {
+        int sessions;
+        long wallMillis;
+        long cpuMillis;
+        long chargeMicroAmpHours;
+        float headroomChange;
+        int maxThermalStatus;
+    }
+}
@@ -0,0 +1,65 @@
+package com.projectiris.unityplugin;
+
+// Layout of a raw RGBA frame handed over by Unity and the size it is encoded at.
+// Rows are rowStride bytes apart (at least width * 4, a multiple of 4 so the padding can be
+// treated as extra pixels), the buffer holds rowStride * height bytes.
+// The frame is scaled so its long side fits maxDimension, keeping the aspect ratio.
+public class RawFrameGeometry {
+    public static final int BYTES_PER_PIXEL = 4;
+
+    public final int width;
+    public final int height;
+    public final int rowStride;
+    // Width of the buffer in pixels, padding included
+    public final int bufferWidth;
+    public final int outputWidth;
+    public final int outputHeight;
+
+    private RawFrameGeometry(int width, int height, int rowStride, int outputWidth, int outputHeight) {
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.bufferWidth = rowStride / BYTES_PER_PIXEL;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+    }
+
+    // rowStride 0 means tightly packed rows. Throws IllegalArgumentException for a layout
+    // that does not fit the buffer.
+    public static RawFrameGeometry of(int width, int height, int rowStride, long bufferBytes, int maxDimension) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        int stride = rowStride == 0 ? width * BYTES_PER_PIXEL : rowStride;
+        if (stride < width * BYTES_PER_PIXEL || stride % BYTES_PER_PIXEL != 0) {
+            throw new IllegalArgumentException("Invalid row stride " + stride + " for width " + width);
+        }
+        if (bufferBytes < (long) stride * height) {
+            throw new IllegalArgumentException("Buffer of " + bufferBytes + " bytes is smaller than "
+                    + stride + "x" + height);
+        }
+
+        int outputWidth = width;
+        int outputHeight = height;
+        if (maxDimension > 0 && Math.max(width, height) > maxDimension) {
+            if (width >= height) {
+                outputWidth = maxDimension;
+                outputHeight = Math.max(1, (int) ((long) height * maxDimension / width));
+            } else {
+                outputHeight = maxDimension;
+                outputWidth = Math.max(1, (int) ((long) width * maxDimension / height));
+            }
+        }
+        return new RawFrameGeometry(width, height, stride, outputWidth, outputHeight);
+    }
+
+    public int bufferBytes() {
+        return rowStride * height;
+    }
+
+    // Whether the copied pixels can be compressed as they are, or have to be cropped,
+    // scaled or flipped into an output bitmap first
+    public boolean needsTransform(boolean flipVertically) {
+        return flipVertically || bufferWidth != width || outputWidth != width || outputHeight != height;
+    }
+}
@@ -0,0 +1,118 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Writes Live API realtime_input frames straight into a reusable UTF-8 byte buffer.
+// Format: {"realtime_input":{"media_chunks":[{"mime_type":"<mime>","data":"<base64>"}]}}
+// The raw media bytes are Base64 encoded directly into the frame, so a chunk never exists as a
+// Base64 String or a JSON String. The returned ByteBuffer is only valid until the next write,
+// and a writer must not be shared between threads without external locking.
+public class RealtimeInputWriter {
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+                    .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PREFIX_START =
+            "{\"realtime_input\":{\"media_chunks\":[{\"mime_type\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PREFIX_END = "\",\"data\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUFFIX = "\"}]}}".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] frame;
+    private ByteBuffer frameBuffer;
+
+    // Envelope prefix for the last mime type used, writers are usually dedicated to one media type
+    private String cachedMimeType;
+    private byte[] cachedPrefix;
+
+    public RealtimeInputWriter(int initialCapacity) {
+        frame = new byte[Math.max(initialCapacity, 64)];
+        frameBuffer = ByteBuffer.wrap(frame);
+    }
+
+    // Build a frame for length bytes of data starting at offset
+    public ByteBuffer write(String mimeType, byte[] data, int offset, int length) {
+        byte[] prefix = prefixFor(mimeType);
+        int frameLength = prefix.length + encodedLength(length) + SUFFIX.length;
+        ensureCapacity(frameLength);
+
+        System.arraycopy(prefix, 0, frame, 0, prefix.length);
+        int pos = encode(data, offset, length, frame, prefix.length);
+        System.arraycopy(SUFFIX, 0, frame, pos, SUFFIX.length);
+
+        frameBuffer.clear();
+        frameBuffer.limit(frameLength);
+        return frameBuffer;
+    }
+
+    // Current size of the reusable frame buffer in bytes
+    public int capacity() {
+        return frame.length;
+    }
+
+    // Number of Base64 characters (with padding) needed for length bytes
+    public static int encodedLength(int length) {
+        return ((length + 2) / 3) * 4;
+    }
+
+    // Standard Base64 with padding and no line breaks. Returns the position after the last written byte.
+    static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int end = offset + length;
+        int full = offset + (length / 3) * 3;
+        int d = dstOffset;
+
+        for (int s = offset; s < full; s += 3) {
+            int bits = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8 | (src[s + 2] & 0xff);
+            dst[d++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            dst[d++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+
+        int remaining = end - full;
+        if (remaining == 1) {
+            int bits = (src[full] & 0xff) << 16;
+            dst[d++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d++] = '=';
+            dst[d++] = '=';
+        } else if (remaining == 2) {
+            int bits = (src[full] & 0xff) << 16 | (src[full + 1] & 0xff) << 8;
+            dst[d++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            dst[d++] = '=';
+        }
+        return d;
+    }
+
+    private byte[] prefixFor(String mimeType) {
+        if (mimeType.equals(cachedMimeType)) {
+            return cachedPrefix;
+        }
+        for (int i = 0; i < mimeType.length(); i++) {
+            char c = mimeType.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '\\') {
+                throw new IllegalArgumentException("Unsupported mime type: " + mimeType);
+            }
+        }
+
+        byte[] mime = mimeType.getBytes(StandardCharsets.US_ASCII);
+        byte[] prefix = new byte[PREFIX_START.length + mime.length + PREFIX_END.length];
+        System.arraycopy(PREFIX_START, 0, prefix, 0, PREFIX_START.length);
+        System.arraycopy(mime, 0, prefix, PREFIX_START.length, mime.length);
+        System.arraycopy(PREFIX_END, 0, prefix, PREFIX_START.length + mime.length, PREFIX_END.length);
+
+        cachedMimeType = mimeType;
+        cachedPrefix = prefix;
+        return prefix;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= frame.length) {
+            return;
+        }
+        // Grow with headroom so a slightly larger image does not reallocate again
+        frame = new byte[Math.max(required, frame.length + (frame.length >> 1))];
+        frameBuffer = ByteBuffer.wrap(frame);
+    }
+}
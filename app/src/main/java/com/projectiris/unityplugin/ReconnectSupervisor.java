@@ -0,0 +1,217 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+import java.util.Random;
+
+// Keeps the Live API session alive across dropped connections.
+// Every resumable sessionResumptionUpdate replaces the stored handle, and a reconnect passes it to
+// the connector so the setup message can resume the same session with its conversation context.
+// After an unexpected close the next attempt waits an exponential backoff with jitter (between half
+// and all of baseDelayMillis * 2^attempt, capped at maxDelayMillis). A goAway notice opens the next
+// connection right away, before the server closes the current one.
+// Callbacks may come from any thread; connector calls happen on the timer's thread.
+public class ReconnectSupervisor {
+
+    public static final String REASON_CLOSED = "closed";
+    public static final String REASON_GO_AWAY = "goAway";
+
+    // Handler-like timer, the device implementation wraps android.os.Handler
+    public interface Timer {
+        long uptimeMillis();
+
+        void postDelayed(Runnable runnable, long delayMillis);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    // Opens a new connection, resuming the session when resumptionHandle is not null
+    public interface Connector {
+        void connect(String resumptionHandle);
+    }
+
+    // Reconnect progress, e.g. to tell Unity
+    public interface Listener {
+        void onReconnectScheduled(int attempt, long delayMillis, String reason);
+
+        void onGaveUp(int attempts);
+    }
+
+    private final Timer timer;
+    private final Connector connector;
+    private final Listener listener;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+    private final Random random;
+
+    private boolean enabled = false;
+    private boolean connected = false;
+    private boolean pending = false;
+    private int attempt = 0;
+    private String handle = null;
+    private long disconnectedAtMillis = -1;
+
+    // Counters
+    private long reconnects = 0;
+    private long resumedReconnects = 0;
+    private long goAways = 0;
+    private long lastDelayMillis = 0;
+    private long lastOutageMillis = 0;
+    private boolean lastConnectResumed = false;
+
+    private final Runnable reconnectTask = this::reconnect;
+
+    // maxAttempts 0 retries forever
+    public ReconnectSupervisor(Timer timer, long baseDelayMillis, long maxDelayMillis, int maxAttempts,
+                               Random random, Connector connector, Listener listener) {
+        this.timer = timer;
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.maxAttempts = Math.max(0, maxAttempts);
+        this.random = random;
+        this.connector = connector;
+        this.listener = listener;
+    }
+
+    // The app wants a session: forget any previous session and connect now on the calling thread
+    public void start() {
+        synchronized (this) {
+            timer.removeCallbacks(reconnectTask);
+            enabled = true;
+            connected = false;
+            pending = false;
+            attempt = 0;
+            handle = null;
+            lastConnectResumed = false;
+        }
+        connector.connect(null);
+    }
+
+    // The app closed the session on purpose, nothing is reconnected until start()
+    public synchronized void stop() {
+        enabled = false;
+        pending = false;
+        timer.removeCallbacks(reconnectTask);
+    }
+
+    // The new connection is open
+    public synchronized void onConnected() {
+        connected = true;
+        if (disconnectedAtMillis >= 0) {
+            lastOutageMillis = timer.uptimeMillis() - disconnectedAtMillis;
+            disconnectedAtMillis = -1;
+        }
+        attempt = 0;
+    }
+
+    // The connection closed or failed, schedules the next attempt unless the app stopped the session
+    public void onDisconnected() {
+        int scheduledAttempt;
+        long delay;
+        synchronized (this) {
+            connected = false;
+            if (disconnectedAtMillis < 0) {
+                disconnectedAtMillis = timer.uptimeMillis();
+            }
+            if (!enabled || pending) {
+                return;
+            }
+            if (maxAttempts > 0 && attempt >= maxAttempts) {
+                enabled = false;
+                scheduledAttempt = -1;
+                delay = 0;
+            } else {
+                delay = backoffMillis(attempt);
+                scheduledAttempt = ++attempt;
+                schedule(delay);
+            }
+        }
+        if (listener == null) {
+            return;
+        }
+        if (scheduledAttempt < 0) {
+            listener.onGaveUp(maxAttempts);
+        } else {
+            listener.onReconnectScheduled(scheduledAttempt, delay, REASON_CLOSED);
+        }
+    }
+
+    // The server will close this connection soon: move to a new one now, resuming if possible
+    public void onGoAway(long timeLeftMillis) {
+        synchronized (this) {
+            goAways++;
+            if (!enabled || pending) {
+                return;
+            }
+            schedule(0);
+        }
+        if (listener != null) {
+            listener.onReconnectScheduled(0, 0, REASON_GO_AWAY);
+        }
+    }
+
+    // Only resumable handles are kept, the last one stays valid until a new one arrives
+    public synchronized void onResumptionUpdate(String newHandle, boolean resumable) {
+        if (resumable && newHandle != null && !newHandle.isEmpty()) {
+            handle = newHandle;
+        }
+    }
+
+    // True while the app wants a session but no connection is open
+    public synchronized boolean isReconnecting() {
+        return enabled && !connected;
+    }
+
+    public synchronized String getResumptionHandle() {
+        return handle;
+    }
+
+    // Delay before the given (0 based) attempt, half to all of the exponential backoff
+    long backoffMillis(int attempt) {
+        long delay = baseDelayMillis << Math.min(attempt, 20);
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    public synchronized String toJson() {
+        return String.format(Locale.US,
+                "{\"connected\":%b,\"reconnecting\":%b,\"attempt\":%d,\"reconnects\":%d,\"resumed\":%d,"
+                        + "\"goAways\":%d,\"hasHandle\":%b,\"lastResumed\":%b,\"lastDelayMs\":%d,"
+                        + "\"lastOutageMs\":%d}",
+                connected, enabled && !connected, attempt, reconnects, resumedReconnects,
+                goAways, handle != null, lastConnectResumed, lastDelayMillis, lastOutageMillis);
+    }
+
+    private void schedule(long delayMillis) {
+        pending = true;
+        lastDelayMillis = delayMillis;
+        timer.postDelayed(reconnectTask, delayMillis);
+    }
+
+    // Runs on the timer's thread
+    private void reconnect() {
+        String resumptionHandle;
+        synchronized (this) {
+            pending = false;
+            if (!enabled) {
+                return;
+            }
+            // Until the new connection opens there is no usable one, even when a goAway
+            // left the old connection open for now
+            connected = false;
+            if (disconnectedAtMillis < 0) {
+                disconnectedAtMillis = timer.uptimeMillis();
+            }
+            resumptionHandle = handle;
+            reconnects++;
+            if (resumptionHandle != null) {
+                resumedReconnects++;
+            }
+            lastConnectResumed = resumptionHandle != null;
+        }
+        connector.connect(resumptionHandle);
+    }
+}
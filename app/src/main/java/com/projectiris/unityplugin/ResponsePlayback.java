@@ -0,0 +1,85 @@
+package com.projectiris.unityplugin;
+
+// The response audio path from the server's messages into the AudioPlaybackEngine, with barge-in.
+// Playback is flushed when the server sends interrupted, or at once when the local VAD hears
+// sustained speech while the answer plays. After a local barge-in the BargeInGuard drops the rest
+// of the interrupted response until the server acknowledges it or the acknowledgement times out.
+// The server callbacks run on the WebSocket thread, onRecordingStart and onMicRead on the capture thread.
+public class ResponsePlayback {
+
+    // Called on the thread that saw the event
+    public interface Listener {
+        // source: "server" or "local speech"; wasActive: audio was playing or waiting to be played
+        void onBargeIn(String source, boolean wasActive);
+
+        // The playback queue was full and a response chunk was dropped
+        void onPlaybackQueueFull();
+    }
+
+    private final AudioPlaybackEngine playbackEngine;
+    private final BargeInGuard bargeInGuard;
+    private final VoiceActivityDetector voiceActivityDetector;
+    private final int minSpeechMillis;
+    private final Listener listener;
+
+    private boolean bargeInTriggered = false; // capture thread only
+
+    // minSpeechMillis: how long the user talks over the answer before it is interrupted locally
+    public ResponsePlayback(AudioPlaybackEngine playbackEngine, BargeInGuard bargeInGuard,
+                            VoiceActivityDetector voiceActivityDetector, int minSpeechMillis, Listener listener) {
+        this.playbackEngine = playbackEngine;
+        this.bargeInGuard = bargeInGuard;
+        this.voiceActivityDetector = voiceActivityDetector;
+        this.minSpeechMillis = minSpeechMillis;
+        this.listener = listener;
+    }
+
+    // A decoded response chunk, the playback thread returns it to its pool once written
+    public void onAudio(PcmChunkPool.Chunk chunk, long nowMillis) {
+        if (bargeInGuard.discardAudio(nowMillis)) {
+            chunk.release();
+            return;
+        }
+        if (!playbackEngine.enqueue(chunk)) {
+            listener.onPlaybackQueueFull();
+        }
+    }
+
+    public void onTurnComplete() {
+        bargeInGuard.onTurnComplete();
+        playbackEngine.endOfTurn();
+    }
+
+    // Server detected the user talking over the response
+    public void onInterrupted() {
+        bargeInGuard.onInterrupted();
+        bargeIn("server");
+    }
+
+    // A new recording, the VAD starts from silence
+    public void onRecordingStart() {
+        bargeInTriggered = false;
+    }
+
+    // After every mic read went through the VAD. Sustained speech while the assistant is playing
+    // interrupts playback without waiting for the server to send interrupted.
+    public void onMicRead(long nowMillis) {
+        if (!voiceActivityDetector.isSpeaking()) {
+            bargeInTriggered = false;
+            return;
+        }
+
+        if (!bargeInTriggered && playbackEngine.isPlaying()
+                && voiceActivityDetector.getSpeechMillis() >= minSpeechMillis) {
+            bargeInTriggered = true;
+            bargeInGuard.onLocalBargeIn(nowMillis);
+            bargeIn("local speech");
+        }
+    }
+
+    // Drop buffered response audio and flush the sink
+    private void bargeIn(String source) {
+        boolean wasActive = playbackEngine.interrupt();
+        listener.onBargeIn(source, wasActive);
+    }
+}
@@ -0,0 +1,145 @@
+package com.projectiris.unityplugin;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Debug;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Encodes raw RGBA frames from Unity (a direct ByteBuffer over a NativeArray, e.g. an
+// AsyncGPUReadback result) to JPEG on the session's image encode thread.
+// The calling thread copies the pixels once, native memory to native memory, into a reused Bitmap:
+// the Unity buffer is only valid during its callback. Scaling, cropping the row padding and flipping
+// happen on the worker into a second reused Bitmap, then the frame is compressed into a reused buffer.
+// The pixels never pass through the Java heap. At most one frame is in progress, a frame offered
+// while the worker is busy is rejected. Alpha is ignored, frames are expected to be opaque.
+public class RgbaFrameEncoder {
+    private static final String TAG = "RgbaFrameEncoder";
+
+    private final YuvFrameEncoder.JpegConsumer consumer;
+    private final ImageSendStats stats;
+    private final BoundedExecutor worker;
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix matrix = new Matrix();
+    private final Rect sourceRect = new Rect();
+    private final RectF targetRect = new RectF();
+    private final YuvFrameEncoder.FrameOutputStream jpegOut = new YuvFrameEncoder.FrameOutputStream(64 * 1024);
+    private Bitmap source;
+    private Bitmap output;
+    private Canvas outputCanvas;
+    private RawFrameGeometry geometry;
+    private boolean flipVertically;
+    private int jpegQuality;
+
+    public RgbaFrameEncoder(ImageSendStats stats, BoundedExecutor worker, YuvFrameEncoder.JpegConsumer consumer) {
+        this.stats = stats;
+        this.worker = worker;
+        this.consumer = consumer;
+    }
+
+    // Called on the Unity thread. pixels must be a direct buffer of rowStride * height bytes in
+    // RGBA order (TextureFormat.RGBA32), rowStride 0 for tightly packed rows. Set flipVertically
+    // for bottom-up rows as read back from OpenGL ES. Returns false when the previous frame is
+    // still being encoded; the buffer is not used after the call either way.
+    public boolean offer(ByteBuffer pixels, int width, int height, int rowStride, boolean flipVertically,
+                         long captureNanos, int levelIndex, int jpegQuality, int maxDimension) {
+        if (pixels == null || !pixels.isDirect()) {
+            Log.e(TAG, "Raw frames must be passed in a direct ByteBuffer");
+            return false;
+        }
+        if (!busy.compareAndSet(false, true)) {
+            return false;
+        }
+
+        try {
+            long cpuStart = Debug.threadCpuTimeNanos();
+            RawFrameGeometry frame = RawFrameGeometry.of(width, height, rowStride, pixels.capacity(), maxDimension);
+            if (source == null || source.getWidth() != frame.bufferWidth || source.getHeight() != frame.height) {
+                if (source != null) source.recycle();
+                source = Bitmap.createBitmap(frame.bufferWidth, frame.height, Bitmap.Config.ARGB_8888);
+            }
+            // Bitmap memory is RGBA in byte order, like the Unity texture: a plain copy
+            pixels.position(0);
+            source.copyPixelsFromBuffer(pixels);
+            pixels.position(0);
+            this.geometry = frame;
+            this.flipVertically = flipVertically;
+            this.jpegQuality = jpegQuality;
+            long copyCpuNanos = Debug.threadCpuTimeNanos() - cpuStart;
+
+            if (!worker.submit(() -> encode(copyCpuNanos, captureNanos, levelIndex))) {
+                // The encode queue is full, or the session is shutting down
+                busy.set(false);
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            busy.set(false);
+            Log.e(TAG, "Error copying raw frame", e);
+            return false;
+        }
+    }
+
+    private void encode(long copyCpuNanos, long captureNanos, int levelIndex) {
+        try {
+            long cpuStart = Debug.threadCpuTimeNanos();
+            RawFrameGeometry frame = geometry;
+            Bitmap frameBitmap = source;
+            if (frame.needsTransform(flipVertically)) {
+                frameBitmap = transform(frame);
+            }
+            jpegOut.reset();
+            if (!frameBitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, jpegOut)) {
+                Log.e(TAG, "JPEG compression failed");
+                return;
+            }
+            consumer.onJpeg(jpegOut.buffer(), jpegOut.size(), captureNanos, levelIndex);
+            stats.recordRawEncode(copyCpuNanos + Debug.threadCpuTimeNanos() - cpuStart, jpegOut.size());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error encoding raw frame", e);
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    // Crop the row padding, scale to the output size and flip in one filtered draw
+    private Bitmap transform(RawFrameGeometry frame) {
+        if (output == null || output.getWidth() != frame.outputWidth || output.getHeight() != frame.outputHeight) {
+            if (output != null) output.recycle();
+            output = Bitmap.createBitmap(frame.outputWidth, frame.outputHeight, Bitmap.Config.ARGB_8888);
+            outputCanvas = new Canvas(output);
+        }
+        sourceRect.set(0, 0, frame.width, frame.height);
+        targetRect.set(0, 0, frame.outputWidth, frame.outputHeight);
+        matrix.reset();
+        if (flipVertically) {
+            matrix.setScale(1f, -1f, 0f, frame.outputHeight / 2f);
+        }
+        outputCanvas.save();
+        outputCanvas.concat(matrix);
+        outputCanvas.drawBitmap(source, sourceRect, targetRect, paint);
+        outputCanvas.restore();
+        return output;
+    }
+
+    // Frees the bitmaps, called once the encode worker has stopped
+    public void release() {
+        if (source != null) {
+            source.recycle();
+            source = null;
+        }
+        if (output != null) {
+            output.recycle();
+            output = null;
+            outputCanvas = null;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+// Decides whether a camera frame shows a different scene than the last frame that was sent.
+// Each frame is reduced to a 36x32 grid of average luma. Two measures are compared against the
+// last sent frame:
+//  - mean absolute luma difference of the grid (0..1), catches lighting and content changes
+//  - Hamming distance of a 64-bit difference hash (dHash) of a 9x8 reduction, catches structural
+//    changes such as a head turn while being robust to sensor noise and exposure drift
+// A frame is sent when either measure passes its threshold, when it was forced (speech or an
+// explicit request), or when the keepalive interval has passed since the last sent frame.
+// Not thread-safe, callers synchronize on the instance.
+public class SceneChangeDetector {
+    public static final float DEFAULT_SENSITIVITY = 0.5f;
+
+    private static final int GRID_WIDTH = 36;
+    private static final int GRID_HEIGHT = 32;
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    private static final int MAX_SAMPLES_PER_AXIS = 256;  // larger frames are sampled, not fully averaged
+
+    private final long keepaliveMillis;
+    private volatile float sensitivity;
+
+    private final float[] grid = new float[GRID_WIDTH * GRID_HEIGHT];
+    private final float[] sentGrid = new float[GRID_WIDTH * GRID_HEIGHT];
+    private final int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+    private long sentHash;
+    private boolean hasReference = false;
+    private long lastSentMillis = 0;
+
+    private long framesSeen = 0;
+    private long framesSent = 0;
+    private float lastLumaDifference = 0;
+    private int lastHashDistance = 0;
+
+    public SceneChangeDetector(float sensitivity, long keepaliveMillis) {
+        setSensitivity(sensitivity);
+        this.keepaliveMillis = keepaliveMillis;
+    }
+
+    // 0 only sends on drastic changes, 1 sends on the smallest visible change
+    public void setSensitivity(float sensitivity) {
+        this.sensitivity = Math.max(0f, Math.min(1f, sensitivity));
+    }
+
+    public float getSensitivity() {
+        return sensitivity;
+    }
+
+    // Luma plane of a YUV frame (or any 8-bit grey image)
+    public boolean offerLuma(ByteBuffer plane, int width, int height, int rowStride, int pixelStride,
+                             long nowMillis, boolean force) {
+        clearGrid();
+        int base = plane.position();
+        int stepX = Math.max(1, width / MAX_SAMPLES_PER_AXIS);
+        int stepY = Math.max(1, height / MAX_SAMPLES_PER_AXIS);
+        for (int y = 0; y < height; y += stepY) {
+            int rowBase = base + y * rowStride;
+            int cellRow = y * GRID_HEIGHT / height * GRID_WIDTH;
+            for (int x = 0; x < width; x += stepX) {
+                int cell = cellRow + x * GRID_WIDTH / width;
+                grid[cell] += plane.get(rowBase + x * pixelStride) & 0xFF;
+                counts[cell]++;
+            }
+        }
+        return decide(nowMillis, force);
+    }
+
+    // ARGB pixels, e.g. from Bitmap.getPixels
+    public boolean offerArgb(int[] pixels, int width, int height, long nowMillis, boolean force) {
+        clearGrid();
+        int stepX = Math.max(1, width / MAX_SAMPLES_PER_AXIS);
+        int stepY = Math.max(1, height / MAX_SAMPLES_PER_AXIS);
+        for (int y = 0; y < height; y += stepY) {
+            int cellRow = y * GRID_HEIGHT / height * GRID_WIDTH;
+            for (int x = 0; x < width; x += stepX) {
+                int argb = pixels[y * width + x];
+                // Integer BT.601 luma
+                int luma = (77 * ((argb >> 16) & 0xFF) + 150 * ((argb >> 8) & 0xFF) + 29 * (argb & 0xFF)) >> 8;
+                int cell = cellRow + x * GRID_WIDTH / width;
+                grid[cell] += luma;
+                counts[cell]++;
+            }
+        }
+        return decide(nowMillis, force);
+    }
+
+    public String toJson() {
+        return String.format(Locale.US,
+                "{\"framesSeen\":%d,\"framesSent\":%d,\"framesSkipped\":%d,\"lastLumaDifference\":%.4f,"
+                        + "\"lastHashDistance\":%d,\"sensitivity\":%.2f}",
+                framesSeen, framesSent, framesSeen - framesSent, lastLumaDifference, lastHashDistance, sensitivity);
+    }
+
+    public long getFramesSeen() {
+        return framesSeen;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    // Forget the reference frame, the next frame is always sent
+    public void reset() {
+        hasReference = false;
+    }
+
+    private void clearGrid() {
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = 0;
+            counts[i] = 0;
+        }
+    }
+
+    private boolean decide(long nowMillis, boolean force) {
+        framesSeen++;
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = counts[i] == 0 ? 0 : grid[i] / counts[i];
+        }
+        long hash = differenceHash(grid);
+
+        boolean send;
+        if (!hasReference) {
+            send = true;
+            lastLumaDifference = 1;
+            lastHashDistance = 64;
+        } else {
+            float sum = 0;
+            for (int i = 0; i < grid.length; i++) {
+                sum += Math.abs(grid[i] - sentGrid[i]);
+            }
+            lastLumaDifference = sum / grid.length / 255f;
+            lastHashDistance = Long.bitCount(hash ^ sentHash);
+
+            // Sensitivity 0 -> 10% luma / 20 bits, sensitivity 1 -> 1% luma / 3 bits
+            float s = sensitivity;
+            float lumaThreshold = 0.10f + (0.01f - 0.10f) * s;
+            int hashThreshold = Math.round(20 + (3 - 20) * s);
+            send = force
+                    || lastLumaDifference >= lumaThreshold
+                    || lastHashDistance >= hashThreshold
+                    || nowMillis - lastSentMillis >= keepaliveMillis;
+        }
+
+        if (send) {
+            System.arraycopy(grid, 0, sentGrid, 0, grid.length);
+            sentHash = hash;
+            hasReference = true;
+            lastSentMillis = nowMillis;
+            framesSent++;
+        }
+        return send;
+    }
+
+    // dHash: each bit says whether a 9x8 cell is brighter than its right neighbour
+    private static long differenceHash(float[] grid) {
+        int cellWidth = GRID_WIDTH / HASH_WIDTH;
+        int cellHeight = GRID_HEIGHT / HASH_HEIGHT;
+        long hash = 0;
+        for (int row = 0; row < HASH_HEIGHT; row++) {
+            float previous = 0;
+            for (int col = 0; col < HASH_WIDTH; col++) {
+                float sum = 0;
+                for (int y = 0; y < cellHeight; y++) {
+                    int offset = (row * cellHeight + y) * GRID_WIDTH + col * cellWidth;
+                    for (int x = 0; x < cellWidth; x++) {
+                        sum += grid[offset + x];
+                    }
+                }
+                if (col > 0) {
+                    hash = (hash << 1) | (previous > sum ? 1 : 0);
+                }
+                previous = sum;
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,588 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONException;
+
+import java.nio.ByteBuffer;
+
+// Pull parser specialised for Gemini Live API server messages.
+// Only the fields the plugin uses are read (serverContent modelTurn.parts, outputTranscription,
+// turnComplete, interrupted, plus setupComplete, sessionResumptionUpdate and goAway), everything else is skipped
+// without building a JSON tree.
+// Audio inlineData is Base64 decoded straight from the message into a pooled PCM chunk,
+// so the payload is never copied into an intermediate String.
+// Binary frames are read in place from the ByteBuffer (heap or direct) as UTF-8.
+// A parser instance is not thread-safe, it is meant to be owned by the WebSocket receive thread.
+public class ServerMessageParser {
+
+    // Receives the parts of a server message in the order they appear
+    public interface Listener {
+        // outputTranscription.text of an audio response
+        void onTranscript(String text);
+
+        // modelTurn.parts[].text of a text response
+        void onText(String text);
+
+        // Decoded 24 kHz PCM from modelTurn.parts[].inlineData, the listener must release the chunk
+        void onAudio(PcmChunkPool.Chunk chunk);
+
+        void onTurnComplete();
+
+        void onInterrupted();
+
+        // setupComplete: the server accepted the setup message
+        void onSetupComplete();
+
+        // sessionResumptionUpdate: handle to resume this session with on a new connection
+        void onSessionResumptionUpdate(String newHandle, boolean resumable);
+
+        // goAway: the server is going to close the connection after timeLeftMillis
+        void onGoAway(long timeLeftMillis);
+
+        // usageMetadata: tokens of the context the last response was generated from (imagePromptTokens
+        // of them from images), of the response, and the total of both
+        void onUsageMetadata(long promptTokens, long responseTokens, long totalTokens, long imagePromptTokens);
+    }
+
+    private static final String AUDIO_MIME_TYPE = "audio/pcm;rate=24000";
+
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        java.util.Arrays.fill(BASE64_VALUES, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = i;
+        }
+        // URL safe alphabet is accepted as well
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+    }
+
+    private final PcmChunkPool pool;
+    private final StringBuilder keyBuffer = new StringBuilder(32);
+    private final StringBuilder textBuffer = new StringBuilder(256);
+
+    // Exactly one of text / bytes is set while a message is being parsed
+    private CharSequence text;
+    private ByteBuffer bytes;
+    private int pos;
+    private int end;
+
+    public ServerMessageParser(PcmChunkPool pool) {
+        this.pool = pool;
+    }
+
+    // Parse one text frame, callbacks are invoked on the calling thread
+    public void parse(CharSequence message, Listener listener) throws JSONException {
+        text = message;
+        pos = 0;
+        end = message.length();
+        try {
+            parseRoot(listener);
+        } finally {
+            text = null;
+        }
+    }
+
+    // Parse one binary frame between the buffer's position and limit.
+    // The buffer is read with absolute gets, its position and limit are left untouched.
+    public void parse(ByteBuffer message, Listener listener) throws JSONException {
+        bytes = message;
+        pos = message.position();
+        end = message.limit();
+        try {
+            parseRoot(listener);
+        } finally {
+            bytes = null;
+        }
+    }
+
+    private void parseRoot(Listener listener) throws JSONException {
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("serverContent")) {
+                parseServerContent(listener);
+            } else if (keyIs("setupComplete")) {
+                skipValue();
+                listener.onSetupComplete();
+            } else if (keyIs("sessionResumptionUpdate")) {
+                parseSessionResumptionUpdate(listener);
+            } else if (keyIs("goAway")) {
+                parseGoAway(listener);
+            } else if (keyIs("usageMetadata")) {
+                parseUsageMetadata(listener);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void parseServerContent(Listener listener) throws JSONException {
+        boolean turnComplete = false;
+        boolean interrupted = false;
+
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("outputTranscription")) {
+                parseTranscription(listener);
+            } else if (keyIs("modelTurn")) {
+                parseModelTurn(listener);
+            } else if (keyIs("turnComplete")) {
+                turnComplete = readBoolean();
+            } else if (keyIs("interrupted")) {
+                interrupted = readBoolean();
+            } else {
+                skipValue();
+            }
+        }
+
+        // Flags are reported after the content of the same message
+        if (interrupted) {
+            listener.onInterrupted();
+        }
+        if (turnComplete) {
+            listener.onTurnComplete();
+        }
+    }
+
+    private void parseSessionResumptionUpdate(Listener listener) throws JSONException {
+        String newHandle = "";
+        boolean resumable = false;
+
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("newHandle")) {
+                newHandle = readString();
+            } else if (keyIs("resumable")) {
+                resumable = readBoolean();
+            } else {
+                skipValue();
+            }
+        }
+        listener.onSessionResumptionUpdate(newHandle, resumable);
+    }
+
+    private void parseGoAway(Listener listener) throws JSONException {
+        long timeLeftMillis = 0;
+
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("timeLeft")) {
+                timeLeftMillis = readDurationMillis();
+            } else {
+                skipValue();
+            }
+        }
+        listener.onGoAway(timeLeftMillis);
+    }
+
+    private void parseUsageMetadata(Listener listener) throws JSONException {
+        long promptTokens = 0;
+        long responseTokens = 0;
+        long totalTokens = 0;
+        long imagePromptTokens = 0;
+
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("promptTokenCount")) {
+                promptTokens = readLong();
+            } else if (keyIs("responseTokenCount")) {
+                responseTokens = readLong();
+            } else if (keyIs("totalTokenCount")) {
+                totalTokens = readLong();
+            } else if (keyIs("promptTokensDetails")) {
+                expect('[');
+                while (nextElement()) {
+                    imagePromptTokens += readImageTokenCount();
+                }
+            } else {
+                skipValue();
+            }
+        }
+        listener.onUsageMetadata(promptTokens, responseTokens, totalTokens, imagePromptTokens);
+    }
+
+    // One ModalityTokenCount entry, its tokenCount when the modality is IMAGE
+    private long readImageTokenCount() throws JSONException {
+        boolean isImage = false;
+        long tokens = 0;
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("modality")) {
+                readStringInto(textBuffer);
+                isImage = "IMAGE".contentEquals(textBuffer);
+            } else if (keyIs("tokenCount")) {
+                tokens = readLong();
+            } else {
+                skipValue();
+            }
+        }
+        return isImage ? tokens : 0;
+    }
+
+    // Protobuf Duration in its JSON form, e.g. "10s" or "1.500s"
+    private long readDurationMillis() throws JSONException {
+        readStringInto(textBuffer);
+        int length = textBuffer.length();
+        if (length == 0 || textBuffer.charAt(length - 1) != 's') {
+            throw new JSONException("Bad duration: " + textBuffer);
+        }
+        try {
+            return Math.round(Double.parseDouble(textBuffer.substring(0, length - 1)) * 1000);
+        } catch (NumberFormatException e) {
+            throw new JSONException("Bad duration: " + textBuffer);
+        }
+    }
+
+    private void parseTranscription(Listener listener) throws JSONException {
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("text")) {
+                String transcript = readString();
+                if (!transcript.isEmpty()) {
+                    listener.onTranscript(transcript);
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void parseModelTurn(Listener listener) throws JSONException {
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("parts")) {
+                expect('[');
+                while (nextElement()) {
+                    parsePart(listener);
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void parsePart(Listener listener) throws JSONException {
+        expect('{');
+        while (nextKey()) {
+            if (keyIs("text")) {
+                listener.onText(readString());
+            } else if (keyIs("inlineData")) {
+                parseInlineData(listener);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    private void parseInlineData(Listener listener) throws JSONException {
+        boolean isAudio = false;
+        PcmChunkPool.Chunk chunk = null;
+
+        try {
+            expect('{');
+            while (nextKey()) {
+                if (keyIs("mimeType")) {
+                    readStringInto(textBuffer);
+                    isAudio = AUDIO_MIME_TYPE.contentEquals(textBuffer);
+                } else if (keyIs("data") && chunk == null) {
+                    chunk = decodeBase64();
+                } else {
+                    skipValue();
+                }
+            }
+        } catch (JSONException e) {
+            if (chunk != null) chunk.release();
+            throw e;
+        }
+
+        // mimeType may come before or after data, so the decision is made once the object is closed
+        if (chunk != null) {
+            if (isAudio) {
+                listener.onAudio(chunk);
+            } else {
+                chunk.release();
+            }
+        }
+    }
+
+    // Decode a Base64 string value into a pooled chunk
+    private PcmChunkPool.Chunk decodeBase64() throws JSONException {
+        skipWhitespace();
+        expect('"');
+        int start = pos;
+        int close = findStringEnd(start);
+
+        PcmChunkPool.Chunk chunk = pool.acquire(((close - start) / 4) * 3 + 3);
+        byte[] out = chunk.data;
+        int written = 0;
+        int bits = 0;
+        int count = 0;
+
+        for (int i = start; i < close; i++) {
+            int c = charAt(i);
+            if (c == '\\') {
+                // Only escaped slashes and line breaks can appear inside Base64 text
+                c = charAt(++i);
+                if (c != '/') continue;
+            }
+            if (c == '=') break;
+
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') continue;
+                chunk.release();
+                throw new JSONException("Invalid Base64 character at " + i);
+            }
+
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                out[written++] = (byte) (bits >> 16);
+                out[written++] = (byte) (bits >> 8);
+                out[written++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        if (count == 2) {
+            out[written++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            out[written++] = (byte) (bits >> 10);
+            out[written++] = (byte) (bits >> 2);
+        }
+
+        chunk.length = written;
+        pos = close + 1;
+        return chunk;
+    }
+
+    // Position of the closing quote of the string starting at start
+    private int findStringEnd(int start) throws JSONException {
+        for (int i = start; i < end; i++) {
+            char c = charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        throw new JSONException("Unterminated string at " + start);
+    }
+
+    // Move to the next key of the current object. Returns false once the object is closed.
+    private boolean nextKey() throws JSONException {
+        skipWhitespace();
+        char c = peek();
+        if (c == '}') {
+            pos++;
+            return false;
+        }
+        if (c == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        readStringInto(keyBuffer);
+        skipWhitespace();
+        expect(':');
+        return true;
+    }
+
+    // Move to the next element of the current array. Returns false once the array is closed.
+    private boolean nextElement() throws JSONException {
+        skipWhitespace();
+        char c = peek();
+        if (c == ']') {
+            pos++;
+            return false;
+        }
+        if (c == ',') {
+            pos++;
+        }
+        return true;
+    }
+
+    private boolean keyIs(String key) {
+        return key.contentEquals(keyBuffer);
+    }
+
+    // Integer value, int64 fields may also come as a quoted string
+    private long readLong() throws JSONException {
+        skipWhitespace();
+        boolean quoted = peek() == '"';
+        if (quoted) pos++;
+        boolean negative = pos < end && charAt(pos) == '-';
+        if (negative) pos++;
+        int start = pos;
+        long value = 0;
+        while (pos < end) {
+            char c = charAt(pos);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        if (pos == start) {
+            throw new JSONException("Expected a number at " + start);
+        }
+        if (quoted) expect('"');
+        return negative ? -value : value;
+    }
+
+    private boolean readBoolean() throws JSONException {
+        skipWhitespace();
+        if (matchLiteral("true")) return true;
+        if (matchLiteral("false")) return false;
+        skipValue();
+        return false;
+    }
+
+    private boolean matchLiteral(String literal) {
+        int length = literal.length();
+        if (pos + length > end) return false;
+        for (int i = 0; i < length; i++) {
+            if (charAt(pos + i) != literal.charAt(i)) return false;
+        }
+        pos += length;
+        return true;
+    }
+
+    private String readString() throws JSONException {
+        readStringInto(textBuffer);
+        return textBuffer.toString();
+    }
+
+    // Read a string value into out, resolving escapes
+    private void readStringInto(StringBuilder out) throws JSONException {
+        out.setLength(0);
+        skipWhitespace();
+        expect('"');
+        while (pos < end) {
+            char c = charAt(pos++);
+            if (c == '"') {
+                return;
+            }
+            if (c >= 0x80 && bytes != null) {
+                appendUtf8(out, c);
+                continue;
+            }
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (pos >= end) break;
+            char escaped = charAt(pos++);
+            switch (escaped) {
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > end) throw new JSONException("Bad unicode escape at " + pos);
+                    out.append((char) parseHex(pos));
+                    pos += 4;
+                    break;
+                default: out.append(escaped);
+            }
+        }
+        throw new JSONException("Unterminated string");
+    }
+
+    // Decode a multi-byte UTF-8 sequence whose lead byte has already been consumed
+    private void appendUtf8(StringBuilder out, int lead) throws JSONException {
+        int extra;
+        int codePoint;
+        if ((lead & 0xe0) == 0xc0) {
+            extra = 1;
+            codePoint = lead & 0x1f;
+        } else if ((lead & 0xf0) == 0xe0) {
+            extra = 2;
+            codePoint = lead & 0x0f;
+        } else if ((lead & 0xf8) == 0xf0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            throw new JSONException("Invalid UTF-8 at " + (pos - 1));
+        }
+        if (pos + extra > end) {
+            throw new JSONException("Truncated UTF-8 at " + (pos - 1));
+        }
+        for (int i = 0; i < extra; i++) {
+            int next = charAt(pos++);
+            if ((next & 0xc0) != 0x80) {
+                throw new JSONException("Invalid UTF-8 at " + (pos - 1));
+            }
+            codePoint = (codePoint << 6) | (next & 0x3f);
+        }
+        out.appendCodePoint(codePoint);
+    }
+
+    private int parseHex(int at) throws JSONException {
+        int value = 0;
+        for (int i = at; i < at + 4; i++) {
+            int digit = Character.digit(charAt(i), 16);
+            if (digit < 0) throw new JSONException("Bad unicode escape at " + at);
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    // Skip any JSON value without materialising it
+    private void skipValue() throws JSONException {
+        skipWhitespace();
+        char c = peek();
+        if (c == '"') {
+            pos = findStringEnd(pos + 1) + 1;
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < end) {
+                char ch = charAt(pos);
+                if (ch == '"') {
+                    pos = findStringEnd(pos + 1) + 1;
+                    continue;
+                }
+                pos++;
+                if (ch == '{' || ch == '[') {
+                    depth++;
+                } else if (ch == '}' || ch == ']') {
+                    if (--depth == 0) return;
+                }
+            }
+            throw new JSONException("Unterminated value");
+        } else {
+            // Number, true, false or null
+            while (pos < end) {
+                char ch = charAt(pos);
+                if (ch == ',' || ch == '}' || ch == ']' || ch <= ' ') break;
+                pos++;
+            }
+        }
+    }
+
+    // Character (text frames) or unsigned byte (binary frames) at absolute index i
+    private char charAt(int i) {
+        if (bytes != null) {
+            return (char) (bytes.get(i) & 0xff);
+        }
+        return text.charAt(i);
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && charAt(pos) <= ' ') {
+            pos++;
+        }
+    }
+
+    private char peek() throws JSONException {
+        if (pos >= end) throw new JSONException("Unexpected end of message");
+        return charAt(pos);
+    }
+
+    private void expect(char c) throws JSONException {
+        skipWhitespace();
+        if (peek() != c) {
+            throw new JSONException("Expected '" + c + "' at " + pos);
+        }
+        pos++;
+    }
+}
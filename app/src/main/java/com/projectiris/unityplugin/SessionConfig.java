@@ -0,0 +1,540 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+// Settings of a session that do not change while it runs. Live API setup: endpoint, model, response
+// modality, media resolution, voice, system instruction, server side activity detection and context
+// compression. Plugin side: microphone chunking, message batching to Unity and the audio output.
+// Immutable and validated when built, e.g. from the JSON Unity passes to IrisPlugin.initialize, so
+// different latency / cost profiles can be compared in production by their profile name.
+// The setup message is serialized once per variant (text or audio responses, client or server activity
+// detection) and cached; only the resumption handle is added per connection.
+// JSON form, every key optional:
+// {"profile":"low-res","host":"generativelanguage.googleapis.com","model":"models/gemini-2.0-flash-exp",
+//  "responseModality":"AUDIO","mediaResolution":"LOW","systemInstruction":"...",
+//  "speechConfig":{"voiceName":"Puck","languageCode":"en-US"},
+//  "realtimeInputConfig":{"startOfSpeechSensitivity":"HIGH","endOfSpeechSensitivity":"HIGH",
+//                         "prefixPaddingMs":100,"silenceDurationMs":300},
+//  "contextWindowCompression":{"triggerTokens":32768,"targetTokens":16384},
+//  "audioChunking":{"chunkMillis":100,"maxFramesInFlight":4,"flushOnSilence":true},
+//  "messageBatchMillis":0,"audioOutput":"AUDIO_TRACK"}
+public final class SessionConfig {
+
+    public enum MediaResolution {
+        LOW, MEDIUM, HIGH;
+
+        String apiName() {
+            return "MEDIA_RESOLUTION_" + name();
+        }
+    }
+
+    // Server VAD: how readily speech start / end is detected
+    public enum Sensitivity {
+        HIGH, LOW
+    }
+
+    // Where response audio goes
+    // AUDIO_TRACK: played by the plugin
+    // UNITY_SHARED_BUFFER: written to a SharedPcmRing that Unity reads and plays (e.g. spatialized at the panel)
+    public enum AudioOutput {
+        AUDIO_TRACK,
+        UNITY_SHARED_BUFFER
+    }
+
+    public static final String DEFAULT_HOST = "generativelanguage.googleapis.com";
+    public static final String DEFAULT_MODEL = "models/gemini-2.0-flash-exp";
+    public static final String DEFAULT_PROFILE = "default";
+
+    public static final SessionConfig DEFAULT = new Builder().build();
+
+    private static final Set<String> KEYS = new HashSet<>(Arrays.asList("profile", "host", "model",
+            "responseModality", "mediaResolution", "systemInstruction", "speechConfig", "realtimeInputConfig",
+            "contextWindowCompression", "audioChunking", "messageBatchMillis", "audioOutput"));
+    private static final Set<String> SPEECH_KEYS = new HashSet<>(Arrays.asList("voiceName", "languageCode"));
+    private static final Set<String> REALTIME_INPUT_KEYS = new HashSet<>(Arrays.asList("startOfSpeechSensitivity",
+            "endOfSpeechSensitivity", "prefixPaddingMs", "silenceDurationMs"));
+    private static final Set<String> COMPRESSION_KEYS = new HashSet<>(Arrays.asList("triggerTokens", "targetTokens"));
+    private static final Set<String> CHUNKING_KEYS = new HashSet<>(Arrays.asList("chunkMillis", "maxFramesInFlight",
+            "flushOnSilence"));
+
+    private final String profile;
+    private final String host;
+    private final String model;
+    private final String responseModality;          // null: follows the muted setting
+    private final MediaResolution mediaResolution;  // null: server default
+    private final String systemInstruction;
+    private final String voiceName;
+    private final String languageCode;
+    private final Sensitivity startOfSpeechSensitivity;
+    private final Sensitivity endOfSpeechSensitivity;
+    private final int prefixPaddingMs;              // -1: server default
+    private final int silenceDurationMs;            // -1: server default
+    private final long triggerTokens;
+    private final long targetTokens;
+    private final AudioChunkingPolicy chunkingPolicy;
+    private final int messageBatchMillis;           // 0: one Unity call per message
+    private final AudioOutput audioOutput;
+
+    // Setup message without its sessionResumption value, per variant: [textOnly * 2 + clientActivityDetection]
+    private final String[] setupPrefixes = new String[4];
+    private int setupBuilds = 0; // guarded by setupPrefixes
+
+    private SessionConfig(Builder builder) {
+        this.profile = builder.profile;
+        this.host = builder.host;
+        this.model = builder.model;
+        this.responseModality = builder.responseModality;
+        this.mediaResolution = builder.mediaResolution;
+        this.systemInstruction = builder.systemInstruction;
+        this.voiceName = builder.voiceName;
+        this.languageCode = builder.languageCode;
+        this.startOfSpeechSensitivity = builder.startOfSpeechSensitivity;
+        this.endOfSpeechSensitivity = builder.endOfSpeechSensitivity;
+        this.prefixPaddingMs = builder.prefixPaddingMs;
+        this.silenceDurationMs = builder.silenceDurationMs;
+        this.triggerTokens = builder.triggerTokens;
+        this.targetTokens = builder.targetTokens;
+        this.chunkingPolicy = builder.chunkingPolicy;
+        this.messageBatchMillis = builder.messageBatchMillis;
+        this.audioOutput = builder.audioOutput;
+    }
+
+    // null or blank json: DEFAULT. Values must have the documented type, a number for "chunkMillis" is
+    // not replaced by its default when it is a string. Throws IllegalArgumentException naming the first
+    // invalid or unknown setting.
+    public static SessionConfig fromJson(String json) {
+        if (json == null || json.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        try {
+            JSONObject root = new JSONObject(json);
+            checkKeys(root, KEYS, "");
+            Builder builder = new Builder()
+                    .profile(getString(root, "profile", DEFAULT_PROFILE))
+                    .host(getString(root, "host", DEFAULT_HOST))
+                    .model(getString(root, "model", DEFAULT_MODEL));
+            if (root.has("responseModality")) {
+                builder.responseModality(root.getString("responseModality"));
+            }
+            if (root.has("mediaResolution")) {
+                builder.mediaResolution(parseEnum(MediaResolution.class, root.getString("mediaResolution"),
+                        "MEDIA_RESOLUTION_"));
+            }
+            if (root.has("systemInstruction")) {
+                builder.systemInstruction(root.getString("systemInstruction"));
+            }
+            if (root.has("speechConfig")) {
+                JSONObject speech = root.getJSONObject("speechConfig");
+                checkKeys(speech, SPEECH_KEYS, "speechConfig.");
+                builder.voice(getString(speech, "voiceName", null), getString(speech, "languageCode", null));
+            }
+            if (root.has("realtimeInputConfig")) {
+                JSONObject realtimeInput = root.getJSONObject("realtimeInputConfig");
+                checkKeys(realtimeInput, REALTIME_INPUT_KEYS, "realtimeInputConfig.");
+                builder.activityDetection(
+                        realtimeInput.has("startOfSpeechSensitivity") ? parseEnum(Sensitivity.class,
+                                realtimeInput.getString("startOfSpeechSensitivity"), "START_SENSITIVITY_") : null,
+                        realtimeInput.has("endOfSpeechSensitivity") ? parseEnum(Sensitivity.class,
+                                realtimeInput.getString("endOfSpeechSensitivity"), "END_SENSITIVITY_") : null,
+                        getInt(realtimeInput, "prefixPaddingMs", -1),
+                        getInt(realtimeInput, "silenceDurationMs", -1));
+            }
+            if (root.has("contextWindowCompression")) {
+                JSONObject compression = root.getJSONObject("contextWindowCompression");
+                checkKeys(compression, COMPRESSION_KEYS, "contextWindowCompression.");
+                builder.contextWindowCompression(
+                        getLong(compression, "triggerTokens", ContextWindowBudget.DEFAULT_TRIGGER_TOKENS),
+                        getLong(compression, "targetTokens", ContextWindowBudget.DEFAULT_TARGET_TOKENS));
+            }
+            if (root.has("audioChunking")) {
+                JSONObject chunking = root.getJSONObject("audioChunking");
+                checkKeys(chunking, CHUNKING_KEYS, "audioChunking.");
+                AudioChunkingPolicy defaults = AudioChunkingPolicy.DEFAULT;
+                builder.audioChunking(new AudioChunkingPolicy(
+                        getInt(chunking, "chunkMillis", defaults.getTargetChunkMillis()),
+                        getInt(chunking, "maxFramesInFlight", defaults.getMaxFramesInFlight()),
+                        getBoolean(chunking, "flushOnSilence", defaults.isFlushOnSilence())));
+            }
+            if (root.has("messageBatchMillis")) {
+                builder.messageBatchMillis(root.getInt("messageBatchMillis"));
+            }
+            if (root.has("audioOutput")) {
+                builder.audioOutput(parseEnum(AudioOutput.class, root.getString("audioOutput"), ""));
+            }
+            return builder.build();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid session config: " + e.getMessage(), e);
+        }
+    }
+
+    // Optional keys: the fallback when absent, a JSONException when present with the wrong type
+    private static String getString(JSONObject object, String key, String fallback) throws JSONException {
+        return object.has(key) ? object.getString(key) : fallback;
+    }
+
+    private static int getInt(JSONObject object, String key, int fallback) throws JSONException {
+        return object.has(key) ? object.getInt(key) : fallback;
+    }
+
+    private static long getLong(JSONObject object, String key, long fallback) throws JSONException {
+        return object.has(key) ? object.getLong(key) : fallback;
+    }
+
+    private static boolean getBoolean(JSONObject object, String key, boolean fallback) throws JSONException {
+        return object.has(key) ? object.getBoolean(key) : fallback;
+    }
+
+    private static void checkKeys(JSONObject object, Set<String> known, String path) {
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!known.contains(key)) {
+                throw new IllegalArgumentException("Unknown session config key: " + path + key);
+            }
+        }
+    }
+
+    // Accepts the short name ("LOW") and the API name ("MEDIA_RESOLUTION_LOW")
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value, String apiPrefix) {
+        String name = value.toUpperCase(Locale.US);
+        if (name.startsWith(apiPrefix)) {
+            name = name.substring(apiPrefix.length());
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + type.getSimpleName() + ": " + value);
+        }
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public long getTriggerTokens() {
+        return triggerTokens;
+    }
+
+    public long getTargetTokens() {
+        return targetTokens;
+    }
+
+    public AudioChunkingPolicy getChunkingPolicy() {
+        return chunkingPolicy;
+    }
+
+    public int getMessageBatchMillis() {
+        return messageBatchMillis;
+    }
+
+    public AudioOutput getAudioOutput() {
+        return audioOutput;
+    }
+
+    // Whether responses are text: fixed by responseModality, otherwise the muted setting decides
+    public boolean isTextOnly(boolean muted) {
+        return responseModality != null ? responseModality.equals("TEXT") : muted;
+    }
+
+    // The setup message. clientActivityDetection: the client sends activity_start / activity_end,
+    // server side detection is switched off. handle: session to resume, null for a new session.
+    public String setupMessage(boolean muted, boolean clientActivityDetection, String handle) throws JSONException {
+        int variant = (isTextOnly(muted) ? 2 : 0) + (clientActivityDetection ? 1 : 0);
+        String prefix;
+        synchronized (setupPrefixes) {
+            prefix = setupPrefixes[variant];
+            if (prefix == null) {
+                String full = buildSetup(isTextOnly(muted), clientActivityDetection).toString();
+                // The setup object and the message close with "}}", sessionResumption is appended before them
+                prefix = full.substring(0, full.length() - 2) + ",\"sessionResumption\":";
+                setupPrefixes[variant] = prefix;
+                setupBuilds++;
+            }
+        }
+        // Always ask for resumption handles, and resume the previous session after a reconnect
+        String resumption = handle != null ? "{\"handle\":" + JSONObject.quote(handle) + "}" : "{}";
+        return prefix + resumption + "}}";
+    }
+
+    // How often a setup message was serialized from scratch, once per variant used
+    public int getSetupBuildCount() {
+        synchronized (setupPrefixes) {
+            return setupBuilds;
+        }
+    }
+
+    private JSONObject buildSetup(boolean textOnly, boolean clientActivityDetection) throws JSONException {
+        JSONObject setup = new JSONObject();
+        setup.put("model", model);
+
+        JSONObject generationConfig = new JSONObject();
+        generationConfig.put("responseModalities", new JSONArray().put(textOnly ? "TEXT" : "AUDIO"));
+        if (mediaResolution != null) {
+            generationConfig.put("mediaResolution", mediaResolution.apiName());
+        }
+        if (!textOnly && (voiceName != null || languageCode != null)) {
+            JSONObject speechConfig = new JSONObject();
+            if (voiceName != null) {
+                speechConfig.put("voiceConfig", new JSONObject().put("prebuiltVoiceConfig",
+                        new JSONObject().put("voiceName", voiceName)));
+            }
+            if (languageCode != null) {
+                speechConfig.put("languageCode", languageCode);
+            }
+            generationConfig.put("speechConfig", speechConfig);
+        }
+        setup.put("generationConfig", generationConfig);
+
+        if (!textOnly) {
+            setup.put("outputAudioTranscription", new JSONObject());
+        }
+        if (systemInstruction != null) {
+            setup.put("systemInstruction", new JSONObject().put("parts",
+                    new JSONArray().put(new JSONObject().put("text", systemInstruction))));
+        }
+
+        // The client VAD marks speech itself, so server side detection is switched off
+        JSONObject automaticActivityDetection = new JSONObject();
+        if (clientActivityDetection) {
+            automaticActivityDetection.put("disabled", true);
+        } else {
+            if (startOfSpeechSensitivity != null) {
+                automaticActivityDetection.put("startOfSpeechSensitivity",
+                        "START_SENSITIVITY_" + startOfSpeechSensitivity.name());
+            }
+            if (endOfSpeechSensitivity != null) {
+                automaticActivityDetection.put("endOfSpeechSensitivity",
+                        "END_SENSITIVITY_" + endOfSpeechSensitivity.name());
+            }
+            if (prefixPaddingMs >= 0) {
+                automaticActivityDetection.put("prefixPaddingMs", prefixPaddingMs);
+            }
+            if (silenceDurationMs >= 0) {
+                automaticActivityDetection.put("silenceDurationMs", silenceDurationMs);
+            }
+        }
+        if (automaticActivityDetection.length() > 0) {
+            setup.put("realtimeInputConfig",
+                    new JSONObject().put("automaticActivityDetection", automaticActivityDetection));
+        }
+
+        // Long sessions: the server drops the oldest turns instead of the context growing without bound
+        setup.put("contextWindowCompression", ContextWindowBudget.setupJson(triggerTokens, targetTokens));
+        return new JSONObject().put("setup", setup);
+    }
+
+    // The settings in the form fromJson reads, defaults included
+    public String toJson() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("profile", profile);
+            json.put("host", host);
+            json.put("model", model);
+            if (responseModality != null) json.put("responseModality", responseModality);
+            if (mediaResolution != null) json.put("mediaResolution", mediaResolution.name());
+            if (systemInstruction != null) json.put("systemInstruction", systemInstruction);
+            if (voiceName != null || languageCode != null) {
+                JSONObject speech = new JSONObject();
+                if (voiceName != null) speech.put("voiceName", voiceName);
+                if (languageCode != null) speech.put("languageCode", languageCode);
+                json.put("speechConfig", speech);
+            }
+            if (startOfSpeechSensitivity != null || endOfSpeechSensitivity != null
+                    || prefixPaddingMs >= 0 || silenceDurationMs >= 0) {
+                JSONObject realtimeInput = new JSONObject();
+                if (startOfSpeechSensitivity != null) {
+                    realtimeInput.put("startOfSpeechSensitivity", startOfSpeechSensitivity.name());
+                }
+                if (endOfSpeechSensitivity != null) {
+                    realtimeInput.put("endOfSpeechSensitivity", endOfSpeechSensitivity.name());
+                }
+                if (prefixPaddingMs >= 0) realtimeInput.put("prefixPaddingMs", prefixPaddingMs);
+                if (silenceDurationMs >= 0) realtimeInput.put("silenceDurationMs", silenceDurationMs);
+                json.put("realtimeInputConfig", realtimeInput);
+            }
+            json.put("contextWindowCompression", new JSONObject()
+                    .put("triggerTokens", triggerTokens).put("targetTokens", targetTokens));
+            json.put("audioChunking", new JSONObject()
+                    .put("chunkMillis", chunkingPolicy.getTargetChunkMillis())
+                    .put("maxFramesInFlight", chunkingPolicy.getMaxFramesInFlight())
+                    .put("flushOnSilence", chunkingPolicy.isFlushOnSilence()));
+            json.put("messageBatchMillis", messageBatchMillis);
+            json.put("audioOutput", audioOutput.name());
+            return json.toString();
+        } catch (JSONException e) {
+            return "{}";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SessionConfig " + toJson();
+    }
+
+    public static final class Builder {
+        private String profile = DEFAULT_PROFILE;
+        private String host = DEFAULT_HOST;
+        private String model = DEFAULT_MODEL;
+        private String responseModality;
+        private MediaResolution mediaResolution;
+        private String systemInstruction;
+        private String voiceName;
+        private String languageCode;
+        private Sensitivity startOfSpeechSensitivity;
+        private Sensitivity endOfSpeechSensitivity;
+        private int prefixPaddingMs = -1;
+        private int silenceDurationMs = -1;
+        private long triggerTokens = ContextWindowBudget.DEFAULT_TRIGGER_TOKENS;
+        private long targetTokens = ContextWindowBudget.DEFAULT_TARGET_TOKENS;
+        private AudioChunkingPolicy chunkingPolicy = AudioChunkingPolicy.DEFAULT;
+        private int messageBatchMillis = 0;
+        private AudioOutput audioOutput = AudioOutput.AUDIO_TRACK;
+
+        public Builder() {
+        }
+
+        private Builder(SessionConfig config) {
+            profile = config.profile;
+            host = config.host;
+            model = config.model;
+            responseModality = config.responseModality;
+            mediaResolution = config.mediaResolution;
+            systemInstruction = config.systemInstruction;
+            voiceName = config.voiceName;
+            languageCode = config.languageCode;
+            startOfSpeechSensitivity = config.startOfSpeechSensitivity;
+            endOfSpeechSensitivity = config.endOfSpeechSensitivity;
+            prefixPaddingMs = config.prefixPaddingMs;
+            silenceDurationMs = config.silenceDurationMs;
+            triggerTokens = config.triggerTokens;
+            targetTokens = config.targetTokens;
+            chunkingPolicy = config.chunkingPolicy;
+            messageBatchMillis = config.messageBatchMillis;
+            audioOutput = config.audioOutput;
+        }
+
+        public Builder profile(String profile) {
+            this.profile = profile;
+            return this;
+        }
+
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder model(String model) {
+            this.model = model;
+            return this;
+        }
+
+        // "AUDIO" or "TEXT", null to follow the muted setting
+        public Builder responseModality(String modality) {
+            this.responseModality = modality != null ? modality.toUpperCase(Locale.US) : null;
+            return this;
+        }
+
+        public Builder mediaResolution(MediaResolution resolution) {
+            this.mediaResolution = resolution;
+            return this;
+        }
+
+        public Builder systemInstruction(String instruction) {
+            this.systemInstruction = instruction;
+            return this;
+        }
+
+        // Prebuilt voice and speech language, null for the server default
+        public Builder voice(String voiceName, String languageCode) {
+            this.voiceName = voiceName;
+            this.languageCode = languageCode;
+            return this;
+        }
+
+        // Server side activity detection, used unless the client marks activity itself.
+        // null / -1 leave a setting at the server default.
+        public Builder activityDetection(Sensitivity startOfSpeech, Sensitivity endOfSpeech,
+                                         int prefixPaddingMs, int silenceDurationMs) {
+            this.startOfSpeechSensitivity = startOfSpeech;
+            this.endOfSpeechSensitivity = endOfSpeech;
+            this.prefixPaddingMs = prefixPaddingMs;
+            this.silenceDurationMs = silenceDurationMs;
+            return this;
+        }
+
+        public Builder contextWindowCompression(long triggerTokens, long targetTokens) {
+            this.triggerTokens = triggerTokens;
+            this.targetTokens = targetTokens;
+            return this;
+        }
+
+        // How microphone audio is cut into uplink frames
+        public Builder audioChunking(AudioChunkingPolicy policy) {
+            this.chunkingPolicy = policy;
+            return this;
+        }
+
+        // > 0: messages to Unity are collected for this long and delivered together to OnMessagesReceived,
+        // 0: one OnMessageReceived call per message
+        public Builder messageBatchMillis(int millis) {
+            this.messageBatchMillis = millis;
+            return this;
+        }
+
+        // Where response audio is played
+        public Builder audioOutput(AudioOutput output) {
+            this.audioOutput = output;
+            return this;
+        }
+
+        // Throws IllegalArgumentException for an invalid combination
+        public SessionConfig build() {
+            if (profile == null || profile.isEmpty()) {
+                throw new IllegalArgumentException("profile must not be empty");
+            }
+            if (host == null || host.isEmpty() || host.contains("/") || host.contains(":")) {
+                throw new IllegalArgumentException("host must be a plain host name: " + host);
+            }
+            if (model == null || !model.startsWith("models/") || model.length() == "models/".length()) {
+                throw new IllegalArgumentException("model must look like models/<name>: " + model);
+            }
+            if (responseModality != null && !responseModality.equals("AUDIO") && !responseModality.equals("TEXT")) {
+                throw new IllegalArgumentException("responseModality must be AUDIO or TEXT: " + responseModality);
+            }
+            if (prefixPaddingMs < -1 || silenceDurationMs < -1) {
+                throw new IllegalArgumentException("prefixPaddingMs and silenceDurationMs must not be negative");
+            }
+            if (targetTokens <= 0 || targetTokens >= triggerTokens) {
+                throw new IllegalArgumentException("Need 0 < targetTokens < triggerTokens: "
+                        + targetTokens + ", " + triggerTokens);
+            }
+            if (chunkingPolicy == null || audioOutput == null) {
+                throw new IllegalArgumentException("audioChunking and audioOutput must be set");
+            }
+            if (messageBatchMillis < 0) {
+                throw new IllegalArgumentException("messageBatchMillis must not be negative: " + messageBatchMillis);
+            }
+            return new SessionConfig(this);
+        }
+    }
+}
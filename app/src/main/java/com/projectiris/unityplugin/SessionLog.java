@@ -0,0 +1,244 @@
+package com.projectiris.unityplugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Append-only binary log of a session's WebSocket traffic for offline replay (see SessionReplayer):
+// uplink realtime_input frames with their lane, and server frames, each stamped with the monotonic
+// time since recording started. The file is memory-mapped in SEGMENT_BYTES steps, appending a frame
+// is a copy into the page cache without a system call on the capture, send or WebSocket thread.
+// Layout, little-endian. File header (32 bytes): MAGIC, VERSION, start wall clock millis, reserved.
+// Records follow, each 8 byte aligned:
+//   int recordBytes (header and payload, before padding), byte direction, byte lane (NO_LANE for
+//   server frames), byte text, byte 0, long nanos since start, payload (UTF-8 for text frames).
+// recordBytes is written last, so a log cut short by a crash still reads up to its last whole record:
+// the mapped space past it is zero. close() truncates the file to the records written.
+public class SessionLog implements Closeable {
+
+    public static final int MAGIC = 0x4C525249;               // "IRRL"
+    public static final int VERSION = 2;
+    public static final int FILE_HEADER_BYTES = 32;
+    public static final int RECORD_HEADER_BYTES = 16;
+    public static final int SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    public static final byte UPLINK = 0;
+    public static final byte SERVER = 1;
+    public static final byte NO_LANE = -1;
+
+    private static final OutboundScheduler.Lane[] LANES = OutboundScheduler.Lane.values();
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long maxBytes;
+    private final long startNanos;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long position;
+    private boolean closed = false;
+
+    private long uplinkFrames = 0;
+    private long serverFrames = 0;
+    private long droppedFrames = 0;
+
+    // Creates or overwrites file. The log stops taking frames (and counts them as dropped) at maxBytes.
+    public SessionLog(File file, long maxBytes) throws IOException {
+        if (maxBytes < FILE_HEADER_BYTES + RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException("maxBytes too small: " + maxBytes);
+        }
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.maxBytes = maxBytes;
+        this.startNanos = System.nanoTime();
+        map(0, FILE_HEADER_BYTES);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putLong(8, System.currentTimeMillis());
+        position = FILE_HEADER_BYTES;
+    }
+
+    // The remaining bytes of frame, its position is not moved
+    public synchronized boolean append(byte direction, OutboundScheduler.Lane lane, ByteBuffer frame) {
+        int length = frame.remaining();
+        int record = begin(RECORD_HEADER_BYTES + length);
+        if (record < 0) {
+            return false;
+        }
+        int framePosition = frame.position();
+        segment.position(record + RECORD_HEADER_BYTES);
+        segment.put(frame);
+        frame.position(framePosition);
+        commit(record, direction, lane, false, length);
+        return true;
+    }
+
+    public synchronized boolean append(byte direction, OutboundScheduler.Lane lane, String text) {
+        // UTF-8 needs at most 3 bytes per char (a surrogate pair: 4 bytes for 2 chars)
+        int record = begin(RECORD_HEADER_BYTES + text.length() * 3);
+        if (record < 0) {
+            return false;
+        }
+        segment.position(record + RECORD_HEADER_BYTES);
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(text), segment, true);
+        if (result.isError()) {
+            // Unpaired surrogate, nothing is committed
+            droppedFrames++;
+            return false;
+        }
+        encoder.flush(segment);
+        commit(record, direction, lane, true, segment.position() - record - RECORD_HEADER_BYTES);
+        return true;
+    }
+
+    // Offset of the new record in the current segment, -1 when closed or full
+    private int begin(int maxRecordBytes) {
+        if (closed || position + maxRecordBytes > maxBytes) {
+            droppedFrames++;
+            return -1;
+        }
+        try {
+            if (position + maxRecordBytes > segmentStart + segment.capacity()) {
+                map(position, Math.max(SEGMENT_BYTES, maxRecordBytes));
+            }
+        } catch (IOException e) {
+            droppedFrames++;
+            return -1;
+        }
+        return (int) (position - segmentStart);
+    }
+
+    private void commit(int record, byte direction, OutboundScheduler.Lane lane, boolean text, int length) {
+        segment.put(record + 4, direction);
+        segment.put(record + 5, lane != null ? (byte) lane.ordinal() : NO_LANE);
+        segment.put(record + 6, text ? (byte) 1 : 0);
+        segment.putLong(record + 8, System.nanoTime() - startNanos);
+        segment.putInt(record, RECORD_HEADER_BYTES + length);
+        position += (RECORD_HEADER_BYTES + length + 7) & ~7;
+        if (direction == SERVER) serverFrames++;
+        else uplinkFrames++;
+    }
+
+    // Mapping past the end of the file grows it; the previous segment is unmapped once collected
+    private void map(long start, long size) throws IOException {
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(size, maxBytes - start));
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segmentStart = start;
+    }
+
+    public synchronized long getBytesWritten() {
+        return position;
+    }
+
+    public synchronized String toJson() {
+        return String.format(Locale.US,
+                "{\"bytes\":%d,\"uplinkFrames\":%d,\"serverFrames\":%d,\"droppedFrames\":%d,\"closed\":%b}",
+                position, uplinkFrames, serverFrames, droppedFrames, closed);
+    }
+
+    // Stops taking frames and cuts the file to the records written
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segment.force();
+        segment = null;
+        try {
+            channel.truncate(position);
+        } finally {
+            file.close();
+        }
+    }
+
+    // One record. payload is a view of the mapped log, valid until the next call to Reader.next.
+    public static final class Record {
+        public byte direction;
+        public OutboundScheduler.Lane lane;                    // null for server frames
+        public boolean text;
+        public long nanos;
+        public final ByteBuffer payload;
+
+        Record(ByteBuffer log) {
+            this.payload = log.duplicate();
+        }
+
+        public String text() {
+            return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+        }
+    }
+
+    // Reads a log front to back, the whole file mapped read-only
+    public static class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final ByteBuffer log;
+        private final long startWallMillis;
+        private final Record record;
+        private int position = FILE_HEADER_BYTES;
+
+        // Throws IOException when the file is not a session log
+        public Reader(File path) throws IOException {
+            this.file = new RandomAccessFile(path, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                this.log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (log.limit() < FILE_HEADER_BYTES || log.getInt(0) != MAGIC || log.getInt(4) != VERSION) {
+                    throw new IOException("Not a session log: " + path);
+                }
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            this.startWallMillis = log.getLong(8);
+            this.record = new Record(log);
+        }
+
+        public long getStartWallMillis() {
+            return startWallMillis;
+        }
+
+        // Back to the first record
+        public void rewind() {
+            position = FILE_HEADER_BYTES;
+        }
+
+        // The next record, or null at the end of the log (or at a record cut short)
+        public Record next() {
+            if (position + RECORD_HEADER_BYTES > log.limit()) {
+                return null;
+            }
+            int recordBytes = log.getInt(position);
+            if (recordBytes < RECORD_HEADER_BYTES || position + recordBytes > log.limit()) {
+                return null;
+            }
+            record.direction = log.get(position + 4);
+            byte lane = log.get(position + 5);
+            record.lane = lane != NO_LANE ? LANES[lane] : null;
+            record.text = log.get(position + 6) != 0;
+            record.nanos = log.getLong(position + 8);
+            record.payload.limit(position + recordBytes);
+            record.payload.position(position + RECORD_HEADER_BYTES);
+            position += (recordBytes + 7) & ~7;
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
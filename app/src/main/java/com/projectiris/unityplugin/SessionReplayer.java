@@ -0,0 +1,107 @@
+package com.projectiris.unityplugin;
+
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays a SessionLog back with its recorded timing, so the pipeline sees the same input on every run.
+// Server frames go where the WebSocket would deliver them (receiveMessage on device, a parser and
+// playback engine in a test), uplink frames into the OutboundScheduler lanes they were recorded from.
+// speed scales the gaps between frames: 1 is real time, 4 four times faster, 0 delivers every frame
+// as soon as the previous one returned. Lateness is how far a frame was delivered behind its
+// schedule; a target that keeps up at the chosen speed stays near zero.
+public class SessionReplayer {
+
+    // Receives the frames, on the thread that called replay. record.payload is only valid during the call.
+    public interface Target {
+        void onServerFrame(SessionLog.Record record);
+
+        void onUplinkFrame(SessionLog.Record record);
+    }
+
+    private final float speed;
+    private final boolean serverFrames;
+    private final boolean uplinkFrames;
+    private volatile boolean cancelled = false;
+
+    // Written by the replaying thread only
+    private volatile long frames = 0;
+    private volatile long bytes = 0;
+    private volatile long maxLateNanos = 0;
+    private volatile long totalLateNanos = 0;
+    private volatile long elapsedNanos = 0;
+    private volatile boolean finished = false;
+
+    // Throws IllegalArgumentException for a negative speed
+    public SessionReplayer(float speed, boolean serverFrames, boolean uplinkFrames) {
+        if (!(speed >= 0f) || Float.isInfinite(speed)) {
+            throw new IllegalArgumentException("speed must be 0 or positive: " + speed);
+        }
+        this.speed = speed;
+        this.serverFrames = serverFrames;
+        this.uplinkFrames = uplinkFrames;
+    }
+
+    // Replays the log from its first record, blocking until the end of the log or cancel()
+    public void replay(SessionLog.Reader reader, Target target) {
+        reader.rewind();
+        long start = System.nanoTime();
+        long firstNanos = -1;
+        SessionLog.Record record;
+        while (!cancelled && (record = reader.next()) != null) {
+            boolean server = record.direction == SessionLog.SERVER;
+            if (server ? !serverFrames : !uplinkFrames) {
+                continue;
+            }
+            if (firstNanos < 0) {
+                firstNanos = record.nanos;
+            }
+            long due = start;
+            if (speed > 0f) {
+                due += (long) ((record.nanos - firstNanos) / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0 && !cancelled) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+            long late = Math.max(0, System.nanoTime() - due);
+            if (speed > 0f) {
+                maxLateNanos = Math.max(maxLateNanos, late);
+                totalLateNanos += late;
+            }
+            bytes += record.payload.remaining();
+            frames++;
+            if (server) {
+                target.onServerFrame(record);
+            } else {
+                target.onUplinkFrame(record);
+            }
+        }
+        elapsedNanos = System.nanoTime() - start;
+        finished = true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getMaxLateNanos() {
+        return maxLateNanos;
+    }
+
+    public String toJson() {
+        long count = frames;
+        return String.format(Locale.US,
+                "{\"speed\":%.2f,\"frames\":%d,\"bytes\":%d,\"meanLateMs\":%.2f,\"maxLateMs\":%.2f,"
+                        + "\"elapsedMs\":%.1f,\"finished\":%b,\"cancelled\":%b}",
+                speed, count, bytes, count > 0 ? totalLateNanos / 1e6 / count : 0.0, maxLateNanos / 1e6,
+                elapsedNanos / 1e6, finished, cancelled);
+    }
+}
@@ -0,0 +1,217 @@
+package com.projectiris.unityplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+
+// Records a session's WebSocket traffic to a SessionLog and plays a recorded one back through the
+// same pipeline. The record hooks are called where uplink frames enter the OutboundScheduler and
+// where server frames leave the WebSocket. A replay hands the recorded frames to the Pipeline at
+// those two places: server frames with replayListener, which passes the response content to the
+// live listener and drops setup, resumption handles and goAway (they belonged to the recorded
+// connection), uplink frames straight into their lanes. Replayed frames are not recorded again.
+public class SessionTap {
+
+    // Where replayed frames enter, the entry points the WebSocket and the capture path use
+    public interface Pipeline {
+        void receive(String message, ServerMessageParser.Listener listener);
+
+        void receive(ByteBuffer message, ServerMessageParser.Listener listener);
+
+        // False when there is no connection to send on, the frame is dropped
+        boolean send(OutboundScheduler.Lane lane, String message);
+
+        boolean send(OutboundScheduler.Lane lane, ByteBuffer frame);
+    }
+
+    private final ServerMessageParser.Listener liveListener;
+    private final Pipeline pipeline;
+    private final long maxBytes;
+    private final Object lock = new Object();
+    private volatile SessionLog recorder;
+    private volatile SessionReplayer replayer;
+
+    // liveListener: the listener of the current connection, only its frames are recorded.
+    // maxBytes: the size a recording stops at.
+    public SessionTap(ServerMessageParser.Listener liveListener, Pipeline pipeline, long maxBytes) {
+        this.liveListener = liveListener;
+        this.pipeline = pipeline;
+        this.maxBytes = maxBytes;
+    }
+
+    // A frame handed to the OutboundScheduler, the remaining bytes of frame; its position is not moved
+    public void recordUplink(OutboundScheduler.Lane lane, ByteBuffer frame) {
+        SessionLog log = recorder;
+        if (log != null) {
+            log.append(SessionLog.UPLINK, lane, frame);
+        }
+    }
+
+    public void recordUplink(OutboundScheduler.Lane lane, String message) {
+        SessionLog log = recorder;
+        if (log != null) {
+            log.append(SessionLog.UPLINK, lane, message);
+        }
+    }
+
+    // A frame received for listener; a standby connection's and replayed frames are not recorded
+    public void recordServer(String message, ServerMessageParser.Listener listener) {
+        SessionLog log = recorder;
+        if (log != null && listener == liveListener) {
+            log.append(SessionLog.SERVER, null, message);
+        }
+    }
+
+    public void recordServer(ByteBuffer message, ServerMessageParser.Listener listener) {
+        SessionLog log = recorder;
+        if (log != null && listener == liveListener) {
+            log.append(SessionLog.SERVER, null, message);
+        }
+    }
+
+    // Starts recording to file (overwritten), a running recording is closed first.
+    // Throws IOException when the file cannot be created.
+    public void startRecording(File file) throws IOException {
+        synchronized (lock) {
+            stopRecording();
+            recorder = new SessionLog(file, maxBytes);
+        }
+    }
+
+    // The closed log (for its counters), null when nothing was recorded
+    public SessionLog stopRecording() throws IOException {
+        synchronized (lock) {
+            SessionLog log = recorder;
+            if (log == null) {
+                return null;
+            }
+            recorder = null;
+            log.close();
+            return log;
+        }
+    }
+
+    // Replays file on a thread from threadFactory, see SessionReplayer for speed. Returns false when
+    // a replay is running. Throws IOException when the file is not a session log, and
+    // IllegalArgumentException for a negative speed.
+    public boolean startReplay(File file, float speed, boolean serverFrames, boolean uplinkFrames,
+                               ThreadFactory threadFactory) throws IOException {
+        synchronized (lock) {
+            SessionReplayer running = replayer;
+            if (running != null && !running.isFinished()) {
+                return false;
+            }
+            SessionReplayer next = new SessionReplayer(speed, serverFrames, uplinkFrames);
+            SessionLog.Reader reader = new SessionLog.Reader(file);
+            replayer = next;
+            threadFactory.newThread(() -> {
+                try {
+                    next.replay(reader, replayTarget);
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException ignored) {
+                        // Read-only mapping, nothing was lost
+                    }
+                }
+            }).start();
+            return true;
+        }
+    }
+
+    public void stopReplay() {
+        SessionReplayer running = replayer;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    // The running or last replay, null before the first
+    public SessionReplayer getReplayer() {
+        return replayer;
+    }
+
+    public ServerMessageParser.Listener getReplayListener() {
+        return replayListener;
+    }
+
+    public SessionReplayer.Target getReplayTarget() {
+        return replayTarget;
+    }
+
+    // Recording and replay counters as JSON
+    public String toJson() {
+        SessionLog log = recorder;
+        SessionReplayer running = replayer;
+        return "{\"recording\":" + (log != null ? log.toJson() : "null")
+                + ",\"replay\":" + (running != null ? running.toJson() : "null") + "}";
+    }
+
+    private final ServerMessageParser.Listener replayListener = new ServerMessageParser.Listener() {
+        @Override
+        public void onTranscript(String text) {
+            liveListener.onTranscript(text);
+        }
+
+        @Override
+        public void onText(String text) {
+            liveListener.onText(text);
+        }
+
+        @Override
+        public void onAudio(PcmChunkPool.Chunk chunk) {
+            liveListener.onAudio(chunk);
+        }
+
+        @Override
+        public void onTurnComplete() {
+            liveListener.onTurnComplete();
+        }
+
+        @Override
+        public void onInterrupted() {
+            liveListener.onInterrupted();
+        }
+
+        @Override
+        public void onSetupComplete() {
+        }
+
+        @Override
+        public void onSessionResumptionUpdate(String newHandle, boolean resumable) {
+        }
+
+        @Override
+        public void onGoAway(long timeLeftMillis) {
+        }
+
+        @Override
+        public void onUsageMetadata(long promptTokens, long responseTokens, long totalTokens, long imagePromptTokens) {
+            liveListener.onUsageMetadata(promptTokens, responseTokens, totalTokens, imagePromptTokens);
+        }
+    };
+
+    private final SessionReplayer.Target replayTarget = new SessionReplayer.Target() {
+        @Override
+        public void onServerFrame(SessionLog.Record record) {
+            if (record.text) {
+                pipeline.receive(record.text(), replayListener);
+            } else {
+                pipeline.receive(record.payload, replayListener);
+            }
+        }
+
+        @Override
+        public void onUplinkFrame(SessionLog.Record record) {
+            if (record.lane == null) {
+                return;
+            }
+            if (record.text) {
+                pipeline.send(record.lane, record.text());
+            } else {
+                pipeline.send(record.lane, record.payload);
+            }
+        }
+    };
+}
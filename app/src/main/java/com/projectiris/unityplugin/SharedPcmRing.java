@@ -0,0 +1,225 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// PcmSink that hands response audio to Unity through shared memory instead of an AudioTrack.
+// One direct ByteBuffer holds a 64 byte header and a ring of 16-bit mono samples. Unity takes its
+// address once (AndroidJNI.GetDirectBufferAddress) and reads it from the audio thread
+// (PCMReaderCallback / OnAudioFilterRead) with no JNI call per chunk.
+// Single producer (the playback thread) and single consumer (Unity's audio thread). Every header
+// field has one writer. Cursors count samples since the start and never wrap, a sample's slot is
+// cursor & (capacity - 1). Samples before DISCARD_CURSOR count as read on both sides, so a flush frees
+// their slots at once. The producer blocks while the ring is full, which paces the playback
+// engine like a blocking AudioTrack. When the read cursor has not moved for STALL_TIMEOUT_MS the
+// consumer counts as stalled: audio is dropped right away, without waiting, until it reads again.
+// Memory ordering: the header is plain memory shared with native code, so each side fences between
+// its cursor and sample accesses (fullFence). The producer loads the read cursor, fences, copies
+// samples, fences, then stores the write cursor. The consumer must mirror it:
+//   write = acquire load of WRITE_CURSOR (C#: Volatile.Read, C: __atomic_load_n(..., __ATOMIC_ACQUIRE)),
+//   also DISCARD_CURSOR, then read the samples,
+//   then release store of READ_CURSOR (C#: Volatile.Write, C: __atomic_store_n(..., __ATOMIC_RELEASE)).
+// Reader below does the same with fullFence.
+public class SharedPcmRing implements AudioPlaybackEngine.PcmSink {
+
+    // Header layout, little-endian. The Unity reader must follow the same layout and rules.
+    public static final int MAGIC = 0x49524953;               // "IRIS", 0 once released
+    public static final int OFFSET_MAGIC = 0;                 // int
+    public static final int OFFSET_SAMPLE_RATE = 4;           // int
+    public static final int OFFSET_CAPACITY = 8;              // int, samples, a power of two
+    public static final int OFFSET_PLAYING = 12;              // int, producer: 1 while a response is playing
+    public static final int OFFSET_WRITE_CURSOR = 16;         // long, producer: samples written
+    public static final int OFFSET_DISCARD_CURSOR = 24;       // long, producer: samples before it were flushed
+    public static final int OFFSET_READ_CURSOR = 32;          // long, consumer: samples read
+    public static final int OFFSET_UNDERRUNS = 40;            // long, consumer: reads starved while playing
+    public static final int OFFSET_UNDERRUN_SAMPLES = 48;     // long, consumer: silence filled while playing
+    public static final int OFFSET_DROPPED_SAMPLES = 56;      // long, producer: dropped while the consumer stalled
+    public static final int HEADER_BYTES = 64;
+
+    private static final long STALL_TIMEOUT_MS = 250;
+    private static final long PARK_NANOS = 1_000_000L;
+
+    // One field for every ring and Reader, see fullFence
+    private static volatile int fence;
+
+    private final ByteBuffer shared;
+    private final ByteBuffer producerView;
+    private final int sampleRate;
+    private final int capacity;
+    private final int mask;
+
+    // Producer stall state: the read cursor when the ring was found full and when waiting for it ends.
+    // Once stalled, writes drop at once until the read cursor moves.
+    private long stallReadCursor = -1;
+    private long stallDeadlineNanos = 0;
+    private boolean stalled = false;
+
+    // capacitySamples is rounded up to a power of two
+    public SharedPcmRing(int sampleRate, int capacitySamples) {
+        if (capacitySamples <= 0) {
+            throw new IllegalArgumentException("capacitySamples must be positive: " + capacitySamples);
+        }
+        int size = Integer.highestOneBit(capacitySamples);
+        if (size < capacitySamples) size <<= 1;
+        this.sampleRate = sampleRate;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.shared = ByteBuffer.allocateDirect(HEADER_BYTES + size * 2).order(ByteOrder.LITTLE_ENDIAN);
+        this.producerView = shared.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        shared.putInt(OFFSET_SAMPLE_RATE, sampleRate);
+        shared.putInt(OFFSET_CAPACITY, size);
+        shared.putInt(OFFSET_MAGIC, MAGIC);
+    }
+
+    // The buffer Unity maps, header included
+    public ByteBuffer getBuffer() {
+        return shared;
+    }
+
+    public int getCapacitySamples() {
+        return capacity;
+    }
+
+    // Two-way fence between the plain header and sample accesses around it: a volatile write followed
+    // by a volatile read of the same field. Earlier loads and stores stay before the write, later ones
+    // after the read, and the read cannot pass the write (StoreLoad); ART emits stlr + ldar on ARM64,
+    // which are ordered, and HotSpot a locked instruction on x86.
+    // The returned value carries no information.
+    private static int fullFence() {
+        fence = 0;
+        return fence;
+    }
+
+    // Copies whole samples into the ring, blocking while it is full. Returns the bytes taken
+    // (also when they were dropped because the consumer stalled).
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        int samples = length / 2;
+        if (samples == 0) {
+            return length;
+        }
+        if (shared.getInt(OFFSET_PLAYING) == 0) {
+            shared.putInt(OFFSET_PLAYING, 1);
+        }
+        while (true) {
+            // Flushed samples are free even while the consumer has not read past them
+            long write = shared.getLong(OFFSET_WRITE_CURSOR);
+            long read = Math.max(shared.getLong(OFFSET_READ_CURSOR), shared.getLong(OFFSET_DISCARD_CURSOR));
+            fullFence();                                      // read cursor before overwriting its slots
+            int free = capacity - (int) (write - read);
+            if (free > 0) {
+                stallReadCursor = -1;
+                stalled = false;
+                int count = Math.min(free, samples);
+                copyIn(data, offset, write, count);
+                fullFence();                                  // samples before the cursor that publishes them
+                shared.putLong(OFFSET_WRITE_CURSOR, write + count);
+                return count * 2;
+            }
+            long now = System.nanoTime();
+            if (read != stallReadCursor) {
+                // Full again since the consumer last moved: wait for it up to STALL_TIMEOUT_MS
+                stallReadCursor = read;
+                stalled = false;
+                stallDeadlineNanos = now + STALL_TIMEOUT_MS * 1_000_000L;
+            } else if (stalled || now - stallDeadlineNanos > 0) {
+                stalled = true;
+                shared.putLong(OFFSET_DROPPED_SAMPLES, shared.getLong(OFFSET_DROPPED_SAMPLES) + samples);
+                return samples * 2;
+            }
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    private void copyIn(byte[] data, int offset, long cursor, int samples) {
+        int slot = (int) (cursor & mask);
+        int first = Math.min(samples, capacity - slot);
+        producerView.position(HEADER_BYTES + slot * 2);
+        producerView.put(data, offset, first * 2);
+        if (first < samples) {
+            producerView.position(HEADER_BYTES);
+            producerView.put(data, offset + first * 2, (samples - first) * 2);
+        }
+    }
+
+    @Override
+    public void play() {
+        shared.putInt(OFFSET_PLAYING, 1);
+    }
+
+    @Override
+    public void pause() {
+        shared.putInt(OFFSET_PLAYING, 0);
+    }
+
+    // Everything not read yet is skipped by the consumer
+    @Override
+    public void flush() {
+        shared.putLong(OFFSET_DISCARD_CURSOR, shared.getLong(OFFSET_WRITE_CURSOR));
+    }
+
+    // The response played out: running dry now is not an underrun
+    @Override
+    public void endOfStream() {
+        shared.putInt(OFFSET_PLAYING, 0);
+    }
+
+    @Override
+    public void release() {
+        shared.putInt(OFFSET_PLAYING, 0);
+        shared.putInt(OFFSET_MAGIC, 0);
+    }
+
+    // Header snapshot: cursors, buffered audio and underrun / drop counters
+    public String toJson() {
+        long write = shared.getLong(OFFSET_WRITE_CURSOR);
+        long read = Math.max(shared.getLong(OFFSET_READ_CURSOR), shared.getLong(OFFSET_DISCARD_CURSOR));
+        long buffered = Math.max(0, write - read);
+        return String.format(Locale.US,
+                "{\"capacity\":%d,\"writeCursor\":%d,\"readCursor\":%d,\"bufferedMs\":%d,\"playing\":%b,"
+                        + "\"underruns\":%d,\"underrunSamples\":%d,\"droppedSamples\":%d}",
+                capacity, write, shared.getLong(OFFSET_READ_CURSOR), buffered * 1000 / sampleRate,
+                shared.getInt(OFFSET_PLAYING) != 0, shared.getLong(OFFSET_UNDERRUNS),
+                shared.getLong(OFFSET_UNDERRUN_SAMPLES), shared.getLong(OFFSET_DROPPED_SAMPLES));
+    }
+
+    // Consumer side of the protocol, what the Unity audio thread does on the mapped address.
+    // Used by the tests; a C# port reads the same offsets through a byte pointer.
+    public static class Reader {
+        private final ByteBuffer shared;
+        private final int mask;
+
+        public Reader(ByteBuffer buffer) {
+            this.shared = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (shared.getInt(OFFSET_MAGIC) != MAGIC) {
+                throw new IllegalArgumentException("Not a shared PCM ring");
+            }
+            this.mask = shared.getInt(OFFSET_CAPACITY) - 1;
+        }
+
+        // Fill count floats in [-1, 1), silence where no audio is buffered. Returns the samples read.
+        public int read(float[] out, int offset, int count) {
+            long write = shared.getLong(OFFSET_WRITE_CURSOR);
+            long read = Math.max(shared.getLong(OFFSET_READ_CURSOR), shared.getLong(OFFSET_DISCARD_CURSOR));
+            fullFence();                                      // acquire: cursors before the samples
+            int available = (int) Math.min(write - read, count);
+            for (int i = 0; i < available; i++) {
+                int slot = (int) ((read + i) & mask);
+                out[offset + i] = shared.getShort(HEADER_BYTES + slot * 2) / 32768f;
+            }
+            for (int i = available; i < count; i++) {
+                out[offset + i] = 0f;
+            }
+            if (available < count && shared.getInt(OFFSET_PLAYING) != 0) {
+                shared.putLong(OFFSET_UNDERRUNS, shared.getLong(OFFSET_UNDERRUNS) + 1);
+                shared.putLong(OFFSET_UNDERRUN_SAMPLES,
+                        shared.getLong(OFFSET_UNDERRUN_SAMPLES) + count - available);
+            }
+            fullFence();                                      // release: samples read before freeing their slots
+            shared.putLong(OFFSET_READ_CURSOR, read + available);
+            return available;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.projectiris.unityplugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded lock-free queue for exactly one producer thread and one consumer thread.
+// offer() must only be called by the producer and poll() only by the consumer.
+public class SpscQueue<T> {
+    private final Object[] items;
+    private final int mask;
+
+    // Next index to read (written by the consumer) and next index to write (written by the producer)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Capacity is rounded up to a power of two
+    public SpscQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        items = new Object[size];
+        mask = size - 1;
+    }
+
+    // Returns false when the queue is full
+    public boolean offer(T item) {
+        long t = tail.get();
+        if (t - head.get() == items.length) {
+            return false;
+        }
+        items[(int) t & mask] = item;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    // Returns null when the queue is empty
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        T item = (T) items[index];
+        items[index] = null;
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+}
@@ -0,0 +1,87 @@
+package com.projectiris.unityplugin;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+// Opens the socket for one WebSocketClient and stamps each phase into a ConnectionTimings.
+// createSocket() returns a socket that is already connected (and TLS handshaked for wss), so the
+// client skips its own connect and TLS upgrade and only does the HTTP upgrade on top of it.
+public class TimedSocketFactory extends SocketFactory {
+
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final int connectTimeoutMillis;
+    private final ConnectionTimings timings;
+
+    public TimedSocketFactory(String host, int port, boolean secure, int connectTimeoutMillis,
+                              ConnectionTimings timings) {
+        this.host = host;
+        this.port = port;
+        this.secure = secure;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.timings = timings;
+    }
+
+    // Called by WebSocketClient on its connect thread
+    @Override
+    public Socket createSocket() throws IOException {
+        return open(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return open(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return open(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return open(host.getHostName(), port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        return open(address.getHostName(), port);
+    }
+
+    private Socket open(String host, int port) throws IOException {
+        InetAddress address = InetAddress.getByName(host);
+        timings.onDnsResolved();
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+            timings.onTcpConnected();
+            if (!secure) {
+                return socket;
+            }
+
+            SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                    .createSocket(socket, host, port, true);
+            // The handshake is done here, so host name verification has to be switched on here too
+            SSLParameters sslParameters = sslSocket.getSSLParameters();
+            sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslSocket.setSSLParameters(sslParameters);
+            sslSocket.startHandshake();
+            timings.onTlsHandshake();
+            return sslSocket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+}
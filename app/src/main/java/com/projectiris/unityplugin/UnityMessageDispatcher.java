@@ -0,0 +1,192 @@
+package com.projectiris.unityplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Coalesces messages for Unity into one call per time window.
+// Messages posted within windowMillis are sent together as one JSON array
+// [{"type":"...","message":"..."},...] in the order they were posted. Consecutive fragments of a
+// streamed type (transcript, text) are merged into one entry, so a sentence streamed in dozens of
+// pieces reaches Unity as a single string. A window is flushed early once maxPendingChars are waiting.
+// Thread-safe, the sink is called with the dispatcher locked so payloads never overtake each other.
+public class UnityMessageDispatcher {
+
+    // Types whose consecutive messages are fragments of one stream
+    public static final String TYPE_TRANSCRIPT = "transcript";
+    public static final String TYPE_TEXT = "text";
+
+    // Delivers one payload to Unity, e.g. UnityPlayer.UnitySendMessage
+    public interface Sink {
+        void send(String payload);
+    }
+
+    // Handler-like timer that runs the flush, the device implementation wraps android.os.Handler
+    public interface Timer {
+        void postDelayed(Runnable runnable, long delayMillis);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    private static final class Entry {
+        String type;
+        final StringBuilder message = new StringBuilder(128);
+    }
+
+    private final Sink sink;
+    private final Timer timer;
+    private final long windowMillis;
+    private final int maxPendingChars;
+    private final Runnable flushTask = this::flush;
+
+    // Entries are reused, pendingCount of them are in use
+    private final List<Entry> entries = new ArrayList<>();
+    private int pendingCount = 0;
+    private int pendingChars = 0;
+    private boolean flushScheduled = false;
+    private final StringBuilder payload = new StringBuilder(1024);
+
+    // Counters
+    private long messagesPosted = 0;
+    private long fragmentsMerged = 0;
+    private long calls = 0;
+    private long bytesSent = 0;
+    private int maxBatch = 0;
+
+    public UnityMessageDispatcher(Sink sink, Timer timer, long windowMillis, int maxPendingChars) {
+        this.sink = sink;
+        this.timer = timer;
+        this.windowMillis = Math.max(0, windowMillis);
+        this.maxPendingChars = Math.max(1, maxPendingChars);
+    }
+
+    public synchronized void post(String type, String message) {
+        messagesPosted++;
+        String text = message != null ? message : "";
+        Entry last = pendingCount > 0 ? entries.get(pendingCount - 1) : null;
+        if (last != null && last.type.equals(type) && isStreamed(type)) {
+            last.message.append(text);
+            fragmentsMerged++;
+        } else {
+            if (pendingCount == entries.size()) {
+                entries.add(new Entry());
+            }
+            Entry entry = entries.get(pendingCount++);
+            entry.type = type;
+            entry.message.setLength(0);
+            entry.message.append(text);
+        }
+        pendingChars += text.length();
+
+        if (pendingChars >= maxPendingChars) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            timer.postDelayed(flushTask, windowMillis);
+        }
+    }
+
+    // Send everything pending now, e.g. before shutting down
+    public synchronized void flush() {
+        if (flushScheduled) {
+            timer.removeCallbacks(flushTask);
+            flushScheduled = false;
+        }
+        if (pendingCount == 0) {
+            return;
+        }
+
+        payload.setLength(0);
+        payload.append('[');
+        for (int i = 0; i < pendingCount; i++) {
+            Entry entry = entries.get(i);
+            if (i > 0) payload.append(',');
+            payload.append("{\"type\":");
+            appendJsonString(payload, entry.type);
+            payload.append(",\"message\":");
+            appendJsonString(payload, entry.message);
+            payload.append('}');
+            // Keep the pooled builders from holding on to one very long message
+            if (entry.message.length() > 4096) {
+                entry.message.setLength(0);
+                entry.message.trimToSize();
+            }
+        }
+        payload.append(']');
+
+        maxBatch = Math.max(maxBatch, pendingCount);
+        pendingCount = 0;
+        pendingChars = 0;
+        String json = payload.toString();
+        calls++;
+        bytesSent += utf8Length(json);
+        sink.send(json);
+    }
+
+    public synchronized String toJson() {
+        return String.format(Locale.US,
+                "{\"windowMs\":%d,\"messages\":%d,\"merged\":%d,\"calls\":%d,\"bytes\":%d,\"maxBatch\":%d}",
+                windowMillis, messagesPosted, fragmentsMerged, calls, bytesSent, maxBatch);
+    }
+
+    private static boolean isStreamed(String type) {
+        return TYPE_TRANSCRIPT.equals(type) || TYPE_TEXT.equals(type);
+    }
+
+    // Quoted JSON string, control characters escaped
+    static void appendJsonString(StringBuilder out, CharSequence s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    // Bytes Unity receives, the payload is marshalled as UTF-8
+    static int utf8Length(CharSequence s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
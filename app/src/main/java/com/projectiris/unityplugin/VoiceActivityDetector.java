@@ -0,0 +1,138 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+
+// Lightweight energy + zero-crossing voice activity detector for 16-bit mono PCM.
+// A frame is voiced when its RMS is above both the configured threshold and a multiple of the
+// tracked background noise floor, and its zero-crossing rate is in the range of voiced speech
+// (broadband noise crosses zero far more often). Speech starts after minSpeechMillis of voiced
+// frames and ends after hangoverMillis without one, so short pauses between words do not end it.
+// Not thread-safe except for the threshold, which may be changed from any thread.
+public class VoiceActivityDetector {
+
+    public enum Event {
+        NONE,
+        SPEECH_START,
+        SPEECH_END
+    }
+
+    public static final double DEFAULT_THRESHOLD_RMS = 400;
+
+    private static final double NOISE_FACTOR = 3.0;
+    private static final double NOISE_ADAPT_RATE = 0.05;
+    private static final double MAX_VOICED_ZCR = 0.25;   // zero crossings per sample
+    private static final double LOUD_FACTOR = 4.0;       // loud frames count regardless of ZCR (fricatives)
+
+    private final int sampleRate;
+    private final int minSpeechMillis;
+    private final int hangoverMillis;
+    private volatile double thresholdRms;
+
+    private double noiseFloorRms = 0;
+    private boolean speaking = false;
+    private boolean voiced = false;
+    private int voicedMillis = 0;
+    private int silentMillis = 0;
+    private int speechMillis = 0;
+
+    public VoiceActivityDetector(int sampleRate, double thresholdRms, int minSpeechMillis, int hangoverMillis) {
+        this.sampleRate = sampleRate;
+        this.thresholdRms = thresholdRms;
+        this.minSpeechMillis = minSpeechMillis;
+        this.hangoverMillis = hangoverMillis;
+    }
+
+    // Classify the samples between position and limit (the buffer is not modified)
+    public Event process(ByteBuffer pcm) {
+        int start = pcm.position();
+        int end = pcm.limit() & ~1;
+        int samples = (end - start) / 2;
+        if (samples <= 0) {
+            return Event.NONE;
+        }
+
+        double sum = 0;
+        int crossings = 0;
+        int previous = pcm.getShort(start);
+        for (int i = start; i < end; i += 2) {
+            int sample = pcm.getShort(i);
+            sum += (double) sample * sample;
+            if ((sample ^ previous) < 0) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        double rms = Math.sqrt(sum / samples);
+        double zcr = (double) crossings / samples;
+        int frameMillis = samples * 1000 / sampleRate;
+
+        double threshold = Math.max(thresholdRms, noiseFloorRms * NOISE_FACTOR);
+        voiced = rms >= threshold && (zcr <= MAX_VOICED_ZCR || rms >= threshold * LOUD_FACTOR);
+
+        if (!voiced && !speaking) {
+            // Track background noise only outside of speech
+            noiseFloorRms += (rms - noiseFloorRms) * NOISE_ADAPT_RATE;
+        }
+        return update(voiced, frameMillis);
+    }
+
+    private Event update(boolean voiced, int frameMillis) {
+        if (voiced) {
+            voicedMillis += frameMillis;
+            silentMillis = 0;
+        } else {
+            voicedMillis = 0;
+            silentMillis += frameMillis;
+        }
+
+        if (speaking) {
+            speechMillis += frameMillis;
+            if (silentMillis >= hangoverMillis) {
+                speaking = false;
+                speechMillis = 0;
+                return Event.SPEECH_END;
+            }
+        } else if (voicedMillis >= minSpeechMillis) {
+            speaking = true;
+            speechMillis = voicedMillis;
+            return Event.SPEECH_START;
+        }
+        return Event.NONE;
+    }
+
+    // Whether the last processed frame was classified as voiced
+    public boolean isVoiced() {
+        return voiced;
+    }
+
+    public boolean isSpeaking() {
+        return speaking;
+    }
+
+    // Length of the current speech segment, 0 when not speaking
+    public int getSpeechMillis() {
+        return speechMillis;
+    }
+
+    public double getNoiseFloorRms() {
+        return noiseFloorRms;
+    }
+
+    public double getThresholdRms() {
+        return thresholdRms;
+    }
+
+    public void setThresholdRms(double thresholdRms) {
+        this.thresholdRms = thresholdRms;
+    }
+
+    // Forget speech state and noise estimate, e.g. when a new recording starts
+    public void reset() {
+        noiseFloorRms = 0;
+        speaking = false;
+        voiced = false;
+        voicedMillis = 0;
+        silentMillis = 0;
+        speechMillis = 0;
+    }
+}
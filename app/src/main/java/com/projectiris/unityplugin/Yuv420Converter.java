@@ -0,0 +1,106 @@
+package com.projectiris.unityplugin;
+
+import java.nio.ByteBuffer;
+
+// Packs the three planes of a YUV_420_888 image into NV21 (full Y plane, then interleaved V/U),
+// the layout YuvImage compresses from. Row and pixel strides of the source planes are honoured,
+// so padded rows and both planar and semi-planar chroma layouts are handled.
+// Plane buffers are read with absolute gets and are not modified.
+public final class Yuv420Converter {
+
+    private Yuv420Converter() {
+    }
+
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public static void toNv21(int width, int height,
+                              ByteBuffer yPlane, int yRowStride,
+                              ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                              byte[] out) {
+        if (out.length < nv21Size(width, height)) {
+            throw new IllegalArgumentException("NV21 buffer too small: " + out.length);
+        }
+
+        // Luma, one bulk copy per row through a single view of the plane
+        ByteBuffer luma = yPlane.duplicate();
+        int yBase = yPlane.position();
+        int outPos = 0;
+        if (yRowStride == width) {
+            copy(luma, yBase, out, 0, width * height);
+            outPos = width * height;
+        } else {
+            for (int row = 0; row < height; row++) {
+                copy(luma, yBase + row * yRowStride, out, outPos, width);
+                outPos += width;
+            }
+        }
+
+        // Chroma, interleaved V/U. The U and V planes are separate buffers even when the
+        // camera stores them interleaved, so samples are gathered one by one.
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int uBase = uPlane.position();
+        int vBase = vPlane.position();
+        for (int row = 0; row < chromaHeight; row++) {
+            int rowStart = row * uvRowStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                int offset = rowStart + col * uvPixelStride;
+                out[outPos++] = vPlane.get(vBase + offset);
+                out[outPos++] = uPlane.get(uBase + offset);
+            }
+        }
+    }
+
+    // Output size along one axis when keeping every step-th pixel, rounded down to even for 4:2:0
+    public static int decimatedSize(int size, int step) {
+        return (size / step) & ~1;
+    }
+
+    // Like toNv21, but keeps only every step-th pixel in both directions, a cheap downscale
+    // for when the uplink can only carry smaller images
+    public static void toNv21Decimated(int width, int height, int step,
+                                       ByteBuffer yPlane, int yRowStride,
+                                       ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                                       byte[] out) {
+        if (step == 1) {
+            toNv21(width, height, yPlane, yRowStride, uPlane, vPlane, uvRowStride, uvPixelStride, out);
+            return;
+        }
+
+        int outWidth = decimatedSize(width, step);
+        int outHeight = decimatedSize(height, step);
+        if (out.length < nv21Size(outWidth, outHeight)) {
+            throw new IllegalArgumentException("NV21 buffer too small: " + out.length);
+        }
+
+        int outPos = 0;
+        int yBase = yPlane.position();
+        for (int row = 0; row < outHeight; row++) {
+            int rowStart = yBase + row * step * yRowStride;
+            for (int col = 0; col < outWidth; col++) {
+                out[outPos++] = yPlane.get(rowStart + col * step);
+            }
+        }
+
+        // Output chroma sample (col, row) covers luma (2 * col * step, 2 * row * step),
+        // which is chroma sample (col * step, row * step) of the source
+        int uBase = uPlane.position();
+        int vBase = vPlane.position();
+        for (int row = 0; row < outHeight / 2; row++) {
+            int rowStart = row * step * uvRowStride;
+            for (int col = 0; col < outWidth / 2; col++) {
+                int offset = rowStart + col * step * uvPixelStride;
+                out[outPos++] = vPlane.get(vBase + offset);
+                out[outPos++] = uPlane.get(uBase + offset);
+            }
+        }
+    }
+
+    private static void copy(ByteBuffer view, int srcIndex, byte[] dst, int dstOffset, int length) {
+        view.limit(srcIndex + length);
+        view.position(srcIndex);
+        view.get(dst, dstOffset, length);
+    }
+}
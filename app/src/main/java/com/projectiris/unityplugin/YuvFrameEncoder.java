@@ -0,0 +1,121 @@
+package com.projectiris.unityplugin;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Encodes YUV_420_888 camera frames to JPEG on the session's image encode thread.
+// The camera thread only copies the planes of a frame that will actually be sent into a reused
+// NV21 buffer; compression happens on the worker into a reused output buffer.
+// At most one frame is in progress, a frame offered while the worker is busy is rejected.
+// Quality and size are chosen per frame; frames larger than maxDimension are decimated while copying.
+public class YuvFrameEncoder {
+    private static final String TAG = "YuvFrameEncoder";
+
+    // Receives the encoded JPEG on the worker thread, data is only valid during the call.
+    // captureNanos and levelIndex are passed through from offer.
+    public interface JpegConsumer {
+        void onJpeg(byte[] data, int length, long captureNanos, int levelIndex);
+    }
+
+    private final JpegConsumer consumer;
+    private final ImageSendStats stats;
+    private final BoundedExecutor worker;
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+
+    private byte[] nv21 = new byte[0];
+    private final FrameOutputStream jpegOut = new FrameOutputStream(64 * 1024);
+    private Rect cropRect;
+    private int width;
+    private int height;
+    private int jpegQuality;
+
+    public YuvFrameEncoder(ImageSendStats stats, BoundedExecutor worker, JpegConsumer consumer) {
+        this.stats = stats;
+        this.worker = worker;
+        this.consumer = consumer;
+    }
+
+    // Called on the camera thread. Copies the frame and schedules the encode.
+    // Returns false when the previous frame is still being encoded; the caller closes the image either way.
+    public boolean offer(Image image, long captureNanos, int levelIndex, int jpegQuality, int maxDimension) {
+        if (!busy.compareAndSet(false, true)) {
+            return false;
+        }
+
+        try {
+            long cpuStart = Debug.threadCpuTimeNanos();
+            int sourceWidth = image.getWidth();
+            int sourceHeight = image.getHeight();
+            int longSide = Math.max(sourceWidth, sourceHeight);
+            int step = Math.max(1, (longSide + maxDimension - 1) / maxDimension);
+            int frameWidth = step == 1 ? sourceWidth : Yuv420Converter.decimatedSize(sourceWidth, step);
+            int frameHeight = step == 1 ? sourceHeight : Yuv420Converter.decimatedSize(sourceHeight, step);
+
+            int size = Yuv420Converter.nv21Size(frameWidth, frameHeight);
+            if (nv21.length < size) {
+                nv21 = new byte[size];
+            }
+            if (frameWidth != width || frameHeight != height) {
+                width = frameWidth;
+                height = frameHeight;
+                cropRect = new Rect(0, 0, width, height);
+            }
+            this.jpegQuality = jpegQuality;
+
+            Image.Plane[] planes = image.getPlanes();
+            Yuv420Converter.toNv21Decimated(sourceWidth, sourceHeight, step,
+                    planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[1].getRowStride(), planes[1].getPixelStride(),
+                    nv21);
+            long copyCpuNanos = Debug.threadCpuTimeNanos() - cpuStart;
+
+            if (!worker.submit(() -> encode(copyCpuNanos, captureNanos, levelIndex))) {
+                // The encode queue is full of app supplied images, or the session is shutting down
+                busy.set(false);
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            busy.set(false);
+            Log.e(TAG, "Error copying camera frame", e);
+            return false;
+        }
+    }
+
+    private void encode(long copyCpuNanos, long captureNanos, int levelIndex) {
+        try {
+            long cpuStart = Debug.threadCpuTimeNanos();
+            jpegOut.reset();
+            YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+            if (!yuvImage.compressToJpeg(cropRect, jpegQuality, jpegOut)) {
+                Log.e(TAG, "JPEG compression failed");
+                return;
+            }
+            consumer.onJpeg(jpegOut.buffer(), jpegOut.size(), captureNanos, levelIndex);
+            stats.recordYuvEncode(copyCpuNanos + Debug.threadCpuTimeNanos() - cpuStart, jpegOut.size());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error encoding camera frame", e);
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    // ByteArrayOutputStream whose buffer is handed out directly instead of copied by toByteArray
+    static class FrameOutputStream extends ByteArrayOutputStream {
+        FrameOutputStream(int initialSize) {
+            super(initialSize);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
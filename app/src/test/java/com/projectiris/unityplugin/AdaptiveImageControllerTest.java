@@ -0,0 +1,180 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveImageControllerTest {
+    private static final int AUDIO_FRAME_BYTES = 6480;  // 100 ms of 24 kHz PCM as a realtime_input frame
+    private static final long AUDIO_PERIOD = 100;
+    private static final long IMAGE_PERIOD = 1000;
+    private static final long TICK = 5;
+
+    @Test
+    public void startsAtBestLevel() {
+        AdaptiveImageController controller = newController(new ArrayList<>());
+        AdaptiveImageController.Decision decision = controller.decide(0, 0);
+
+        assertEquals(AdaptiveImageController.Action.SEND, decision.action);
+        assertEquals(0, decision.levelIndex);
+        assertEquals(70, decision.level.jpegQuality);
+        assertEquals(1024, decision.level.maxDimension);
+    }
+
+    @Test
+    public void backedUpQueueSkipsImageAndDropsLevel() {
+        AdaptiveImageController controller = newController(new ArrayList<>());
+        // 100 KB/s measured while the socket stays busy
+        long sent = 0;
+        for (long t = 0; t <= 1000; t += 100) {
+            sent += 20_000;
+            controller.onFrameSent(t, 20_000, sent - t * 100);
+        }
+        AdaptiveImageController.Decision decision = controller.decide(1000, 80_000);
+
+        assertEquals(AdaptiveImageController.Action.SKIP, decision.action);
+        assertTrue(decision.levelIndex > 0);
+        assertTrue(decision.queueDelayMillis > 300);
+    }
+
+    @Test
+    public void everyDecisionReachesTheListener() throws Exception {
+        List<AdaptiveImageController.Decision> decisions = new ArrayList<>();
+        AdaptiveImageController controller = newController(decisions);
+        for (int i = 0; i < 5; i++) {
+            controller.decide(i * 1000L, 0);
+        }
+        assertEquals(5, decisions.size());
+        JSONObject json = new JSONObject(controller.toJson());
+        assertEquals("SEND", json.getString("action"));
+        assertEquals(decisions.get(4).reason, json.getString("reason"));
+    }
+
+    // Simulated link harness: 100 ms audio frames and an image per second share one FIFO socket
+    // whose bandwidth drops from 8 Mbit/s to 1 Mbit/s for 20 s and back.
+    // Compares audio frame latency with a fixed 1024 px / q70 image against the controller.
+    @Test
+    public void simulatedLinkKeepsAudioLatencyBounded() {
+        long[] rates = {1_000_000, 125_000, 1_000_000};  // bytes per second per 20 s phase
+
+        SimulationResult fixed = simulate(rates, null);
+        List<AdaptiveImageController.Decision> decisions = new ArrayList<>();
+        SimulationResult adaptive = simulate(rates, newController(decisions));
+
+        String summary = String.format(Locale.US,
+                "fixed images audio p95=%d ms max=%d ms, %d images | adaptive audio p95=%d ms max=%d ms, %d images",
+                fixed.percentile(95), fixed.max(), fixed.images,
+                adaptive.percentile(95), adaptive.max(), adaptive.images);
+        assertTrue(summary, adaptive.max() < fixed.max());
+        assertTrue(summary, adaptive.percentile(95) < 400);
+        // Degraded during the slow phase, back near the top after it
+        String timeline = String.join("\n", adaptive.timeline);
+        assertTrue(timeline, adaptive.levelAt(35_000) >= 3);
+        assertTrue(timeline, adaptive.levelAt(59_000) <= 1);
+        assertFalse(decisions.isEmpty());
+    }
+
+    private static AdaptiveImageController newController(List<AdaptiveImageController.Decision> decisions) {
+        return new AdaptiveImageController(AdaptiveImageController.DEFAULT_LEVELS, 250, 300, decisions::add);
+    }
+
+    private static SimulationResult simulate(long[] phaseRates, AdaptiveImageController controller) {
+        Random random = new Random(11);
+        SimulationResult result = new SimulationResult();
+        ArrayDeque<long[]> queue = new ArrayDeque<>();  // {remaining bytes, enqueue time, is audio}
+        long queuedBytes = 0;
+        long nextAudio = 0;
+        long nextImage = 0;
+        long end = phaseRates.length * 20_000L;
+
+        for (long now = 0; now < end; now += TICK) {
+            long rate = phaseRates[(int) (now / 20_000)];
+
+            if (now >= nextAudio) {
+                queue.add(new long[]{AUDIO_FRAME_BYTES, now, 1});
+                queuedBytes += AUDIO_FRAME_BYTES;
+                if (controller != null) controller.onFrameSent(now, AUDIO_FRAME_BYTES, queuedBytes);
+                nextAudio += AUDIO_PERIOD;
+            }
+
+            if (now >= nextImage) {
+                AdaptiveImageController.Level level = AdaptiveImageController.DEFAULT_LEVELS[0];
+                int levelIndex = 0;
+                boolean send = true;
+                if (controller != null) {
+                    AdaptiveImageController.Decision decision = controller.decide(now, queuedBytes);
+                    level = decision.level;
+                    levelIndex = decision.levelIndex;
+                    send = decision.action == AdaptiveImageController.Action.SEND;
+                }
+                if (send) {
+                    int bytes = (int) (level.estimatedBytes() * (0.8 + 0.4 * random.nextDouble()));
+                    queue.add(new long[]{bytes, now, 0});
+                    queuedBytes += bytes;
+                    result.images++;
+                    if (controller != null) {
+                        controller.onFrameSent(now, bytes, queuedBytes);
+                        controller.onImageSent(levelIndex, bytes);
+                    }
+                }
+                result.levels.add(new long[]{now, levelIndex});
+                nextImage = now + (long) (IMAGE_PERIOD * level.intervalFactor);
+            }
+
+            // Drain the socket
+            long budget = rate * TICK / 1000;
+            while (budget > 0 && !queue.isEmpty()) {
+                long[] head = queue.peek();
+                long take = Math.min(budget, head[0]);
+                head[0] -= take;
+                budget -= take;
+                queuedBytes -= take;
+                if (head[0] == 0) {
+                    queue.poll();
+                    if (head[2] == 1) result.audioLatencies.add(now + TICK - head[1]);
+                }
+            }
+
+            if (controller != null && now % 5000 == 0) {
+                result.timeline.add(String.format(Locale.US, "t=%2ds link=%4d KB/s estimate=%4d KB/s level=%d queued=%d",
+                        now / 1000, rate / 1000, controller.getThroughputBytesPerSecond() / 1000,
+                        controller.getLevelIndex(), queuedBytes));
+            }
+        }
+        return result;
+    }
+
+    private static class SimulationResult {
+        final List<Long> audioLatencies = new ArrayList<>();
+        final List<long[]> levels = new ArrayList<>();
+        final List<String> timeline = new ArrayList<>();
+        int images;
+
+        long percentile(int p) {
+            List<Long> sorted = new ArrayList<>(audioLatencies);
+            Collections.sort(sorted);
+            return sorted.get(Math.min(sorted.size() - 1, sorted.size() * p / 100));
+        }
+
+        long max() {
+            return Collections.max(audioLatencies);
+        }
+
+        long levelAt(long time) {
+            long level = 0;
+            for (long[] entry : levels) {
+                if (entry[0] > time) break;
+                level = entry[1];
+            }
+            return level;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.projectiris.unityplugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class AudioChunkingPolicyTest {
+    private static final int SAMPLE_RATE = 24000;
+    private static final int READ_BYTES = 1920; // 40 ms, a typical AudioRecord minimum buffer
+
+    @Test
+    public void chunkBytesAreWholeSamples() {
+        assertEquals(4800, new AudioChunkingPolicy(100, 0, true).chunkBytes(SAMPLE_RATE));
+        assertEquals(960, new AudioChunkingPolicy(20, 0, true).chunkBytes(SAMPLE_RATE));
+        assertEquals(1322, new AudioChunkingPolicy(15, 0, true).chunkBytes(44100));
+    }
+
+    @Test
+    public void framesInFlightLimit() {
+        AudioChunkingPolicy unlimited = new AudioChunkingPolicy(40, 0, false);
+        assertTrue(unlimited.canSend(1000));
+
+        AudioChunkingPolicy limited = new AudioChunkingPolicy(40, 2, false);
+        assertTrue(limited.canSend(1));
+        assertFalse(limited.canSend(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooShortChunks() {
+        new AudioChunkingPolicy(5, 4, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeInFlightLimit() {
+        new AudioChunkingPolicy(100, -1, true);
+    }
+
+    // Simulation: frames per second and bytes on the wire for 20 s of speech with short pauses,
+    // captured in 40 ms reads and chunked through the same ring buffer and frame writer as the
+    // capture thread. "hold" is how long the end of a phrase waits in the ring after the user pauses.
+    // Longer chunks cost less framing overhead, flushing on silence cuts the hold.
+    @Test
+    public void longerChunksCutOverheadAndFlushCutsHold() {
+        AudioChunkingPolicy[] policies = {
+                new AudioChunkingPolicy(20, 0, false),
+                new AudioChunkingPolicy(40, 0, false),
+                new AudioChunkingPolicy(100, 0, false),
+                new AudioChunkingPolicy(100, 0, true),
+                new AudioChunkingPolicy(250, 0, true),
+        };
+
+        double previousOverhead = Double.MAX_VALUE;
+        for (AudioChunkingPolicy policy : policies) {
+            Result result = simulate(policy, 20);
+            String summary = String.format(Locale.US,
+                    "chunking %s: %.1f frames/s, %d wire bytes/s, overhead %.1f%% over raw pcm, "
+                            + "%.1f%% over base64, hold at pause %.0f ms",
+                    policy, result.framesPerSecond(), result.wireBytesPerSecond(),
+                    result.overheadPercent(), result.envelopePercent(), result.averageHoldMillis());
+
+            assertEquals(summary, result.pcmIn, result.pcmSent);
+            if (!policy.isFlushOnSilence()) {
+                assertTrue(summary, result.overheadPercent() <= previousOverhead);
+                previousOverhead = result.overheadPercent();
+            }
+        }
+
+        Result batched = simulate(new AudioChunkingPolicy(250, 0, false), 20);
+        Result flushed = simulate(new AudioChunkingPolicy(250, 0, true), 20);
+        assertTrue(flushed.averageHoldMillis() + " ms vs " + batched.averageHoldMillis() + " ms",
+                flushed.averageHoldMillis() < batched.averageHoldMillis());
+    }
+
+    private static Result simulate(AudioChunkingPolicy policy, int seconds) {
+        byte[] chunk = new byte[policy.chunkBytes(SAMPLE_RATE)];
+        PcmRingBuffer ring = new PcmRingBuffer(chunk.length * 8 + READ_BYTES);
+        RealtimeInputWriter writer = new RealtimeInputWriter(RealtimeInputWriter.encodedLength(chunk.length) + 128);
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE,
+                VoiceActivityDetector.DEFAULT_THRESHOLD_RMS, 60, 400);
+        ByteBuffer read = ByteBuffer.allocateDirect(READ_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        Result result = new Result(seconds);
+
+        boolean wasVoiced = false;
+        int reads = seconds * 1000 / 40;
+        for (int i = 0; i < reads; i++) {
+            // 1.2 s phrases separated by 280 ms pauses
+            boolean speech = (i % 37) < 30;
+            fill(read, speech ? 3000 : 0, i);
+            vad.process(read);
+            ring.write(read);
+            result.pcmIn += READ_BYTES;
+
+            while (ring.readChunk(chunk)) {
+                result.send(writer, chunk, chunk.length, i);
+            }
+            boolean voiced = vad.isVoiced();
+            if (wasVoiced && !voiced && ring.available() > 0) {
+                result.holds++;
+                result.holdStartRead = i;
+                if (policy.isFlushOnSilence()) {
+                    result.send(writer, chunk, ring.drain(chunk), i);
+                }
+            }
+            wasVoiced = voiced;
+        }
+        int tail = ring.drain(chunk);
+        if (tail > 0) {
+            result.send(writer, chunk, tail, reads);
+        }
+        return result;
+    }
+
+    private static void fill(ByteBuffer read, int amplitude, int index) {
+        read.clear();
+        for (int i = 0; i < READ_BYTES / 2; i++) {
+            double t = (double) (index * READ_BYTES / 2 + i) / SAMPLE_RATE;
+            read.putShort((short) (amplitude * Math.sin(2 * Math.PI * 150 * t)));
+        }
+        read.flip();
+    }
+
+    private static class Result {
+        final int seconds;
+        long pcmIn;
+        long pcmSent;
+        long base64Bytes;
+        long wireBytes;
+        long frames;
+        long holds;
+        long heldReads;
+        int holdStartRead = -1;
+
+        Result(int seconds) {
+            this.seconds = seconds;
+        }
+
+        void send(RealtimeInputWriter writer, byte[] data, int length, int readIndex) {
+            if (length <= 0) return;
+            if (holdStartRead >= 0) {
+                heldReads += readIndex - holdStartRead;
+                holdStartRead = -1;
+            }
+            int payload = writer.write("audio/pcm", data, 0, length).remaining();
+            frames++;
+            pcmSent += length;
+            base64Bytes += RealtimeInputWriter.encodedLength(length);
+            wireBytes += payload + clientFrameHeaderBytes(payload);
+        }
+
+        // RFC 6455 client frame: 2 byte header, extended length, 4 byte mask key
+        static int clientFrameHeaderBytes(int payload) {
+            return 2 + (payload < 126 ? 0 : payload <= 0xFFFF ? 2 : 8) + 4;
+        }
+
+        double framesPerSecond() {
+            return (double) frames / seconds;
+        }
+
+        long wireBytesPerSecond() {
+            return wireBytes / seconds;
+        }
+
+        double overheadPercent() {
+            return 100.0 * (wireBytes - pcmSent) / pcmSent;
+        }
+
+        // JSON envelope and framing on top of the unavoidable Base64 expansion
+        double envelopePercent() {
+            return 100.0 * (wireBytes - base64Bytes) / base64Bytes;
+        }
+
+        double averageHoldMillis() {
+            return holds == 0 ? 0 : (double) heldReads / holds * 40;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.projectiris.unityplugin;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class AudioPlaybackEngineTest {
+    private static final int SAMPLE_RATE = 24000;
+    private static final int BYTES_PER_MS = SAMPLE_RATE * 2 / 1000;
+
+    private final List<AudioPlaybackEngine> engines = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (AudioPlaybackEngine engine : engines) {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void singleThreadWritesChunksInOrder() throws Exception {
+        FakeAudioTrack sink = new FakeAudioTrack(20);
+        AudioPlaybackEngine engine = newEngine(sink, 40, 200);
+        PcmChunkPool pool = new PcmChunkPool(64, 480);
+
+        for (int i = 0; i < 50; i++) {
+            engine.enqueue(chunk(pool, 480, i));
+        }
+        engine.endOfTurn();
+        waitFor(() -> engine.getStats().chunksPlayed == 50);
+
+        assertEquals(50, sink.sequence.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) sink.sequence.get(i));
+        }
+        assertEquals(Collections.singleton("IrisPlayback-test"), sink.writerThreads);
+        assertEquals(pool.getCreatedCount(), pool.getFreeCount());
+        waitFor(() -> !engine.isPlaying());
+    }
+
+    @Test
+    public void steadyStreamDoesNotUnderrun() throws Exception {
+        FakeAudioTrack sink = new FakeAudioTrack(40);
+        // Two chunks of headroom absorb scheduler noise of the sleeping producer
+        AudioPlaybackEngine engine = newEngine(sink, 80, 200);
+
+        NetworkProfile steady = new NetworkProfile(40, 0, 0);
+        steady.stream(engine, new PcmChunkPool(64, 40 * BYTES_PER_MS), 25, new Random(1));
+        waitFor(() -> engine.getStats().chunksPlayed == 25);
+
+        assertEquals(0, engine.getStats().underruns);
+        assertEquals(0, sink.gaps);
+    }
+
+    @Test
+    public void jitterTargetGrowsAfterUnderrun() throws Exception {
+        FakeAudioTrack sink = new FakeAudioTrack(20);
+        AudioPlaybackEngine engine = newEngine(sink, 20, 200);
+        PcmChunkPool pool = new PcmChunkPool(64, 20 * BYTES_PER_MS);
+
+        // Two bursts of audio with a stall in the middle of the same response
+        for (int i = 0; i < 3; i++) engine.enqueue(chunk(pool, 20 * BYTES_PER_MS, i));
+        Thread.sleep(250);
+        for (int i = 3; i < 6; i++) engine.enqueue(chunk(pool, 20 * BYTES_PER_MS, i));
+        engine.endOfTurn();
+        waitFor(() -> engine.getStats().chunksPlayed == 6);
+
+        AudioPlaybackEngine.Stats stats = engine.getStats();
+        assertEquals(1, stats.underruns);
+        assertTrue(stats.jitterTargetMillis > 20);
+    }
+
+    @Test
+    public void timeToFirstAudioIsMeasuredFromTurnStart() throws Exception {
+        FakeAudioTrack sink = new FakeAudioTrack(20);
+        AudioPlaybackEngine engine = newEngine(sink, 40, 200);
+        PcmChunkPool pool = new PcmChunkPool(8, 4800);
+
+        engine.markTurnStart();
+        Thread.sleep(100);
+        engine.enqueue(chunk(pool, 4800, 0));
+        engine.endOfTurn();
+        waitFor(() -> engine.getStats().chunksPlayed == 1);
+
+        long ttfa = engine.getStats().timeToFirstAudioMillis;
+        assertTrue("ttfa " + ttfa, ttfa >= 100 && ttfa < 400);
+    }
+
+    @Test
+    public void fullQueueDropsAndReleasesChunks() {
+        FakeAudioTrack sink = new FakeAudioTrack(20);
+        // Not started, nothing drains the queue
+        AudioPlaybackEngine engine = new AudioPlaybackEngine(sink, SAMPLE_RATE, 4, 40, 200,
+                r -> new Thread(r, "IrisPlayback-test"));
+        PcmChunkPool pool = new PcmChunkPool(8, 16);
+
+        List<PcmChunkPool.Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            chunks.add(chunk(pool, 16, i));
+        }
+        for (PcmChunkPool.Chunk chunk : chunks) {
+            engine.enqueue(chunk);
+        }
+        assertEquals(2, engine.getStats().droppedChunks);
+        assertEquals(4, engine.getStats().queuedChunks);
+        assertEquals(2, pool.getFreeCount());
+    }
+
+    @Test
+    public void interruptedChunkIsNotCountedAsPlayed() throws Exception {
+        FakeAudioTrack sink = new FakeAudioTrack(20);
+        AudioPlaybackEngine engine = newEngine(sink, 20, 200);
+        PcmChunkPool pool = new PcmChunkPool(8, 1000 * BYTES_PER_MS);
+
+        engine.enqueue(chunk(pool, 1000 * BYTES_PER_MS, 0));
+        engine.endOfTurn();
+        waitFor(() -> !sink.sequence.isEmpty());
+        engine.interrupt();
+        waitFor(() -> engine.getStats().interruptions == 1);
+
+        AudioPlaybackEngine.Stats stats = engine.getStats();
+        assertEquals(0, stats.chunksPlayed);
+        assertTrue(stats.bytesPlayed < 1000 * BYTES_PER_MS);
+        assertEquals(pool.getCreatedCount(), pool.getFreeCount());
+    }
+
+    // Time-to-first-audio and underruns of a response streamed over different network jitter
+    // profiles into a real-time fake AudioTrack. Every profile plays out without dropping audio,
+    // a stall longer than the buffered audio is an underrun and deepens the jitter buffer.
+    @Test
+    public void jitterProfilesPlayOutAndStallsDeepenTheBuffer() throws Exception {
+        NetworkProfile[] profiles = {
+                new NetworkProfile(40, 0, 0),
+                new NetworkProfile(40, 15, 0),
+                new NetworkProfile(40, 30, 120),
+        };
+        for (NetworkProfile profile : profiles) {
+            FakeAudioTrack sink = new FakeAudioTrack(40);
+            AudioPlaybackEngine engine = newEngine(sink, 40, 200);
+            PcmChunkPool pool = new PcmChunkPool(64, 40 * BYTES_PER_MS);
+
+            engine.markTurnStart();
+            profile.stream(engine, pool, 20, new Random(7));
+            waitFor(() -> engine.getStats().chunksPlayed == 20);
+
+            AudioPlaybackEngine.Stats stats = engine.getStats();
+            String summary = String.format(Locale.US,
+                    "playback %s: ttfa=%d ms underruns=%d audible gaps=%d jitter target=%d ms",
+                    profile, stats.timeToFirstAudioMillis, stats.underruns, sink.gaps, stats.jitterTargetMillis);
+            assertTrue(summary, stats.timeToFirstAudioMillis >= 0);
+            assertEquals(summary, 0, stats.droppedChunks);
+            if (profile.stallMillis > 0) {
+                assertTrue(summary, stats.underruns >= 1);
+                assertTrue(summary, stats.jitterTargetMillis > 40);
+            }
+        }
+    }
+
+    @Test
+    public void reportsFirstWriteOncePerResponse() throws Exception {
+        FakeAudioTrack sink = new FakeAudioTrack(20);
+        AudioPlaybackEngine engine = newEngine(sink, 20, 200);
+        List<Long> firstWrites = Collections.synchronizedList(new ArrayList<>());
+        engine.setFirstAudioListener(firstWrites::add);
+        PcmChunkPool pool = new PcmChunkPool(64, 480);
+
+        long before = System.nanoTime();
+        for (int turn = 0; turn < 2; turn++) {
+            for (int i = 0; i < 5; i++) engine.enqueue(chunk(pool, 480, i));
+            engine.endOfTurn();
+            int played = (turn + 1) * 5;
+            waitFor(() -> engine.getStats().chunksPlayed == played && !engine.isPlaying());
+        }
+
+        assertEquals(2, firstWrites.size());
+        assertTrue(firstWrites.get(0) >= before);
+    }
+
+    private AudioPlaybackEngine newEngine(FakeAudioTrack sink, int minJitter, int maxJitter) {
+        AudioPlaybackEngine engine = new AudioPlaybackEngine(sink, SAMPLE_RATE, 64, minJitter, maxJitter,
+                r -> new Thread(r, "IrisPlayback-test"));
+        engine.start();
+        engines.add(engine);
+        return engine;
+    }
+
+    private static PcmChunkPool.Chunk chunk(PcmChunkPool pool, int bytes, int sequence) {
+        PcmChunkPool.Chunk chunk = pool.acquire(bytes);
+        chunk.length = bytes;
+        chunk.data[0] = (byte) sequence;
+        return chunk;
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.met()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(2);
+        }
+    }
+
+    // Chunks of chunkMillis audio arriving every chunkMillis, +/- jitterMillis, with one optional stall
+    private static class NetworkProfile {
+        final int chunkMillis;
+        final int jitterMillis;
+        final int stallMillis;
+
+        NetworkProfile(int chunkMillis, int jitterMillis, int stallMillis) {
+            this.chunkMillis = chunkMillis;
+            this.jitterMillis = jitterMillis;
+            this.stallMillis = stallMillis;
+        }
+
+        void stream(AudioPlaybackEngine engine, PcmChunkPool pool, int chunks, Random random)
+                throws InterruptedException {
+            for (int i = 0; i < chunks; i++) {
+                engine.enqueue(chunk(pool, chunkMillis * BYTES_PER_MS, i));
+                int delay = chunkMillis + (jitterMillis > 0 ? random.nextInt(2 * jitterMillis) - jitterMillis : 0);
+                if (i == chunks / 2) delay += stallMillis;
+                Thread.sleep(Math.max(0, delay));
+            }
+            engine.endOfTurn();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "chunk=%dms jitter=%dms stall=%dms", chunkMillis, jitterMillis, stallMillis);
+        }
+    }
+
+    // AudioTrack stand-in that consumes PCM in real time with a fixed size buffer
+    static class FakeAudioTrack implements AudioPlaybackEngine.PcmSink {
+        final List<Integer> sequence = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> writerThreads = Collections.synchronizedSet(new HashSet<>());
+        private final long bufferNanos;
+        private long playedUntilNanos = 0;
+        volatile boolean playing = false;
+        volatile int gaps = 0;
+        volatile int flushes = 0;
+        volatile long lastFlushNanos = 0;
+        volatile int writesAfterFlush = 0;
+        volatile boolean released = false;
+
+        FakeAudioTrack(int bufferMillis) {
+            this.bufferNanos = bufferMillis * 1_000_000L;
+        }
+
+        @Override
+        public int write(byte[] data, int offset, int length) {
+            writerThreads.add(Thread.currentThread().getName());
+            if (flushes > 0 && !playing) writesAfterFlush++;
+            if (offset == 0) sequence.add((int) data[0]);
+
+            long now = System.nanoTime();
+            if (playing && playedUntilNanos != 0 && now > playedUntilNanos + 2_000_000L) {
+                gaps++;
+            }
+            // Blocking write: wait until the buffer has room for more audio
+            long buffered = playedUntilNanos - now;
+            if (buffered > bufferNanos) {
+                sleepNanos(buffered - bufferNanos);
+            }
+            playedUntilNanos = Math.max(playedUntilNanos, System.nanoTime())
+                    + (long) length * 1_000_000_000L / (SAMPLE_RATE * 2);
+            return length;
+        }
+
+        @Override
+        public void play() {
+            playing = true;
+        }
+
+        @Override
+        public void pause() {
+            playing = false;
+            playedUntilNanos = 0;
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+            lastFlushNanos = System.nanoTime();
+            playedUntilNanos = 0;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+
+        private static void sleepNanos(long nanos) {
+            try {
+                Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BargeInTest {
+    private static final int SAMPLE_RATE = 24000;
+    private static final int MIC_SAMPLE_RATE = 16000;
+    private static final int CHUNK_BYTES = 40 * SAMPLE_RATE * 2 / 1000; // 40 ms per server frame
+    private static final int READ_BYTES = 40 * MIC_SAMPLE_RATE * 2 / 1000; // 40 ms per mic read
+    private static final long CONFIRM_TIMEOUT_MS = 200;
+    private static final int MIN_SPEECH_MS = 120;
+
+    private AudioPlaybackEngine engine;
+    private AudioPlaybackEngineTest.FakeAudioTrack sink;
+    private PcmChunkPool pool;
+    private ServerMessageParser parser;
+    private ResponsePlayback playback;
+
+    private final BargeInGuard guard = new BargeInGuard(CONFIRM_TIMEOUT_MS);
+    private final VoiceActivityDetector vad = new VoiceActivityDetector(MIC_SAMPLE_RATE,
+            VoiceActivityDetector.DEFAULT_THRESHOLD_RMS, 60, 400);
+    private final List<String> bargeIns = Collections.synchronizedList(new ArrayList<>());
+    private volatile int queueFull = 0;
+    private long nowMillis = 1_000;
+
+    // The server message listener of AiInteration, as far as response audio goes
+    private final ServerMessageParserTest.RecordingListener serverListener =
+            new ServerMessageParserTest.RecordingListener() {
+                @Override
+                public void onAudio(PcmChunkPool.Chunk chunk) {
+                    playback.onAudio(chunk, nowMillis);
+                }
+
+                @Override
+                public void onTurnComplete() {
+                    playback.onTurnComplete();
+                }
+
+                @Override
+                public void onInterrupted() {
+                    playback.onInterrupted();
+                }
+            };
+
+    @Before
+    public void setUp() {
+        sink = new AudioPlaybackEngineTest.FakeAudioTrack(40);
+        pool = new PcmChunkPool(64, CHUNK_BYTES);
+        engine = new AudioPlaybackEngine(sink, SAMPLE_RATE, 64, 40, 200, r -> new Thread(r, "IrisPlayback-test"));
+        engine.start();
+        parser = new ServerMessageParser(pool);
+        playback = newPlayback(engine);
+    }
+
+    @After
+    public void tearDown() {
+        if (engine != null) engine.shutdown();
+    }
+
+    @Test
+    public void serverInterruptFlushesPlaybackWithinBound() throws Exception {
+        // Script: 1.2 s of response audio arrives at once, the user talks over it 200 ms in
+        for (int i = 0; i < 30; i++) {
+            receive(audioFrame(i));
+        }
+        Thread.sleep(200);
+        assertTrue(engine.isPlaying());
+
+        long interruptedNanos = System.nanoTime();
+        receive("{\"serverContent\":{\"interrupted\":true}}");
+        waitFor(() -> sink.flushes == 1);
+
+        long flushLatencyMicros = (sink.lastFlushNanos - interruptedNanos) / 1000;
+        AudioPlaybackEngine.Stats stats = engine.getStats();
+        assertTrue("flush latency " + flushLatencyMicros + " us", flushLatencyMicros < 50_000);
+        assertTrue(stats.chunksPlayed < 30);
+        assertEquals(1, stats.interruptions);
+        assertEquals(0, stats.queuedChunks);
+        assertFalse(engine.isPlaying());
+        assertEquals(Collections.singletonList("server:true"), bargeIns);
+
+        // Every dropped chunk went back to the pool and nothing was written after the flush
+        Thread.sleep(50);
+        assertEquals(0, sink.writesAfterFlush);
+        assertEquals(pool.getCreatedCount(), pool.getFreeCount());
+    }
+
+    @Test
+    public void nextResponsePlaysAfterInterrupt() throws Exception {
+        for (int i = 0; i < 10; i++) receive(audioFrame(i));
+        receive("{\"serverContent\":{\"interrupted\":true}}");
+        waitFor(() -> sink.flushes == 1);
+        long playedBefore = engine.getStats().chunksPlayed;
+
+        for (int i = 0; i < 5; i++) receive(audioFrame(100 + i));
+        receive("{\"serverContent\":{\"turnComplete\":true}}");
+        waitFor(() -> engine.getStats().chunksPlayed == playedBefore + 5);
+    }
+
+    // The user keeps talking over the answer: one local barge-in once the speech lasted long enough
+    @Test
+    public void sustainedSpeechOverTheAnswerInterruptsOnce() throws Exception {
+        for (int i = 0; i < 30; i++) receive(audioFrame(i));
+        waitFor(engine::isPlaying);
+
+        playback.onRecordingStart();
+        int reads = 0;
+        while (bargeIns.isEmpty()) {
+            speak();
+            reads++;
+            assertTrue("no barge-in after " + reads + " reads", reads < 20);
+        }
+        assertTrue(vad.getSpeechMillis() >= MIN_SPEECH_MS);
+        assertEquals("local speech:true", bargeIns.get(0));
+        waitFor(() -> sink.flushes == 1);
+
+        for (int i = 0; i < 10; i++) speak();
+        assertEquals(1, bargeIns.size());
+        assertTrue(guard.isDiscarding());
+    }
+
+    // Talking while nothing plays is a normal turn, not a barge-in
+    @Test
+    public void speechWithoutPlaybackDoesNotInterrupt() {
+        playback.onRecordingStart();
+        for (int i = 0; i < 20; i++) speak();
+
+        assertTrue(vad.isSpeaking());
+        assertTrue(bargeIns.isEmpty());
+        assertFalse(guard.isDiscarding());
+        assertEquals(0, engine.getStats().interruptions);
+    }
+
+    // A cough while the answer plays: the local VAD flushes playback, the server never interrupts,
+    // and the rest of the answer plays once the confirmation timeout passed
+    @Test
+    public void unconfirmedLocalBargeInResumesResponse() throws Exception {
+        for (int i = 0; i < 10; i++) receive(audioFrame(i));
+        interruptLocally();
+        long playedBefore = engine.getStats().chunksPlayed;
+
+        for (int i = 0; i < 5; i++) receive(audioFrame(10 + i));
+        assertTrue(guard.isDiscarding());
+
+        nowMillis += CONFIRM_TIMEOUT_MS;
+        for (int i = 0; i < 5; i++) receive(audioFrame(15 + i));
+        receive("{\"serverContent\":{\"turnComplete\":true}}");
+        waitFor(() -> engine.getStats().chunksPlayed == playedBefore + 5);
+
+        JSONObject stats = new JSONObject(guard.toJson());
+        assertEquals(1, stats.getLong("falsePositives"));
+        assertEquals(0, stats.getLong("confirmed"));
+        assertEquals(5, stats.getLong("discardedChunks"));
+        assertFalse(guard.isDiscarding());
+    }
+
+    // A real barge-in: the server confirms it and nothing of the old answer plays again
+    @Test
+    public void confirmedLocalBargeInDropsTheRest() throws Exception {
+        for (int i = 0; i < 10; i++) receive(audioFrame(i));
+        interruptLocally();
+        long playedBefore = engine.getStats().chunksPlayed;
+
+        for (int i = 0; i < 5; i++) receive(audioFrame(10 + i));
+        receive("{\"serverContent\":{\"interrupted\":true}}");
+        Thread.sleep(100);
+        assertEquals(playedBefore, engine.getStats().chunksPlayed);
+
+        JSONObject stats = new JSONObject(guard.toJson());
+        assertEquals(1, stats.getLong("confirmed"));
+        assertEquals(0, stats.getLong("falsePositives"));
+        assertEquals(5, stats.getLong("discardedChunks"));
+        assertEquals(pool.getCreatedCount(), pool.getFreeCount());
+    }
+
+    @Test
+    public void fullPlaybackQueueIsReported() throws Exception {
+        // Not started, nothing drains the queue
+        AudioPlaybackEngine stalled = new AudioPlaybackEngine(sink, SAMPLE_RATE, 4, 40, 200,
+                r -> new Thread(r, "IrisPlayback-test"));
+        playback = newPlayback(stalled);
+
+        for (int i = 0; i < 6; i++) receive(audioFrame(i));
+
+        assertEquals(2, queueFull);
+        assertEquals(4, stalled.getStats().queuedChunks);
+    }
+
+    private ResponsePlayback newPlayback(AudioPlaybackEngine playbackEngine) {
+        return new ResponsePlayback(playbackEngine, guard, vad, MIN_SPEECH_MS, new ResponsePlayback.Listener() {
+            @Override
+            public void onBargeIn(String source, boolean wasActive) {
+                bargeIns.add(source + ":" + wasActive);
+            }
+
+            @Override
+            public void onPlaybackQueueFull() {
+                queueFull++;
+            }
+        });
+    }
+
+    // Talk over the playing answer until the VAD interrupts it
+    private void interruptLocally() throws Exception {
+        waitFor(engine::isPlaying);
+        playback.onRecordingStart();
+        while (bargeIns.isEmpty()) speak();
+        waitFor(() -> sink.flushes == 1);
+    }
+
+    // One 40 ms mic read of a loud 300 Hz tone through the VAD, as in AiInteration's capture loop.
+    // nowMillis only moves when a test moves it, the guard's timeout is independent of the reads.
+    private void speak() {
+        ByteBuffer read = ByteBuffer.allocate(READ_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < READ_BYTES / 2; i++) {
+            read.putShort(2 * i, (short) (4000 * Math.sin(2 * Math.PI * 300 * i / MIC_SAMPLE_RATE)));
+        }
+        vad.process(read);
+        playback.onMicRead(nowMillis);
+    }
+
+    private void receive(String message) throws JSONException {
+        parser.parse(message, serverListener);
+    }
+
+    private static String audioFrame(int sequence) {
+        byte[] pcm = new byte[CHUNK_BYTES];
+        pcm[0] = (byte) sequence;
+        return "{\"serverContent\":{\"modelTurn\":{\"parts\":[{\"inlineData\":{\"mimeType\":\"audio/pcm;rate=24000\","
+                + "\"data\":\"" + Base64.getEncoder().encodeToString(pcm) + "\"}}]}}}";
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.met()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(1);
+        }
+    }
+}
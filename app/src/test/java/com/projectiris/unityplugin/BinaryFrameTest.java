@@ -0,0 +1,139 @@
+package com.projectiris.unityplugin;
+
+import org.java_websocket.WebSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BinaryFrameTest {
+    private LiveServerStandIn server;
+    private LiveConnectionHarness client;
+    private final BlockingQueue<byte[]> played = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LiveServerStandIn() {
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                if (message.startsWith("{\"setup\"")) {
+                    conn.send("{\"setupComplete\":{}}");
+                }
+            }
+        };
+        server.startAndWait();
+
+        // Binary frames arrive through LiveConnection's socket, the response audio is what reaches playback
+        client = new LiveConnectionHarness(server.uri(), new ServerMessageParserTest.RecordingListener() {
+            @Override
+            public void onAudio(PcmChunkPool.Chunk chunk) {
+                byte[] pcm = new byte[chunk.length];
+                System.arraycopy(chunk.data, 0, pcm, 0, chunk.length);
+                played.add(pcm);
+                chunk.release();
+            }
+        });
+        client.connection.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!client.connection.isReady()) {
+            assertTrue("connection not ready", System.currentTimeMillis() < deadline);
+            Thread.sleep(2);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) client.close();
+        if (server != null) server.stopQuietly();
+    }
+
+    @Test
+    public void binaryAudioFramesOfVaryingSizeReachPlayback() throws Exception {
+        int[] sizes = {2, 1920, 16 * 1024 - 7, 65536, 200 * 1024 + 1};
+        for (int size : sizes) {
+            byte[] pcm = pcm(size);
+            server.sendBinaryUtf8(audioFrame(pcm));
+
+            byte[] received = played.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no audio for frame of " + size + " bytes", received);
+            assertArrayEquals(pcm, received);
+        }
+        assertTrue(client.errors.toString(), client.errors.isEmpty());
+    }
+
+    @Test
+    public void parsesOnlyBetweenPositionAndLimit() throws Exception {
+        byte[] pcm = pcm(4000);
+        byte[] frame = audioFrame(pcm).getBytes(StandardCharsets.UTF_8);
+
+        // Frame embedded in a larger direct buffer with garbage on both sides
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.length + 64);
+        direct.put(new byte[32]).put(frame).put("}}garbage".getBytes(StandardCharsets.US_ASCII));
+        direct.position(32);
+        direct.limit(32 + frame.length);
+
+        assertParsesTo(direct, pcm);
+        assertEquals(32, direct.position());
+        assertEquals(32 + frame.length, direct.limit());
+
+        // Heap buffer slice with a non zero array offset
+        byte[] backing = new byte[frame.length + 10];
+        System.arraycopy(frame, 0, backing, 10, frame.length);
+        ByteBuffer wrapped = ByteBuffer.wrap(backing);
+        wrapped.position(10);
+        assertParsesTo(wrapped.slice(), pcm);
+    }
+
+    @Test
+    public void decodesUtf8TextInBinaryFrames() throws Exception {
+        ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(1, 16));
+        ServerMessageParserTest.RecordingListener listener = new ServerMessageParserTest.RecordingListener();
+        String text = "N·m — slot 14 🔌 \"ok\"";
+        String frame = "{\"serverContent\":{\"outputTranscription\":{\"text\":\"" + text.replace("\"", "\\\"") + "\"}}}";
+
+        parser.parse(ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8)), listener);
+        assertEquals("transcript:" + text, listener.events.get(0));
+    }
+
+    @Test
+    public void recordedFramesParseTheSameAsBinary() throws Exception {
+        ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(4, 1024));
+        for (String frame : ServerMessageParserTest.loadFrames()) {
+            ServerMessageParserTest.RecordingListener listener = new ServerMessageParserTest.RecordingListener();
+            ByteBuffer direct = ByteBuffer.allocateDirect(frame.length() * 4);
+            direct.put(frame.getBytes(StandardCharsets.UTF_8)).flip();
+
+            parser.parse(direct, listener);
+            assertEquals(frame, ServerMessageParserTest.referenceEvents(frame), listener.events);
+        }
+    }
+
+    private void assertParsesTo(ByteBuffer buffer, byte[] expected) throws Exception {
+        ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(1, 16));
+        ServerMessageParserTest.RecordingListener listener = new ServerMessageParserTest.RecordingListener();
+        parser.parse(buffer, listener);
+        assertEquals(1, listener.events.size());
+        assertEquals("audio:" + Base64.getEncoder().encodeToString(expected), listener.events.get(0));
+    }
+
+    private static String audioFrame(byte[] pcm) {
+        return "{\"serverContent\":{\"modelTurn\":{\"parts\":[{\"inlineData\":{\"mimeType\":\"audio/pcm;rate=24000\","
+                + "\"data\":\"" + Base64.getEncoder().encodeToString(pcm) + "\"}}]}}}";
+    }
+
+    private static byte[] pcm(int size) {
+        byte[] pcm = new byte[size];
+        for (int i = 0; i < size; i++) {
+            pcm[i] = (byte) (i * 31 + size);
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,193 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BoundedExecutorTest {
+    private final List<BoundedExecutor> executors = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (BoundedExecutor executor : executors) {
+            executor.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void fullQueueRejectsAndCounts() throws Exception {
+        BoundedExecutor executor = newExecutor("IrisTest-queue", 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+
+        assertTrue(executor.submit(() -> {
+            running.countDown();
+            await(release);
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(executor.submit(() -> { }));
+        assertTrue(executor.submit(() -> { }));
+        assertFalse(executor.submit(() -> { }));
+        assertEquals(1, executor.getRejected());
+
+        release.countDown();
+        waitFor(() -> new JSONObject(executor.toJson()).getInt("completed") == 3);
+        JSONObject stats = new JSONObject(executor.toJson());
+        assertEquals(3, stats.getInt("submitted"));
+        assertEquals(2, stats.getInt("maxQueued"));
+    }
+
+    @Test
+    public void failingTaskKeepsTheSameThread() throws Exception {
+        BoundedExecutor executor = newExecutor("IrisTest-failing", 4);
+        List<Thread> threads = new ArrayList<>();
+
+        executor.submit(() -> threads.add(Thread.currentThread()));
+        executor.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        executor.submit(() -> threads.add(Thread.currentThread()));
+        waitFor(() -> new JSONObject(executor.toJson()).getInt("completed") == 3);
+
+        assertEquals(1, new JSONObject(executor.toJson()).getInt("failed"));
+        assertSame(threads.get(0), threads.get(1));
+        assertEquals("IrisTest-failing", threads.get(0).getName());
+    }
+
+    @Test
+    public void shutdownFinishesQueuedWorkThenRejects() throws Exception {
+        BoundedExecutor executor = newExecutor("IrisTest-shutdown", 4);
+        AtomicInteger done = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            executor.submit(() -> {
+                sleep(10);
+                done.incrementAndGet();
+            });
+        }
+
+        assertTrue(executor.shutdown(1000));
+        assertEquals(4, done.get());
+        assertFalse(executor.submit(done::incrementAndGet));
+        waitFor(() -> !threadNames().contains("IrisTest-shutdown"));
+    }
+
+    // Stress: thousands of short recording / response turns through the same worker threads,
+    // the playback engine and the outbound scheduler must not change the number of live threads
+    @Test
+    public void threadCountStaysConstantOverThousandsOfTurns() throws Exception {
+        BoundedExecutor capture = newExecutor("IrisTest-capture", 1);
+        BoundedExecutor encode = newExecutor("IrisTest-encode", 2);
+        AudioPlaybackEngineTest.FakeAudioTrack sink = new AudioPlaybackEngineTest.FakeAudioTrack(20);
+        AudioPlaybackEngine playback = new AudioPlaybackEngine(sink, 24000, 64, 0, 40,
+                r -> new Thread(r, "IrisTest-playback"));
+        playback.start();
+        OutboundScheduler outbound = new OutboundScheduler(new OutboundScheduler.Transport() {
+            @Override
+            public boolean send(ByteBuffer frame) {
+                return true;
+            }
+
+            @Override
+            public boolean send(String text) {
+                return true;
+            }
+
+            @Override
+            public long queuedBytes() {
+                return 0;
+            }
+        }, 16, 50, 1, 16 * 1024, r -> new Thread(r, "IrisTest-send"));
+        outbound.start();
+        PcmChunkPool pool = new PcmChunkPool(64, 480);
+        ByteBuffer frame = ByteBuffer.wrap(new byte[512]);
+
+        try {
+            int baseline = Thread.activeCount();
+            int peak = baseline;
+            for (int turn = 0; turn < 3000; turn++) {
+                CountDownLatch captured = new CountDownLatch(1);
+                while (!capture.submit(() -> {
+                    for (int i = 0; i < 5; i++) {
+                        outbound.enqueue(OutboundScheduler.Lane.AUDIO, frame);
+                    }
+                    captured.countDown();
+                })) {
+                    Thread.yield();
+                }
+                if (turn % 3 == 0) {
+                    encode.submit(() -> outbound.enqueue(OutboundScheduler.Lane.IMAGE, frame));
+                }
+                for (int i = 0; i < 3; i++) {
+                    PcmChunkPool.Chunk chunk = pool.acquire(480);
+                    chunk.length = 480;
+                    playback.enqueue(chunk);
+                }
+                if (turn % 2 == 0) {
+                    playback.endOfTurn();
+                } else {
+                    playback.interrupt();
+                }
+                assertTrue(captured.await(5, TimeUnit.SECONDS));
+                peak = Math.max(peak, Thread.activeCount());
+            }
+            assertEquals("threads over 3000 turns, encode " + encode.toJson(), baseline, peak);
+            assertEquals(0, new JSONObject(capture.toJson()).getInt("failed"));
+        } finally {
+            playback.shutdown();
+            outbound.shutdown();
+        }
+    }
+
+    private BoundedExecutor newExecutor(String name, int capacity) {
+        BoundedExecutor executor = new BoundedExecutor(name, capacity, r -> new Thread(r, name));
+        executors.add(executor);
+        return executor;
+    }
+
+    private static Set<String> threadNames() {
+        Set<String> names = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            names.add(thread.getName());
+        }
+        return names;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Condition {
+        boolean met() throws Exception;
+    }
+
+    private static void waitFor(Condition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.met()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(2);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureSchedulerTest {
+    private static final long INTERVAL = 3000;
+    private static final long MIN_SPACING = 500;
+
+    private ManualTimer timer;
+    private List<String> captures;
+    private CaptureScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        timer = new ManualTimer();
+        captures = new ArrayList<>();
+        scheduler = new CaptureScheduler(timer, INTERVAL, MIN_SPACING, reason -> {
+            captures.add(reason + "@" + timer.now);
+            return true;
+        });
+    }
+
+    @Test
+    public void capturesOnIntervalOnly() {
+        scheduler.start();
+        for (int t = 0; t <= 9000; t += 100) {
+            timer.advanceTo(t);
+            scheduler.onCaptureFinished();
+        }
+        assertEquals(Arrays.asList("interval@0", "interval@3000", "interval@6000", "interval@9000"), captures);
+    }
+
+    @Test
+    public void speechCaptureRestartsInterval() {
+        scheduler.start();
+        timer.advanceTo(0);
+        scheduler.onCaptureFinished();
+
+        timer.advanceTo(1000);
+        scheduler.requestCapture(CaptureScheduler.REASON_SPEECH);
+        timer.advanceTo(1000);
+        scheduler.onCaptureFinished();
+
+        timer.advanceTo(3500);
+        assertEquals(Arrays.asList("interval@0", "speech@1000"), captures);
+        timer.advanceTo(4000);
+        assertEquals("interval@4000", captures.get(2));
+    }
+
+    @Test
+    public void requestsWhileInFlightAreCoalesced() {
+        scheduler.start();
+        timer.advanceTo(0);
+
+        timer.advanceTo(600);
+        scheduler.requestCapture(CaptureScheduler.REASON_UNITY);
+        scheduler.requestCapture(CaptureScheduler.REASON_SPEECH);
+        scheduler.requestCapture(CaptureScheduler.REASON_UNITY);
+        timer.advanceTo(600);
+        assertEquals(1, captures.size());
+
+        // The first frame arrives, one follow-up capture covers all three requests
+        timer.advanceTo(700);
+        scheduler.onCaptureFinished();
+        assertEquals(Arrays.asList("interval@0", "unity@700"), captures);
+    }
+
+    @Test
+    public void requestsAreSpacedOut() {
+        scheduler.start();
+        timer.advanceTo(0);
+        scheduler.onCaptureFinished();
+
+        timer.advanceTo(100);
+        scheduler.requestCapture(CaptureScheduler.REASON_UNITY);
+        timer.advanceTo(499);
+        assertEquals(1, captures.size());
+        timer.advanceTo(500);
+        assertEquals(Arrays.asList("interval@0", "unity@500"), captures);
+    }
+
+    @Test
+    public void lostCaptureStopsBlockingAfterTimeout() {
+        scheduler.start();
+        timer.advanceTo(0);
+
+        // No image ever arrives for the first capture
+        timer.advanceTo(1000);
+        scheduler.requestCapture(CaptureScheduler.REASON_UNITY);
+        timer.advanceTo(1000);
+        assertEquals(1, captures.size());
+
+        timer.advanceTo(2500);
+        scheduler.requestCapture(CaptureScheduler.REASON_UNITY);
+        timer.advanceTo(2500);
+        assertEquals(Arrays.asList("interval@0", "unity@2500"), captures);
+    }
+
+    @Test
+    public void failedIssueIsCountedAndDoesNotBlock() throws Exception {
+        List<String> attempts = new ArrayList<>();
+        CaptureScheduler failing = new CaptureScheduler(timer, INTERVAL, 0, reason -> {
+            attempts.add(reason);
+            return attempts.size() > 1;
+        });
+        failing.start();
+        timer.advanceTo(0);
+        failing.requestCapture(CaptureScheduler.REASON_UNITY);
+        timer.advanceTo(10);
+
+        failing.recordDelivered(40_000_000L);
+        failing.recordDelivered(60_000_000L);
+        JSONObject stats = new JSONObject(failing.toJson());
+        assertEquals(1, stats.getInt("failed"));
+        assertEquals(1, stats.getJSONObject("captures").getInt("unity"));
+        assertEquals(2, stats.getInt("delivered"));
+        assertEquals(50.0, stats.getDouble("avgLatencyMs"), 0.01);
+        assertEquals(60.0, stats.getDouble("maxLatencyMs"), 0.01);
+    }
+
+    @Test
+    public void stopCancelsFutureCaptures() {
+        scheduler.start();
+        timer.advanceTo(0);
+        scheduler.onCaptureFinished();
+        scheduler.stop();
+        scheduler.requestCapture(CaptureScheduler.REASON_SPEECH);
+        timer.advanceTo(10000);
+        assertEquals(Collections.singletonList("interval@0"), captures);
+    }
+
+    // Single threaded stand-in for a Handler with a manual clock
+    static class ManualTimer implements CaptureScheduler.Timer, ReconnectSupervisor.Timer,
+            UnityMessageDispatcher.Timer {
+        long now = 0;
+        private final List<Task> tasks = new ArrayList<>();
+        private long sequence = 0;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            tasks.add(new Task(runnable, now + delayMillis, sequence++));
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            tasks.removeIf(task -> task.runnable == runnable);
+        }
+
+        // Run everything due up to time, in order, including tasks posted while running
+        void advanceTo(long time) {
+            while (true) {
+                Task next = null;
+                for (Task task : tasks) {
+                    if (task.due <= time && (next == null || task.due < next.due
+                            || (task.due == next.due && task.order < next.order))) {
+                        next = task;
+                    }
+                }
+                if (next == null) break;
+                for (Iterator<Task> it = tasks.iterator(); it.hasNext(); ) {
+                    if (it.next() == next) {
+                        it.remove();
+                        break;
+                    }
+                }
+                now = Math.max(now, next.due);
+                next.runnable.run();
+            }
+            now = time;
+        }
+    }
+
+    static class Task {
+        final Runnable runnable;
+        final long due;
+        final long order;
+
+        Task(Runnable runnable, long due, long order) {
+            this.runnable = runnable;
+            this.due = due;
+            this.order = order;
+        }
+    }
+}
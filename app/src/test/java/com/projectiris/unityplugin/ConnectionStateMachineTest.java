@@ -0,0 +1,116 @@
+package com.projectiris.unityplugin;
+
+import org.java_websocket.WebSocket;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.projectiris.unityplugin.ConnectionStateMachine.State.*;
+import static org.junit.Assert.*;
+
+public class ConnectionStateMachineTest {
+    private LiveServerStandIn server;
+    private LiveConnectionHarness client;
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) client.close();
+        if (server != null) server.stopQuietly();
+    }
+
+    @Test
+    public void followsTheConnectionLifecycle() {
+        ConnectionStateMachine machine = new ConnectionStateMachine(0);
+        assertEquals(CLOSED, machine.getState());
+
+        assertFalse(machine.moveTo(READY, 10));        // no setupComplete without a connection
+        assertTrue(machine.moveTo(CONNECTING, 100));
+        assertFalse(machine.moveTo(READY, 150));       // not set up yet
+        assertTrue(machine.moveTo(SETTING_UP, 180));
+        assertTrue(machine.moveTo(READY, 260));
+        assertFalse(machine.moveTo(READY, 270));
+        assertTrue(machine.moveTo(DRAINING, 1000));
+        assertTrue(machine.moveTo(CLOSED, 1040));
+
+        assertEquals(160, machine.getLastConnectToReadyMillis());
+        assertEquals(80, machine.getLastMillis(SETTING_UP));
+        assertEquals(740, machine.getLastMillis(READY));
+        assertEquals(40, machine.getLastMillis(DRAINING));
+    }
+
+    @Test
+    public void reportsTimeInEachState() {
+        ConnectionStateMachine machine = new ConnectionStateMachine(0);
+        for (int i = 0; i < 3; i++) {
+            long t = i * 1000;
+            machine.moveTo(CONNECTING, t);
+            machine.moveTo(SETTING_UP, t + 50 * (i + 1));
+            machine.moveTo(CLOSED, t + 500);           // setup never completed
+        }
+        machine.moveTo(CONNECTING, 5000);
+
+        JSONObject json = new JSONObject(machine.toJson(5025));
+        assertEquals("CONNECTING", json.getString("state"));
+        assertEquals(25, json.getLong("inStateMs"));
+        assertEquals(-1, json.getLong("lastConnectToReadyMs"));
+        JSONObject connecting = json.getJSONObject("CONNECTING");
+        assertEquals(3, connecting.getLong("visits"));
+        assertEquals(150, connecting.getLong("maxMs"));
+        assertEquals(300, connecting.getLong("totalMs"));
+        assertEquals(0, json.getJSONObject("READY").getLong("visits"));
+    }
+
+    // Audio captured while the server is still processing the setup must not reach it before
+    // setupComplete, and goes out in one burst, in order, right after it
+    @Test
+    public void audioBeforeSetupCompleteIsHeldAndFlushedInOrder() throws Exception {
+        List<String> frames = Collections.synchronizedList(new ArrayList<>());
+        server = new LiveServerStandIn() {
+            private volatile boolean setupAcked = false;
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                frames.add((setupAcked ? "" : "early ") + message);
+                if (message.startsWith("{\"setup\"")) {
+                    // Give the client time to capture audio while the setup is being processed
+                    sleep(100);
+                    setupAcked = true;
+                    conn.send("{\"setupComplete\":{}}");
+                }
+            }
+        };
+        server.startAndWait();
+        client = new LiveConnectionHarness(server.uri());
+        client.connection.start();
+
+        // Mic chunks every 10 ms from before the connection opens until well after READY
+        for (int i = 0; i < 25; i++) {
+            client.sendAudio("audio:" + i);
+            sleep(10);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (frames.size() < 26 && System.currentTimeMillis() < deadline) sleep(2);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("early " + LiveConnectionHarness.setupFor(null));
+        for (int i = 0; i < 25; i++) expected.add("audio:" + i);
+        assertEquals(expected, frames);
+        JSONObject states = new JSONObject(client.connection.toJson()).getJSONObject("states");
+        assertEquals("READY", states.getString("state"));
+        long settingUp = states.getJSONObject("SETTING_UP").getLong("lastMs");
+        assertTrue(settingUp >= 100);
+        assertTrue(states.getLong("lastConnectToReadyMs") >= settingUp);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.projectiris.unityplugin;
+
+import org.java_websocket.WebSocket;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConnectionTimingsTest {
+    private static final long SETUP_DELAY_MS = 80;
+
+    private final List<LiveConnectionHarness> clients = new ArrayList<>();
+    private LiveServerStandIn server;
+
+    @After
+    public void tearDown() throws Exception {
+        for (LiveConnectionHarness client : clients) {
+            client.close();
+        }
+        if (server != null) server.stopQuietly();
+    }
+
+    @Test
+    public void recordsEachPhaseUpToSetupComplete() throws Exception {
+        startServer();
+        LiveConnectionHarness client = open(server.uri());
+        client.connection.start();
+
+        waitFor(client.connection::isReady);
+        JSONObject json = new JSONObject(client.connection.toJson());
+        JSONObject active = json.getJSONObject("active");
+        assertFalse(active.getBoolean("standby"));
+        assertTrue(active.getLong("dnsMs") >= 0);
+        assertTrue(active.getLong("tcpMs") >= 0);
+        assertEquals(-1, active.getLong("tlsMs"));   // ws://, no TLS
+        assertTrue(active.getLong("upgradeMs") >= 0);
+        assertTrue(active.getLong("setupAckMs") >= SETUP_DELAY_MS);
+        assertTrue(active.getLong("totalMs") >= active.getLong("setupAckMs"));
+        assertEquals(1, json.getLong("coldConnects"));
+        assertTrue(json.getLong("lastStartMs") >= SETUP_DELAY_MS);
+    }
+
+    @Test
+    public void failedConnectLeavesLaterPhasesUnset() throws Exception {
+        int closedPort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            closedPort = probe.getLocalPort();
+        }
+        LiveConnectionHarness client = open(URI.create("ws://127.0.0.1:" + closedPort + "/"));
+        client.connection.start();
+
+        waitFor(() -> client.events.contains("lost"));
+        JSONObject active = new JSONObject(client.connection.toJson()).getJSONObject("active");
+        assertTrue(active.getLong("dnsMs") >= 0);
+        assertEquals(-1, active.getLong("tcpMs"));
+        assertEquals(-1, active.getLong("setupAckMs"));
+        assertFalse(client.connection.isReady());
+    }
+
+    // start() on a warm standby skips DNS, TCP, the upgrade and the setup round trip
+    @Test
+    public void standbyRemovesHandshakeFromStart() throws Exception {
+        startServer();
+        LiveConnectionHarness cold = open(server.uri());
+        cold.connection.start();
+        waitFor(cold.connection::isReady);
+
+        LiveConnectionHarness warm = open(server.uri());
+        warm.connection.setWarmStandbyEnabled(true);
+        waitFor(() -> new JSONObject(warm.connection.toJson()).getString("standbyState").equals("ready"));
+        warm.connection.start();
+        assertTrue(warm.connection.isReady());
+
+        JSONObject coldJson = new JSONObject(cold.connection.toJson());
+        JSONObject warmJson = new JSONObject(warm.connection.toJson());
+        assertFalse(coldJson.getBoolean("lastStartWarm"));
+        assertTrue(coldJson.getLong("lastStartMs") >= SETUP_DELAY_MS);
+        assertTrue(warmJson.getBoolean("lastStartWarm"));
+        assertTrue(warmJson.getLong("lastStartMs") < SETUP_DELAY_MS);
+        assertEquals(1, warmJson.getLong("warmConnects"));
+        assertEquals(0, warmJson.getLong("coldConnects"));
+        assertTrue(warmJson.getJSONObject("active").getBoolean("standby"));
+    }
+
+    private void startServer() throws InterruptedException {
+        // Acknowledges every setup message after a fixed server side delay
+        server = new LiveServerStandIn() {
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                if (message.startsWith("{\"setup\"")) {
+                    try {
+                        Thread.sleep(SETUP_DELAY_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    conn.send("{\"setupComplete\":{}}");
+                }
+            }
+        };
+        server.startAndWait();
+    }
+
+    private LiveConnectionHarness open(URI uri) {
+        LiveConnectionHarness client = new LiveConnectionHarness(uri);
+        clients.add(client);
+        return client;
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.met()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(2);
+        }
+    }
+}
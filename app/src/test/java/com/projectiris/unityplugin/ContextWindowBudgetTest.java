@@ -0,0 +1,170 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class ContextWindowBudgetTest {
+    private static final long TRIGGER = 32768;
+    private static final long TARGET = 16384;
+
+    @Test
+    public void configuresSlidingWindowCompression() {
+        JSONObject compression = new ContextWindowBudget(TRIGGER, TARGET).toSetupJson();
+        assertEquals(TRIGGER, compression.getLong("triggerTokens"));
+        assertEquals(TARGET, compression.getJSONObject("slidingWindow").getLong("targetTokens"));
+
+        try {
+            new ContextWindowBudget(TARGET, TRIGGER);
+            fail("target above trigger accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void stretchesImageIntervalAsContextNearsTrigger() {
+        ContextWindowBudget budget = new ContextWindowBudget(32000, 16000);      // pruning from 24000
+
+        assertFalse(budget.onUsage(20000, 100, 12000));
+        assertEquals(1f, budget.getImageIntervalFactor(), 0f);
+        assertTrue(budget.onUsage(28000, 100, 17000));
+        assertEquals(2.5f, budget.getImageIntervalFactor(), 0.001f);
+        assertTrue(budget.onUsage(40000, 100, 25000));
+        assertEquals(ContextWindowBudget.MAX_IMAGE_INTERVAL_FACTOR, budget.getImageIntervalFactor(), 0f);
+
+        // The server compressed the context
+        assertTrue(budget.onUsage(17000, 100, 9000));
+        assertEquals(1f, budget.getImageIntervalFactor(), 0f);
+
+        JSONObject stats = new JSONObject(budget.toJson());
+        assertEquals(1, stats.getLong("compressions"));
+        assertEquals(40000, stats.getLong("peakContextTokens"));
+        assertEquals(105000, stats.getLong("inputTokens"));
+        assertEquals(400, stats.getLong("outputTokens"));
+    }
+
+    // A four hour shift against a scripted server that keeps a token count of its context: a frame
+    // every 3 s, 1 s audio chunks and a spoken turn every 30 s. Without compression the context grows
+    // without bound, with it the context stays under the trigger, and pruning images near the trigger
+    // keeps more conversation per compression. The server's usageMetadata goes through the parser,
+    // simulated time needs no sockets.
+    @Test
+    public void keepsContextFlatOverAShift() {
+        Shift off = runShift(false, false);
+        Shift compressed = runShift(true, false);
+        Shift pruned = runShift(true, true);
+
+        assertTrue(off.peakContext > TRIGGER * 10);
+        assertEquals(0, off.compressions);
+        assertTrue(compressed.peakContext <= TRIGGER);
+        assertTrue(pruned.peakContext <= TRIGGER);
+        assertTrue(pruned.compressions < compressed.compressions);
+        assertTrue(pruned.images < compressed.images);
+        // Turn latency follows the context size: the last hour looks like the second
+        assertEquals(pruned.meanContextHour2, pruned.meanContextHour4, pruned.meanContextHour2 * 0.1);
+    }
+
+    private Shift runShift(boolean compression, boolean pruneImages) {
+        ContextWindowBudget budget = new ContextWindowBudget(TRIGGER, TARGET);
+        ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(2, 64));
+        ServerMessageParserTest.RecordingListener listener = new ServerMessageParserTest.RecordingListener() {
+            @Override
+            public void onUsageMetadata(long promptTokens, long responseTokens, long totalTokens,
+                                        long imagePromptTokens) {
+                budget.onUsage(promptTokens, responseTokens, imagePromptTokens);
+            }
+        };
+        listener.keepEvents = false;
+        ScriptedContextServer server = new ScriptedContextServer();
+        if (compression) {
+            server.setup(budget.toSetupJson());
+        }
+
+        Shift shift = new Shift();
+        long nextImageMillis = 0;
+        double[] hourSums = new double[4];
+        int[] hourTurns = new int[4];
+        for (long second = 1; second <= 4 * 3600; second++) {
+            server.audio();
+            long now = second * 1000;
+            if (now >= nextImageMillis) {
+                server.image();
+                shift.images++;
+                float factor = pruneImages ? budget.getImageIntervalFactor() : 1f;
+                nextImageMillis = now + (long) (3000 * factor);
+            }
+            if (second % 30 == 0) {
+                parser.parse(server.turn(), listener);
+                int hour = (int) ((second - 1) / 3600);
+                hourSums[hour] += budget.getContextTokens();
+                hourTurns[hour]++;
+            }
+        }
+        JSONObject stats = new JSONObject(budget.toJson());
+        assertEquals(4 * 3600 / 30, stats.getLong("reports"));
+        shift.peakContext = stats.getLong("peakContextTokens");
+        shift.compressions = stats.getLong("compressions");
+        shift.meanContextHour2 = hourSums[1] / hourTurns[1];
+        shift.meanContextHour4 = hourSums[3] / hourTurns[3];
+        return shift;
+    }
+
+    private static class Shift {
+        long images;
+        long peakContext;
+        long compressions;
+        double meanContextHour2;
+        double meanContextHour4;
+    }
+
+    // Keeps a token count of the session context like the Live API does: 258 tokens per image,
+    // 32 per second of audio, 150 per spoken response. With sliding-window compression configured,
+    // reaching triggerTokens drops the oldest content down to targetTokens.
+    private static class ScriptedContextServer {
+        private static final long IMAGE_TOKENS = 258;
+        private static final long AUDIO_TOKENS = 32;
+        private static final long RESPONSE_TOKENS = 150;
+
+        private long trigger = Long.MAX_VALUE;
+        private long target;
+        private long context;
+        private long imageContext;
+
+        void setup(JSONObject compression) {
+            trigger = compression.getLong("triggerTokens");
+            target = compression.getJSONObject("slidingWindow").getLong("targetTokens");
+        }
+
+        void image() {
+            add(IMAGE_TOKENS, true);
+        }
+
+        void audio() {
+            add(AUDIO_TOKENS, false);
+        }
+
+        // The end of a spoken turn, with the usageMetadata the server reports for it
+        String turn() {
+            long prompt = context;
+            add(RESPONSE_TOKENS, false);
+            return String.format(Locale.US,
+                    "{\"serverContent\":{\"turnComplete\":true},\"usageMetadata\":{\"promptTokenCount\":%d,"
+                            + "\"responseTokenCount\":%d,\"totalTokenCount\":%d,\"promptTokensDetails\":"
+                            + "[{\"modality\":\"AUDIO\",\"tokenCount\":%d},{\"modality\":\"IMAGE\",\"tokenCount\":%d}]}}",
+                    prompt, RESPONSE_TOKENS, prompt + RESPONSE_TOKENS, prompt - imageContext, imageContext);
+        }
+
+        private void add(long tokens, boolean image) {
+            context += tokens;
+            if (image) imageContext += tokens;
+            if (context >= trigger) {
+                // The oldest turns go, images and conversation alike
+                imageContext = imageContext * target / context;
+                context = target;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.projectiris.unityplugin;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class JpegDimensionsTest {
+
+    @Test
+    public void readsSizeOfEncodedJpeg() throws Exception {
+        byte[] jpeg = jpeg(1024, 768);
+        JpegDimensions dimensions = JpegDimensions.parse(jpeg, 0, jpeg.length);
+
+        assertNotNull(dimensions);
+        assertEquals(1024, dimensions.width);
+        assertEquals(768, dimensions.height);
+    }
+
+    @Test
+    public void skipsExifSegmentAndFillBytes() throws Exception {
+        byte[] jpeg = jpeg(640, 480);
+        byte[] app1 = new byte[2 + 2 + 300];
+        app1[0] = (byte) 0xFF;
+        app1[1] = (byte) 0xE1;
+        app1[2] = (byte) ((app1.length - 2) >> 8);
+        app1[3] = (byte) (app1.length - 2);
+
+        // SOI, APP1 (EXIF), a fill byte, then the rest of the original file
+        byte[] withExif = new byte[jpeg.length + app1.length + 1];
+        System.arraycopy(jpeg, 0, withExif, 0, 2);
+        System.arraycopy(app1, 0, withExif, 2, app1.length);
+        withExif[2 + app1.length] = (byte) 0xFF;
+        System.arraycopy(jpeg, 2, withExif, 3 + app1.length, jpeg.length - 2);
+
+        JpegDimensions dimensions = JpegDimensions.parse(withExif, 0, withExif.length);
+        assertNotNull(dimensions);
+        assertEquals(640, dimensions.width);
+        assertEquals(480, dimensions.height);
+    }
+
+    @Test
+    public void rejectsOtherFormatsAndTruncatedData() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", png);
+        byte[] pngBytes = png.toByteArray();
+        assertNull(JpegDimensions.parse(pngBytes, 0, pngBytes.length));
+
+        byte[] jpeg = jpeg(320, 240);
+        assertNull(JpegDimensions.parse(jpeg, 0, 20));
+        assertNull(JpegDimensions.parse(new byte[0], 0, 0));
+    }
+
+    // The passthrough path (header check and frame encoding) never decodes the image: the size comes
+    // from the headers in front of the scan data alone, and the frame carries the camera's bytes as they are
+    @Test
+    public void passthroughReadsOnlyHeadersAndForwardsTheBytes() throws Exception {
+        byte[] jpeg = jpeg(1024, 768);
+        int scanStart = 2;
+        while (!((jpeg[scanStart] & 0xFF) == 0xFF && (jpeg[scanStart + 1] & 0xFF) == 0xDA)) scanStart++;
+
+        JpegDimensions dimensions = JpegDimensions.parse(jpeg, 0, scanStart);
+        assertNotNull(dimensions);
+        assertEquals(1024, dimensions.width);
+        assertEquals(768, dimensions.height);
+
+        RealtimeInputWriter writer = new RealtimeInputWriter(RealtimeInputWriter.encodedLength(jpeg.length) + 128);
+        ByteBuffer frame = writer.write("image/jpeg", jpeg, 0, jpeg.length);
+        String json = StandardCharsets.UTF_8.decode(frame.duplicate()).toString();
+        assertTrue(json.contains("\"data\":\"" + Base64.getEncoder().encodeToString(jpeg) + "\""));
+    }
+
+    // Noisy gradient so the encoded size is closer to a camera frame than a flat image
+    private static byte[] jpeg(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(3);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                image.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | noise);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,125 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.projectiris.unityplugin.LatencyMetrics.Milestone.*;
+import static org.junit.Assert.*;
+
+public class LatencyMetricsTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void percentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(7);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal-ish spread from a few hundred microseconds to tens of seconds
+            values[i] = (long) Math.exp(6 + random.nextDouble() * 11);
+            histogram.recordMicros(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percent : new double[]{50, 90, 95, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percent / 100 * values.length) - 1];
+            long reported = histogram.valueAtPercentile(percent);
+            assertTrue(percent + ": " + reported + " vs " + exact,
+                    reported >= exact && reported <= exact + exact / 128 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.valueAtPercentile(100));
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void bucketsCoverTheRangeWithoutGaps() {
+        int previous = -1;
+        for (long value = 0; value < LatencyHistogram.MAX_MICROS; value = value < 4096 ? value + 1 : value + value / 300) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+            previous = index;
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_MICROS, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void recordsEachMilestoneOncePerTurn() {
+        LatencyMetrics metrics = new LatencyMetrics();
+        metrics.mark(AUDIO_SENT, 5 * MS);                 // no turn open
+        assertTrue(metrics.startTurn(100 * MS, true));
+        assertFalse(metrics.startTurn(110 * MS, false));   // speech start inside the gesture's turn
+
+        metrics.mark(FIRST_SERVER_BYTE, 120 * MS);        // tail of an earlier response, ignored
+        metrics.mark(AUDIO_SENT, 150 * MS);
+        metrics.mark(AUDIO_SENT, 160 * MS);
+        metrics.mark(FIRST_SERVER_BYTE, 700 * MS);
+        metrics.mark(FIRST_TEXT, 720 * MS);
+        metrics.mark(FIRST_AUDIO_PLAYED, 800 * MS);
+        metrics.mark(TURN_COMPLETE, 2100 * MS);
+        metrics.mark(FIRST_TEXT, 2200 * MS);              // turn is over
+        assertFalse(metrics.isTurnOpen());
+
+        JSONObject json = new JSONObject(metrics.toJson());
+        assertEquals(1, json.getInt("turns"));
+        assertEquals(50.0, json.getJSONObject("audioSent").getDouble("p50"), 0.5);
+        assertEquals(600.0, json.getJSONObject("firstServerByte").getDouble("p50"), 5);
+        assertEquals(700.0, json.getJSONObject("firstAudioPlayed").getDouble("max"), 0.01);
+        assertEquals(1, json.getJSONObject("firstText").getInt("n"));
+        assertEquals(1, json.getJSONObject("turnComplete").getInt("n"));
+
+        // A new gesture before turnComplete abandons the open turn
+        metrics.startTurn(3000 * MS, true);
+        metrics.startTurn(4000 * MS, true);
+        assertEquals(1, new JSONObject(metrics.toJson()).getInt("abandoned"));
+        metrics.reset();
+        assertEquals(0, new JSONObject(metrics.toJson()).getJSONObject("audioSent").getInt("n"));
+    }
+
+    // mark() runs for every uplink audio chunk and response frame, it must not allocate
+    @Test
+    public void markDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        LatencyMetrics metrics = new LatencyMetrics();
+        Random random = new Random(3);
+
+        Runnable turns = () -> {
+            for (int turn = 0; turn < 1000; turn++) {
+                long start = turn * 1000 * MS;
+                metrics.startTurn(start, true);
+                for (int chunk = 0; chunk < 20; chunk++) metrics.mark(AUDIO_SENT, start + chunk * MS);
+                metrics.mark(FIRST_SERVER_BYTE, start + random.nextInt(900) * MS);
+                for (int frame = 0; frame < 20; frame++) metrics.mark(FIRST_TEXT, start + 950 * MS);
+                metrics.mark(TURN_COMPLETE, start + 999 * MS);
+            }
+        };
+        // Warm-up rounds take class loading and JIT compilation out of the measurement
+        for (int round = 0; round < 3; round++) turns.run();
+        // A stray allocation on this thread (a late JIT tier, the MXBean itself) shows in one round at
+        // most, an allocation in mark() would show in every round: the quietest round must be exactly 0
+        long threadId = Thread.currentThread().getId();
+        long fewestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            turns.run();
+            fewestBytes = Math.min(fewestBytes, threads.getThreadAllocatedBytes(threadId) - bytes);
+        }
+
+        assertEquals("bytes allocated in the quietest 1000 turns", 0, fewestBytes);
+
+        JSONObject json = new JSONObject(metrics.toJson());
+        assertEquals(8000, json.getInt("turns"));
+        assertEquals(0, json.getInt("abandoned"));
+        assertEquals(999.0, json.getJSONObject("turnComplete").getDouble("max"), 0.01);
+    }
+}
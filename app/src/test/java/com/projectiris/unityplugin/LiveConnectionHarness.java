@@ -0,0 +1,127 @@
+package com.projectiris.unityplugin;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A LiveConnection for JVM tests: a Host that records what it is told, and a timer thread standing in
+// for the IrisNetwork handler. sendAudio holds frames while the connection waits for READY and the
+// host sends them in one burst from onReady, as the session does with mic audio.
+class LiveConnectionHarness implements LiveConnection.Host, ReconnectSupervisor.Timer {
+    final ReconnectSupervisor supervisor;
+    final LiveConnection connection;
+    final ServerMessageParserTest.RecordingListener response;
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Runnable, ScheduledFuture<?>> scheduled = new ConcurrentHashMap<>();
+    private final ArrayDeque<String> held = new ArrayDeque<>();
+
+    LiveConnectionHarness(URI endpoint) {
+        this(endpoint, new ServerMessageParserTest.RecordingListener());
+    }
+
+    LiveConnectionHarness(URI endpoint, ServerMessageParserTest.RecordingListener response) {
+        this.response = response;
+        supervisor = new ReconnectSupervisor(this, 20, 200, 0, new Random(1), this::connect, null);
+        connection = new LiveConnection(endpoint, this, supervisor,
+                new ServerMessageParser(new PcmChunkPool(4, 64 * 1024)), response, this);
+    }
+
+    // {"setup":{...}} naming the session it resumes
+    static String setupFor(String resumptionHandle) {
+        return "{\"setup\":{\"model\":\"models/test\",\"resume\":"
+                + (resumptionHandle != null ? "\"" + resumptionHandle + "\"" : "null") + "}}";
+    }
+
+    void sendAudio(String frame) {
+        synchronized (connection.getUplinkLock()) {
+            if (connection.isWaitingForReady()) {
+                held.add(frame);
+                return;
+            }
+            connection.send(frame);
+        }
+    }
+
+    void close() throws InterruptedException {
+        connection.setWarmStandbyEnabled(false);
+        connection.stop(false);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private void connect(String resumptionHandle) {
+        events.add("connect:" + resumptionHandle);
+        connection.connect(resumptionHandle);
+    }
+
+    @Override
+    public String setupMessage(String resumptionHandle) {
+        return setupFor(resumptionHandle);
+    }
+
+    @Override
+    public void dropQueuedFrames() {
+    }
+
+    @Override
+    public long onReady(boolean resumed) {
+        events.add("ready:" + resumed);
+        long frames = held.size();
+        String frame;
+        while ((frame = held.poll()) != null) {
+            connection.send(frame);
+        }
+        return frames;
+    }
+
+    @Override
+    public void onLost(String reason, Exception error) {
+        events.add("lost");
+    }
+
+    @Override
+    public void onServerFrame() {
+    }
+
+    @Override
+    public long bytesInFlight() {
+        return connection.queuedBytes();
+    }
+
+    @Override
+    public void log(String message, Exception error) {
+        if (error != null) {
+            errors.add(message + ": " + error);
+        }
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        if (!executor.isShutdown()) {
+            scheduled.put(runnable, executor.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        ScheduledFuture<?> future = scheduled.remove(runnable);
+        if (future != null) future.cancel(false);
+    }
+}
@@ -0,0 +1,107 @@
+package com.projectiris.unityplugin;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Local stand-in for the Gemini Live API endpoint used by JVM tests.
+// Records what the client sends and lets a test push scripted text or binary frames back.
+class LiveServerStandIn extends WebSocketServer {
+    final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private volatile CountDownLatch connected = new CountDownLatch(1);
+    private volatile WebSocket client;
+
+    LiveServerStandIn() {
+        super(new InetSocketAddress("127.0.0.1", 0));
+        setReuseAddr(true);
+    }
+
+    void startAndWait() throws InterruptedException {
+        start();
+        if (!started.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Stand-in server did not start");
+        }
+    }
+
+    URI uri() {
+        return URI.create("ws://127.0.0.1:" + getPort() + "/");
+    }
+
+    WebSocket awaitClient() throws InterruptedException {
+        if (!connected.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No client connected");
+        }
+        return client;
+    }
+
+    void sendText(String frame) throws InterruptedException {
+        awaitClient().send(frame);
+    }
+
+    void sendBinary(byte[] frame) throws InterruptedException {
+        awaitClient().send(frame);
+    }
+
+    void sendBinaryUtf8(String frame) throws InterruptedException {
+        sendBinary(frame.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String nextReceived() throws InterruptedException {
+        return received.poll(5, TimeUnit.SECONDS);
+    }
+
+    void stopQuietly() {
+        try {
+            stop(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        client = conn;
+        connected.countDown();
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        if (conn == client) {
+            client = null;
+            connected = new CountDownLatch(1);
+        }
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        received.add(message);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        byte[] bytes = new byte[message.remaining()];
+        message.get(bytes);
+        received.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        // Connection level errors are surfaced through the client under test
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+}
@@ -0,0 +1,193 @@
+package com.projectiris.unityplugin;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MicUplinkTest {
+    private static final int SAMPLE_RATE = 24000;
+    private static final int READ_BYTES = 1920;  // typical AudioRecord min buffer at 24 kHz mono, 40 ms
+    private static final int PRE_ROLL_MS = 300;
+    private static final int BYTES_PER_SECOND = SAMPLE_RATE * 2;
+
+    private final VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE,
+            VoiceActivityDetector.DEFAULT_THRESHOLD_RMS, 60, 400);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Plays a recording the way AudioRecord.read(ByteBuffer, int) does: written from position 0,
+    // the buffer's position is not moved
+    private static final class FakeMic {
+        private final ByteBuffer recording;
+        private int position = 0;
+
+        // seconds of a 300 Hz tone, each followed by as many seconds of silence
+        FakeMic(int utterances, int speechSeconds, int silenceSeconds) {
+            int cycleBytes = (speechSeconds + silenceSeconds) * BYTES_PER_SECOND;
+            recording = ByteBuffer.allocateDirect(silenceSeconds * BYTES_PER_SECOND + utterances * cycleBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int offset = silenceSeconds * BYTES_PER_SECOND;
+            for (int u = 0; u < utterances; u++, offset += cycleBytes) {
+                for (int i = 0; i < speechSeconds * SAMPLE_RATE; i++) {
+                    recording.putShort(offset + 2 * i, (short) (4000 * Math.sin(2 * Math.PI * 300 * i / SAMPLE_RATE)));
+                }
+            }
+        }
+
+        int read(ByteBuffer dst, int size) {
+            int bytes = Math.min(size, recording.capacity() - position);
+            for (int i = 0; i < bytes; i += 2) {
+                dst.putShort(i, recording.getShort(position + i));
+            }
+            position += bytes;
+            return bytes;
+        }
+
+        void rewind() {
+            position = 0;
+        }
+    }
+
+    // The capture loop of AiInteration.startAudioInput
+    private void capture(FakeMic mic, MicUplink uplink) {
+        uplink.start();
+        int readSize;
+        readBuffer.clear();
+        while ((readSize = mic.read(readBuffer, readBuffer.capacity())) > 0) {
+            readBuffer.limit(readSize);
+            uplink.onRead(readBuffer);
+            readBuffer.clear();
+        }
+        uplink.finish();
+    }
+
+    private static final class RecordingSink implements MicUplink.Sink {
+        final List<String> events = new ArrayList<>();
+        long chunkBytes = 0;
+        int framesInFlight = 0;
+
+        @Override
+        public void sendChunk(ByteBuffer chunk) {
+            assertEquals(0, chunk.position());
+            chunkBytes += chunk.remaining();
+            if (events.isEmpty() || !events.get(events.size() - 1).equals("chunk")) {
+                events.add("chunk");
+            }
+        }
+
+        @Override
+        public void sendControl(String message) {
+            events.add(message);
+        }
+
+        @Override
+        public void onSpeechStart() {
+            events.add("speech");
+        }
+
+        @Override
+        public int framesInFlight() {
+            return framesInFlight;
+        }
+    }
+
+    // Silence stays on the device except for the pre-roll; each utterance goes out framed by
+    // activity_start and activity_end
+    @Test
+    public void sendsOnlyUtterancesWithTheirPreRoll() {
+        RecordingSink sink = new RecordingSink();
+        MicUplink uplink = new MicUplink(AudioChunkingPolicy.DEFAULT, SAMPLE_RATE, READ_BYTES, PRE_ROLL_MS, vad, sink);
+        uplink.setActivitySignalsEnabled(true);
+        capture(new FakeMic(2, 1, 2), uplink);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            expected.add("speech");
+            expected.add(MicUplink.ACTIVITY_START_MESSAGE);
+            expected.add("chunk");
+            expected.add(MicUplink.ACTIVITY_END_MESSAGE);
+        }
+        assertEquals(expected, sink.events);
+        assertFalse(uplink.isUplinkOpen());
+        // Per utterance: the speech, the VAD's hangover and at most the pre-roll before it
+        long perUtterance = sink.chunkBytes / 2;
+        assertTrue(perUtterance >= BYTES_PER_SECOND);
+        assertTrue(perUtterance <= BYTES_PER_SECOND + (PRE_ROLL_MS + 400 + 40) * BYTES_PER_SECOND / 1000);
+        assertEquals(0, uplink.getDroppedBytes());
+    }
+
+    // A backed up socket holds chunks in the ring; the end of the utterance goes out regardless
+    @Test
+    public void holdsChunksWhileTheLinkIsBusy() {
+        RecordingSink sink = new RecordingSink();
+        AudioChunkingPolicy policy = new AudioChunkingPolicy(100, 1, false);
+        MicUplink uplink = new MicUplink(policy, SAMPLE_RATE, READ_BYTES, PRE_ROLL_MS, vad, sink);
+        sink.framesInFlight = 1;
+        capture(new FakeMic(1, 1, 1), uplink);
+
+        assertEquals(3, sink.events.size());
+        assertEquals("speech", sink.events.get(0));
+        assertEquals("chunk", sink.events.get(1));
+        assertEquals(MicUplink.AUDIO_STREAM_END_MESSAGE, sink.events.get(2));
+        assertTrue(sink.chunkBytes >= BYTES_PER_SECOND);
+    }
+
+    // The whole capture thread path, VAD, ring, gating, chunking and the Base64 frame, does not allocate
+    @Test
+    public void steadyStateCaptureDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        RealtimeInputWriter writer = new RealtimeInputWriter(
+                RealtimeInputWriter.encodedLength(AudioChunkingPolicy.DEFAULT.chunkBytes(SAMPLE_RATE)) + 128);
+        long[] frameBytes = new long[1];
+        MicUplink.Sink sink = new MicUplink.Sink() {
+            @Override
+            public void sendChunk(ByteBuffer chunk) {
+                frameBytes[0] += writer.write("audio/pcm", chunk.array(), 0, chunk.remaining()).remaining();
+            }
+
+            @Override
+            public void sendControl(String message) {
+            }
+
+            @Override
+            public void onSpeechStart() {
+            }
+
+            @Override
+            public int framesInFlight() {
+                return 0;
+            }
+        };
+        MicUplink uplink = new MicUplink(AudioChunkingPolicy.DEFAULT, SAMPLE_RATE, READ_BYTES, PRE_ROLL_MS, vad, sink);
+        FakeMic mic = new FakeMic(5, 2, 1);
+        Runnable session = () -> {
+            mic.rewind();
+            capture(mic, uplink);
+        };
+
+        // Warm-up rounds take class loading and JIT compilation out of the measurement
+        for (int round = 0; round < 3; round++) session.run();
+        // A stray allocation on this thread shows in one round at most, an allocation per read or per
+        // chunk would show in every round: the quietest round must be exactly 0
+        long threadId = Thread.currentThread().getId();
+        long fewestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            session.run();
+            fewestBytes = Math.min(fewestBytes, threads.getThreadAllocatedBytes(threadId) - bytes);
+        }
+
+        assertTrue(frameBytes[0] > 0);
+        assertEquals("bytes allocated in the quietest 15 s of capture", 0, fewestBytes);
+    }
+}
@@ -0,0 +1,468 @@
+package com.projectiris.unityplugin;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import static org.junit.Assert.*;
+
+public class OutboundSchedulerTest {
+    private final List<OutboundScheduler> schedulers = new ArrayList<>();
+    private final List<WebSocketClient> clients = new ArrayList<>();
+    private final List<LiveServerStandIn> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (OutboundScheduler scheduler : schedulers) scheduler.shutdown();
+        for (WebSocketClient client : clients) client.closeBlocking();
+        for (LiveServerStandIn server : servers) server.stopQuietly();
+    }
+
+    @Test
+    public void lanesAreSentInPriorityOrderOnceTheSocketDrains() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.backlog = Long.MAX_VALUE;
+        OutboundScheduler scheduler = newScheduler(transport, 8, 8, 2);
+
+        scheduler.enqueue(OutboundScheduler.Lane.IMAGE, utf8("i1"));
+        scheduler.enqueue(OutboundScheduler.Lane.AUDIO, utf8("a1"));
+        scheduler.enqueue(OutboundScheduler.Lane.AUDIO, "a2");
+        scheduler.enqueue(OutboundScheduler.Lane.CONTROL, "c1");
+        Thread.sleep(30);
+        assertTrue(transport.sent.isEmpty());
+
+        transport.backlog = 0;
+        waitFor(() -> transport.sent.size() == 4);
+        assertEquals(Arrays.asList("c1", "a1", "a2", "i1"), transport.sent);
+        assertEquals(0, scheduler.getQueuedBytes());
+    }
+
+    @Test
+    public void fullImageLaneDropsOldestFrame() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.backlog = Long.MAX_VALUE;
+        OutboundScheduler scheduler = newScheduler(transport, 8, 8, 2);
+
+        for (int i = 1; i <= 4; i++) {
+            scheduler.enqueue(OutboundScheduler.Lane.IMAGE, utf8("i" + i));
+        }
+        assertEquals(2, scheduler.getQueuedFrames(OutboundScheduler.Lane.IMAGE));
+
+        transport.backlog = 0;
+        waitFor(() -> transport.sent.size() == 2);
+        assertEquals(Arrays.asList("i3", "i4"), transport.sent);
+
+        JSONObject image = new JSONObject(scheduler.toJson()).getJSONObject("image");
+        assertEquals(4, image.getInt("enqueued"));
+        assertEquals(2, image.getInt("dropped"));
+        assertEquals(2, image.getInt("sent"));
+    }
+
+    // On a slow link the audio lane overflows, only audio chunks are dropped: the activity markers
+    // framing the utterance still reach the server, in order
+    @Test
+    public void fullAudioLaneNeverDropsActivitySignals() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.backlog = Long.MAX_VALUE;
+        OutboundScheduler scheduler = newScheduler(transport, 8, 4, 1);
+
+        scheduler.enqueue(OutboundScheduler.Lane.AUDIO, MicUplink.ACTIVITY_START_MESSAGE);
+        for (int i = 0; i < 6; i++) {
+            scheduler.enqueue(OutboundScheduler.Lane.AUDIO, utf8("a" + i));
+        }
+        scheduler.enqueue(OutboundScheduler.Lane.AUDIO, MicUplink.ACTIVITY_END_MESSAGE);
+        scheduler.enqueue(OutboundScheduler.Lane.AUDIO, utf8("a6"));
+        assertEquals(4, scheduler.getQueuedFrames(OutboundScheduler.Lane.AUDIO));
+
+        // Nothing but markers left to drop: the lane takes them beyond its capacity
+        for (int i = 0; i < 5; i++) {
+            scheduler.enqueue(OutboundScheduler.Lane.AUDIO, MicUplink.AUDIO_STREAM_END_MESSAGE);
+        }
+        assertEquals(7, scheduler.getQueuedFrames(OutboundScheduler.Lane.AUDIO));
+
+        transport.backlog = 0;
+        waitFor(() -> transport.sent.size() == 7);
+        assertEquals(Arrays.asList(MicUplink.ACTIVITY_START_MESSAGE, MicUplink.ACTIVITY_END_MESSAGE,
+                MicUplink.AUDIO_STREAM_END_MESSAGE, MicUplink.AUDIO_STREAM_END_MESSAGE,
+                MicUplink.AUDIO_STREAM_END_MESSAGE, MicUplink.AUDIO_STREAM_END_MESSAGE,
+                MicUplink.AUDIO_STREAM_END_MESSAGE), transport.sent);
+        assertEquals(7, new JSONObject(scheduler.toJson()).getJSONObject("audio").getInt("dropped"));
+    }
+
+    @Test
+    public void audioKeepsOrderWhileSocketFlapsBetweenBackedUpAndDrained() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        OutboundScheduler scheduler = newScheduler(transport, 8, 2000, 1);
+
+        for (int i = 0; i < 1000; i++) {
+            transport.backlog = (i / 50) % 2 == 0 ? 0 : Long.MAX_VALUE;
+            scheduler.enqueue(OutboundScheduler.Lane.AUDIO, utf8("a" + i));
+            if (i % 7 == 0) scheduler.enqueue(OutboundScheduler.Lane.IMAGE, utf8("image"));
+        }
+        transport.backlog = 0;
+        waitFor(() -> scheduler.getQueuedBytes() == 0);
+
+        int next = 0;
+        for (String frame : transport.snapshot()) {
+            if (frame.startsWith("a")) {
+                assertEquals("a" + next, frame);
+                next++;
+            }
+        }
+        assertEquals(1000, next);
+    }
+
+    @Test
+    public void steadyEnqueueDoesNotAllocate() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.record = false;
+        OutboundScheduler scheduler = newScheduler(transport, 8, 64, 1);
+        ByteBuffer audio = ByteBuffer.wrap(new byte[4400]);
+
+        for (int i = 0; i < 200; i++) {
+            scheduler.enqueue(OutboundScheduler.Lane.AUDIO, audio);
+        }
+        waitFor(() -> scheduler.getQueuedBytes() == 0);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 200; i++) {
+            // Never more frames queued than were pooled during warm-up
+            if (scheduler.getQueuedFrames(OutboundScheduler.Lane.AUDIO) < 32) {
+                scheduler.enqueue(OutboundScheduler.Lane.AUDIO, audio);
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated, allocated < 1024);
+    }
+
+    // Simulation: 100 ms audio chunks plus bursts of large images (interval, speech and
+    // Unity captures landing together) over a throttled link, sent directly from two producer
+    // threads versus through the scheduler
+    @Test
+    public void schedulerKeepsAudioAheadOfImagesOnThrottledLink() throws Exception {
+        LinkResult direct = runThrottledLink(false);
+        LinkResult scheduled = runThrottledLink(true);
+        String summary = "direct: " + direct + ", scheduled: " + scheduled;
+
+        assertTrue(summary, scheduled.audioInOrder);
+        assertTrue(summary, scheduled.audioP95Millis < direct.audioP95Millis);
+        // Audio waits for at most the one image already being written (250 ms of airtime)
+        assertTrue(summary, scheduled.audioP95Millis < 450);
+    }
+
+    private static final int LINK_BYTES_PER_SECOND = 120 * 1024;
+    private static final int AUDIO_FRAME_BYTES = 4400;   // 100 ms of 16 kHz PCM as Base64 JSON
+    private static final int IMAGE_FRAME_BYTES = 30 * 1024;
+    private static final int IMAGE_BURST = 3;
+    private static final int IMAGE_BURST_INTERVAL_MILLIS = 1500;
+    private static final int RUN_MILLIS = 4500;
+
+    private LinkResult runThrottledLink(boolean useScheduler) throws Exception {
+        List<long[]> audioArrivals = Collections.synchronizedList(new ArrayList<>());
+        LiveServerStandIn server = new LiveServerStandIn() {
+            @Override
+            public void onMessage(WebSocket conn, ByteBuffer message) {
+                long now = System.nanoTime();
+                byte[] head = new byte[Math.min(40, message.remaining())];
+                message.get(head);
+                String[] fields = new String(head, StandardCharsets.UTF_8).split(":");
+                if (fields[0].equals("a")) {
+                    audioArrivals.add(new long[]{Long.parseLong(fields[1]), now - Long.parseLong(fields[2])});
+                }
+            }
+        };
+        server.startAndWait();
+        servers.add(server);
+
+        WebSocketClient client = new WebSocketClient(server.uri()) {
+            @Override
+            public void onOpen(ServerHandshake handshakedata) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        client.setSocketFactory(new ThrottledSocketFactory(LINK_BYTES_PER_SECOND));
+        assertTrue(client.connectBlocking(5, TimeUnit.SECONDS));
+        clients.add(client);
+
+        OutboundScheduler scheduler = null;
+        if (useScheduler) {
+            scheduler = newScheduler(new OutboundScheduler.Transport() {
+                @Override
+                public boolean send(ByteBuffer frame) {
+                    client.send(frame);
+                    return true;
+                }
+
+                @Override
+                public boolean send(String text) {
+                    client.send(text);
+                    return true;
+                }
+
+                @Override
+                public long queuedBytes() {
+                    long bytes = 0;
+                    for (ByteBuffer frame : ((org.java_websocket.WebSocketImpl) client.getConnection()).outQueue) {
+                        bytes += frame.remaining();
+                    }
+                    return bytes;
+                }
+            }, 16, 50, 1);
+        }
+        OutboundScheduler finalScheduler = scheduler;
+
+        int[] audioSent = new int[1];
+        Thread audio = new Thread(() -> {
+            for (int seq = 0; seq < RUN_MILLIS / 100; seq++) {
+                ByteBuffer frame = frame("a:" + seq + ":" + System.nanoTime() + ":", AUDIO_FRAME_BYTES);
+                if (finalScheduler != null) {
+                    finalScheduler.enqueue(OutboundScheduler.Lane.AUDIO, frame);
+                } else {
+                    client.send(frame);
+                }
+                audioSent[0]++;
+                sleep(100);
+            }
+        });
+        Thread images = new Thread(() -> {
+            for (int burst = 0; burst < RUN_MILLIS / IMAGE_BURST_INTERVAL_MILLIS; burst++) {
+                sleep(IMAGE_BURST_INTERVAL_MILLIS / 2);
+                for (int i = 0; i < IMAGE_BURST; i++) {
+                    ByteBuffer frame = frame("i:" + burst + ":" + System.nanoTime() + ":", IMAGE_FRAME_BYTES);
+                    if (finalScheduler != null) {
+                        finalScheduler.enqueue(OutboundScheduler.Lane.IMAGE, frame);
+                    } else {
+                        client.send(frame);
+                    }
+                }
+                sleep(IMAGE_BURST_INTERVAL_MILLIS / 2);
+            }
+        });
+        audio.start();
+        images.start();
+        audio.join();
+        images.join();
+        waitFor(() -> audioArrivals.size() == audioSent[0]);
+
+        List<long[]> arrivals;
+        synchronized (audioArrivals) {
+            arrivals = new ArrayList<>(audioArrivals);
+        }
+        boolean inOrder = true;
+        long[] delays = new long[arrivals.size()];
+        for (int i = 0; i < arrivals.size(); i++) {
+            inOrder &= arrivals.get(i)[0] == i;
+            delays[i] = arrivals.get(i)[1];
+        }
+        Arrays.sort(delays);
+        return new LinkResult(delays[delays.length * 95 / 100] / 1_000_000L,
+                delays[delays.length - 1] / 1_000_000L, inOrder,
+                scheduler != null ? new JSONObject(scheduler.toJson()).getJSONObject("image").getInt("dropped") : 0);
+    }
+
+    private OutboundScheduler newScheduler(OutboundScheduler.Transport transport,
+                                           int control, int audio, int image) {
+        OutboundScheduler scheduler = new OutboundScheduler(transport, control, audio, image, 16 * 1024,
+                r -> new Thread(r, "IrisSend-test"));
+        scheduler.start();
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    private static ByteBuffer utf8(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer frame(String header, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) 'x');
+        byte[] head = header.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.met()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(2);
+        }
+    }
+
+    private static class LinkResult {
+        final long audioP95Millis;
+        final long audioMaxMillis;
+        final boolean audioInOrder;
+        final int imagesDropped;
+
+        LinkResult(long audioP95Millis, long audioMaxMillis, boolean audioInOrder, int imagesDropped) {
+            this.audioP95Millis = audioP95Millis;
+            this.audioMaxMillis = audioMaxMillis;
+            this.audioInOrder = audioInOrder;
+            this.imagesDropped = imagesDropped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "audio delay p95=%d ms max=%d ms, in order=%b, images dropped=%d",
+                    audioP95Millis, audioMaxMillis, audioInOrder, imagesDropped);
+        }
+    }
+
+    // Transport stand-in that records what the sender hands over and reports a settable backlog
+    private static class RecordingTransport implements OutboundScheduler.Transport {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        volatile long backlog = 0;
+        volatile boolean record = true;
+
+        @Override
+        public boolean send(ByteBuffer frame) {
+            if (record) {
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                sent.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean send(String text) {
+            if (record) sent.add(text);
+            return true;
+        }
+
+        @Override
+        public long queuedBytes() {
+            return backlog;
+        }
+
+        List<String> snapshot() {
+            synchronized (sent) {
+                return new ArrayList<>(sent);
+            }
+        }
+    }
+
+    // Client sockets whose output is paced to a fixed byte rate, like a slow uplink
+    private static class ThrottledSocketFactory extends SocketFactory {
+        private final int bytesPerSecond;
+
+        ThrottledSocketFactory(int bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public Socket createSocket() {
+            return new Socket() {
+                private OutputStream throttled;
+
+                @Override
+                public synchronized OutputStream getOutputStream() throws IOException {
+                    if (throttled == null) {
+                        throttled = new ThrottledOutputStream(super.getOutputStream(), bytesPerSecond);
+                    }
+                    return throttled;
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private static final int SLICE_BYTES = 1024;
+        private final int bytesPerSecond;
+        private long nextFreeNanos = 0;
+
+        ThrottledOutputStream(OutputStream out, int bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int slice = Math.min(SLICE_BYTES, len);
+                long now = System.nanoTime();
+                nextFreeNanos = Math.max(nextFreeNanos, now) + slice * 1_000_000_000L / bytesPerSecond;
+                long wait = nextFreeNanos - now;
+                if (wait > 0) {
+                    sleep(wait / 1_000_000L);
+                }
+                out.write(b, off, slice);
+                off += slice;
+                len -= slice;
+            }
+            out.flush();
+        }
+    }
+}
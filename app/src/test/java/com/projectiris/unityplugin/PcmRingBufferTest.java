@@ -0,0 +1,125 @@
+package com.projectiris.unityplugin;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+    private static final int READ_BYTES = 1920;  // typical AudioRecord min buffer at 24 kHz mono
+    private static final int CHUNK_BYTES = 3840;
+
+    @Test
+    public void chunksPreserveOrderAcrossWrap() {
+        PcmRingBuffer ring = new PcmRingBuffer(10);
+        byte[] chunk = new byte[4];
+        byte next = 0;
+        byte expected = 0;
+
+        for (int round = 0; round < 20; round++) {
+            ByteBuffer src = ByteBuffer.allocate(3);
+            for (int i = 0; i < 3; i++) src.put(next++);
+            src.flip();
+            ring.write(src);
+            assertEquals(0, src.remaining());
+
+            while (ring.readChunk(chunk)) {
+                for (byte b : chunk) {
+                    assertEquals(expected++, b);
+                }
+            }
+        }
+        assertEquals(0, ring.getDroppedBytes());
+    }
+
+    @Test
+    public void readChunkWaitsForFullChunk() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+        byte[] chunk = new byte[4];
+        assertFalse(ring.readChunk(chunk));
+        assertEquals(3, ring.available());
+
+        assertEquals(3, ring.drain(chunk));
+        assertArrayEquals(new byte[]{1, 2, 3, 0}, chunk);
+        assertEquals(0, ring.available());
+    }
+
+    @Test
+    public void overflowDropsOldestBytes() {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        ring.write(ByteBuffer.wrap(new byte[]{4, 5, 6}));
+
+        byte[] chunk = new byte[4];
+        assertTrue(ring.readChunk(chunk));
+        assertArrayEquals(new byte[]{3, 4, 5, 6}, chunk);
+        assertEquals(2, ring.getDroppedBytes());
+
+        // A single write larger than the ring keeps only its newest bytes
+        ring.write(ByteBuffer.wrap(new byte[]{7, 8, 9, 10, 11, 12}));
+        assertTrue(ring.readChunk(chunk));
+        assertArrayEquals(new byte[]{9, 10, 11, 12}, chunk);
+        assertEquals(4, ring.getDroppedBytes());
+    }
+
+    @Test
+    public void trimToKeepsNewestBytesAsPreRoll() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6}));
+        ring.trimTo(4);
+        ring.write(ByteBuffer.wrap(new byte[]{7, 8}));
+
+        byte[] chunk = new byte[6];
+        assertTrue(ring.readChunk(chunk));
+        assertArrayEquals(new byte[]{3, 4, 5, 6, 7, 8}, chunk);
+        assertEquals(0, ring.getDroppedBytes());
+    }
+
+    @Test
+    public void steadyStateChunkingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        PcmRingBuffer ring = new PcmRingBuffer(CHUNK_BYTES * 8);
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] chunk = new byte[CHUNK_BYTES];
+
+        // Warm up so class loading and JIT compilation are not counted
+        for (int round = 0; round < 3; round++) {
+            assertEquals(10000, runCapture(ring, readBuffer, chunk, 20000));
+        }
+
+        // The quietest round must be exactly 0, see MicUplinkTest for the whole capture path
+        long threadId = Thread.currentThread().getId();
+        long fewestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            runCapture(ring, readBuffer, chunk, 20000);
+            fewestBytes = Math.min(fewestBytes, threads.getThreadAllocatedBytes(threadId) - bytes);
+        }
+        assertEquals("bytes allocated in the quietest 10000 chunks", 0, fewestBytes);
+    }
+
+    // Fixed size reads are pushed through the ring and drained as chunks
+    private static int runCapture(PcmRingBuffer ring, ByteBuffer readBuffer, byte[] chunk, int reads) {
+        int chunks = 0;
+        for (int i = 0; i < reads; i++) {
+            readBuffer.clear();
+            readBuffer.putShort(0, (short) i);
+            readBuffer.limit(READ_BYTES);
+            ring.write(readBuffer);
+            while (ring.readChunk(chunk)) {
+                chunks++;
+            }
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,146 @@
+package com.projectiris.unityplugin;
+
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class RawFrameGeometryTest {
+
+    @Test
+    public void scalesLongSideToMaxDimension() {
+        RawFrameGeometry landscape = RawFrameGeometry.of(1920, 1080, 0, 1920 * 1080 * 4, 1024);
+        assertEquals(1920 * 4, landscape.rowStride);
+        assertEquals(1024, landscape.outputWidth);
+        assertEquals(576, landscape.outputHeight);
+
+        RawFrameGeometry portrait = RawFrameGeometry.of(720, 1280, 0, 720 * 1280 * 4, 640);
+        assertEquals(360, portrait.outputWidth);
+        assertEquals(640, portrait.outputHeight);
+
+        RawFrameGeometry small = RawFrameGeometry.of(800, 600, 0, 800 * 600 * 4, 1024);
+        assertEquals(800, small.outputWidth);
+        assertEquals(600, small.outputHeight);
+        assertFalse(small.needsTransform(false));
+        assertTrue(small.needsTransform(true));
+        assertTrue(landscape.needsTransform(false));
+    }
+
+    @Test
+    public void treatsRowPaddingAsExtraPixels() {
+        // 1000 px rows padded to 4096 bytes, as GPU readbacks often are
+        RawFrameGeometry padded = RawFrameGeometry.of(1000, 500, 4096, 4096 * 500, 1024);
+        assertEquals(1024, padded.bufferWidth);
+        assertEquals(4096 * 500, padded.bufferBytes());
+        assertEquals(1000, padded.outputWidth);
+        assertTrue(padded.needsTransform(false));
+    }
+
+    @Test
+    public void rejectsLayoutsThatDoNotFitTheBuffer() {
+        assertInvalid(0, 480, 0, 1 << 20);
+        assertInvalid(640, 480, 640 * 4 - 4, 1 << 20);       // stride shorter than a row
+        assertInvalid(640, 480, 640 * 4 + 2, 1 << 22);       // stride not a whole number of pixels
+        assertInvalid(640, 480, 0, 640 * 480 * 4 - 1);       // buffer too small
+    }
+
+    private static void assertInvalid(int width, int height, int rowStride, long bytes) {
+        try {
+            RawFrameGeometry.of(width, height, rowStride, bytes, 1024);
+            fail("accepted " + width + "x" + height + " stride " + rowStride + " in " + bytes + " bytes");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // Pixel passes and frame copies per 1280x720 rendered frame.
+    // sendImage: Unity encodes a JPEG, the byte[] is copied across JNI, then decoded, scaled and
+    // encoded again. sendRawImage: the RGBA readback is copied once into the bitmap, scaled and encoded.
+    // ImageIO and BufferedImage stand in for Bitmap, whose pixels live in native memory on the device.
+    @Test
+    public void rawFramesTakeFewerPassesAndCopiesThanJpegBridge() throws Exception {
+        int width = 1280;
+        int height = 720;
+        RawFrameGeometry geometry = RawFrameGeometry.of(width, height, 0, width * height * 4, 1024);
+        ByteBuffer readback = ByteBuffer.allocateDirect(geometry.bufferBytes());
+        Random random = new Random(5);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                readback.put((byte) (x * 255 / width)).put((byte) (y * 255 / height))
+                        .put((byte) random.nextInt(32)).put((byte) 0xFF);
+            }
+        }
+        BufferedImage rendered = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        BufferedImage scaled = new BufferedImage(geometry.outputWidth, geometry.outputHeight, BufferedImage.TYPE_INT_RGB);
+
+        int jpegPasses = 0;
+        int jpegCopies = 0;
+        copyInto(readback, rendered);                       // Texture2D.LoadRawTextureData
+        jpegPasses++;
+        jpegCopies++;
+        byte[] unityJpeg = encode(rendered);                // Texture2D.EncodeToJPG in C#
+        jpegPasses++;
+        byte[] marshalled = unityJpeg.clone();              // managed byte[] to a Java byte[]
+        jpegPasses++;
+        jpegCopies++;
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(marshalled));
+        jpegPasses++;
+        scale(decoded, scaled);
+        jpegPasses++;
+        byte[] jpegSent = encode(scaled);
+        jpegPasses++;
+
+        int rawPasses = 0;
+        int rawCopies = 0;
+        copyInto(readback, rendered);                       // copyPixelsFromBuffer
+        rawPasses++;
+        rawCopies++;
+        scale(rendered, scaled);                            // filtered draw into the output bitmap
+        rawPasses++;
+        byte[] rawSent = encode(scaled);                    // Bitmap.compress
+        rawPasses++;
+
+        assertEquals(6, jpegPasses);
+        assertEquals(2, jpegCopies);
+        assertEquals(3, rawPasses);
+        assertEquals(1, rawCopies);
+        // Both paths send the same geometry
+        for (byte[] sent : new byte[][]{jpegSent, rawSent}) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(sent));
+            assertEquals(geometry.outputWidth, image.getWidth());
+            assertEquals(geometry.outputHeight, image.getHeight());
+        }
+    }
+
+    private static void copyInto(ByteBuffer rgba, BufferedImage image) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        rgba.position(0);
+        rgba.order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(pixels);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] >>>= 8;                               // RGBA to 0RGB
+        }
+    }
+
+    private static void scale(BufferedImage from, BufferedImage to) {
+        Graphics2D graphics = to.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(from, 0, 0, to.getWidth(), to.getHeight(), null);
+        graphics.dispose();
+    }
+
+    private static byte[] encode(BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,137 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RealtimeInputWriterTest {
+    private static final int AUDIO_CHUNK_BYTES = 3840;
+    private static final int JPEG_BYTES = 150 * 1024;
+
+    @Test
+    public void base64MatchesJdkEncoderForAllTailLengths() {
+        Random random = new Random(1);
+        for (int length = 0; length < 64; length++) {
+            byte[] data = new byte[length + 3];
+            random.nextBytes(data);
+
+            byte[] out = new byte[RealtimeInputWriter.encodedLength(length)];
+            int end = RealtimeInputWriter.encode(data, 3, length, out, 0);
+
+            assertEquals(out.length, end);
+            byte[] slice = new byte[length];
+            System.arraycopy(data, 3, slice, 0, length);
+            assertEquals(Base64.getEncoder().encodeToString(slice), new String(out, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void frameMatchesLegacyJsonEnvelope() throws Exception {
+        byte[] pcm = new byte[AUDIO_CHUNK_BYTES];
+        new Random(2).nextBytes(pcm);
+
+        RealtimeInputWriter writer = new RealtimeInputWriter(16);
+        JSONObject frame = new JSONObject(asString(writer.write("audio/pcm", pcm, 0, pcm.length)));
+        JSONObject legacy = new JSONObject(legacyFrame(Base64.getEncoder().encodeToString(pcm), "audio/pcm"));
+
+        assertTrue(legacy.similar(frame));
+        assertTrue(writer.capacity() >= RealtimeInputWriter.encodedLength(pcm.length));
+    }
+
+    @Test
+    public void bufferIsReusedBetweenFrames() {
+        RealtimeInputWriter writer = new RealtimeInputWriter(JPEG_BYTES * 2);
+        byte[] data = new byte[1000];
+
+        ByteBuffer first = writer.write("image/jpeg", data, 0, data.length);
+        int firstLimit = first.limit();
+        ByteBuffer second = writer.write("image/jpeg", data, 0, 10);
+
+        assertSame(first, second);
+        assertTrue(second.limit() < firstLimit);
+        assertEquals(0, second.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMimeTypeThatNeedsEscaping() {
+        new RealtimeInputWriter(64).write("audio/\"pcm", new byte[1], 0, 1);
+    }
+
+    // Bytes allocated per frame for the writer versus the previous
+    // Base64 String + org.json path in sendMediaChunk
+    @Test
+    public void allocatesLessPerFrameThanJsonPath() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] pcm = new byte[AUDIO_CHUNK_BYTES];
+        byte[] jpeg = new byte[JPEG_BYTES];
+        Random random = new Random(3);
+        random.nextBytes(pcm);
+        random.nextBytes(jpeg);
+
+        RealtimeInputWriter audioWriter = new RealtimeInputWriter(16);
+        RealtimeInputWriter imageWriter = new RealtimeInputWriter(16);
+        int frames = 200;
+
+        long writerAudio = measure(threads, frames, () -> audioWriter.write("audio/pcm", pcm, 0, pcm.length));
+        long legacyAudio = measure(threads, frames, () -> legacyFrame(Base64.getEncoder().encodeToString(pcm), "audio/pcm"));
+        long writerImage = measure(threads, frames, () -> imageWriter.write("image/jpeg", jpeg, 0, jpeg.length));
+        long legacyImage = measure(threads, frames, () -> legacyFrame(Base64.getEncoder().encodeToString(jpeg), "image/jpeg"));
+
+        String summary = String.format("bytes allocated per frame: audio %d -> %d, image %d -> %d",
+                legacyAudio, writerAudio, legacyImage, writerImage);
+
+        // The legacy path holds the payload at least twice more (Base64 String + JSON String)
+        assertTrue(summary, legacyAudio > 2L * AUDIO_CHUNK_BYTES);
+        assertTrue(summary, legacyImage > 2L * JPEG_BYTES);
+        assertTrue(summary, writerAudio < 256);
+        assertTrue(summary, writerImage < 256);
+    }
+
+    private interface Frame {
+        Object build() throws Exception;
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threads, int frames, Frame frame) throws Exception {
+        for (int i = 0; i < frames; i++) {
+            frame.build();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < frames; i++) {
+            frame.build();
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / frames;
+    }
+
+    // The sendMediaChunk implementation this writer replaced
+    private static String legacyFrame(String b64Data, String mimeType) throws Exception {
+        JSONObject msg = new JSONObject();
+        JSONObject realtimeInput = new JSONObject();
+        JSONArray mediaChunks = new JSONArray();
+        JSONObject chunk = new JSONObject();
+
+        chunk.put("mime_type", mimeType);
+        chunk.put("data", b64Data);
+        mediaChunks.put(chunk);
+        realtimeInput.put("media_chunks", mediaChunks);
+        msg.put("realtime_input", realtimeInput);
+        return msg.toString();
+    }
+
+    private static String asString(ByteBuffer buffer) {
+        return new String(buffer.array(), buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+    }
+}
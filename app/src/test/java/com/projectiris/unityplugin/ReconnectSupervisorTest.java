@@ -0,0 +1,198 @@
+package com.projectiris.unityplugin;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.handshake.ClientHandshake;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectSupervisorTest {
+    private final List<String> connects = new ArrayList<>();
+    private final List<String> events = new ArrayList<>();
+    private final CaptureSchedulerTest.ManualTimer timer = new CaptureSchedulerTest.ManualTimer();
+
+    private LiveServerStandIn server;
+    private LiveConnectionHarness client;
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) client.close();
+        if (server != null) server.stopQuietly();
+    }
+
+    @Test
+    public void backoffDoublesWithJitterUpToTheCap() {
+        ReconnectSupervisor supervisor = newSupervisor(0);
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long full = Math.min(8000, 500L << attempt);
+            for (int i = 0; i < 50; i++) {
+                long delay = supervisor.backoffMillis(attempt);
+                assertTrue(attempt + ": " + delay, delay >= full / 2 && delay <= full);
+            }
+        }
+    }
+
+    @Test
+    public void reconnectResumesWithLatestResumableHandle() {
+        ReconnectSupervisor supervisor = newSupervisor(0);
+        supervisor.start();
+        supervisor.onConnected();
+        supervisor.onResumptionUpdate("h-1", true);
+        supervisor.onResumptionUpdate("", false);
+
+        supervisor.onDisconnected();
+        supervisor.onDisconnected();   // onError and onClose of the same failure
+        assertTrue(supervisor.isReconnecting());
+        timer.advanceTo(500);
+
+        assertEquals(Arrays.asList("connect:null", "connect:h-1"), connects);
+        supervisor.onConnected();
+        assertFalse(supervisor.isReconnecting());
+
+        JSONObject stats = new JSONObject(supervisor.toJson());
+        assertEquals(1, stats.getInt("reconnects"));
+        assertEquals(1, stats.getInt("resumed"));
+        assertEquals(0, stats.getInt("attempt"));
+    }
+
+    @Test
+    public void failedAttemptsBackOffUntilGivingUp() {
+        ReconnectSupervisor supervisor = newSupervisor(3);
+        supervisor.start();
+        supervisor.onConnected();
+
+        for (int i = 0; i < 4; i++) {
+            supervisor.onDisconnected();
+            timer.advanceTo(timer.now + 10000);
+        }
+        assertEquals(4, connects.size());
+        assertEquals(Arrays.asList("scheduled:1", "scheduled:2", "scheduled:3", "gaveUp:3"), events);
+        assertFalse(supervisor.isReconnecting());
+    }
+
+    @Test
+    public void goAwaySwitchesConnectionRightAway() {
+        ReconnectSupervisor supervisor = newSupervisor(0);
+        supervisor.start();
+        supervisor.onConnected();
+        supervisor.onResumptionUpdate("h-2", true);
+
+        supervisor.onGoAway(10000);
+        timer.advanceTo(0);
+        assertEquals(Arrays.asList("connect:null", "connect:h-2"), connects);
+        // The old connection is still open, but media waits for the new one
+        assertTrue(supervisor.isReconnecting());
+        assertEquals(1, new JSONObject(supervisor.toJson()).getInt("goAways"));
+    }
+
+    @Test
+    public void stopCancelsPendingReconnect() {
+        ReconnectSupervisor supervisor = newSupervisor(0);
+        supervisor.start();
+        supervisor.onConnected();
+        supervisor.onDisconnected();
+        supervisor.stop();
+        timer.advanceTo(60000);
+
+        assertEquals(Collections.singletonList("connect:null"), connects);
+        assertFalse(supervisor.isReconnecting());
+    }
+
+    // A stand-in server drops the connection mid-stream and later sends goAway. The LiveConnection
+    // must reconnect on its own, resume with the last handle and deliver the audio captured during
+    // the outage in order, ahead of newer audio.
+    @Test
+    public void scriptedDropsAreResumedAndAudioReplayed() throws Exception {
+        List<String> frames = Collections.synchronizedList(new ArrayList<>());
+        List<WebSocket> connections = Collections.synchronizedList(new ArrayList<>());
+        server = new LiveServerStandIn() {
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                super.onOpen(conn, handshake);
+                connections.add(conn);
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                frames.add(connections.indexOf(conn) + ":" + message);
+                if (message.startsWith("{\"setup\"")) {
+                    conn.send("{\"setupComplete\":{}}");
+                }
+            }
+        };
+        server.startAndWait();
+        client = new LiveConnectionHarness(server.uri());
+        client.connection.start();
+
+        waitFor(() -> client.connection.isReady());
+        server.sendText("{\"sessionResumptionUpdate\":{\"newHandle\":\"h-1\",\"resumable\":true}}");
+        for (int i = 0; i < 3; i++) client.sendAudio("audio:" + i);
+        waitFor(() -> frames.size() == 4);
+
+        // Scripted drop: the TCP connection goes away without a close handshake
+        ((WebSocketImpl) connections.get(0)).closeConnection(1006, "scripted drop");
+        waitFor(() -> client.supervisor.isReconnecting());
+        for (int i = 3; i < 6; i++) client.sendAudio("audio:" + i);
+        waitFor(() -> connections.size() == 2 && frames.size() == 8);
+        client.sendAudio("audio:6");
+        waitFor(() -> frames.size() == 9);
+
+        // goAway: the next connection is READY before the old one is closed by the client
+        server.sendText("{\"sessionResumptionUpdate\":{\"newHandle\":\"h-2\",\"resumable\":true}}");
+        server.sendText("{\"goAway\":{\"timeLeft\":\"5s\"}}");
+        waitFor(() -> connections.size() == 3 && frames.size() == 10);
+        waitFor(() -> connections.get(1).isClosed());
+        client.sendAudio("audio:7");
+        waitFor(() -> frames.size() == 11);
+
+        List<String> expected = Arrays.asList(
+                "0:" + LiveConnectionHarness.setupFor(null), "0:audio:0", "0:audio:1", "0:audio:2",
+                "1:" + LiveConnectionHarness.setupFor("h-1"), "1:audio:3", "1:audio:4", "1:audio:5", "1:audio:6",
+                "2:" + LiveConnectionHarness.setupFor("h-2"), "2:audio:7");
+        assertEquals(expected, frames);
+        assertEquals(Arrays.asList("connect:null", "ready:false", "lost", "connect:h-1", "ready:true",
+                "connect:h-2", "ready:true"), client.events);
+        assertEquals(ConnectionStateMachine.State.READY, client.connection.getState());
+
+        JSONObject stats = new JSONObject(client.supervisor.toJson());
+        assertEquals(2, stats.getInt("resumed"));
+        assertEquals(1, stats.getInt("goAways"));
+    }
+
+    private ReconnectSupervisor newSupervisor(int maxAttempts) {
+        return new ReconnectSupervisor(timer, 500, 8000, maxAttempts, new Random(3),
+                handle -> connects.add("connect:" + handle),
+                new ReconnectSupervisor.Listener() {
+                    @Override
+                    public void onReconnectScheduled(int attempt, long delayMillis, String reason) {
+                        events.add("scheduled:" + attempt);
+                    }
+
+                    @Override
+                    public void onGaveUp(int attempts) {
+                        events.add("gaveUp:" + attempts);
+                    }
+                });
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.met()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out");
+            Thread.sleep(2);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SceneChangeDetectorTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final long KEEPALIVE = 10000;
+
+    private final Random random = new Random(5);
+
+    @Test
+    public void staticSceneWithSensorNoiseOnlySendsKeepalive() {
+        SceneChangeDetector detector = new SceneChangeDetector(SceneChangeDetector.DEFAULT_SENSITIVITY, KEEPALIVE);
+        int sent = 0;
+        for (int second = 0; second < 25; second++) {
+            if (detector.offerArgb(frame(0, 1.0f, 8, false), WIDTH, HEIGHT, second * 1000L, false)) {
+                sent++;
+            }
+        }
+        // First frame, then the keepalive at 10 s and 20 s
+        assertEquals(3, sent);
+    }
+
+    @Test
+    public void headTurnIsSent() {
+        SceneChangeDetector detector = new SceneChangeDetector(SceneChangeDetector.DEFAULT_SENSITIVITY, KEEPALIVE);
+        assertTrue(detector.offerArgb(frame(0, 1.0f, 4, false), WIDTH, HEIGHT, 0, false));
+        assertFalse(detector.offerArgb(frame(2, 1.0f, 4, false), WIDTH, HEIGHT, 1000, false));
+        assertTrue(detector.offerArgb(frame(60, 1.0f, 4, false), WIDTH, HEIGHT, 2000, false));
+    }
+
+    @Test
+    public void slowLightingDriftIsSentOnceItAddsUp() {
+        SceneChangeDetector detector = new SceneChangeDetector(SceneChangeDetector.DEFAULT_SENSITIVITY, 60000);
+        int sent = 0;
+        for (int second = 0; second < 20; second++) {
+            // Lights dim by 1.5% per second
+            float brightness = 1.0f - 0.015f * second;
+            if (detector.offerArgb(frame(0, brightness, 2, false), WIDTH, HEIGHT, second * 1000L, false)) {
+                sent++;
+            }
+        }
+        // Compared with the last sent frame, not the previous one, so the drift is noticed
+        assertTrue("sent " + sent, sent >= 2 && sent < 10);
+    }
+
+    @Test
+    public void forcedFramesAreAlwaysSent() {
+        SceneChangeDetector detector = new SceneChangeDetector(0f, KEEPALIVE);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(detector.offerArgb(frame(0, 1.0f, 0, false), WIDTH, HEIGHT, i * 100L, true));
+        }
+        assertEquals(5, detector.getFramesSent());
+    }
+
+    @Test
+    public void sensitivityControlsSmallChanges() {
+        SceneChangeDetector coarse = new SceneChangeDetector(0.1f, KEEPALIVE);
+        SceneChangeDetector fine = new SceneChangeDetector(1.0f, KEEPALIVE);
+        for (SceneChangeDetector detector : new SceneChangeDetector[]{coarse, fine}) {
+            detector.offerArgb(frame(0, 1.0f, 2, false), WIDTH, HEIGHT, 0, false);
+        }
+
+        // Someone puts a small object on the table
+        int[] withObject = frame(0, 1.0f, 2, true);
+        assertFalse(coarse.offerArgb(withObject, WIDTH, HEIGHT, 1000, false));
+        assertTrue(fine.offerArgb(withObject, WIDTH, HEIGHT, 1000, false));
+    }
+
+    @Test
+    public void lumaPlaneWithRowPadding() {
+        SceneChangeDetector detector = new SceneChangeDetector(SceneChangeDetector.DEFAULT_SENSITIVITY, KEEPALIVE);
+        int rowStride = WIDTH + 64;
+
+        assertTrue(detector.offerLuma(lumaPlane(frame(0, 1.0f, 4, false), rowStride), WIDTH, HEIGHT,
+                rowStride, 1, 0, false));
+        assertFalse(detector.offerLuma(lumaPlane(frame(0, 1.0f, 4, false), rowStride), WIDTH, HEIGHT,
+                rowStride, 1, 1000, false));
+        assertTrue(detector.offerLuma(lumaPlane(frame(80, 1.0f, 4, false), rowStride), WIDTH, HEIGHT,
+                rowStride, 1, 2000, false));
+    }
+
+    // Sample session: standing still, looking around, standing still again, one frame per second
+    @Test
+    public void sampleSessionSendsOnlyWhileTurning() {
+        SceneChangeDetector detector = new SceneChangeDetector(SceneChangeDetector.DEFAULT_SENSITIVITY, KEEPALIVE);
+        int pan = 0;
+        int sentWhileTurning = 0;
+        for (int second = 0; second < 60; second++) {
+            boolean turning = second >= 20 && second < 26;
+            if (turning) pan += 50;
+            boolean sent = detector.offerArgb(frame(pan, 1.0f, 6, false), WIDTH, HEIGHT, second * 1000L, false);
+            if (turning && sent) sentWhileTurning++;
+        }
+
+        assertEquals(6, sentWhileTurning);
+        // The fixed 3 s cadence would have sent 20 frames
+        assertTrue(detector.toJson(), detector.getFramesSent() < 20);
+        JSONObject json = new JSONObject(detector.toJson());
+        assertEquals(60, json.getLong("framesSeen"));
+        assertEquals(60 - detector.getFramesSent(), json.getLong("framesSkipped"));
+    }
+
+    // A room-like scene: wall gradient, furniture blocks, a window; panX shifts the view
+    private int[] frame(int panX, float brightness, int noise, boolean smallObject) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int wx = x + panX;
+                int value = 90 + (wx % 640) * 60 / 640 + y * 30 / HEIGHT;
+                if (((wx / 120) % 3 == 1) && y > 140) value = 50;               // furniture
+                if (((wx / 200) % 4 == 2) && y > 30 && y < 110) value = 220;    // window
+                if (smallObject && x >= 150 && x < 174 && y >= 180 && y < 204) value = 15;
+                value = (int) (value * brightness);
+                if (noise > 0) value += random.nextInt(2 * noise + 1) - noise;
+                value = Math.max(0, Math.min(255, value));
+                pixels[y * WIDTH + x] = 0xFF000000 | (value << 16) | (value << 8) | value;
+            }
+        }
+        return pixels;
+    }
+
+    private static ByteBuffer lumaPlane(int[] argb, int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < rowStride; x++) {
+                plane.put(y * rowStride + x, x < WIDTH ? (byte) (argb[y * WIDTH + x] & 0xFF) : (byte) 0xEE);
+            }
+        }
+        return plane;
+    }
+}
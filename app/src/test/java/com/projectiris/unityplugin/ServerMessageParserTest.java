@@ -0,0 +1,269 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ServerMessageParserTest {
+
+    @Test
+    public void matchesOrgJsonOnRecordedFrames() throws Exception {
+        PcmChunkPool pool = new PcmChunkPool(8, 1024);
+        ServerMessageParser parser = new ServerMessageParser(pool);
+
+        for (String frame : loadFrames()) {
+            RecordingListener listener = new RecordingListener();
+            parser.parse(frame, listener);
+            assertEquals(frame, referenceEvents(frame), listener.events);
+        }
+        assertEquals(pool.getCreatedCount(), pool.getFreeCount());
+    }
+
+    @Test
+    public void reportsFlagsAfterContent() throws Exception {
+        ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(2, 64));
+        RecordingListener listener = new RecordingListener();
+
+        parser.parse("{\"serverContent\":{\"interrupted\":true,\"turnComplete\":true,"
+                + "\"outputTranscription\":{\"text\":\"late\"}}}", listener);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("transcript:late");
+        expected.add("interrupted");
+        expected.add("turnComplete");
+        assertEquals(expected, listener.events);
+    }
+
+    @Test
+    public void readsSessionMessages() throws Exception {
+        ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(2, 64));
+        RecordingListener listener = new RecordingListener();
+
+        parser.parse("{\"setupComplete\":{}}", listener);
+        parser.parse("{\"sessionResumptionUpdate\":{\"resumable\":true,\"newHandle\":\"h-1\"}}", listener);
+        parser.parse("{\"sessionResumptionUpdate\":{\"resumable\":false}}", listener);
+        parser.parse(ByteBuffer.wrap("{\"goAway\":{\"timeLeft\":\"1.500s\"}}".getBytes(StandardCharsets.UTF_8)),
+                listener);
+        parser.parse("{\"usageMetadata\":{\"promptTokenCount\":\"40000\",\"totalTokenCount\":40120,"
+                + "\"responseTokenCount\":120,\"promptTokensDetails\":[{\"modality\":\"IMAGE\",\"tokenCount\":25800},"
+                + "{\"modality\":\"AUDIO\",\"tokenCount\":14000},{\"tokenCount\":200,\"modality\":\"IMAGE\"}]}}", listener);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("setupComplete");
+        expected.add("resumption:h-1:true");
+        expected.add("resumption::false");
+        expected.add("goAway:1500");
+        expected.add("usage:40000:120:40120:26000");
+        assertEquals(expected, listener.events);
+    }
+
+    @Test
+    public void reusesPooledChunksAcrossFrames() throws Exception {
+        PcmChunkPool pool = new PcmChunkPool(4, 16 * 1024);
+        ServerMessageParser parser = new ServerMessageParser(pool);
+        RecordingListener listener = new RecordingListener();
+
+        List<String> frames = loadFrames();
+        for (int i = 0; i < 50; i++) {
+            for (String frame : frames) {
+                parser.parse(frame, listener);
+            }
+        }
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void releasesChunkOnMalformedFrame() {
+        PcmChunkPool pool = new PcmChunkPool(4, 64);
+        ServerMessageParser parser = new ServerMessageParser(pool);
+
+        try {
+            parser.parse("{\"serverContent\":{\"modelTurn\":{\"parts\":[{\"inlineData\":{\"data\":\"AAAA\",",
+                    new RecordingListener());
+            fail("Expected JSONException");
+        } catch (JSONException expected) {
+            // expected
+        }
+        assertEquals(pool.getCreatedCount(), pool.getFreeCount());
+    }
+
+    // Allocation against the org.json DOM path receiveMessage used before
+    @Test
+    public void allocatesFarLessThanOrgJson() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<String> audioFrames = new ArrayList<>();
+        for (String frame : loadFrames()) {
+            if (frame.contains("audio/pcm") && frame.length() > 4096) audioFrames.add(frame);
+        }
+        ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(4, 16 * 1024));
+        RecordingListener listener = new RecordingListener();
+        listener.keepEvents = false;
+        int rounds = 500;
+
+        long[] parserCost = measure(threads, rounds, () -> {
+            for (String frame : audioFrames) parser.parse(frame, listener);
+        });
+        long[] jsonCost = measure(threads, rounds, () -> {
+            for (String frame : audioFrames) {
+                JSONObject inlineData = new JSONObject(frame).getJSONObject("serverContent")
+                        .getJSONObject("modelTurn").getJSONArray("parts").getJSONObject(0)
+                        .getJSONObject("inlineData");
+                Base64.getDecoder().decode(inlineData.optString("data", null));
+            }
+        });
+
+        int frames = rounds * audioFrames.size();
+        assertTrue(String.format("serverContent audio frame: org.json %d ns / %d B, parser %d ns / %d B",
+                jsonCost[0] / frames, jsonCost[1] / frames, parserCost[0] / frames, parserCost[1] / frames),
+                parserCost[1] * 10 < jsonCost[1]);
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    // Returns {nanoseconds, bytes allocated} of rounds runs after the same number of warm up runs
+    private static long[] measure(com.sun.management.ThreadMXBean threads, int rounds, Work work) throws Exception {
+        for (int i = 0; i < rounds; i++) work.run();
+        long threadId = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) work.run();
+        return new long[]{System.nanoTime() - start, threads.getThreadAllocatedBytes(threadId) - bytes};
+    }
+
+    // Recorded Live API server frames, one per line
+    static List<String> loadFrames() throws IOException {
+        List<String> frames = new ArrayList<>();
+        InputStream in = ServerMessageParserTest.class.getResourceAsStream("/live_api/server_frames.jsonl");
+        assertNotNull("missing live_api/server_frames.jsonl", in);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) frames.add(line);
+            }
+        }
+        return frames;
+    }
+
+    // Events the previous org.json based receiveMessage would have produced
+    static List<String> referenceEvents(String frame) throws JSONException {
+        List<String> events = new ArrayList<>();
+        JSONObject messageData = new JSONObject(frame);
+        if (messageData.has("setupComplete")) events.add("setupComplete");
+        if (messageData.has("serverContent")) {
+            serverContentEvents(messageData.getJSONObject("serverContent"), events);
+        }
+        if (messageData.has("usageMetadata")) {
+            JSONObject usage = messageData.getJSONObject("usageMetadata");
+            long imageTokens = 0;
+            JSONArray details = usage.optJSONArray("promptTokensDetails");
+            for (int i = 0; details != null && i < details.length(); i++) {
+                if ("IMAGE".equals(details.getJSONObject(i).optString("modality"))) {
+                    imageTokens += details.getJSONObject(i).getLong("tokenCount");
+                }
+            }
+            events.add("usage:" + usage.optLong("promptTokenCount") + ":" + usage.optLong("responseTokenCount")
+                    + ":" + usage.optLong("totalTokenCount") + ":" + imageTokens);
+        }
+        return events;
+    }
+
+    private static void serverContentEvents(JSONObject serverContent, List<String> events) throws JSONException {
+        if (serverContent.has("outputTranscription")) {
+            String t = serverContent.getJSONObject("outputTranscription").optString("text", "");
+            if (!t.isEmpty()) events.add("transcript:" + t);
+        }
+        if (serverContent.has("modelTurn") && serverContent.getJSONObject("modelTurn").has("parts")) {
+            JSONArray parts = serverContent.getJSONObject("modelTurn").getJSONArray("parts");
+            for (int i = 0; i < parts.length(); i++) {
+                JSONObject part = parts.getJSONObject(i);
+                if (part.has("text")) events.add("text:" + part.getString("text"));
+                if (part.has("inlineData")) {
+                    JSONObject inlineData = part.getJSONObject("inlineData");
+                    if ("audio/pcm;rate=24000".equals(inlineData.optString("mimeType"))) {
+                        events.add("audio:" + inlineData.optString("data", null));
+                    }
+                }
+            }
+        }
+        if (serverContent.optBoolean("interrupted")) events.add("interrupted");
+        if (serverContent.optBoolean("turnComplete")) events.add("turnComplete");
+    }
+
+    static class RecordingListener implements ServerMessageParser.Listener {
+        final List<String> events = new ArrayList<>();
+        boolean keepEvents = true;
+
+        @Override
+        public void onTranscript(String text) {
+            if (keepEvents) events.add("transcript:" + text);
+        }
+
+        @Override
+        public void onText(String text) {
+            if (keepEvents) events.add("text:" + text);
+        }
+
+        @Override
+        public void onAudio(PcmChunkPool.Chunk chunk) {
+            if (keepEvents) {
+                byte[] pcm = new byte[chunk.length];
+                System.arraycopy(chunk.data, 0, pcm, 0, chunk.length);
+                events.add("audio:" + Base64.getEncoder().encodeToString(pcm));
+            }
+            chunk.release();
+        }
+
+        @Override
+        public void onTurnComplete() {
+            if (keepEvents) events.add("turnComplete");
+        }
+
+        @Override
+        public void onInterrupted() {
+            if (keepEvents) events.add("interrupted");
+        }
+
+        @Override
+        public void onSetupComplete() {
+            if (keepEvents) events.add("setupComplete");
+        }
+
+        @Override
+        public void onSessionResumptionUpdate(String newHandle, boolean resumable) {
+            if (keepEvents) events.add("resumption:" + newHandle + ":" + resumable);
+        }
+
+        @Override
+        public void onGoAway(long timeLeftMillis) {
+            if (keepEvents) events.add("goAway:" + timeLeftMillis);
+        }
+
+        @Override
+        public void onUsageMetadata(long promptTokens, long responseTokens, long totalTokens, long imagePromptTokens) {
+            if (keepEvents) {
+                events.add("usage:" + promptTokens + ":" + responseTokens + ":" + totalTokens + ":" + imagePromptTokens);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class SessionConfigTest {
+
+    private static final String LOW_COST = "{\"profile\":\"low-cost\",\"mediaResolution\":\"MEDIA_RESOLUTION_LOW\","
+            + "\"speechConfig\":{\"voiceName\":\"Puck\",\"languageCode\":\"en-US\"},"
+            + "\"systemInstruction\":\"Answer in one sentence.\","
+            + "\"realtimeInputConfig\":{\"endOfSpeechSensitivity\":\"high\",\"silenceDurationMs\":300},"
+            + "\"contextWindowCompression\":{\"triggerTokens\":20000,\"targetTokens\":10000},"
+            + "\"audioChunking\":{\"chunkMillis\":60},\"messageBatchMillis\":33,"
+            + "\"audioOutput\":\"unity_shared_buffer\"}";
+
+    @Test
+    public void buildsSetupFromJson() {
+        SessionConfig config = SessionConfig.fromJson(LOW_COST);
+        assertEquals("low-cost", config.getProfile());
+        assertEquals(SessionConfig.DEFAULT_HOST, config.getHost());
+        // Plugin side options, unset chunking values keep their defaults
+        assertEquals(60, config.getChunkingPolicy().getTargetChunkMillis());
+        assertEquals(AudioChunkingPolicy.DEFAULT.getMaxFramesInFlight(),
+                config.getChunkingPolicy().getMaxFramesInFlight());
+        assertEquals(33, config.getMessageBatchMillis());
+        assertEquals(SessionConfig.AudioOutput.UNITY_SHARED_BUFFER, config.getAudioOutput());
+
+        JSONObject setup = new JSONObject(config.setupMessage(false, false, null)).getJSONObject("setup");
+        assertEquals(SessionConfig.DEFAULT_MODEL, setup.getString("model"));
+        JSONObject generationConfig = setup.getJSONObject("generationConfig");
+        assertEquals("AUDIO", generationConfig.getJSONArray("responseModalities").getString(0));
+        assertEquals("MEDIA_RESOLUTION_LOW", generationConfig.getString("mediaResolution"));
+        assertEquals("Puck", generationConfig.getJSONObject("speechConfig").getJSONObject("voiceConfig")
+                .getJSONObject("prebuiltVoiceConfig").getString("voiceName"));
+        assertTrue(setup.has("outputAudioTranscription"));
+        assertEquals("Answer in one sentence.", setup.getJSONObject("systemInstruction")
+                .getJSONArray("parts").getJSONObject(0).getString("text"));
+        JSONObject detection = setup.getJSONObject("realtimeInputConfig").getJSONObject("automaticActivityDetection");
+        assertEquals("END_SENSITIVITY_HIGH", detection.getString("endOfSpeechSensitivity"));
+        assertEquals(300, detection.getInt("silenceDurationMs"));
+        assertFalse(detection.has("disabled"));
+        assertEquals(20000, setup.getJSONObject("contextWindowCompression").getLong("triggerTokens"));
+        assertEquals(0, setup.getJSONObject("sessionResumption").length());
+
+        // Text responses carry no speech settings; client activity detection switches the server's off
+        setup = new JSONObject(config.setupMessage(true, true, null)).getJSONObject("setup");
+        generationConfig = setup.getJSONObject("generationConfig");
+        assertEquals("TEXT", generationConfig.getJSONArray("responseModalities").getString(0));
+        assertFalse(generationConfig.has("speechConfig"));
+        assertFalse(setup.has("outputAudioTranscription"));
+        detection = setup.getJSONObject("realtimeInputConfig").getJSONObject("automaticActivityDetection");
+        assertTrue(detection.getBoolean("disabled"));
+        assertEquals(1, detection.length());
+
+        // The normalized form reads back to the same settings
+        SessionConfig copy = SessionConfig.fromJson(config.toJson());
+        assertEquals(config.toJson(), copy.toJson());
+        assertEquals(config.setupMessage(false, false, null), copy.setupMessage(false, false, null));
+    }
+
+    @Test
+    public void defaultMatchesTheFixedSetup() {
+        JSONObject setup = new JSONObject(SessionConfig.DEFAULT.setupMessage(false, false, null))
+                .getJSONObject("setup");
+        assertEquals(SessionConfig.DEFAULT_MODEL, setup.getString("model"));
+        assertFalse(setup.getJSONObject("generationConfig").has("mediaResolution"));
+        assertFalse(setup.has("realtimeInputConfig"));
+        assertFalse(setup.has("systemInstruction"));
+        assertEquals(ContextWindowBudget.DEFAULT_TARGET_TOKENS, setup.getJSONObject("contextWindowCompression")
+                .getJSONObject("slidingWindow").getLong("targetTokens"));
+        assertEquals(SessionConfig.DEFAULT.toJson(), SessionConfig.fromJson("{}").toJson());
+        // Unity passes null or an empty string when it has no config
+        assertSame(SessionConfig.DEFAULT, SessionConfig.fromJson(null));
+        assertSame(SessionConfig.DEFAULT, SessionConfig.fromJson(" "));
+
+        // A fixed modality wins over the muted setting
+        SessionConfig text = SessionConfig.DEFAULT.toBuilder().responseModality("text").build();
+        assertTrue(text.isTextOnly(false));
+        assertFalse(SessionConfig.DEFAULT.isTextOnly(false));
+    }
+
+    @Test
+    public void rejectsInvalidSettings() {
+        String[] invalid = {
+                "not json",
+                "{\"modle\":\"models/x\"}",
+                "{\"model\":\"gemini-2.0-flash-exp\"}",
+                "{\"host\":\"https://example.com\"}",
+                "{\"responseModality\":\"VIDEO\"}",
+                "{\"mediaResolution\":\"ULTRA\"}",
+                "{\"speechConfig\":{\"voice\":\"Puck\"}}",
+                "{\"realtimeInputConfig\":{\"silenceDurationMs\":-5}}",
+                "{\"realtimeInputConfig\":{\"startOfSpeechSensitivity\":\"END_SENSITIVITY_LOW\"}}",
+                "{\"contextWindowCompression\":{\"triggerTokens\":1000,\"targetTokens\":2000}}",
+                "{\"profile\":\"\"}",
+                "{\"audioChunking\":{\"chunkMillis\":5}}",
+                "{\"audioChunking\":{\"chunkMs\":50}}",
+                "{\"messageBatchMillis\":-1}",
+                "{\"audioOutput\":\"SPEAKER\"}",
+                // Wrong types are rejected, not replaced by the default
+                "{\"audioChunking\":{\"chunkMillis\":\"fast\"}}",
+                "{\"audioChunking\":{\"flushOnSilence\":\"sometimes\"}}",
+                "{\"realtimeInputConfig\":{\"prefixPaddingMs\":\"abc\"}}",
+                "{\"contextWindowCompression\":{\"triggerTokens\":[1]}}",
+                "{\"speechConfig\":\"Puck\"}",
+                "{\"audioChunking\":50}",
+        };
+        for (String json : invalid) {
+            try {
+                SessionConfig.fromJson(json);
+                fail("accepted " + json);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    // Setup is serialized once per variant: reconnects only append the resumption handle
+    @Test
+    public void cachesSerializedSetup() {
+        SessionConfig config = SessionConfig.fromJson(LOW_COST);
+        String first = config.setupMessage(false, true, null);
+        assertEquals(first, config.setupMessage(false, true, null));
+
+        String handle = "h\"1\\2";
+        JSONObject resumed = new JSONObject(config.setupMessage(false, true, handle));
+        assertEquals(handle, resumed.getJSONObject("setup").getJSONObject("sessionResumption").getString("handle"));
+        resumed.getJSONObject("setup").put("sessionResumption", new JSONObject());
+        assertEquals(new JSONObject(first).toString(), resumed.toString());
+
+        for (int i = 0; i < 100; i++) {
+            config.setupMessage(false, true, "handle-" + i);
+        }
+        assertEquals(1, config.getSetupBuildCount());
+        config.setupMessage(false, false, null);
+        assertEquals(2, config.getSetupBuildCount());
+        assertEquals(0, config.toBuilder().build().getSetupBuildCount());
+    }
+}
@@ -0,0 +1,150 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class SessionLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackFramesAcrossSegments() throws Exception {
+        File file = folder.newFile("session.irl");
+        RealtimeInputWriter audioWriter = new RealtimeInputWriter(8 * 1024);
+        RealtimeInputWriter imageWriter = new RealtimeInputWriter(512 * 1024);
+        byte[] jpeg = new byte[300_000];
+        List<String> expected = new ArrayList<>();
+
+        SessionLog log = new SessionLog(file, Long.MAX_VALUE);
+        try {
+            for (int i = 0; i < 40; i++) {                           // ~16 MB, three segments
+                jpeg[0] = (byte) i;
+                ByteBuffer frame = imageWriter.write("image/jpeg", jpeg, 0, jpeg.length);
+                int position = frame.position();
+                assertTrue(log.append(SessionLog.UPLINK, OutboundScheduler.Lane.IMAGE, frame));
+                assertEquals(position, frame.position());
+                expected.add("IMAGE:" + frame.remaining());
+
+                String text = "{\"serverContent\":{\"outputTranscription\":{\"text\":\"Grüße " + i + " 👋\"}}}";
+                assertTrue(log.append(SessionLog.SERVER, null, text));
+                expected.add("text:" + text);
+
+                ByteBuffer audio = audioWriter.write("audio/pcm", new byte[3200], 0, 3200);
+                assertTrue(log.append(SessionLog.UPLINK, OutboundScheduler.Lane.AUDIO, audio));
+                expected.add("AUDIO:" + audio.remaining());
+            }
+            assertEquals(80, new JSONObject(log.toJson()).getLong("uplinkFrames"));
+        } finally {
+            log.close();
+        }
+        assertEquals(log.getBytesWritten(), file.length());
+
+        List<String> read = new ArrayList<>();
+        long lastNanos = -1;
+        try (SessionLog.Reader reader = new SessionLog.Reader(file)) {
+            SessionLog.Record record;
+            while ((record = reader.next()) != null) {
+                assertTrue(record.nanos >= lastNanos);
+                lastNanos = record.nanos;
+                if (record.direction == SessionLog.SERVER) {
+                    assertTrue(record.text);
+                    assertNull(record.lane);
+                    read.add("text:" + record.text());
+                } else {
+                    read.add(record.lane + ":" + record.payload.remaining());
+                }
+            }
+        }
+        assertEquals(expected, read);
+    }
+
+    // A session cut short (the app killed while recording) reads up to its last whole record
+    @Test
+    public void readsUnclosedLogAndStopsAtLimit() throws Exception {
+        File file = folder.newFile("crashed.irl");
+        SessionLog log = new SessionLog(file, 4096);
+        int appended = 0;
+        while (log.append(SessionLog.SERVER, null, "{\"serverContent\":{\"turnComplete\":true}}")) {
+            appended++;
+        }
+        assertTrue(appended > 50);
+        assertEquals(1, new JSONObject(log.toJson()).getLong("droppedFrames"));
+
+        try (SessionLog.Reader reader = new SessionLog.Reader(file)) {
+            int read = 0;
+            while (reader.next() != null) read++;
+            assertEquals(appended, read);
+        }
+        log.close();
+    }
+
+    // Recorded server frames replayed through the parser produce the same events on every run,
+    // with the recorded gaps scaled by the replay speed
+    @Test
+    public void replaysWithRecordedTiming() throws Exception {
+        List<String> frames = ServerMessageParserTest.loadFrames();
+        File file = folder.newFile("replay.irl");
+        List<String> reference = new ArrayList<>();
+        try (SessionLog log = new SessionLog(file, Long.MAX_VALUE)) {
+            for (String frame : frames) {
+                log.append(SessionLog.SERVER, null, frame);
+                reference.addAll(ServerMessageParserTest.referenceEvents(frame));
+                Thread.sleep(10);
+            }
+        }
+
+        long recordedNanos;
+        try (SessionLog.Reader reader = new SessionLog.Reader(file)) {
+            SessionLog.Record record;
+            long first = reader.next().nanos;
+            long last = first;
+            while ((record = reader.next()) != null) last = record.nanos;
+            recordedNanos = last - first;
+
+            for (float speed : new float[]{1f, 4f, 0f}) {
+                ServerMessageParser parser = new ServerMessageParser(new PcmChunkPool(4, 64 * 1024));
+                ServerMessageParserTest.RecordingListener listener = new ServerMessageParserTest.RecordingListener();
+                SessionReplayer replayer = new SessionReplayer(speed, true, false);
+                replayer.replay(reader, new SessionReplayer.Target() {
+                    @Override
+                    public void onServerFrame(SessionLog.Record frame) {
+                        parser.parse(frame.text(), listener);
+                    }
+
+                    @Override
+                    public void onUplinkFrame(SessionLog.Record frame) {
+                        fail("uplink frame replayed");
+                    }
+                });
+                assertEquals(reference, listener.events);
+
+                JSONObject stats = new JSONObject(replayer.toJson());
+                assertEquals(frames.size(), stats.getLong("frames"));
+                double elapsedMs = stats.getDouble("elapsedMs");
+                if (speed > 0f) {
+                    // Never ahead of the schedule; how far behind depends on the machine's load
+                    double scheduledMs = recordedNanos / 1e6 / speed;
+                    String summary = String.format(Locale.US, "replay x%.0f: %d frames recorded over %.1f ms, %s",
+                            speed, frames.size(), recordedNanos / 1e6, replayer.toJson());
+                    assertTrue(summary, elapsedMs >= scheduledMs - 1);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSpeed() {
+        new SessionReplayer(-1f, true, true);
+    }
+}
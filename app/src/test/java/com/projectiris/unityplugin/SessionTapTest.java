@@ -0,0 +1,150 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionTapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Not connected, frames are fed through receive() as if they came from the socket
+    private final LiveConnectionHarness harness = new LiveConnectionHarness(URI.create("ws://127.0.0.1:1/"));
+    private final ServerMessageParserTest.RecordingListener live = harness.response;
+    private final List<String> sent = new ArrayList<>();
+    private SessionTap tap;
+
+    // Server frames go through LiveConnection.receive, which records them on the tap before parsing.
+    // Replayed uplink frames go straight into their lane, like AiInteration.replayPipeline.
+    private final SessionTap.Pipeline pipeline = new SessionTap.Pipeline() {
+        @Override
+        public void receive(String message, ServerMessageParser.Listener listener) {
+            harness.connection.receive(message, listener);
+        }
+
+        @Override
+        public void receive(ByteBuffer message, ServerMessageParser.Listener listener) {
+            harness.connection.receive(message, listener);
+        }
+
+        @Override
+        public boolean send(OutboundScheduler.Lane lane, String message) {
+            sent.add(lane + ":" + message);
+            return true;
+        }
+
+        @Override
+        public boolean send(OutboundScheduler.Lane lane, ByteBuffer frame) {
+            sent.add(lane + ":" + StandardCharsets.UTF_8.decode(frame.duplicate()));
+            return true;
+        }
+    };
+
+    @After
+    public void tearDown() throws Exception {
+        harness.close();
+    }
+
+    // A recorded session replayed through the tap reaches the live listener with the same response
+    // events, without the recorded connection's setup, resumption and goAway, and sends the same uplink
+    @Test
+    public void replaysRecordedSessionThroughTheLiveListener() throws Exception {
+        tap = newTap();
+        File file = folder.newFile("session.irl");
+        List<String> frames = ServerMessageParserTest.loadFrames();
+        List<String> responseEvents = new ArrayList<>();
+        List<String> uplink = new ArrayList<>();
+        RealtimeInputWriter writer = new RealtimeInputWriter(8 * 1024);
+        ServerMessageParserTest.RecordingListener standby = new ServerMessageParserTest.RecordingListener();
+
+        tap.startRecording(file);
+        String activityStart = "{\"realtimeInput\":{\"activityStart\":{}}}";
+        tap.recordUplink(OutboundScheduler.Lane.AUDIO, activityStart);
+        uplink.add("AUDIO:" + activityStart);
+        for (int i = 0; i < frames.size(); i++) {
+            String frame = frames.get(i);
+            if (i % 2 == 0) {
+                pipeline.receive(frame, harness.connection.getListener());
+            } else {
+                // Binary frames, as large audio responses arrive
+                byte[] utf8 = frame.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+                direct.put(utf8).flip();
+                pipeline.receive(direct, harness.connection.getListener());
+            }
+            for (String event : ServerMessageParserTest.referenceEvents(frame)) {
+                if (!event.equals("setupComplete") && !event.startsWith("resumption:") && !event.startsWith("goAway:")) {
+                    responseEvents.add(event);
+                }
+            }
+            pipeline.receive(frame, standby);                     // a standby connection is not recorded
+
+            byte[] pcm = new byte[640];
+            pcm[0] = (byte) i;
+            ByteBuffer audio = writer.write("audio/pcm", pcm, 0, pcm.length);
+            uplink.add("AUDIO:" + StandardCharsets.UTF_8.decode(audio.duplicate()));
+            tap.recordUplink(OutboundScheduler.Lane.AUDIO, audio);
+        }
+        ByteBuffer image = writer.write("image/jpeg", new byte[2000], 0, 2000);
+        uplink.add("IMAGE:" + StandardCharsets.UTF_8.decode(image.duplicate()));
+        tap.recordUplink(OutboundScheduler.Lane.IMAGE, image);
+
+        JSONObject recorded = new JSONObject(tap.stopRecording().toJson());
+        assertEquals(frames.size(), recorded.getLong("serverFrames"));
+        assertEquals(frames.size() + 2, recorded.getLong("uplinkFrames"));
+        assertNull(tap.stopRecording());
+
+        // Replay while recording again: replayed frames must not end up in the new log
+        live.events.clear();
+        File again = folder.newFile("again.irl");
+        tap.startRecording(again);
+        assertTrue(tap.startReplay(file, 0f, true, true, Thread::new));
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!tap.getReplayer().isFinished()) {
+            assertTrue("replay did not finish", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+
+        assertEquals(responseEvents, live.events);
+        assertEquals(uplink, sent);
+        JSONObject replay = new JSONObject(tap.toJson()).getJSONObject("replay");
+        assertEquals(2 * frames.size() + 2, replay.getLong("frames"));
+        assertTrue(replay.getBoolean("finished"));
+
+        JSONObject rerecorded = new JSONObject(tap.stopRecording().toJson());
+        assertEquals(0, rerecorded.getLong("serverFrames"));
+        assertEquals(0, rerecorded.getLong("uplinkFrames"));
+    }
+
+    @Test
+    public void rejectsFileThatIsNotASessionLog() throws Exception {
+        tap = newTap();
+        File file = folder.newFile("not-a-log.irl");
+        try {
+            tap.startReplay(file, 1f, true, true, Thread::new);
+            fail("replayed an empty file");
+        } catch (IOException expected) {
+        }
+        assertNull(tap.getReplayer());
+        assertEquals("{\"recording\":null,\"replay\":null}", tap.toJson());
+    }
+
+    private SessionTap newTap() {
+        SessionTap sessionTap = new SessionTap(harness.connection.getListener(), pipeline, Long.MAX_VALUE);
+        harness.connection.setSessionTap(sessionTap);
+        return sessionTap;
+    }
+}
@@ -0,0 +1,193 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SharedPcmRingTest {
+
+    @Test
+    public void wrapsAroundWithSampleAccurateCursors() {
+        SharedPcmRing ring = new SharedPcmRing(24000, 12);           // rounded up to 16
+        assertEquals(16, ring.getCapacitySamples());
+        SharedPcmRing.Reader reader = new SharedPcmRing.Reader(ring.getBuffer());
+        float[] out = new float[16];
+
+        assertEquals(20, ring.write(ramp(0, 10), 0, 20));
+        assertEquals(6, reader.read(out, 0, 6));
+        assertSamples(out, 0, 0, 6);
+
+        // 10 more samples wrap around the end of the ring, only 12 slots are free
+        assertEquals(20, ring.write(ramp(10, 10), 0, 20));
+        assertEquals(14, reader.read(out, 0, 14));
+        assertSamples(out, 0, 6, 14);
+
+        JSONObject stats = new JSONObject(ring.toJson());
+        assertEquals(20, stats.getLong("writeCursor"));
+        assertEquals(20, stats.getLong("readCursor"));
+        assertEquals(0, stats.getLong("bufferedMs"));
+        assertEquals(0, stats.getLong("underruns"));
+    }
+
+    @Test
+    public void countsUnderrunsOnlyWhilePlaying() {
+        SharedPcmRing ring = new SharedPcmRing(24000, 64);
+        SharedPcmRing.Reader reader = new SharedPcmRing.Reader(ring.getBuffer());
+        float[] out = new float[32];
+
+        ring.write(ramp(0, 8), 0, 16);
+        assertEquals(8, reader.read(out, 0, 32));                    // ran dry mid-response
+        assertSamples(out, 0, 0, 8);
+        assertEquals(0f, out[31], 0f);
+
+        ring.endOfStream();
+        assertEquals(0, reader.read(out, 0, 32));                    // silence between responses
+
+        JSONObject stats = new JSONObject(ring.toJson());
+        assertEquals(1, stats.getLong("underruns"));
+        assertEquals(24, stats.getLong("underrunSamples"));
+        assertFalse(stats.getBoolean("playing"));
+    }
+
+    @Test
+    public void flushSkipsUnreadAudio() {
+        SharedPcmRing ring = new SharedPcmRing(24000, 64);
+        SharedPcmRing.Reader reader = new SharedPcmRing.Reader(ring.getBuffer());
+        float[] out = new float[64];
+
+        ring.write(ramp(0, 40), 0, 80);
+        assertEquals(10, reader.read(out, 0, 10));
+        ring.pause();
+        ring.flush();                                                // barge-in
+        assertEquals(0, reader.read(out, 0, 10));
+
+        ring.write(ramp(1000, 5), 0, 10);
+        assertEquals(5, reader.read(out, 0, 5));
+        assertSamples(out, 0, 1000, 5);
+    }
+
+    // A paused reader must not hold new audio back behind audio that was already flushed
+    @Test
+    public void flushFreesTheRingForAPausedReader() {
+        SharedPcmRing ring = new SharedPcmRing(24000, 16);
+        SharedPcmRing.Reader reader = new SharedPcmRing.Reader(ring.getBuffer());
+        ring.write(ramp(0, 16), 0, 32);                              // full, nobody reads
+        ring.flush();
+
+        long start = System.nanoTime();
+        assertEquals(32, ring.write(ramp(500, 16), 0, 32));
+        assertTrue(System.nanoTime() - start < 100_000_000L);
+        JSONObject stats = new JSONObject(ring.toJson());
+        assertEquals(0, stats.getLong("droppedSamples"));
+        assertEquals(16 * 1000 / 24000, stats.getLong("bufferedMs"));
+
+        float[] out = new float[16];
+        assertEquals(16, reader.read(out, 0, 16));
+        assertSamples(out, 0, 500, 16);
+    }
+
+    // Only the first write waits out the stall timeout, the following slices drop at once so the
+    // playback thread keeps draining at real time until the reader is back
+    @Test
+    public void dropsAudioWhenTheReaderStalls() {
+        SharedPcmRing ring = new SharedPcmRing(24000, 16);
+        SharedPcmRing.Reader reader = new SharedPcmRing.Reader(ring.getBuffer());
+        ring.write(ramp(0, 16), 0, 32);
+
+        long start = System.nanoTime();
+        assertEquals(8, ring.write(ramp(16, 4), 0, 8));              // nobody reads, times out
+        assertTrue(System.nanoTime() - start >= 200_000_000L);
+        start = System.nanoTime();
+        for (int i = 0; i < 25; i++) {
+            assertEquals(8, ring.write(ramp(20, 4), 0, 8));
+        }
+        assertTrue(System.nanoTime() - start < 100_000_000L);
+        assertEquals(104, new JSONObject(ring.toJson()).getLong("droppedSamples"));
+
+        // The reader moves again: the ring takes audio right away
+        float[] out = new float[16];
+        assertEquals(16, reader.read(out, 0, 16));
+        assertSamples(out, 0, 0, 16);
+        assertEquals(8, ring.write(ramp(100, 4), 0, 8));
+        assertEquals(4, reader.read(out, 0, 4));
+        assertSamples(out, 0, 100, 4);
+        assertEquals(104, new JSONObject(ring.toJson()).getLong("droppedSamples"));
+    }
+
+    // The playback thread writes a ramp in uneven slices while a reader thread pulls fixed blocks
+    // like an audio callback; every sample must arrive once, in order, through thousands of wraps
+    @Test
+    public void keepsOrderUnderConcurrentLoad() throws Exception {
+        final int total = 2_000_000;
+        SharedPcmRing ring = new SharedPcmRing(24000, 1024);
+        SharedPcmRing.Reader reader = new SharedPcmRing.Reader(ring.getBuffer());
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong received = new AtomicLong();
+
+        Thread consumer = new Thread(() -> {
+            float[] block = new float[256];
+            int expected = 0;
+            while (received.get() < total && failure.get() == null) {
+                int count = reader.read(block, 0, block.length);
+                for (int i = 0; i < count; i++) {
+                    short sample = (short) Math.round(block[i] * 32768f);
+                    if (sample != (short) expected) {
+                        failure.compareAndSet(null, "sample " + expected + " read as " + sample);
+                        break;
+                    }
+                    expected++;
+                }
+                received.addAndGet(count);
+                if (count == 0) Thread.yield();
+            }
+        }, "UnityAudio");
+        consumer.start();
+
+        Random random = new Random(11);
+        byte[] slice = new byte[1000];
+        int sent = 0;
+        while (sent < total) {
+            int samples = Math.min(total - sent, 1 + random.nextInt(slice.length / 2));
+            fillRamp(slice, sent, samples);
+            int offset = 0;
+            while (offset < samples * 2) {
+                offset += ring.write(slice, offset, samples * 2 - offset);
+            }
+            sent += samples;
+        }
+        consumer.join(20_000);
+
+        assertNull(failure.get());
+        assertEquals(total, received.get());
+        JSONObject stats = new JSONObject(ring.toJson());
+        assertEquals(total, stats.getLong("writeCursor"));
+        assertEquals(total, stats.getLong("readCursor"));
+        assertEquals(0, stats.getLong("droppedSamples"));
+        // The reader spins instead of waiting for an audio callback, so its underrun counts mean nothing here
+    }
+
+    private static byte[] ramp(int first, int samples) {
+        byte[] pcm = new byte[samples * 2];
+        fillRamp(pcm, first, samples);
+        return pcm;
+    }
+
+    private static void fillRamp(byte[] pcm, int first, int samples) {
+        for (int i = 0; i < samples; i++) {
+            short value = (short) (first + i);
+            pcm[i * 2] = (byte) value;
+            pcm[i * 2 + 1] = (byte) (value >> 8);
+        }
+    }
+
+    private static void assertSamples(float[] out, int offset, int first, int count) {
+        for (int i = 0; i < count; i++) {
+            assertEquals("sample " + (first + i), (short) (first + i), (short) Math.round(out[offset + i] * 32768f));
+        }
+    }
+}
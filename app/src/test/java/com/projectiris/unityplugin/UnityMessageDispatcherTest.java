@@ -0,0 +1,148 @@
+package com.projectiris.unityplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class UnityMessageDispatcherTest {
+
+    private final CaptureSchedulerTest.ManualTimer timer = new CaptureSchedulerTest.ManualTimer();
+    private final List<String> payloads = new ArrayList<>();
+
+    @Test
+    public void batchesWindowInOrderAndMergesFragments() {
+        UnityMessageDispatcher dispatcher = new UnityMessageDispatcher(payloads::add, timer, 33, 16 * 1024);
+        dispatcher.post("status", "Connected");
+        dispatcher.post("transcript", "Hel");
+        dispatcher.post("transcript", "lo ");
+        dispatcher.post("transcript", "there");
+        dispatcher.post("text", "A cat");
+        dispatcher.post("text", " on a sofa.");
+        dispatcher.post("turn", "complete");
+        dispatcher.post("turn", "complete");            // not a streamed type, kept apart
+        timer.advanceTo(32);
+        assertTrue(payloads.isEmpty());
+
+        timer.advanceTo(33);
+        assertEquals(1, payloads.size());
+        JSONArray batch = new JSONArray(payloads.get(0));
+        String[][] expected = {
+                {"status", "Connected"}, {"transcript", "Hello there"}, {"text", "A cat on a sofa."},
+                {"turn", "complete"}, {"turn", "complete"}};
+        assertEquals(expected.length, batch.length());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i][0], batch.getJSONObject(i).getString("type"));
+            assertEquals(expected[i][1], batch.getJSONObject(i).getString("message"));
+        }
+
+        // The next window starts with the next message
+        dispatcher.post("transcript", "again");
+        timer.advanceTo(65);
+        assertEquals(1, payloads.size());
+        timer.advanceTo(66);
+        assertEquals("[{\"type\":\"transcript\",\"message\":\"again\"}]", payloads.get(1));
+
+        JSONObject stats = new JSONObject(dispatcher.toJson());
+        assertEquals(9, stats.getLong("messages"));
+        assertEquals(3, stats.getLong("merged"));
+        assertEquals(2, stats.getLong("calls"));
+        assertEquals(5, stats.getLong("maxBatch"));
+    }
+
+    @Test
+    public void flushesEarlyWhenTooMuchIsPending() {
+        UnityMessageDispatcher dispatcher = new UnityMessageDispatcher(payloads::add, timer, 100, 10);
+        dispatcher.post("transcript", "12345");
+        assertTrue(payloads.isEmpty());
+        dispatcher.post("transcript", "67890");
+        assertEquals(1, payloads.size());
+
+        // The early flush cancelled the window, nothing is sent twice
+        timer.advanceTo(1000);
+        assertEquals(1, payloads.size());
+        dispatcher.flush();
+        assertEquals(1, payloads.size());
+    }
+
+    @Test
+    public void escapesMessages() {
+        UnityMessageDispatcher dispatcher = new UnityMessageDispatcher(payloads::add, timer, 33, 16 * 1024);
+        String nasty = "say \"hi\" \\ back\n\ttab \u0001 café 😀";
+        dispatcher.post("text", nasty);
+        dispatcher.post("error", null);
+        dispatcher.flush();
+
+        JSONArray batch = new JSONArray(payloads.get(0));
+        assertEquals(nasty, batch.getJSONObject(0).getString("message"));
+        assertEquals("", batch.getJSONObject(1).getString("message"));
+        assertEquals(payloads.get(0).getBytes(java.nio.charset.StandardCharsets.UTF_8).length,
+                new JSONObject(dispatcher.toJson()).getLong("bytes"));
+    }
+
+    // UnitySendMessage calls per second and bytes marshalled for 10 s of a
+    // streamed conversation (a transcript fragment every 15 ms, the model's text every 25 ms and a
+    // status message each second), per-message delivery versus 33 ms batches
+    @Test
+    public void batchingCutsCallsAndBytes() {
+        final long durationMillis = 10_000;
+        long legacyCalls = 0;
+        long legacyBytes = 0;
+        long legacyCpu = 0;
+        long[] batched = new long[2];
+        UnityMessageDispatcher dispatcher = new UnityMessageDispatcher(payload -> {
+            batched[0]++;
+            batched[1] += UnityMessageDispatcher.utf8Length(payload);
+        }, timer, 33, 16 * 1024);
+        long batchedCpu = 0;
+
+        for (long t = 0; t < durationMillis; t++) {
+            timer.advanceTo(t);
+            String type = null;
+            String message = null;
+            if (t % 1000 == 0) {
+                type = "status";
+                message = "Listening";
+            } else if (t % 15 == 0) {
+                type = "transcript";
+                message = "word" + (t / 15) + " ";
+            } else if (t % 25 == 0) {
+                type = "text";
+                message = "token \"" + (t / 25) + "\" ";
+            }
+            if (type == null) continue;
+
+            // Same marshalling as IrisPlugin.displayMessage, one call per message
+            long start = System.nanoTime();
+            StringBuilder escaped = new StringBuilder();
+            UnityMessageDispatcher.appendJsonString(escaped, message);
+            String json = String.format("{\"type\":\"%s\",\"message\":%s}", type, escaped);
+            legacyCpu += System.nanoTime() - start;
+            legacyCalls++;
+            legacyBytes += UnityMessageDispatcher.utf8Length(json);
+
+            start = System.nanoTime();
+            dispatcher.post(type, message);
+            batchedCpu += System.nanoTime() - start;
+        }
+        long start = System.nanoTime();
+        timer.advanceTo(durationMillis + 100);
+        batchedCpu += System.nanoTime() - start;
+
+        double seconds = durationMillis / 1000.0;
+        String summary = String.format(Locale.US,
+                "per-message: %.1f calls/s, %d bytes, %.2f ms marshalling | batched 33 ms: %.1f calls/s, %d bytes, "
+                        + "%.2f ms marshalling %s", legacyCalls / seconds, legacyBytes, legacyCpu / 1e6,
+                batched[0] / seconds, batched[1], batchedCpu / 1e6, dispatcher.toJson());
+
+        // At most one call per window, and merging keeps the payload below the per-message total
+        assertTrue(summary, batched[0] <= durationMillis / 33 + 1);
+        assertTrue(summary, batched[0] * 3 < legacyCalls);
+        assertTrue(summary, batched[1] < legacyBytes);
+    }
+}
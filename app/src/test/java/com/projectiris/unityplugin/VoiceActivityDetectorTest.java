@@ -0,0 +1,161 @@
+package com.projectiris.unityplugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VoiceActivityDetectorTest {
+    private static final int SAMPLE_RATE = 24000;
+    private static final int FRAME_SAMPLES = 960; // 40 ms, a typical AudioRecord read
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void silenceNeverStartsSpeech() {
+        VoiceActivityDetector vad = newDetector();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(VoiceActivityDetector.Event.NONE, vad.process(noise(20)));
+        }
+        assertFalse(vad.isSpeaking());
+    }
+
+    @Test
+    public void speechStartsAfterMinimumAndEndsAfterHangover() {
+        VoiceActivityDetector vad = newDetector();
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < 10; i++) frames.add(noise(20));
+        for (int i = 0; i < 10; i++) frames.add(voice(3000));
+        for (int i = 0; i < 15; i++) frames.add(noise(20));
+
+        List<String> events = run(vad, frames);
+        // 60 ms minimum speech: start on the second 40 ms voiced frame
+        assertEquals("SPEECH_START@11", events.get(0));
+        // 400 ms hangover: end on the tenth silent frame
+        assertEquals("SPEECH_END@29", events.get(1));
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void shortPausesDoNotEndSpeech() {
+        VoiceActivityDetector vad = newDetector();
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < 5; i++) frames.add(voice(3000));
+        for (int i = 0; i < 5; i++) frames.add(noise(20));      // 200 ms between words
+        for (int i = 0; i < 5; i++) frames.add(voice(3000));
+
+        List<String> events = run(vad, frames);
+        assertEquals(1, events.size());
+        assertTrue(vad.isSpeaking());
+        assertTrue(vad.getSpeechMillis() >= 120);
+    }
+
+    @Test
+    public void clicksShorterThanMinimumAreIgnored() {
+        VoiceActivityDetector vad = newDetector();
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            frames.add(voice(6000));
+            frames.add(noise(20));
+        }
+        assertTrue(run(vad, frames).isEmpty());
+    }
+
+    @Test
+    public void broadbandNoiseIsNotSpeech() {
+        VoiceActivityDetector vad = newDetector();
+        for (int i = 0; i < 50; i++) {
+            vad.process(noise(1500));
+        }
+        assertFalse(vad.isSpeaking());
+        assertTrue(vad.getNoiseFloorRms() > 400);
+
+        // Speech well above the noise floor is still detected
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < 5; i++) frames.add(mix(voice(8000), noise(1500)));
+        assertEquals("SPEECH_START@1", run(vad, frames).get(0));
+    }
+
+    @Test
+    public void thresholdIsConfigurable() {
+        VoiceActivityDetector vad = newDetector();
+        List<ByteBuffer> quietVoice = new ArrayList<>();
+        for (int i = 0; i < 10; i++) quietVoice.add(voice(350));
+
+        assertTrue(run(vad, quietVoice).isEmpty());
+
+        // The quiet frames also raised the noise floor, start over as a new recording would
+        vad.reset();
+        vad.setThresholdRms(150);
+        assertEquals(150, vad.getThresholdRms(), 0.0);
+        assertEquals("SPEECH_START@1", run(vad, quietVoice).get(0));
+    }
+
+    @Test
+    public void processDoesNotMoveBuffer() {
+        VoiceActivityDetector vad = newDetector();
+        ByteBuffer frame = voice(3000);
+        vad.process(frame);
+        assertEquals(0, frame.position());
+        assertEquals(FRAME_SAMPLES * 2, frame.limit());
+    }
+
+    private static VoiceActivityDetector newDetector() {
+        return new VoiceActivityDetector(SAMPLE_RATE, VoiceActivityDetector.DEFAULT_THRESHOLD_RMS, 60, 400);
+    }
+
+    private static List<String> run(VoiceActivityDetector vad, List<ByteBuffer> frames) {
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < frames.size(); i++) {
+            VoiceActivityDetector.Event event = vad.process(frames.get(i));
+            if (event != VoiceActivityDetector.Event.NONE) {
+                events.add(event + "@" + i);
+            }
+        }
+        return events;
+    }
+
+    // Voiced speech stand-in: 140 Hz fundamental with decaying harmonics
+    private ByteBuffer voice(int amplitude) {
+        ByteBuffer pcm = frame();
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double v = 0;
+            for (int h = 1; h <= 4; h++) {
+                v += Math.sin(2 * Math.PI * 140 * h * t) / h;
+            }
+            pcm.putShort((short) (amplitude * v / 1.6));
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    // Uniform white noise, RMS is about 0.58 * amplitude
+    private ByteBuffer noise(int amplitude) {
+        ByteBuffer pcm = frame();
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            pcm.putShort((short) ((random.nextDouble() * 2 - 1) * amplitude));
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    private static ByteBuffer mix(ByteBuffer a, ByteBuffer b) {
+        ByteBuffer pcm = frame();
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            int v = a.getShort(i * 2) + b.getShort(i * 2);
+            pcm.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v)));
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    private static ByteBuffer frame() {
+        return ByteBuffer.allocateDirect(FRAME_SAMPLES * 2).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
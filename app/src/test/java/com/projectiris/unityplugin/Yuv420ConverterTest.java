@@ -0,0 +1,103 @@
+package com.projectiris.unityplugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class Yuv420ConverterTest {
+
+    @Test
+    public void planarChromaWithPaddedRows() {
+        int width = 6;
+        int height = 4;
+        int yRowStride = 8;
+        int uvRowStride = 4;
+
+        ByteBuffer y = ByteBuffer.allocateDirect(yRowStride * height);
+        ByteBuffer u = ByteBuffer.allocateDirect(uvRowStride * 2);
+        ByteBuffer v = ByteBuffer.allocateDirect(uvRowStride * 2);
+        fillLuma(y, width, height, yRowStride);
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 3; col++) {
+                u.put(row * uvRowStride + col, (byte) (100 + row * 3 + col));
+                v.put(row * uvRowStride + col, (byte) (200 + row * 3 + col));
+            }
+        }
+
+        byte[] out = new byte[Yuv420Converter.nv21Size(width, height)];
+        Yuv420Converter.toNv21(width, height, y, yRowStride, u, v, uvRowStride, 1, out);
+
+        assertLuma(out, width, height);
+        int pos = width * height;
+        for (int i = 0; i < 6; i++) {
+            assertEquals((byte) (200 + i), out[pos++]);
+            assertEquals((byte) (100 + i), out[pos++]);
+        }
+        assertEquals(0, y.position());
+    }
+
+    @Test
+    public void semiPlanarChromaSharingMemory() {
+        int width = 4;
+        int height = 4;
+        int uvRowStride = 6;
+
+        // V and U interleaved in one allocation, as most camera HALs deliver them
+        ByteBuffer chroma = ByteBuffer.allocateDirect(uvRowStride * 2);
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 2; col++) {
+                chroma.put(row * uvRowStride + 2 * col, (byte) (50 + row * 2 + col));      // V
+                chroma.put(row * uvRowStride + 2 * col + 1, (byte) (80 + row * 2 + col));  // U
+            }
+        }
+        ByteBuffer v = slice(chroma, 0, uvRowStride + 3);
+        ByteBuffer u = slice(chroma, 1, uvRowStride + 3);
+        ByteBuffer y = ByteBuffer.allocateDirect(width * height);
+        fillLuma(y, width, height, width);
+
+        byte[] out = new byte[Yuv420Converter.nv21Size(width, height)];
+        Yuv420Converter.toNv21(width, height, y, width, u, v, uvRowStride, 2, out);
+
+        assertLuma(out, width, height);
+        int pos = width * height;
+        for (int i = 0; i < 4; i++) {
+            assertEquals((byte) (50 + i), out[pos++]);
+            assertEquals((byte) (80 + i), out[pos++]);
+        }
+    }
+
+    @Test
+    public void oddDimensionsRoundChromaUp() {
+        assertEquals(5 * 3 + 2 * 3 * 2, Yuv420Converter.nv21Size(5, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallOutput() {
+        ByteBuffer plane = ByteBuffer.allocate(64);
+        Yuv420Converter.toNv21(4, 4, plane, 4, plane, plane, 2, 1, new byte[10]);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    private static void fillLuma(ByteBuffer y, int width, int height, int rowStride) {
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < rowStride; col++) {
+                // Padding bytes are marked so copying them by mistake shows up
+                y.put(row * rowStride + col, col < width ? (byte) (row * width + col) : (byte) 0x7F);
+            }
+        }
+    }
+
+    private static void assertLuma(byte[] out, int width, int height) {
+        for (int i = 0; i < width * height; i++) {
+            assertEquals((byte) i, out[i]);
+        }
+    }
+}